@@ -42,6 +42,22 @@ public class CBTCClientCaller {
     }
 
 
+    public static class BlockHeader {
+        public String hash;
+        public long height;
+        public Date time;
+        public String previousBlockHash;
+    }
+
+
+    public static class BlockchainSyncInfo {
+        public long blocks;
+        public long headers;
+        // Estimated fraction of all transactions verified - 0..1
+        public double verificationProgress;
+    }
+
+
     public static class WalletCallException
             extends Exception {
         public WalletCallException(String message) {
@@ -57,6 +73,33 @@ public class CBTCClientCaller {
     // ZCash client program and daemon
     private File zcashcli, zcashd;
 
+    // Headers of recently used blocks by hash - they never change
+    private static final int MAX_CACHED_BLOCK_HEADERS = 500;
+    private final Map<String, BlockHeader> blockHeaderCache = new LinkedHashMap<String, BlockHeader>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BlockHeader> eldest) {
+            return this.size() > MAX_CACHED_BLOCK_HEADERS;
+        }
+    };
+
+    // Locally decoded raw transactions by ID - they never change
+    private static final int MAX_CACHED_DECODED_TRANSACTIONS = 200;
+    private final Map<String, Map<String, String>> decodedTransactionCache =
+            new LinkedHashMap<String, Map<String, String>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map<String, String>> eldest) {
+            return this.size() > MAX_CACHED_DECODED_TRANSACTIONS;
+        }
+    };
+
+    // Header of the last block - reused while no new block has arrived
+    private BlockHeader lastBlockHeader = null;
+
+    // Last getblockchaininfo result - polled regularly for the sync status, reused for the network info
+    private static final long BLOCKCHAIN_INFO_MAX_AGE = 5000;
+    private JsonObject lastBlockchainInfo = null;
+    private long lastBlockchainInfoTime = 0;
+
 
     public CBTCClientCaller(String installDir)
             throws IOException {
@@ -89,14 +132,29 @@ public class CBTCClientCaller {
 
     public synchronized Process startDaemon()
             throws IOException, InterruptedException {
+        return this.startDaemon(null);
+    }
+
+
+    /**
+     * Starts cbtcd.
+     *
+     * @param notificationListener receives the block and wallet notifications of the daemon - may be null
+     * @return the daemon process
+     */
+    public synchronized Process startDaemon(DaemonNotificationListener notificationListener)
+            throws IOException, InterruptedException {
         String exportDir = OSUtil.getUserHomeDirectory().getCanonicalPath();
 
-        CommandExecutor starter = new CommandExecutor(
-                new String[]
-                        {
-                                zcashd.getCanonicalPath(),
-                                "-exportdir=" + exportDir
-                        });
+        List<String> args = new ArrayList<String>();
+        args.add(zcashd.getCanonicalPath());
+        args.add("-exportdir=" + exportDir);
+        if (notificationListener != null) {
+            args.add("-blocknotify=" + notificationListener.getBlockNotifyCommand());
+            args.add("-walletnotify=" + notificationListener.getWalletNotifyCommand());
+        }
+
+        CommandExecutor starter = new CommandExecutor(args.toArray(new String[0]));
 
         return starter.startChildProcess();
     }
@@ -241,7 +299,9 @@ public class CBTCClientCaller {
     }
 
 
-    public synchronized JsonObject[] getTransactionMessagingDataForZaddress(String ZAddress)
+    // Not synchronized - called in parallel for several messaging groups. Only the cbtc-cli path set in
+    // the constructor is shared, every call runs its own process.
+    public JsonObject[] getTransactionMessagingDataForZaddress(String ZAddress)
             throws WalletCallException, IOException, InterruptedException {
         JsonArray jsonTransactions = executeCommandAndGetJsonArray(
                 "z_listreceivedbyaddress", wrapStringParameter(ZAddress), "0");
@@ -285,6 +345,13 @@ public class CBTCClientCaller {
     }
 
 
+    /**
+     * Returns the flattened gettransaction result of a wallet transaction, with the raw transaction
+     * decoded locally - see RawTransactionDecoder.
+     *
+     * @param txID ID of the transaction
+     * @return name -> value of the details
+     */
     public synchronized Map<String, String> getRawTransactionDetails(String txID)
             throws WalletCallException, IOException, InterruptedException {
         JsonObject jsonTransaction = this.executeCommandAndGetJsonObject(
@@ -293,9 +360,27 @@ public class CBTCClientCaller {
         Map<String, String> map = new HashMap<String, String>();
 
         for (String name : jsonTransaction.names()) {
-            this.decomposeJSONValue(name, jsonTransaction.get(name), map);
+            // The raw hex is replaced by its decoded fields
+            if (!name.equals("hex")) {
+                this.decomposeJSONValue(name, jsonTransaction.get(name), map);
+            }
         }
 
+        Map<String, String> decoded = this.decodedTransactionCache.get(txID);
+        if (decoded == null) {
+            try {
+                long start = System.currentTimeMillis();
+                decoded = RawTransactionDecoder.decode(jsonTransaction.getString("hex", ""));
+                Log.info("Decoding of raw transaction {0} done in {1}ms.", txID, System.currentTimeMillis() - start);
+                this.decodedTransactionCache.put(txID, decoded);
+            } catch (IOException ioe) {
+                // Unknown format - show the hex as before
+                Log.warning("Raw transaction {0} could not be decoded: {1}", txID, ioe.getMessage());
+                decoded = Collections.singletonMap("hex", jsonTransaction.getString("hex", ""));
+            }
+        }
+        map.putAll(decoded);
+
         return map;
     }
 
@@ -342,7 +427,9 @@ public class CBTCClientCaller {
 
 
     // return UNIX time as tring
-    public synchronized String getWalletTransactionTime(String txID)
+    // Not synchronized - called in parallel for several messaging groups. Only the cbtc-cli path set in
+    // the constructor is shared, every call runs its own process.
+    public String getWalletTransactionTime(String txID)
             throws WalletCallException, IOException, InterruptedException {
         JsonObject jsonTransaction = this.executeCommandAndGetJsonObject(
                 "gettransaction", wrapStringParameter(txID));
@@ -497,22 +584,33 @@ public class CBTCClientCaller {
     // Returns OPID
     public synchronized String sendMessage(String from, String to, double amount, double fee, String memo)
             throws WalletCallException, IOException, InterruptedException {
-        String hexMemo = Util.encodeHexString(memo);
-        JsonObject toArgument = new JsonObject();
-        toArgument.set("address", to);
-        if (hexMemo.length() >= 2) {
-            toArgument.set("memo", hexMemo.toString());
-        }
+        return this.sendMessages(from, Collections.singletonList(to),
+                Collections.singletonList(Util.encodeHexString(memo)), amount, fee);
+    }
 
-        DecimalFormatSymbols decSymbols = new DecimalFormatSymbols(Locale.ROOT);
 
-        // TODO: The JSON Builder has a problem with double values that have no fractional part
-        // it serializes them as integers that ZCash does not accept. This will work with the
-        // fractional amounts always used for messaging
-        toArgument.set("amount", new DecimalFormat("########0.00######", decSymbols).format(amount));
+    // Sends several messages in one transaction - one output with the given amount per message.
+    // The recipient addresses must be different. Memos are HEX encoded (may be binary).
+    public synchronized String sendMessages(String from, List<String> to, List<String> hexMemos, double amount, double fee)
+            throws WalletCallException, IOException, InterruptedException {
+        DecimalFormatSymbols decSymbols = new DecimalFormatSymbols(Locale.ROOT);
 
         JsonArray toMany = new JsonArray();
-        toMany.add(toArgument);
+        for (int i = 0; i < to.size(); i++) {
+            String hexMemo = hexMemos.get(i);
+            JsonObject toArgument = new JsonObject();
+            toArgument.set("address", to.get(i));
+            if (hexMemo.length() >= 2) {
+                toArgument.set("memo", hexMemo);
+            }
+
+            // TODO: The JSON Builder has a problem with double values that have no fractional part
+            // it serializes them as integers that ZCash does not accept. This will work with the
+            // fractional amounts always used for messaging
+            toArgument.set("amount", new DecimalFormat("########0.00######", decSymbols).format(amount));
+
+            toMany.add(toArgument);
+        }
 
         String toManyArrayStr = toMany.toString();
         String[] sendCashParameters = new String[]
@@ -534,7 +632,7 @@ public class CBTCClientCaller {
             throw new WalletCallException("Error response from wallet: " + strResponse);
         }
 
-        Log.info("Sending cash message with the following command: " +
+        Log.info("Sending " + to.size() + " cash message(s) with the following command: " +
                 sendCashParameters[0] + " " + sendCashParameters[1] + " " +
                 sendCashParameters[2] + " " + sendCashParameters[3] + " " +
                 sendCashParameters[4] + " " + sendCashParameters[5] + "." +
@@ -567,76 +665,28 @@ public class CBTCClientCaller {
     }
 
 
-    public synchronized boolean isSendingOperationComplete(String opID)
+    // Status objects of all given operations in one call - the operations cbtcd does not know are missing
+    public synchronized JsonArray getOperationStatuses(Collection<String> opIDs)
             throws WalletCallException, IOException, InterruptedException {
-        JsonArray response = this.executeCommandAndGetJsonArray(
-                "z_getoperationstatus", wrapStringParameter("[\"" + opID + "\"]"));
-        JsonObject jsonStatus = response.get(0).asObject();
-
-        String status = jsonStatus.getString("status", "ERROR");
-
-        Log.info("Operation " + opID + " status is " + response + ".");
-
-        if (status.equalsIgnoreCase("success") ||
-                status.equalsIgnoreCase("error") ||
-                status.equalsIgnoreCase("failed")) {
-            return true;
-        } else if (status.equalsIgnoreCase("executing") || status.equalsIgnoreCase("queued")) {
-            return false;
-        } else {
-            throw new WalletCallException("Unexpected status response from wallet: " + response.toString());
-        }
+        return this.executeCommandAndGetJsonArray(
+                "z_getoperationstatus", wrapStringParameter(toJsonArray(opIDs)));
     }
 
 
-    public synchronized boolean isCompletedOperationSuccessful(String opID)
+    // Returns the final status objects like z_getoperationstatus and makes cbtcd forget the operations
+    public synchronized JsonArray getOperationResults(Collection<String> opIDs)
             throws WalletCallException, IOException, InterruptedException {
-        JsonArray response = this.executeCommandAndGetJsonArray(
-                "z_getoperationstatus", wrapStringParameter("[\"" + opID + "\"]"));
-        JsonObject jsonStatus = response.get(0).asObject();
-
-        String status = jsonStatus.getString("status", "ERROR");
-
-        Log.info("Operation " + opID + " status is " + response + ".");
-
-        if (status.equalsIgnoreCase("success")) {
-            return true;
-        } else if (status.equalsIgnoreCase("error") || status.equalsIgnoreCase("failed")) {
-            return false;
-        } else {
-            throw new WalletCallException("Unexpected final operation status response from wallet: " + response.toString());
-        }
+        return this.executeCommandAndGetJsonArray(
+                "z_getoperationresult", wrapStringParameter(toJsonArray(opIDs)));
     }
 
 
-    public synchronized String getSuccessfulOperationTXID(String opID)
-            throws WalletCallException, IOException, InterruptedException {
-        String TXID = null;
-        JsonArray response = this.executeCommandAndGetJsonArray(
-                "z_getoperationstatus", wrapStringParameter("[\"" + opID + "\"]"));
-        JsonObject jsonStatus = response.get(0).asObject();
-        JsonValue opResultValue = jsonStatus.get("result");
-
-        if (opResultValue != null) {
-            JsonObject opResult = opResultValue.asObject();
-            if (opResult.get("txid") != null) {
-                TXID = opResult.get("txid").asString();
-            }
+    private static String toJsonArray(Collection<String> values) {
+        JsonArray array = new JsonArray();
+        for (String value : values) {
+            array.add(value);
         }
-
-        return TXID;
-    }
-
-
-    // May only be called for already failed operations
-    public synchronized String getOperationFinalErrorMessage(String opID)
-            throws WalletCallException, IOException, InterruptedException {
-        JsonArray response = this.executeCommandAndGetJsonArray(
-                "z_getoperationstatus", wrapStringParameter("[\"" + opID + "\"]"));
-        JsonObject jsonStatus = response.get(0).asObject();
-
-        JsonObject jsonError = jsonStatus.get("error").asObject();
-        return jsonError.getString("message", "ERROR!");
+        return array.toString();
     }
 
 	public synchronized ShieldCoinbaseResponse shieldCoinbase(String from, String to)
@@ -666,21 +716,153 @@ public class CBTCClientCaller {
 
     public synchronized NetworkAndBlockchainInfo getNetworkAndBlockchainInfo()
             throws WalletCallException, IOException, InterruptedException {
+        // The tip of the sync status poll is recent enough - the last block is only looked up if it has changed
+        JsonObject chainInfo = this.lastBlockchainInfo;
+        if ((chainInfo == null) ||
+                ((System.currentTimeMillis() - this.lastBlockchainInfoTime) > BLOCKCHAIN_INFO_MAX_AGE)) {
+            chainInfo = this.getBlockchainInfo();
+        }
+
+        long height = chainInfo.getLong("blocks", -1);
+        String bestBlockHash = chainInfo.getString("bestblockhash", null);
+        if (bestBlockHash == null) {
+            bestBlockHash = this.getBlockHash(height); // Not reported by older daemons
+        }
+
+        if ((this.lastBlockHeader == null) || (!this.lastBlockHeader.hash.equals(bestBlockHash))) {
+            this.lastBlockHeader = this.getBlockHeader(bestBlockHash);
+        }
+
         NetworkAndBlockchainInfo info = new NetworkAndBlockchainInfo();
+        String connections = this.executeCommandAndGetSingleStringResponse("getconnectioncount").trim();
+        try {
+            info.numConnections = Integer.parseInt(connections);
+        } catch (NumberFormatException nfe) {
+            throw new WalletCallException("Unexpected getconnectioncount response from wallet: " + connections, nfe);
+        }
+        info.lastBlockHeight = String.valueOf(height);
+        info.lastBlockDate = new Date(this.lastBlockHeader.time.getTime());
+
+        return info;
+    }
+
+
+    /**
+     * Returns the header of a block - from the cache if it was used recently. Only the header is
+     * read from the daemon, not the transactions of the block.
+     *
+     * @param hash hash of the block
+     * @return the header of the block
+     */
+    public synchronized BlockHeader getBlockHeader(String hash)
+            throws WalletCallException, IOException, InterruptedException {
+        BlockHeader header = this.blockHeaderCache.get(hash);
+        if (header != null) {
+            return header;
+        }
+
+        JsonObject jsonHeader = this.executeCommandAndGetJsonObject("getblockheader", wrapStringParameter(hash));
+        header = new BlockHeader();
+        header.hash = jsonHeader.getString("hash", hash);
+        header.height = jsonHeader.getLong("height", -1);
+        header.time = new Date(jsonHeader.getLong("time", -1) * 1000L);
+        header.previousBlockHash = jsonHeader.getString("previousblockhash", null);
+
+        this.blockHeaderCache.put(hash, header);
+        return header;
+    }
+
+
+    // The block with the IDs of its transactions
+    public synchronized JsonObject getBlock(String hash)
+            throws WalletCallException, IOException, InterruptedException {
+        return this.executeCommandAndGetJsonObject("getblock", wrapStringParameter(hash));
+    }
+
 
-        String strNumCons = this.executeCommandAndGetSingleStringResponse("getconnectioncount");
-        info.numConnections = Integer.valueOf(strNumCons.trim());
+    public synchronized String getBlockHash(long height)
+            throws WalletCallException, IOException, InterruptedException {
+        return this.executeCommandAndGetSingleStringResponse("getblockhash", String.valueOf(height)).trim();
+    }
 
-        String strBlockCount = this.executeCommandAndGetSingleStringResponse("getblockcount");
-        info.lastBlockHeight = strBlockCount;
-        String lastBlockHash = this.executeCommandAndGetSingleStringResponse("getblockhash", strBlockCount.trim());
-        JsonObject lastBlock = this.executeCommandAndGetJsonObject("getblock", wrapStringParameter(lastBlockHash.trim()));
-        info.lastBlockDate = new Date(Long.valueOf(lastBlock.getLong("time", -1) * 1000L));
+
+    /**
+     * Returns a decoded transaction. Transactions of other wallets are only found if the daemon
+     * runs with txindex=1 (or they are unspent) - those of this wallet are decoded from the wallet.
+     *
+     * @param txID ID of the transaction
+     * @return the transaction as returned by getrawtransaction with verbose output
+     */
+    public synchronized JsonObject getDecodedTransaction(String txID)
+            throws WalletCallException, IOException, InterruptedException {
+        try {
+            return this.executeCommandAndGetJsonObject("getrawtransaction", wrapStringParameter(txID), "1");
+        } catch (WalletCallException notIndexed) {
+            JsonObject walletTransaction;
+            try {
+                walletTransaction = this.executeCommandAndGetJsonObject("gettransaction", wrapStringParameter(txID));
+            } catch (WalletCallException notInWallet) {
+                throw notIndexed;
+            }
+
+            JsonObject decoded = this.executeCommandAndGetJsonObject(
+                    "decoderawtransaction", walletTransaction.getString("hex", ""));
+            // Block details are not part of the decoded transaction
+            for (String name : new String[]{"blockhash", "confirmations", "time", "blocktime"}) {
+                if (walletTransaction.get(name) != null) {
+                    decoded.set(name, walletTransaction.get(name));
+                }
+            }
+            return decoded;
+        }
+    }
+
+
+    // IDs of the transactions in the memory pool
+    public synchronized String[] getRawMempool()
+            throws WalletCallException, IOException, InterruptedException {
+        JsonArray jsonTransactions = this.executeCommandAndGetJsonArray("getrawmempool", null);
+        String[] txIDs = new String[jsonTransactions.size()];
+        for (int i = 0; i < jsonTransactions.size(); i++) {
+            txIDs[i] = jsonTransactions.get(i).asString();
+        }
+
+        return txIDs;
+    }
+
+
+    // Net amount of a wallet transaction - negative if sent from this wallet
+    public synchronized String getWalletTransactionAmount(String txID)
+            throws WalletCallException, IOException, InterruptedException {
+        JsonObject jsonTransaction = this.executeCommandAndGetJsonObject(
+                "gettransaction", wrapStringParameter(txID));
+
+        return jsonTransaction.get("amount").toString();
+    }
+
+
+    public synchronized BlockchainSyncInfo getBlockchainSyncInfo()
+            throws WalletCallException, IOException, InterruptedException {
+        JsonObject chainInfo = this.getBlockchainInfo();
+
+        BlockchainSyncInfo info = new BlockchainSyncInfo();
+        info.blocks = chainInfo.getLong("blocks", 0);
+        info.headers = chainInfo.getLong("headers", info.blocks);
+        info.verificationProgress = chainInfo.getDouble("verificationprogress", 0);
 
         return info;
     }
 
 
+    // Calls getblockchaininfo and keeps the result for getNetworkAndBlockchainInfo()
+    private JsonObject getBlockchainInfo()
+            throws WalletCallException, IOException, InterruptedException {
+        this.lastBlockchainInfo = this.executeCommandAndGetJsonObject("getblockchaininfo", null);
+        this.lastBlockchainInfoTime = System.currentTimeMillis();
+        return this.lastBlockchainInfo;
+    }
+
+
     public synchronized void lockWallet()
             throws WalletCallException, IOException, InterruptedException {
         String response = this.executeCommandAndGetSingleStringResponse("walletlock");
@@ -27,6 +27,9 @@ public class CBTCInstallationObserver {
 
     private Boolean isOnTestNet = null;
 
+    // Reads /proc on Linux instead of running ps for every update - null on other systems
+    private DaemonProcessMonitor processMonitor = null;
+
     public CBTCInstallationObserver(String installDir)
             throws IOException {
         // Detect daemon and client tools installation
@@ -57,6 +60,21 @@ public class CBTCInstallationObserver {
                             "Please place files ClassicBitcoinDesktopWallet.jar, " + OSUtil.getZCashCli() + ", " +
                             OSUtil.getZCashd() + " in the same directory.");
         }
+
+        if ((OSUtil.getOSType() == OS_TYPE.LINUX) && DaemonProcessMonitor.isSupported()) {
+            File blockchainDir = new File(OSUtil.getBlockchainDirectory());
+            this.processMonitor = new DaemonProcessMonitor("cbtcd", new File("/proc"),
+                    new File(blockchainDir, "cbtcd.pid"),
+                    new File(blockchainDir, "testnet3" + File.separator + "cbtcd.pid"));
+        }
+    }
+
+
+    // The daemon started by the wallet - may be null if it was already running
+    public void setDaemonProcess(Process daemonProcess) {
+        if (this.processMonitor != null) {
+            this.processMonitor.setDaemonProcess(daemonProcess);
+        }
     }
 
 
@@ -67,6 +85,13 @@ public class CBTCInstallationObserver {
         if (os == OS_TYPE.WINDOWS) {
             return getDaemonInfoForWindowsOS();
         } else {
+            if (this.processMonitor != null) {
+                DaemonInfo info = this.processMonitor.getDaemonInfo();
+                if (info != null) {
+                    return info;
+                }
+            }
+
             return getDaemonInfoForUNIXLikeOS();
         }
     }
@@ -67,9 +67,15 @@ public class CommandExecutor {
         );
         errThread.start();
 
-        proc.waitFor();
-        inThread.join();
-        errThread.join();
+        try {
+            proc.waitFor();
+            inThread.join();
+            errThread.join();
+        } catch (InterruptedException ie) {
+            // E.g. a cancelled poll - the command is not needed any more, so it should not keep running
+            proc.destroy();
+            throw ie;
+        }
 
         return result.toString();
     }
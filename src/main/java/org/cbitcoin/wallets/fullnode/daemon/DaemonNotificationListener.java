@@ -0,0 +1,191 @@
+package org.cbitcoin.wallets.fullnode.daemon;
+
+import org.cbitcoin.wallets.fullnode.util.Log;
+import org.cbitcoin.wallets.fullnode.util.OSUtil;
+import org.cbitcoin.wallets.fullnode.util.OSUtil.OS_TYPE;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+
+/**
+ * Receives the -blocknotify and -walletnotify notifications of cbtcd through a named pipe (FIFO) in the
+ * settings directory - so that the wallet learns about new blocks and wallet transactions without polling.
+ * <p>
+ * The daemon runs the notify commands through the shell. They only echo one line [block|wallet] [hash]
+ * into the pipe, so no program is started per notification. The pipe is readable and writable by the
+ * user only - no other user can send notifications and nothing secret appears on a command line.
+ * <p>
+ * The listener keeps the pipe open for writing too, so a notification never blocks the daemon - also
+ * while the wallet is busy. If the wallet has been closed, the pipe no longer exists and the notify
+ * commands do nothing. Not supported on Windows, which has no such pipes.
+ * <p>
+ * Handlers are called in the listening thread.
+ */
+public class DaemonNotificationListener {
+    public static interface NotificationHandler {
+        void blockNotified(String blockHash);
+
+        void walletTransactionNotified(String txID);
+    }
+
+    private static final String TYPE_BLOCK = "block";
+    private static final String TYPE_WALLET = "wallet";
+
+    private static final int MAX_LINE_LENGTH = 200;
+
+    private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-fA-F]{1,64}");
+
+    private final File pipe;
+    private final RandomAccessFile pipeAccess;
+    private final List<NotificationHandler> handlers = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+
+    public DaemonNotificationListener()
+            throws IOException, InterruptedException {
+        this(new File(OSUtil.getSettingsDirectory(), "daemon_notifications"));
+    }
+
+
+    // Listens on a specific pipe - e.g. for tests
+    DaemonNotificationListener(File pipe)
+            throws IOException, InterruptedException {
+        if (!isSupported()) {
+            throw new IOException("Daemon notifications are not supported on this OS");
+        }
+
+        this.pipe = pipe;
+
+        // A pipe left by a wallet that did not end normally is replaced
+        Files.deleteIfExists(pipe.toPath());
+        String output = new CommandExecutor(new String[]{"mkfifo", "-m", "600", pipe.getCanonicalPath()}).execute();
+        if ((!pipe.exists()) || pipe.isFile()) {
+            throw new IOException("Could not create pipe " + pipe.getCanonicalPath() + ": " + output.trim());
+        }
+
+        // Opened for reading and writing - this does not wait for a writer and the pipe never reaches its end
+        this.pipeAccess = new RandomAccessFile(pipe, "rw");
+
+        Thread listener = new Thread(this::listen, "DaemonNotificationListener");
+        listener.setDaemon(true);
+        listener.start();
+
+        Log.info("Listening for daemon notifications on pipe {0}", pipe.getCanonicalPath());
+    }
+
+
+    // Named pipes that the shell can write to exist on Linux and macOS only
+    public static boolean isSupported() {
+        return OSUtil.getOSType() != OS_TYPE.WINDOWS;
+    }
+
+
+    public void addHandler(NotificationHandler handler) {
+        this.handlers.add(handler);
+    }
+
+
+    /**
+     * @return the value of -blocknotify for cbtcd
+     */
+    public String getBlockNotifyCommand()
+            throws IOException {
+        return this.getNotifyCommand(TYPE_BLOCK);
+    }
+
+
+    /**
+     * @return the value of -walletnotify for cbtcd
+     */
+    public String getWalletNotifyCommand()
+            throws IOException {
+        return this.getNotifyCommand(TYPE_WALLET);
+    }
+
+
+    public void close() {
+        this.closed = true;
+        try {
+            // Wakes up the listening thread
+            this.pipeAccess.write('\n');
+            this.pipeAccess.close();
+        } catch (IOException ioe) {
+            Log.warning("Could not close the daemon notification pipe: {0}", ioe.getMessage());
+        }
+        this.pipe.delete();
+    }
+
+
+    // Writes into the pipe only if it exists - a regular file is not created. %s is replaced by the daemon.
+    private String getNotifyCommand(String type)
+            throws IOException {
+        String pipe = quote(this.pipe.getCanonicalPath());
+        return "[ -p " + pipe + " ] && echo " + type + " %s 1<>" + pipe;
+    }
+
+
+    private void listen() {
+        while (!this.closed) {
+            try {
+                this.handle(this.readLine());
+            } catch (IOException ioe) {
+                if (!this.closed) {
+                    Log.error("Could not read daemon notifications. The wallet relies on polling from now on: ", ioe);
+                }
+                break;
+            } catch (Exception e) {
+                Log.error("Unexpected error in a daemon notification handler: ", e);
+            }
+        }
+
+        Log.info("Ending daemon notification listener ...");
+    }
+
+
+    private void handle(String line) {
+        if (this.closed || line.trim().isEmpty()) {
+            return;
+        }
+
+        String[] parts = line.trim().split(" ");
+        if ((parts.length != 2) || (!HASH_PATTERN.matcher(parts[1]).matches())) {
+            Log.warning("Ignoring invalid daemon notification.");
+            return;
+        }
+
+        for (NotificationHandler handler : this.handlers) {
+            if (TYPE_BLOCK.equals(parts[0])) {
+                handler.blockNotified(parts[1]);
+            } else if (TYPE_WALLET.equals(parts[0])) {
+                handler.walletTransactionNotified(parts[1]);
+            }
+        }
+    }
+
+
+    // Limited in length - the rest of a long line is skipped
+    private String readLine()
+            throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = this.pipeAccess.read()) != '\n') {
+            if (c < 0) {
+                throw new EOFException("Daemon notification pipe has been closed");
+            }
+            if (line.size() < MAX_LINE_LENGTH) {
+                line.write(c);
+            }
+        }
+        return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+
+    private static String quote(String argument) {
+        return "'" + argument.replace("'", "'\\''") + "'";
+    }
+}
@@ -0,0 +1,241 @@
+package org.cbitcoin.wallets.fullnode.daemon;
+
+import org.cbitcoin.wallets.fullnode.daemon.CBTCInstallationObserver.DAEMON_STATUS;
+import org.cbitcoin.wallets.fullnode.daemon.CBTCInstallationObserver.DaemonInfo;
+import org.cbitcoin.wallets.fullnode.util.Log;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+
+/**
+ * Monitors the daemon process on Linux by reading /proc/[pid]/stat and /proc/[pid]/statm - instead of
+ * running ps and parsing the whole process table on every status update.
+ * <p>
+ * The PID is taken from the process started by the wallet or from the PID file in the data directory
+ * (e.g. ~/.cbtc/cbtcd.pid). If neither is available, getDaemonInfo() returns null and the caller falls
+ * back to ps. The CPU usage is computed from the CPU ticks consumed since the previous call.
+ * <p>
+ * Instances are thread safe.
+ */
+public class DaemonProcessMonitor {
+    // USER_HZ - the unit of the CPU times in /proc, the same on all Linux architectures
+    private static final long CLOCK_TICKS_PER_SECOND = 100;
+
+    private static final long DEFAULT_PAGE_SIZE = 4096;
+
+    private final String daemonName;
+    private final File procDir;
+    private final File[] pidFiles;
+
+    private Process daemonProcess;
+
+    private long pid = -1;
+    private long pageSize = -1;
+
+    // CPU ticks of the daemon at the previous call - for the CPU usage since then
+    private long lastTicks = -1;
+    private long lastTime;
+
+
+    /**
+     * @param daemonName name of the daemon command - e.g. cbtcd
+     * @param procDir    normally /proc
+     * @param pidFiles   possible PID files of the daemon - the first existing one is used
+     */
+    public DaemonProcessMonitor(String daemonName, File procDir, File... pidFiles) {
+        this.daemonName = daemonName;
+        this.procDir = procDir;
+        this.pidFiles = pidFiles;
+    }
+
+
+    public static boolean isSupported() {
+        return new File("/proc/self/stat").isFile();
+    }
+
+
+    // The daemon started by the wallet - its PID is used before the PID file
+    public synchronized void setDaemonProcess(Process daemonProcess) {
+        this.daemonProcess = daemonProcess;
+        this.pid = -1;
+    }
+
+
+    /**
+     * @return the state of the daemon or null if its process is not known - e.g. started by
+     * hand without PID file
+     */
+    public DaemonInfo getDaemonInfo() {
+        return this.getDaemonInfo(System.currentTimeMillis());
+    }
+
+
+    synchronized DaemonInfo getDaemonInfo(long now) {
+        String[] stat = (this.pid > 0) ? this.readStat(this.pid) : null;
+        if (stat == null) {
+            // First call or the daemon has been restarted
+            this.pid = this.findPID();
+            this.lastTicks = -1;
+            stat = (this.pid > 0) ? this.readStat(this.pid) : null;
+            if (stat == null) {
+                this.pid = -1;
+                return null;
+            }
+        }
+
+        String[] statm = this.readFields(new File(new File(this.procDir, String.valueOf(this.pid)), "statm"));
+        if ((statm == null) || (statm.length < 2)) {
+            return null;
+        }
+
+        try {
+            // Fields after the command name - utime and stime are fields 14 and 15 of stat
+            long ticks = Long.parseLong(stat[11]) + Long.parseLong(stat[12]);
+            long pageSize = this.getPageSize();
+
+            DaemonInfo info = new DaemonInfo();
+            info.status = DAEMON_STATUS.RUNNING;
+            // Same conversion as for ps - the size in KiB / 1000
+            info.virtualSizeMB = ((Long.parseLong(statm[0]) * pageSize) / 1024) / 1000d;
+            info.residentSizeMB = ((Long.parseLong(statm[1]) * pageSize) / 1024) / 1000d;
+
+            if ((this.lastTicks >= 0) && (now > this.lastTime)) {
+                info.cpuPercentage = ((ticks - this.lastTicks) * 100d * 1000 / CLOCK_TICKS_PER_SECOND) /
+                        (now - this.lastTime);
+            } else {
+                // Average since the start of the process - like ps
+                String[] uptime = this.readFields(new File(this.procDir, "uptime"));
+                double runningSeconds = (uptime != null) ?
+                        (Double.parseDouble(uptime[0]) - (Long.parseLong(stat[19]) / (double) CLOCK_TICKS_PER_SECOND)) : 0;
+                info.cpuPercentage = (runningSeconds > 0) ?
+                        ((ticks * 100d / CLOCK_TICKS_PER_SECOND) / runningSeconds) : 0;
+            }
+
+            this.lastTicks = ticks;
+            this.lastTime = now;
+            return info;
+        } catch (RuntimeException re) {
+            Log.warning("Could not parse /proc data of process {0}: {1}", this.pid, re.toString());
+            return null;
+        }
+    }
+
+
+    private long findPID() {
+        long processPID = getPID(this.daemonProcess);
+        if ((processPID > 0) && (this.readStat(processPID) != null)) {
+            return processPID;
+        }
+
+        for (File pidFile : this.pidFiles) {
+            if (pidFile.isFile()) {
+                try {
+                    long filePID = Long.parseLong(
+                            new String(Files.readAllBytes(pidFile.toPath()), StandardCharsets.US_ASCII).trim());
+                    if (this.readStat(filePID) != null) {
+                        Log.info("Monitoring process {0} of {1} from PID file {2}",
+                                filePID, this.daemonName, pidFile.getAbsolutePath());
+                        return filePID;
+                    }
+                } catch (IOException | NumberFormatException e) {
+                    Log.warning("Could not read PID file {0}: {1}", pidFile.getAbsolutePath(), e.toString());
+                }
+            }
+        }
+
+        return -1;
+    }
+
+
+    // Fields of /proc/[pid]/stat after the command name - null if the process is not the daemon
+    private String[] readStat(long pid) {
+        File statFile = new File(new File(this.procDir, String.valueOf(pid)), "stat");
+        String stat;
+        try {
+            stat = new String(Files.readAllBytes(statFile.toPath()), StandardCharsets.US_ASCII);
+        } catch (IOException ioe) {
+            return null; // Not running
+        }
+
+        // The command name is in parentheses - it may contain spaces and is truncated to 15 characters
+        int nameStart = stat.indexOf('(');
+        int nameEnd = stat.lastIndexOf(')');
+        if ((nameStart < 0) || (nameEnd < nameStart)) {
+            return null;
+        }
+
+        String name = stat.substring(nameStart + 1, nameEnd);
+        if (!this.daemonName.startsWith(name) || (name.length() < Math.min(this.daemonName.length(), 15))) {
+            return null; // The PID has been reused by another process
+        }
+
+        String[] fields = stat.substring(nameEnd + 1).trim().split("\\s+");
+        return (fields.length >= 20) ? fields : null;
+    }
+
+
+    private String[] readFields(File file) {
+        try {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim().split("\\s+");
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+
+    // Found once from the size of the own process in pages (statm) and in kB (status)
+    private long getPageSize() {
+        if (this.pageSize > 0) {
+            return this.pageSize;
+        }
+
+        this.pageSize = DEFAULT_PAGE_SIZE;
+        try {
+            String[] statm = this.readFields(new File(new File(this.procDir, "self"), "statm"));
+            for (String line : Files.readAllLines(new File(new File(this.procDir, "self"), "status").toPath(),
+                    StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmSize:") && (statm != null)) {
+                    long sizeKB = Long.parseLong(line.substring("VmSize:".length()).replace("kB", "").trim());
+                    long pages = Long.parseLong(statm[0]);
+                    // Rounded to a power of 2 - the sizes are not read at the same moment
+                    long size = Long.highestOneBit(Math.round((sizeKB * 1024d) / pages * 1.5));
+                    if (size >= 1024) {
+                        this.pageSize = size;
+                    }
+                    break;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.warning("Could not find the memory page size, {0} is used: {1}", DEFAULT_PAGE_SIZE, e.toString());
+        }
+
+        return this.pageSize;
+    }
+
+
+    // Process.pid() is only available as of Java 9, in Java 8 the PID is a private field
+    private static long getPID(Process process) {
+        if (process == null) {
+            return -1;
+        }
+
+        try {
+            Method pidMethod = Process.class.getMethod("pid");
+            return ((Long) pidMethod.invoke(process)).longValue();
+        } catch (ReflectiveOperationException | RuntimeException noMethod) {
+            // Java 8
+        }
+
+        try {
+            Field pidField = process.getClass().getDeclaredField("pid");
+            pidField.setAccessible(true);
+            return pidField.getInt(process);
+        } catch (ReflectiveOperationException | RuntimeException noField) {
+            return -1;
+        }
+    }
+}
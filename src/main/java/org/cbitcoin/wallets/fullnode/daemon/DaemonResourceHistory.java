@@ -0,0 +1,185 @@
+package org.cbitcoin.wallets.fullnode.daemon;
+
+import java.util.Arrays;
+
+
+/**
+ * Keeps the recent resource use of the daemon - CPU, memory, connections, block height and synchronization
+ * speed - in fixed size ring buffers of primitive arrays, so samples can be recorded every few seconds for
+ * a day without growing memory use or creating objects.
+ * <p>
+ * The samples are averaged into buckets at several resolutions (by default 10s for the last hour, 1 min
+ * for the last 6 hours and 5 min for the last 24 hours). A query for a time span uses the finest
+ * resolution that covers it. The block height is the maximum of a bucket, the other values the average.
+ * <p>
+ * Instances are thread safe.
+ */
+public class DaemonResourceHistory {
+    public static enum SERIES {
+        CPU,
+        RESIDENT_SIZE,
+        VIRTUAL_SIZE,
+        CONNECTIONS,
+        BLOCK_HEIGHT,
+        BLOCKS_PER_SECOND;
+    }
+
+    private static final long[] DEFAULT_RESOLUTIONS = {10 * 1000L, 60 * 1000L, 5 * 60 * 1000L};
+    private static final int[] DEFAULT_BUCKETS = {360, 360, 288};
+
+    private final Ring[] rings;
+
+
+    public DaemonResourceHistory() {
+        this(DEFAULT_RESOLUTIONS, DEFAULT_BUCKETS);
+    }
+
+
+    /**
+     * @param resolutions length of a bucket in ms for each ring, from fine to coarse
+     * @param buckets     number of buckets of each ring
+     */
+    DaemonResourceHistory(long[] resolutions, int[] buckets) {
+        this.rings = new Ring[resolutions.length];
+        for (int i = 0; i < resolutions.length; i++) {
+            this.rings[i] = new Ring(resolutions[i], buckets[i]);
+        }
+    }
+
+
+    /**
+     * Records the state of the daemon - unknown values are Double.NaN.
+     *
+     * @param time time of the sample in ms
+     */
+    public synchronized void addSample(long time, double cpuPercentage, double residentSizeMB, double virtualSizeMB,
+                                       double connections, double blockHeight, double blocksPerSecond) {
+        for (Ring ring : this.rings) {
+            ring.add(time, SERIES.CPU, cpuPercentage);
+            ring.add(time, SERIES.RESIDENT_SIZE, residentSizeMB);
+            ring.add(time, SERIES.VIRTUAL_SIZE, virtualSizeMB);
+            ring.add(time, SERIES.CONNECTIONS, connections);
+            ring.add(time, SERIES.BLOCK_HEIGHT, blockHeight);
+            ring.add(time, SERIES.BLOCKS_PER_SECOND, blocksPerSecond);
+        }
+    }
+
+
+    /**
+     * @param duration time span in ms
+     * @return the length of a bucket in ms used for the time span
+     */
+    public long getResolution(long duration) {
+        return this.getRing(duration).resolution;
+    }
+
+
+    /**
+     * Returns the values of the last buckets, including the current incomplete one.
+     *
+     * @param series   the values to return
+     * @param duration time span in ms - at most the span of the coarsest ring is returned
+     * @param now      current time in ms
+     * @return values from old to new - Double.NaN for buckets without samples
+     */
+    public synchronized double[] getValues(SERIES series, long duration, long now) {
+        return this.getRing(duration).getValues(series, duration, now);
+    }
+
+
+    // Finest ring covering the duration - the coarsest one otherwise
+    private Ring getRing(long duration) {
+        for (Ring ring : this.rings) {
+            if ((ring.resolution * ring.bucketNumbers.length) >= duration) {
+                return ring;
+            }
+        }
+        return this.rings[this.rings.length - 1];
+    }
+
+
+    private static class Ring {
+        final long resolution;
+
+        // Number (time / resolution) of the bucket stored in each slot - -1 if empty
+        final long[] bucketNumbers;
+        // Series -> slot -> value
+        final double[][] values;
+
+        // The bucket samples are currently added to - not yet in values
+        long currentBucket = -1;
+        final double[] sums = new double[SERIES.values().length];
+        final double[] maximums = new double[SERIES.values().length];
+        final int[] counts = new int[SERIES.values().length];
+
+
+        Ring(long resolution, int buckets) {
+            this.resolution = resolution;
+            this.bucketNumbers = new long[buckets];
+            Arrays.fill(this.bucketNumbers, -1);
+            this.values = new double[SERIES.values().length][buckets];
+        }
+
+
+        void add(long time, SERIES series, double value) {
+            long bucket = time / this.resolution;
+            if (bucket > this.currentBucket) {
+                this.closeCurrentBucket();
+                this.currentBucket = bucket;
+            } else if (bucket < this.currentBucket) {
+                return; // The clock went back - ignored until it reaches the current bucket again
+            }
+
+            if (!Double.isNaN(value)) {
+                int s = series.ordinal();
+                this.sums[s] += value;
+                this.maximums[s] = (this.counts[s] == 0) ? value : Math.max(this.maximums[s], value);
+                this.counts[s]++;
+            }
+        }
+
+
+        double[] getValues(SERIES series, long duration, long now) {
+            int count = (int) Math.min(this.bucketNumbers.length,
+                    Math.max(1, (duration + this.resolution - 1) / this.resolution));
+            long lastBucket = now / this.resolution;
+
+            double[] result = new double[count];
+            for (int i = 0; i < count; i++) {
+                long bucket = lastBucket - (count - 1) + i;
+                if (bucket == this.currentBucket) {
+                    result[i] = this.getCurrentValue(series.ordinal());
+                } else {
+                    int slot = (int) (bucket % this.bucketNumbers.length);
+                    result[i] = ((bucket >= 0) && (this.bucketNumbers[slot] == bucket)) ?
+                            this.values[series.ordinal()][slot] : Double.NaN;
+                }
+            }
+
+            return result;
+        }
+
+
+        private void closeCurrentBucket() {
+            if (this.currentBucket < 0) {
+                return;
+            }
+
+            int slot = (int) (this.currentBucket % this.bucketNumbers.length);
+            this.bucketNumbers[slot] = this.currentBucket;
+            for (int s = 0; s < this.values.length; s++) {
+                this.values[s][slot] = this.getCurrentValue(s);
+                this.sums[s] = 0;
+                this.counts[s] = 0;
+            }
+        }
+
+
+        private double getCurrentValue(int s) {
+            if (this.counts[s] == 0) {
+                return Double.NaN;
+            }
+            return (s == SERIES.BLOCK_HEIGHT.ordinal()) ? this.maximums[s] : (this.sums[s] / this.counts[s]);
+        }
+    }
+}
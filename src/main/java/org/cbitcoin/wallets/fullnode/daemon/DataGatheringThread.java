@@ -41,6 +41,8 @@ public class DataGatheringThread<T>
     private StatusUpdateErrorReporter errorReporter;
     // Flag allowing the thread to be suspended
     private boolean suspended;
+    // Flag to gather without waiting for the rest of the interval
+    private boolean gatherNow;
 
     /**
      * Creates a new thread for data gathering.
@@ -99,6 +101,27 @@ public class DataGatheringThread<T>
     }
 
 
+    /**
+     * Makes the thread gather the data as soon as possible - e.g. when it is known to have changed.
+     */
+    public synchronized void gatherNow()
+    {
+        this.gatherNow = true;
+        this.notifyAll();
+    }
+
+
+    /**
+     * Changes the interval - applies from the next wait on.
+     *
+     * @param interval Interval in ms for gathering
+     */
+    public synchronized void setInterval(int interval)
+    {
+        this.interval = interval;
+    }
+
+
     /**
      * Obtains the last gathered data
      *
@@ -140,7 +163,9 @@ public class DataGatheringThread<T>
                     }
 
                     endWait = System.currentTimeMillis();
-                } while ((endWait - startWait) <= this.interval);
+                } while (((endWait - startWait) <= this.interval) && (!this.gatherNow));
+
+                this.gatherNow = false;
             }
 
             if (!this.suspended)
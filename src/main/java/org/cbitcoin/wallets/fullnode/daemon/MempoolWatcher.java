@@ -0,0 +1,201 @@
+package org.cbitcoin.wallets.fullnode.daemon;
+
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller.WalletCallException;
+import org.cbitcoin.wallets.fullnode.util.Log;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+/**
+ * Watches the memory pool for payments to the T addresses of this wallet - so that they are known as soon
+ * as the daemon receives them, not only when they show up in listtransactions.
+ * <p>
+ * Each poll compares the result of getrawmempool with the previous one. Only the new transactions are
+ * looked up and their outputs are matched against a hash set of the wallet addresses, which is refreshed
+ * at intervals. The transactions in the pool at the first poll are only recorded. Payments to Z addresses
+ * are shielded and cannot be seen.
+ * <p>
+ * Listeners are called in the polling thread.
+ */
+public class MempoolWatcher {
+    /**
+     * Unconfirmed payment to an address of this wallet.
+     */
+    public static class PendingPayment {
+        public String txID;
+        public String address;
+        public double amount;
+    }
+
+    public static interface PendingPaymentListener {
+        /**
+         * A new payment is in the memory pool.
+         */
+        void paymentReceived(PendingPayment payment);
+
+        /**
+         * A payment is no longer in the memory pool - usually it has been mined into a block.
+         */
+        void paymentLeftMempool(PendingPayment payment);
+    }
+
+    private static final long ADDRESS_REFRESH_INTERVAL = 60 * 1000L;
+
+    private final CBTCClientCaller caller;
+    private final long addressRefreshInterval;
+
+    private final List<PendingPaymentListener> listeners = new CopyOnWriteArrayList<>();
+
+    private Set<String> walletAddresses = null;
+    private long lastAddressRefresh = 0;
+
+    // Null until the first poll
+    private Set<String> lastMempool = null;
+    // txid -> payments to this wallet in the transaction
+    private final Map<String, List<PendingPayment>> pendingPayments = new LinkedHashMap<>();
+
+
+    public MempoolWatcher(CBTCClientCaller caller) {
+        this(caller, ADDRESS_REFRESH_INTERVAL);
+    }
+
+
+    MempoolWatcher(CBTCClientCaller caller, long addressRefreshInterval) {
+        this.caller = caller;
+        this.addressRefreshInterval = addressRefreshInterval;
+    }
+
+
+    public void addListener(PendingPaymentListener listener) {
+        this.listeners.add(listener);
+    }
+
+
+    /**
+     * Compares the memory pool with the previous poll and notifies the listeners of the changes.
+     *
+     * @param now current time in ms
+     * @return the number of new transactions in the memory pool
+     */
+    public synchronized int poll(long now)
+            throws WalletCallException, IOException, InterruptedException {
+        if ((this.walletAddresses == null) || ((now - this.lastAddressRefresh) >= this.addressRefreshInterval)) {
+            this.walletAddresses = new HashSet<>(Arrays.asList(this.caller.getWalletAllPublicAddresses()));
+            this.lastAddressRefresh = now;
+        }
+
+        Set<String> mempool = new HashSet<>(Arrays.asList(this.caller.getRawMempool()));
+        if (this.lastMempool == null) {
+            this.lastMempool = mempool;
+            return 0;
+        }
+
+        int newTransactions = 0;
+        for (String txID : mempool) {
+            if (!this.lastMempool.contains(txID)) {
+                newTransactions++;
+                this.checkTransaction(txID);
+            }
+        }
+
+        Iterator<Map.Entry<String, List<PendingPayment>>> pending = this.pendingPayments.entrySet().iterator();
+        while (pending.hasNext()) {
+            Map.Entry<String, List<PendingPayment>> entry = pending.next();
+            if (!mempool.contains(entry.getKey())) {
+                pending.remove();
+                for (PendingPayment payment : entry.getValue()) {
+                    for (PendingPaymentListener listener : this.listeners) {
+                        listener.paymentLeftMempool(payment);
+                    }
+                }
+            }
+        }
+
+        this.lastMempool = mempool;
+        return newTransactions;
+    }
+
+
+    /**
+     * @return the payments to this wallet that are in the memory pool
+     */
+    public synchronized List<PendingPayment> getPendingPayments() {
+        List<PendingPayment> payments = new ArrayList<>();
+        for (List<PendingPayment> transactionPayments : this.pendingPayments.values()) {
+            payments.addAll(transactionPayments);
+        }
+        return payments;
+    }
+
+
+    private void checkTransaction(String txID)
+            throws WalletCallException, IOException, InterruptedException {
+        JsonObject transaction;
+        try {
+            transaction = this.caller.getDecodedTransaction(txID);
+        } catch (WalletCallException wce) {
+            // Mined or dropped since getrawmempool
+            Log.info("Transaction {0} left the memory pool before it could be checked.", txID);
+            return;
+        }
+
+        // Address -> amount paid to it
+        Map<String, Double> amounts = new LinkedHashMap<>();
+        JsonValue outputs = transaction.get("vout");
+        if ((outputs == null) || (!outputs.isArray())) {
+            return;
+        }
+        for (JsonValue output : outputs.asArray()) {
+            JsonValue scriptPubKey = output.asObject().get("scriptPubKey");
+            JsonValue addresses = (scriptPubKey != null) && scriptPubKey.isObject() ?
+                    scriptPubKey.asObject().get("addresses") : null;
+            if ((addresses == null) || (!addresses.isArray()) || (addresses.asArray().size() != 1)) {
+                continue; // Multisig outputs are not paid to one address
+            }
+
+            String address = addresses.asArray().get(0).asString();
+            if (this.walletAddresses.contains(address)) {
+                Double amount = amounts.get(address);
+                amounts.put(address, ((amount != null) ? amount : 0) + output.asObject().getDouble("value", 0));
+            }
+        }
+
+        if (amounts.isEmpty() || !this.isIncomingPayment(txID)) {
+            return;
+        }
+
+        List<PendingPayment> payments = new ArrayList<>();
+        for (Map.Entry<String, Double> entry : amounts.entrySet()) {
+            PendingPayment payment = new PendingPayment();
+            payment.txID = txID;
+            payment.address = entry.getKey();
+            payment.amount = entry.getValue();
+            payments.add(payment);
+        }
+        this.pendingPayments.put(txID, payments);
+
+        for (PendingPayment payment : payments) {
+            Log.info("Pending payment of {0} to {1} in transaction {2}", payment.amount, payment.address, txID);
+            for (PendingPaymentListener listener : this.listeners) {
+                listener.paymentReceived(payment);
+            }
+        }
+    }
+
+
+    // Only a positive net amount is incoming - the change of a payment from this wallet and transfers
+    // between its own addresses (amount 0) are not
+    private boolean isIncomingPayment(String txID)
+            throws IOException, InterruptedException {
+        try {
+            return Double.parseDouble(this.caller.getWalletTransactionAmount(txID)) > 0;
+        } catch (WalletCallException | NumberFormatException e) {
+            Log.warning("Could not get the amount of transaction {0}: {1}", txID, e.getMessage());
+            return false;
+        }
+    }
+}
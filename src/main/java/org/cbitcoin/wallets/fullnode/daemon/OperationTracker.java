@@ -0,0 +1,260 @@
+package org.cbitcoin.wallets.fullnode.daemon;
+
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller.WalletCallException;
+import org.cbitcoin.wallets.fullnode.util.Log;
+
+import java.io.IOException;
+import java.util.*;
+
+
+/**
+ * Follows the asynchronous operations of cbtcd (z_sendmany, z_shieldcoinbase) until they are complete.
+ * <p>
+ * All pending operations are checked with one z_getoperationstatus call per interval, so concurrent
+ * sends cost no more calls than a single one. The final status of an operation is cached here and
+ * released in cbtcd with z_getoperationresult.
+ * <p>
+ * Listeners are called in the tracking thread. An operation is released only after its listeners have
+ * returned - a listener that must persist the outcome does so before returning, so that the outcome
+ * is not lost if the wallet exits right after.
+ */
+public class OperationTracker {
+    /**
+     * Final outcome of an operation.
+     */
+    public static class OperationResult {
+        public String opID;
+        public boolean successful;
+        // Set for successful operations that create a transaction
+        public String txID;
+        // Set for failed operations
+        public String errorMessage;
+        // The operation is unknown to cbtcd - e.g. it was restarted meanwhile. The operation may
+        // have been executed or not.
+        public boolean unknown;
+    }
+
+    public static interface OperationListener {
+        void operationComplete(OperationResult result);
+    }
+
+    private static final int POLL_INTERVAL = 2000;
+    private static final int MAX_CACHED_RESULTS = 100;
+
+    private final CBTCClientCaller caller;
+    private final int interval;
+
+    // opID -> listeners waiting for the operation
+    private final Map<String, List<OperationListener>> pendingOperations = new LinkedHashMap<>();
+    private final Map<String, OperationResult> results =
+            new LinkedHashMap<String, OperationResult>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, OperationResult> eldest) {
+            return this.size() > MAX_CACHED_RESULTS;
+        }
+    };
+
+    private Thread trackingThread = null;
+
+
+    public OperationTracker(CBTCClientCaller caller) {
+        this(caller, POLL_INTERVAL);
+    }
+
+
+    OperationTracker(CBTCClientCaller caller, int interval) {
+        this.caller = caller;
+        this.interval = interval;
+    }
+
+
+    /**
+     * Calls the listener when the operation is complete - right away if it is complete already.
+     *
+     * @param opID operation ID returned by cbtcd
+     * @param listener listener to call
+     */
+    public void track(String opID, OperationListener listener) {
+        OperationResult result;
+        synchronized (this) {
+            result = this.results.get(opID);
+            if (result == null) {
+                List<OperationListener> listeners = this.pendingOperations.get(opID);
+                if (listeners == null) {
+                    listeners = new ArrayList<>();
+                    this.pendingOperations.put(opID, listeners);
+                }
+                listeners.add(listener);
+
+                if (this.trackingThread == null) {
+                    this.trackingThread = new Thread(this::trackOperations, "OperationTracker");
+                    this.trackingThread.setDaemon(true);
+                    this.trackingThread.start();
+                }
+                this.notifyAll();
+                return;
+            }
+        }
+
+        listener.operationComplete(result);
+    }
+
+
+    /**
+     * @return the cached result of a complete operation or null
+     */
+    public synchronized OperationResult getResult(String opID) {
+        return this.results.get(opID);
+    }
+
+
+    /**
+     * Checks all pending operations and calls the listeners of those that are complete.
+     *
+     * @return the number of operations that are still pending
+     */
+    int poll()
+            throws WalletCallException, IOException, InterruptedException {
+        Set<String> opIDs;
+        synchronized (this) {
+            opIDs = new LinkedHashSet<>(this.pendingOperations.keySet());
+        }
+        if (opIDs.isEmpty()) {
+            return 0;
+        }
+
+        long start = System.currentTimeMillis();
+        JsonArray statuses = this.caller.getOperationStatuses(opIDs);
+        Log.info("Checking the status of {0} operation(s) done in {1}ms.",
+                opIDs.size(), System.currentTimeMillis() - start);
+
+        List<OperationResult> complete = new ArrayList<>();
+        Set<String> unknown = new HashSet<>(opIDs);
+        for (JsonValue value : statuses) {
+            JsonObject status = value.asObject();
+            String opID = status.getString("id", null);
+            unknown.remove(opID);
+
+            OperationResult result = toResult(opID, status);
+            if (result != null) {
+                Log.info("Operation {0} status is {1}.", opID, status);
+                complete.add(result);
+            }
+        }
+
+        // cbtcd was restarted meanwhile - the operation is lost
+        for (String opID : unknown) {
+            Log.warning("Operation {0} is unknown to cbtcd.", opID);
+            OperationResult result = new OperationResult();
+            result.opID = opID;
+            result.successful = false;
+            result.unknown = true;
+            result.errorMessage = "Operation " + opID + " is unknown to cbtcd";
+            complete.add(result);
+        }
+
+        if (complete.isEmpty()) {
+            return opIDs.size();
+        }
+
+        Map<OperationResult, List<OperationListener>> notifications = new LinkedHashMap<>();
+        int pending;
+        synchronized (this) {
+            for (OperationResult result : complete) {
+                this.results.put(result.opID, result);
+                List<OperationListener> listeners = this.pendingOperations.remove(result.opID);
+                if (listeners != null) {
+                    notifications.put(result, listeners);
+                }
+            }
+            pending = this.pendingOperations.size();
+        }
+
+        for (Map.Entry<OperationResult, List<OperationListener>> notification : notifications.entrySet()) {
+            for (OperationListener listener : notification.getValue()) {
+                try {
+                    listener.operationComplete(notification.getKey());
+                } catch (RuntimeException re) {
+                    Log.error("Unexpected error in operation listener: ", re);
+                }
+            }
+        }
+
+        // Best effort - if this fails, cbtcd keeps the results until it is restarted
+        List<String> released = new ArrayList<>();
+        for (OperationResult result : complete) {
+            if (!unknown.contains(result.opID)) {
+                released.add(result.opID);
+            }
+        }
+        if (!released.isEmpty()) {
+            try {
+                this.caller.getOperationResults(released);
+            } catch (WalletCallException | IOException e) {
+                Log.warning("Could not release {0} complete operation(s) in cbtcd: {1}",
+                        released.size(), e.getMessage());
+            }
+        }
+
+        return pending;
+    }
+
+
+    // Null while the operation is queued or executing
+    private static OperationResult toResult(String opID, JsonObject status) {
+        String state = status.getString("status", "ERROR").toLowerCase(Locale.ROOT);
+        if (state.equals("queued") || state.equals("executing")) {
+            return null;
+        }
+
+        OperationResult result = new OperationResult();
+        result.opID = opID;
+        if (state.equals("success")) {
+            result.successful = true;
+            JsonValue opResult = status.get("result");
+            if ((opResult != null) && opResult.isObject()) {
+                result.txID = opResult.asObject().getString("txid", null);
+            }
+        } else if (state.equals("failed") || state.equals("cancelled") || state.equals("error")) {
+            result.successful = false;
+            JsonValue error = status.get("error");
+            result.errorMessage = ((error != null) && error.isObject()) ?
+                    error.asObject().getString("message", "ERROR!") : state;
+        } else {
+            // Only this operation fails - the others are still tracked
+            Log.warning("Unexpected status of operation {0}: {1}", opID, status.toString());
+            result.successful = false;
+            result.errorMessage = "Unexpected status response from wallet: " + status.toString();
+        }
+
+        return result;
+    }
+
+
+    private void trackOperations() {
+        while (true) {
+            try {
+                synchronized (this) {
+                    while (this.pendingOperations.isEmpty()) {
+                        this.wait();
+                    }
+                    // Operations added meanwhile do not shorten the interval
+                    long end = System.currentTimeMillis() + this.interval;
+                    for (long now = System.currentTimeMillis(); now < end; now = System.currentTimeMillis()) {
+                        this.wait(end - now);
+                    }
+                }
+
+                this.poll();
+            } catch (InterruptedException ie) {
+                Log.error("Unexpected error: ", ie);
+            } catch (Exception e) {
+                // E.g. cbtcd is busy - try again at the next interval
+                Log.error("Unexpected error in tracking operations: ", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.cbitcoin.wallets.fullnode.daemon;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.core.VarInt;
+import org.cbitcoin.wallets.fullnode.util.Util;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Decodes a raw transaction (as returned in the hex field of gettransaction) locally, without calling
+ * decoderawtransaction on the daemon.
+ * <p>
+ * The bitcoinj Transaction class cannot be used - it does not know the Zcash extensions of the format:
+ * the overwinter header and version group, the expiry height, Sapling spends and outputs and the
+ * JoinSplits of version 2+. The transparent parts are the same as in Bitcoin and are read with the
+ * bitcoinj primitives. Shielded parts are not decoded, only counted and measured.
+ */
+public class RawTransactionDecoder {
+    private static final long OVERWINTERED_FLAG = 0x80000000L;
+
+    private static final int SAPLING_VERSION = 4;
+    private static final int JOINSPLIT_VERSION = 2;
+
+    // Sizes of the shielded parts - fixed by the protocol
+    private static final int SAPLING_SPEND_SIZE = 384;
+    private static final int SAPLING_OUTPUT_SIZE = 948;
+    // vpub_old, vpub_new, anchor, nullifiers, commitments, ephemeral key, random seed, macs, ciphertexts
+    private static final int JOINSPLIT_SIZE_WITHOUT_PROOF = 8 + 8 + 32 + 64 + 64 + 32 + 32 + 64 + 2 * 601;
+    private static final int PHGR_PROOF_SIZE = 296;
+    private static final int GROTH_PROOF_SIZE = 192;
+    private static final int JOINSPLIT_PUB_KEY_AND_SIG_SIZE = 32 + 64;
+    private static final int BINDING_SIG_SIZE = 64;
+
+    private static final String PREFIX = "decoded.";
+
+    private final byte[] bytes;
+    private int offset = 0;
+
+
+    private RawTransactionDecoder(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+
+    /**
+     * Decodes a raw transaction.
+     *
+     * @param hex the transaction in hex
+     * @return name -> value of the decoded fields - in the order of the transaction. Names are of the
+     * same form as those of the flattened gettransaction result, e.g. decoded.vout[0].value.
+     * @throws IOException if the transaction cannot be decoded
+     */
+    public static Map<String, String> decode(String hex)
+            throws IOException {
+        if ((hex == null) || ((hex.length() % 2) != 0) || (!hex.matches("[0-9a-fA-F]*"))) {
+            throw new IOException("Raw transaction is not in hex");
+        }
+
+        try {
+            return new RawTransactionDecoder(Util.decodeHexArray(hex)).decode();
+        } catch (ArrayIndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Raw transaction is truncated");
+        }
+    }
+
+
+    private Map<String, String> decode()
+            throws IOException {
+        Map<String, String> fields = new LinkedHashMap<String, String>();
+
+        long header = this.readUint32();
+        boolean overwintered = (header & OVERWINTERED_FLAG) != 0;
+        long version = header & ~OVERWINTERED_FLAG;
+
+        fields.put(PREFIX + "txid", Util.encodeHexArray(Utils.reverseBytes(Sha256Hash.hashTwice(this.bytes))));
+        fields.put(PREFIX + "size", String.valueOf(this.bytes.length));
+        fields.put(PREFIX + "version", String.valueOf(version));
+        if (overwintered) {
+            fields.put(PREFIX + "versiongroupid", String.format("%08x", this.readUint32()));
+        }
+
+        long inputs = this.readVarInt();
+        for (int i = 0; i < inputs; i++) {
+            String name = PREFIX + "vin[" + i + "].";
+            byte[] previousTxID = Utils.reverseBytes(this.readBytes(32));
+            long previousOutput = this.readUint32();
+            byte[] script = this.readBytes((int) this.readVarInt());
+            if ((previousOutput == 0xFFFFFFFFL) && isZero(previousTxID)) {
+                fields.put(name + "coinbase", Util.encodeHexArray(script));
+            } else {
+                fields.put(name + "txid", Util.encodeHexArray(previousTxID));
+                fields.put(name + "vout", String.valueOf(previousOutput));
+                fields.put(name + "scriptSig", Util.encodeHexArray(script));
+            }
+            fields.put(name + "sequence", String.valueOf(this.readUint32()));
+        }
+
+        long outputs = this.readVarInt();
+        for (int i = 0; i < outputs; i++) {
+            String name = PREFIX + "vout[" + i + "].";
+            fields.put(name + "value", formatAmount(this.readInt64()));
+            byte[] script = this.readBytes((int) this.readVarInt());
+            fields.put(name + "scriptPubKey.hex", Util.encodeHexArray(script));
+            fields.put(name + "scriptPubKey.type", getScriptType(script));
+        }
+
+        fields.put(PREFIX + "locktime", String.valueOf(this.readUint32()));
+        if (overwintered) {
+            fields.put(PREFIX + "expiryheight", String.valueOf(this.readUint32()));
+        }
+
+        long spends = 0;
+        long shieldedOutputs = 0;
+        if (overwintered && (version >= SAPLING_VERSION)) {
+            fields.put(PREFIX + "valueBalance", formatAmount(this.readInt64()));
+            spends = this.readVarInt();
+            this.readBytes((int) (spends * SAPLING_SPEND_SIZE));
+            shieldedOutputs = this.readVarInt();
+            this.readBytes((int) (shieldedOutputs * SAPLING_OUTPUT_SIZE));
+            fields.put(PREFIX + "vShieldedSpend.count", String.valueOf(spends));
+            fields.put(PREFIX + "vShieldedOutput.count", String.valueOf(shieldedOutputs));
+        }
+
+        if (version >= JOINSPLIT_VERSION) {
+            long joinSplits = this.readVarInt();
+            int joinSplitSize = JOINSPLIT_SIZE_WITHOUT_PROOF +
+                    ((overwintered && (version >= SAPLING_VERSION)) ? GROTH_PROOF_SIZE : PHGR_PROOF_SIZE);
+            int start = this.offset;
+            for (int i = 0; i < joinSplits; i++) {
+                long vpubOld = Utils.readInt64(this.bytes, this.offset);
+                long vpubNew = Utils.readInt64(this.bytes, this.offset + 8);
+                this.readBytes(joinSplitSize);
+                fields.put(PREFIX + "vjoinsplit[" + i + "].vpub_old", formatAmount(vpubOld));
+                fields.put(PREFIX + "vjoinsplit[" + i + "].vpub_new", formatAmount(vpubNew));
+            }
+            if (joinSplits > 0) {
+                this.readBytes(JOINSPLIT_PUB_KEY_AND_SIG_SIZE);
+            }
+            fields.put(PREFIX + "vjoinsplit.count", String.valueOf(joinSplits));
+            fields.put(PREFIX + "vjoinsplit.size", String.valueOf(this.offset - start));
+        }
+
+        if ((spends + shieldedOutputs) > 0) {
+            this.readBytes(BINDING_SIG_SIZE);
+        }
+
+        if (this.offset != this.bytes.length) {
+            throw new IOException("Unexpected " + (this.bytes.length - this.offset) +
+                    " bytes at the end of the raw transaction");
+        }
+
+        return fields;
+    }
+
+
+    private long readUint32() {
+        long value = Utils.readUint32(this.bytes, this.offset);
+        this.offset += 4;
+        return value;
+    }
+
+
+    private long readInt64() {
+        long value = Utils.readInt64(this.bytes, this.offset);
+        this.offset += 8;
+        return value;
+    }
+
+
+    private long readVarInt()
+            throws IOException {
+        VarInt varInt = new VarInt(this.bytes, this.offset);
+        this.offset += varInt.getOriginalSizeInBytes();
+        // Also protects the int casts of the lengths
+        if ((varInt.value < 0) || (varInt.value > this.bytes.length)) {
+            throw new IOException("Invalid length in the raw transaction: " + varInt.value);
+        }
+        return varInt.value;
+    }
+
+
+    private byte[] readBytes(int length) {
+        if ((this.offset + length) > this.bytes.length) {
+            throw new ArrayIndexOutOfBoundsException(this.offset + length);
+        }
+        byte[] result = Arrays.copyOfRange(this.bytes, this.offset, this.offset + length);
+        this.offset += length;
+        return result;
+    }
+
+
+    // Same names as decoderawtransaction for the common script forms
+    private static String getScriptType(byte[] script) {
+        if ((script.length == 25) && ((script[0] & 0xFF) == 0x76) && ((script[1] & 0xFF) == 0xA9) &&
+                (script[2] == 20) && ((script[23] & 0xFF) == 0x88) && ((script[24] & 0xFF) == 0xAC)) {
+            return "pubkeyhash";
+        } else if ((script.length == 23) && ((script[0] & 0xFF) == 0xA9) && (script[1] == 20) &&
+                ((script[22] & 0xFF) == 0x87)) {
+            return "scripthash";
+        } else if (((script.length == 35) || (script.length == 67)) && (script[0] == (script.length - 2)) &&
+                ((script[script.length - 1] & 0xFF) == 0xAC)) {
+            return "pubkey";
+        } else if ((script.length > 0) && ((script[0] & 0xFF) == 0x6A)) {
+            return "nulldata";
+        }
+        return "nonstandard";
+    }
+
+
+    // Coins with 8 decimals - as in the daemon JSON
+    private static String formatAmount(long zatoshis) {
+        return BigDecimal.valueOf(zatoshis, 8).toPlainString();
+    }
+
+
+    private static boolean isZero(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
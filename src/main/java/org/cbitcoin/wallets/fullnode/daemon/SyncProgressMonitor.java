@@ -0,0 +1,114 @@
+package org.cbitcoin.wallets.fullnode.daemon;
+
+import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller.BlockchainSyncInfo;
+
+
+/**
+ * Computes the speed of the blockchain synchronization and the time remaining from successive
+ * getblockchaininfo results.
+ * <p>
+ * The rates are smoothed exponentially over about a minute, so they do not jump with each block.
+ * The time remaining is based on the verification progress, which the daemon estimates from the number
+ * of transactions - blocks later in the chain take longer, so a block count based estimate would be
+ * too optimistic. The number of blocks is only used while the progress does not change.
+ * <p>
+ * Instances are thread safe.
+ */
+public class SyncProgressMonitor {
+    public static class SyncStatus {
+        public long blocks;
+        public long headers;
+        public double verificationProgress;
+        // Smoothed rates - Double.NaN until two samples are known
+        public double blocksPerSecond;
+        public double progressPerSecond;
+        // -1 if unknown
+        public long remainingSeconds;
+        public boolean isSynchronized;
+    }
+
+    // Time constant of the exponential smoothing
+    private static final long SMOOTHING_TIME = 60 * 1000L;
+
+    // The progress is an estimate that does not quite reach 1
+    private static final double SYNCHRONIZED_PROGRESS = 0.9995;
+
+    private final long smoothingTime;
+
+    private long lastTime = -1;
+    private long lastBlocks;
+    private double lastProgress;
+
+    private double blocksPerSecond = Double.NaN;
+    private double progressPerSecond = Double.NaN;
+
+    private SyncStatus lastStatus = null;
+
+
+    public SyncProgressMonitor() {
+        this(SMOOTHING_TIME);
+    }
+
+
+    SyncProgressMonitor(long smoothingTime) {
+        this.smoothingTime = smoothingTime;
+    }
+
+
+    /**
+     * @param info result of getblockchaininfo
+     * @param time time of the call in ms
+     * @return the status after the update
+     */
+    public synchronized SyncStatus update(BlockchainSyncInfo info, long time) {
+        if ((this.lastTime >= 0) && (info.blocks < this.lastBlocks)) {
+            // Reindex or reorganization - the earlier rates no longer apply
+            this.blocksPerSecond = Double.NaN;
+            this.progressPerSecond = Double.NaN;
+        } else if ((this.lastTime >= 0) && (time > this.lastTime)) {
+            double seconds = (time - this.lastTime) / 1000d;
+            double weight = 1 - Math.exp(-(time - this.lastTime) / (double) this.smoothingTime);
+            this.blocksPerSecond = smooth(this.blocksPerSecond, (info.blocks - this.lastBlocks) / seconds, weight);
+            this.progressPerSecond = smooth(this.progressPerSecond,
+                    Math.max(0, info.verificationProgress - this.lastProgress) / seconds, weight);
+        }
+
+        this.lastTime = time;
+        this.lastBlocks = info.blocks;
+        this.lastProgress = info.verificationProgress;
+
+        SyncStatus status = new SyncStatus();
+        status.blocks = info.blocks;
+        status.headers = Math.max(info.headers, info.blocks);
+        status.verificationProgress = Math.min(1, info.verificationProgress);
+        status.blocksPerSecond = this.blocksPerSecond;
+        status.progressPerSecond = this.progressPerSecond;
+        status.isSynchronized = (info.blocks >= info.headers) && (info.verificationProgress >= SYNCHRONIZED_PROGRESS);
+
+        if (status.isSynchronized) {
+            status.remainingSeconds = 0;
+        } else if (this.progressPerSecond > 0) {
+            status.remainingSeconds = Math.round((1 - status.verificationProgress) / this.progressPerSecond);
+        } else if ((this.blocksPerSecond > 0) && (status.headers > status.blocks)) {
+            status.remainingSeconds = Math.round((status.headers - status.blocks) / this.blocksPerSecond);
+        } else {
+            status.remainingSeconds = -1;
+        }
+
+        this.lastStatus = status;
+        return status;
+    }
+
+
+    /**
+     * @return the status after the last update - null if none yet
+     */
+    public synchronized SyncStatus getLastStatus() {
+        return this.lastStatus;
+    }
+
+
+    private static double smooth(double smoothed, double value, double weight) {
+        return Double.isNaN(smoothed) ? value : (smoothed + (weight * (value - smoothed)));
+    }
+}
@@ -0,0 +1,344 @@
+package org.cbitcoin.wallets.fullnode.explorer;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.ParseException;
+import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller;
+import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller.WalletCallException;
+import org.cbitcoin.wallets.fullnode.util.Log;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+
+/**
+ * Cache of the blocks and transactions looked up in the explorer - so that the daemon is called only
+ * once for each of them. Recently used entries are kept parsed in memory, all cached entries are stored
+ * as JSON files - block-[height]-[hash].json and tx-[txid].json - so they survive a restart.
+ * <p>
+ * Only blocks and transactions with at least MIN_CONFIRMATIONS are cached - more recent ones may still be
+ * replaced by a reorganization. The number of confirmations is not stored since it keeps changing. When
+ * the total size of the files exceeds the maximum, the least recently used ones are deleted - the last use
+ * of a file is its modification time, so the order survives a restart.
+ * <p>
+ * The returned JSON objects are shared and must not be modified. Instances are thread safe.
+ */
+public class ExplorerCache {
+    public static enum SOURCE {
+        MEMORY, DISK, DAEMON
+    }
+
+    /**
+     * A block or transaction and where it was found.
+     */
+    public static class Result {
+        private final JsonObject json;
+        private final SOURCE source;
+
+        Result(JsonObject json, SOURCE source) {
+            this.json = json;
+            this.source = source;
+        }
+
+        public JsonObject getJSON() {
+            return this.json;
+        }
+
+        public SOURCE getSource() {
+            return this.source;
+        }
+    }
+
+    public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+    public static final int MIN_CONFIRMATIONS = 10;
+
+    private static final int MAX_MEMORY_ENTRIES = 1000;
+
+    private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-fA-F]{64}");
+
+    private static final String BLOCK_PREFIX = "block-";
+    private static final String TRANSACTION_PREFIX = "tx-";
+    private static final String EXTENSION = ".json";
+
+    // Reads a block or transaction from the daemon
+    private interface Loader {
+        JsonObject load()
+                throws WalletCallException, IOException, InterruptedException;
+    }
+
+    private final File cacheDir;
+    private final long maxSize;
+    private final CBTCClientCaller caller;
+
+    // Key (block-[hash] or tx-[txid]) -> parsed JSON, least recently used first
+    private final LinkedHashMap<String, JsonObject> memory;
+    // Key -> file, least recently used first
+    private final LinkedHashMap<String, File> files;
+    private long totalSize;
+
+    // Height -> hash of the cached blocks
+    private final Map<Long, String> blockHashes;
+
+    // Blocks being loaded by the prefetcher
+    private final Set<String> pending;
+    private final ExecutorService prefetcher;
+
+
+    public ExplorerCache(File cacheDir, long maxSize, CBTCClientCaller caller)
+            throws IOException {
+        long start = System.currentTimeMillis();
+
+        this.cacheDir = cacheDir;
+        this.maxSize = maxSize;
+        this.caller = caller;
+        this.memory = new LinkedHashMap<String, JsonObject>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, JsonObject> eldest) {
+                return this.size() > MAX_MEMORY_ENTRIES;
+            }
+        };
+        this.files = new LinkedHashMap<String, File>(16, 0.75f, true);
+        this.blockHashes = new HashMap<Long, String>();
+        this.pending = new HashSet<String>();
+
+        if ((!cacheDir.exists()) && (!cacheDir.mkdirs())) {
+            throw new IOException("Could not create directory: " + cacheDir.getAbsolutePath());
+        }
+
+        File[] cached = cacheDir.listFiles();
+        if (cached == null) {
+            throw new IOException("Could not list directory: " + cacheDir.getAbsolutePath());
+        }
+        Arrays.sort(cached, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        for (File file : cached) {
+            String name = file.getName();
+            String[] parts = name.endsWith(EXTENSION) ?
+                    name.substring(0, name.length() - EXTENSION.length()).split("-") : new String[0];
+            if ((parts.length == 3) && (BLOCK_PREFIX.equals(parts[0] + "-")) && isValidHash(parts[2])) {
+                try {
+                    this.blockHashes.put(Long.parseLong(parts[1]), parts[2]);
+                } catch (NumberFormatException nfe) {
+                    file.delete();
+                    continue;
+                }
+                this.files.put(BLOCK_PREFIX + parts[2], file);
+            } else if ((parts.length == 2) && (TRANSACTION_PREFIX.equals(parts[0] + "-")) && isValidHash(parts[1])) {
+                this.files.put(TRANSACTION_PREFIX + parts[1], file);
+            } else {
+                // Left by an interrupted write
+                file.delete();
+                continue;
+            }
+            this.totalSize += file.length();
+        }
+
+        this.prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ExplorerPrefetcher");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+
+        Log.info("Loading of explorer cache with {0} files ({1} bytes) done in {2}ms.",
+                this.files.size(), this.totalSize, System.currentTimeMillis() - start);
+    }
+
+
+    public static boolean isValidHash(String hash) {
+        return (hash != null) && HASH_PATTERN.matcher(hash).matches();
+    }
+
+
+    public Result getBlock(String hash)
+            throws WalletCallException, IOException, InterruptedException {
+        if (!isValidHash(hash)) {
+            throw new IOException("Invalid block hash: " + hash);
+        }
+
+        final String key = hash.toLowerCase(Locale.ROOT);
+        return this.get(BLOCK_PREFIX + key, () -> ExplorerCache.this.caller.getBlock(key));
+    }
+
+
+    public Result getBlock(long height)
+            throws WalletCallException, IOException, InterruptedException {
+        String hash;
+        synchronized (this) {
+            hash = this.blockHashes.get(height);
+        }
+
+        return this.getBlock((hash != null) ? hash : this.caller.getBlockHash(height));
+    }
+
+
+    public Result getTransaction(String txID)
+            throws WalletCallException, IOException, InterruptedException {
+        if (!isValidHash(txID)) {
+            throw new IOException("Invalid transaction ID: " + txID);
+        }
+
+        final String key = txID.toLowerCase(Locale.ROOT);
+        return this.get(TRANSACTION_PREFIX + key, () -> ExplorerCache.this.caller.getDecodedTransaction(key));
+    }
+
+
+    /**
+     * Loads the previous and the next block in the background - they are likely to be looked up next.
+     *
+     * @param block    a block
+     * @param onCached called in the prefetching thread when a block is loaded, may be null
+     */
+    public void prefetchNeighbours(JsonObject block, final Runnable onCached) {
+        for (String name : new String[]{"previousblockhash", "nextblockhash"}) {
+            final String hash = block.getString(name, null);
+            synchronized (this) {
+                if ((!isValidHash(hash)) || this.memory.containsKey(BLOCK_PREFIX + hash) ||
+                        this.files.containsKey(BLOCK_PREFIX + hash) || (!this.pending.add(hash))) {
+                    continue;
+                }
+            }
+
+            this.prefetcher.execute(() -> {
+                try {
+                    ExplorerCache.this.getBlock(hash);
+                    if (onCached != null) {
+                        onCached.run();
+                    }
+                } catch (Exception e) {
+                    Log.warning("Could not prefetch block {0}: {1}", hash, e.getMessage());
+                } finally {
+                    synchronized (ExplorerCache.this) {
+                        ExplorerCache.this.pending.remove(hash);
+                    }
+                }
+            });
+        }
+    }
+
+
+    public synchronized long getTotalSize() {
+        return this.totalSize;
+    }
+
+
+    public synchronized int getFileCount() {
+        return this.files.size();
+    }
+
+
+    private Result get(String key, Loader loader)
+            throws WalletCallException, IOException, InterruptedException {
+        synchronized (this) {
+            JsonObject json = this.memory.get(key);
+            if (json != null) {
+                this.files.get(key); // Most recently used also on disk
+                return new Result(json, SOURCE.MEMORY);
+            }
+
+            File file = this.files.get(key);
+            if (file != null) {
+                try {
+                    json = Json.parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8)).asObject();
+                    file.setLastModified(System.currentTimeMillis());
+                    this.memory.put(key, json);
+                    return new Result(json, SOURCE.DISK);
+                } catch (IOException | ParseException | UnsupportedOperationException e) {
+                    // Deleted or damaged outside of the wallet
+                    Log.warning("Removing unreadable explorer cache file {0}: {1}", file.getName(), e.toString());
+                    this.remove(key);
+                }
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        JsonObject json = loader.load();
+        Log.info("Loading of {0} from the daemon done in {1}ms.", key, System.currentTimeMillis() - start);
+
+        if (json.getLong("confirmations", 0) >= MIN_CONFIRMATIONS) {
+            this.store(key, json);
+        }
+
+        return new Result(json, SOURCE.DAEMON);
+    }
+
+
+    private void store(String key, JsonObject json)
+            throws IOException {
+        JsonObject stored = Json.parse(json.toString()).asObject();
+        stored.remove("confirmations");
+
+        String name = key;
+        if (key.startsWith(BLOCK_PREFIX)) {
+            name = BLOCK_PREFIX + stored.getLong("height", -1) + "-" + key.substring(BLOCK_PREFIX.length());
+        }
+        File file = new File(this.cacheDir, name + EXTENSION);
+
+        // Unique - the same block may be stored by the prefetcher and a lookup at once
+        File tempFile = File.createTempFile(name + ".", ".tmp", this.cacheDir);
+        try {
+            Files.write(tempFile.toPath(), stored.toString().getBytes(StandardCharsets.UTF_8));
+            if ((!file.exists()) && (!tempFile.renameTo(file))) {
+                throw new IOException("Could not rename file " + tempFile.getAbsolutePath() +
+                        " to " + file.getAbsolutePath());
+            }
+        } finally {
+            tempFile.delete();
+        }
+
+        synchronized (this) {
+            File previous = this.files.put(key, file);
+            if (previous != null) {
+                this.totalSize -= previous.length();
+            }
+            this.totalSize += file.length();
+            this.memory.put(key, stored);
+            if (key.startsWith(BLOCK_PREFIX)) {
+                this.blockHashes.put(stored.getLong("height", -1), key.substring(BLOCK_PREFIX.length()));
+            }
+            this.evict(key);
+        }
+    }
+
+
+    // Deletes the least recently used files until the cache fits its maximum size
+    private void evict(String keepKey) {
+        List<String> oldest = new ArrayList<String>();
+        long size = this.totalSize;
+        for (Map.Entry<String, File> entry : this.files.entrySet()) {
+            if (size <= this.maxSize) {
+                break;
+            }
+            if (!entry.getKey().equals(keepKey)) {
+                oldest.add(entry.getKey());
+                size -= entry.getValue().length();
+            }
+        }
+
+        for (String key : oldest) {
+            Log.info("Removing {0} from the explorer cache.", key);
+            this.remove(key);
+        }
+    }
+
+
+    private void remove(String key) {
+        this.memory.remove(key);
+        File file = this.files.remove(key);
+        if (file != null) {
+            this.totalSize -= file.length();
+            file.delete();
+        }
+        this.blockHashes.values().remove(key.substring(key.indexOf('-') + 1));
+    }
+}
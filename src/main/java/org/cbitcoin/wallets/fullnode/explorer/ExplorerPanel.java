@@ -0,0 +1,415 @@
+package org.cbitcoin.wallets.fullnode.explorer;
+
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller;
+import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller.WalletCallException;
+import org.cbitcoin.wallets.fullnode.explorer.ExplorerCache.Result;
+import org.cbitcoin.wallets.fullnode.ui.WalletTabPanel;
+import org.cbitcoin.wallets.fullnode.ui.WalletTextField;
+import org.cbitcoin.wallets.fullnode.util.Log;
+import org.cbitcoin.wallets.fullnode.util.OSUtil;
+import org.cbitcoin.wallets.fullnode.util.Util;
+
+import javax.swing.*;
+import javax.swing.event.HyperlinkEvent;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.List;
+
+
+/**
+ * Local block and transaction explorer - looks up blocks by height or hash, transactions by ID and the
+ * addresses of this wallet, without sending the lookups to a web site. Blocks and transactions are kept
+ * in an ExplorerCache so that browsing back and forth does not call the daemon again.
+ */
+public class ExplorerPanel
+    extends WalletTabPanel {
+  private static final String CACHE_DIR = "explorer_cache";
+
+  // A block may have thousands of transactions - only the first ones are listed
+  private static final int MAX_LISTED_TRANSACTIONS = 500;
+
+  private static final String LINK_BLOCK = "block:";
+  private static final String LINK_TRANSACTION = "tx:";
+
+  private static final String LOCAL_MSG_EXPLORER_SEARCH_LABEL = Util.local("LOCAL_MSG_EXPLORER_SEARCH_LABEL");
+  private static final String LOCAL_MSG_EXPLORER_SEARCH = Util.local("LOCAL_MSG_EXPLORER_SEARCH");
+  private static final String LOCAL_MSG_EXPLORER_BACK = Util.local("LOCAL_MSG_EXPLORER_BACK");
+  private static final String LOCAL_MSG_EXPLORER_PREVIOUS_BLOCK = Util.local("LOCAL_MSG_EXPLORER_PREVIOUS_BLOCK");
+  private static final String LOCAL_MSG_EXPLORER_NEXT_BLOCK = Util.local("LOCAL_MSG_EXPLORER_NEXT_BLOCK");
+  private static final String LOCAL_MSG_EXPLORER_BLOCK = Util.local("LOCAL_MSG_EXPLORER_BLOCK");
+  private static final String LOCAL_MSG_EXPLORER_TRANSACTION = Util.local("LOCAL_MSG_EXPLORER_TRANSACTION");
+  private static final String LOCAL_MSG_EXPLORER_ADDRESS = Util.local("LOCAL_MSG_EXPLORER_ADDRESS");
+  private static final String LOCAL_MSG_EXPLORER_HEIGHT = Util.local("LOCAL_MSG_EXPLORER_HEIGHT");
+  private static final String LOCAL_MSG_EXPLORER_HASH = Util.local("LOCAL_MSG_EXPLORER_HASH");
+  private static final String LOCAL_MSG_EXPLORER_TIME = Util.local("LOCAL_MSG_EXPLORER_TIME");
+  private static final String LOCAL_MSG_EXPLORER_CONFIRMATIONS = Util.local("LOCAL_MSG_EXPLORER_CONFIRMATIONS");
+  private static final String LOCAL_MSG_EXPLORER_SIZE = Util.local("LOCAL_MSG_EXPLORER_SIZE");
+  private static final String LOCAL_MSG_EXPLORER_DIFFICULTY = Util.local("LOCAL_MSG_EXPLORER_DIFFICULTY");
+  private static final String LOCAL_MSG_EXPLORER_TRANSACTIONS = Util.local("LOCAL_MSG_EXPLORER_TRANSACTIONS");
+  private static final String LOCAL_MSG_EXPLORER_MORE_TRANSACTIONS = Util.local("LOCAL_MSG_EXPLORER_MORE_TRANSACTIONS");
+  private static final String LOCAL_MSG_EXPLORER_INPUTS = Util.local("LOCAL_MSG_EXPLORER_INPUTS");
+  private static final String LOCAL_MSG_EXPLORER_OUTPUTS = Util.local("LOCAL_MSG_EXPLORER_OUTPUTS");
+  private static final String LOCAL_MSG_EXPLORER_COINBASE = Util.local("LOCAL_MSG_EXPLORER_COINBASE");
+  private static final String LOCAL_MSG_EXPLORER_SHIELDED = Util.local("LOCAL_MSG_EXPLORER_SHIELDED");
+  private static final String LOCAL_MSG_EXPLORER_BALANCE = Util.local("LOCAL_MSG_EXPLORER_BALANCE");
+  private static final String LOCAL_MSG_EXPLORER_NOT_FOUND = Util.local("LOCAL_MSG_EXPLORER_NOT_FOUND");
+  private static final String LOCAL_MSG_EXPLORER_NOT_WALLET_ADDRESS = Util.local("LOCAL_MSG_EXPLORER_NOT_WALLET_ADDRESS");
+  private static final String LOCAL_MSG_EXPLORER_TXINDEX_HINT = Util.local("LOCAL_MSG_EXPLORER_TXINDEX_HINT");
+  private static final String LOCAL_MSG_EXPLORER_LOADING = Util.local("LOCAL_MSG_EXPLORER_LOADING");
+  private static final String LOCAL_MSG_EXPLORER_LOADED_FROM = Util.local("LOCAL_MSG_EXPLORER_LOADED_FROM");
+  private static final String LOCAL_MSG_EXPLORER_SOURCE_MEMORY = Util.local("LOCAL_MSG_EXPLORER_SOURCE_MEMORY");
+  private static final String LOCAL_MSG_EXPLORER_SOURCE_DISK = Util.local("LOCAL_MSG_EXPLORER_SOURCE_DISK");
+  private static final String LOCAL_MSG_EXPLORER_SOURCE_DAEMON = Util.local("LOCAL_MSG_EXPLORER_SOURCE_DAEMON");
+
+  private final CBTCClientCaller clientCaller;
+  private final ExplorerCache cache;
+
+  private final JTextField searchField;
+  private final JButton backButton;
+  private final JButton previousBlockButton;
+  private final JButton nextBlockButton;
+  private final JEditorPane contentPane;
+  private final JLabel statusLabel;
+
+  // Queries shown before the current one - for the back button
+  private final Deque<String> history = new ArrayDeque<>();
+  private String currentQuery = null;
+
+  // Neighbours of the block shown - null if none or not a block
+  private String previousBlockHash = null;
+  private String nextBlockHash = null;
+
+  // Only the result of the last lookup is shown
+  private int lookupCounter = 0;
+
+
+  public ExplorerPanel(CBTCClientCaller clientCaller)
+      throws IOException, InterruptedException, WalletCallException {
+    this.clientCaller = clientCaller;
+    this.cache = new ExplorerCache(new File(OSUtil.getSettingsDirectory(), CACHE_DIR),
+        ExplorerCache.DEFAULT_MAX_SIZE, clientCaller);
+
+    this.setBorder(BorderFactory.createEmptyBorder(3, 3, 3, 3));
+    this.setLayout(new BorderLayout(3, 3));
+
+    JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 4, 3));
+    searchPanel.add(new JLabel(LOCAL_MSG_EXPLORER_SEARCH_LABEL));
+    searchPanel.add(this.searchField = new WalletTextField(46));
+    JButton searchButton = new JButton(LOCAL_MSG_EXPLORER_SEARCH);
+    searchPanel.add(searchButton);
+    searchPanel.add(this.backButton = new JButton(LOCAL_MSG_EXPLORER_BACK));
+    searchPanel.add(this.previousBlockButton = new JButton(LOCAL_MSG_EXPLORER_PREVIOUS_BLOCK));
+    searchPanel.add(this.nextBlockButton = new JButton(LOCAL_MSG_EXPLORER_NEXT_BLOCK));
+    this.add(searchPanel, BorderLayout.NORTH);
+
+    this.contentPane = new JEditorPane("text/html", "");
+    this.contentPane.setEditable(false);
+    this.add(new JScrollPane(this.contentPane), BorderLayout.CENTER);
+
+    this.add(this.statusLabel = new JLabel(" "), BorderLayout.SOUTH);
+
+    this.updateButtons();
+
+    searchButton.addActionListener(e -> ExplorerPanel.this.search(ExplorerPanel.this.searchField.getText()));
+    this.searchField.addActionListener(e -> ExplorerPanel.this.search(ExplorerPanel.this.searchField.getText()));
+
+    this.backButton.addActionListener(e -> {
+      if (!ExplorerPanel.this.history.isEmpty()) {
+        ExplorerPanel.this.currentQuery = null; // Not added to the history again
+        ExplorerPanel.this.search(ExplorerPanel.this.history.pop());
+      }
+    });
+    this.previousBlockButton.addActionListener(e -> ExplorerPanel.this.search(ExplorerPanel.this.previousBlockHash));
+    this.nextBlockButton.addActionListener(e -> ExplorerPanel.this.search(ExplorerPanel.this.nextBlockHash));
+
+    this.contentPane.addHyperlinkListener(e -> {
+      if (e.getEventType() == HyperlinkEvent.EventType.ACTIVATED) {
+        String link = e.getDescription();
+        ExplorerPanel.this.search(link.substring(link.indexOf(':') + 1));
+      }
+    });
+  }
+
+
+  /**
+   * Shows a transaction - and this panel if it is in a tabbed pane.
+   *
+   * @param txID ID of the transaction
+   */
+  public void showTransaction(String txID) {
+    JTabbedPane tabs = (JTabbedPane) SwingUtilities.getAncestorOfClass(JTabbedPane.class, this);
+    if (tabs != null) {
+      tabs.setSelectedComponent(this);
+    }
+
+    this.search(txID);
+  }
+
+
+  /**
+   * Looks up a block height, block hash, transaction ID or wallet address. The lookup is done in a separate
+   * thread - the result is shown when it is done.
+   *
+   * @param query what to look up
+   */
+  public void search(String query) {
+    if ((query == null) || query.trim().isEmpty()) {
+      return;
+    }
+
+    final String trimmedQuery = query.trim();
+    if ((this.currentQuery != null) && (!this.currentQuery.equals(trimmedQuery))) {
+      this.history.push(this.currentQuery);
+    }
+    this.currentQuery = trimmedQuery;
+    this.searchField.setText(trimmedQuery);
+    this.statusLabel.setText(LOCAL_MSG_EXPLORER_LOADING);
+    this.previousBlockHash = null;
+    this.nextBlockHash = null;
+    this.updateButtons();
+
+    final int lookup = ++this.lookupCounter;
+    new Thread(() -> {
+      long start = System.nanoTime();
+      String html;
+      String status;
+      JsonObject block = null;
+      try {
+        Result result = null;
+        if (trimmedQuery.matches("[0-9]{1,10}")) {
+          result = ExplorerPanel.this.cache.getBlock(Long.parseLong(trimmedQuery));
+        } else if (ExplorerCache.isValidHash(trimmedQuery)) {
+          // Block hashes and transaction IDs look the same
+          try {
+            result = ExplorerPanel.this.cache.getBlock(trimmedQuery);
+          } catch (WalletCallException notABlock) {
+            result = ExplorerPanel.this.cache.getTransaction(trimmedQuery);
+          }
+        }
+
+        if (result == null) {
+          html = ExplorerPanel.this.formatAddress(trimmedQuery);
+          status = " ";
+        } else if (result.getJSON().get("tx") != null) {
+          block = result.getJSON();
+          html = ExplorerPanel.this.formatBlock(block);
+          status = formatStatus(result, System.nanoTime() - start);
+        } else {
+          html = ExplorerPanel.this.formatTransaction(result.getJSON());
+          status = formatStatus(result, System.nanoTime() - start);
+        }
+      } catch (WalletCallException wce) {
+        Log.warning("Explorer lookup of {0} failed: {1}", trimmedQuery, wce.getMessage());
+        html = "<p>" + Util.escapeHTMLValue(String.format(LOCAL_MSG_EXPLORER_NOT_FOUND, trimmedQuery)) + "</p>" +
+            "<p>" + Util.escapeHTMLValue(LOCAL_MSG_EXPLORER_TXINDEX_HINT) + "</p>";
+        status = " ";
+      } catch (Exception e) {
+        Log.error("Unexpected error in explorer lookup of " + trimmedQuery + ": ", e);
+        html = "<p>" + Util.escapeHTMLValue(e.toString()) + "</p>";
+        status = " ";
+      }
+
+      final String finalHTML = html;
+      final String finalStatus = status;
+      final JsonObject finalBlock = block;
+      SwingUtilities.invokeLater(() -> ExplorerPanel.this.show(lookup, finalHTML, finalStatus, finalBlock));
+    }, "ExplorerLookup").start();
+  }
+
+
+  private void show(int lookup, String html, String status, JsonObject block) {
+    if (lookup != this.lookupCounter) {
+      return; // A later lookup was started
+    }
+
+    this.contentPane.setText("<html><body style=\"font-family:sans-serif;\">" + html + "</body></html>");
+    this.contentPane.setCaretPosition(0);
+    this.statusLabel.setText(status);
+
+    if (block != null) {
+      this.previousBlockHash = block.getString("previousblockhash", null);
+      this.nextBlockHash = block.getString("nextblockhash", null);
+      this.cache.prefetchNeighbours(block, null);
+    }
+    this.updateButtons();
+  }
+
+
+  private void updateButtons() {
+    this.backButton.setEnabled(!this.history.isEmpty());
+    this.previousBlockButton.setEnabled(this.previousBlockHash != null);
+    this.nextBlockButton.setEnabled(this.nextBlockHash != null);
+  }
+
+
+  private String formatBlock(JsonObject block) {
+    StringBuilder html = new StringBuilder();
+    html.append("<h3>").append(LOCAL_MSG_EXPLORER_BLOCK).append("</h3>");
+    html.append("<table>");
+    appendRow(html, LOCAL_MSG_EXPLORER_HEIGHT, String.valueOf(block.getLong("height", -1)));
+    appendRow(html, LOCAL_MSG_EXPLORER_HASH, escape(block.getString("hash", "")));
+    appendRow(html, LOCAL_MSG_EXPLORER_TIME, formatTime(block.getLong("time", 0)));
+    if (block.get("confirmations") != null) {
+      appendRow(html, LOCAL_MSG_EXPLORER_CONFIRMATIONS, String.valueOf(block.getLong("confirmations", 0)));
+    }
+    appendRow(html, LOCAL_MSG_EXPLORER_SIZE, String.valueOf(block.getLong("size", 0)));
+    appendRow(html, LOCAL_MSG_EXPLORER_DIFFICULTY, escape(String.valueOf(block.get("difficulty"))));
+    String previous = block.getString("previousblockhash", null);
+    if (previous != null) {
+      appendRow(html, LOCAL_MSG_EXPLORER_PREVIOUS_BLOCK, link(LINK_BLOCK, previous));
+    }
+    String next = block.getString("nextblockhash", null);
+    if (next != null) {
+      appendRow(html, LOCAL_MSG_EXPLORER_NEXT_BLOCK, link(LINK_BLOCK, next));
+    }
+    html.append("</table>");
+
+    JsonArray transactions = block.get("tx").asArray();
+    html.append("<h4>").append(LOCAL_MSG_EXPLORER_TRANSACTIONS).append(" (").append(transactions.size()).append(")</h4>");
+    for (int i = 0; (i < transactions.size()) && (i < MAX_LISTED_TRANSACTIONS); i++) {
+      html.append(link(LINK_TRANSACTION, transactions.get(i).asString())).append("<br/>");
+    }
+    if (transactions.size() > MAX_LISTED_TRANSACTIONS) {
+      html.append(escape(String.format(LOCAL_MSG_EXPLORER_MORE_TRANSACTIONS,
+          transactions.size() - MAX_LISTED_TRANSACTIONS)));
+    }
+
+    return html.toString();
+  }
+
+
+  private String formatTransaction(JsonObject transaction) {
+    DecimalFormat df = new DecimalFormat("########0.00######");
+
+    StringBuilder html = new StringBuilder();
+    html.append("<h3>").append(LOCAL_MSG_EXPLORER_TRANSACTION).append("</h3>");
+    html.append("<table>");
+    appendRow(html, LOCAL_MSG_EXPLORER_HASH, escape(transaction.getString("txid", "")));
+    String blockHash = transaction.getString("blockhash", null);
+    if (blockHash != null) {
+      appendRow(html, LOCAL_MSG_EXPLORER_BLOCK, link(LINK_BLOCK, blockHash));
+      appendRow(html, LOCAL_MSG_EXPLORER_TIME, formatTime(transaction.getLong("blocktime", 0)));
+    }
+    if (transaction.get("confirmations") != null) {
+      appendRow(html, LOCAL_MSG_EXPLORER_CONFIRMATIONS, String.valueOf(transaction.getLong("confirmations", 0)));
+    }
+    html.append("</table>");
+
+    html.append("<h4>").append(LOCAL_MSG_EXPLORER_INPUTS).append("</h4>");
+    for (JsonValue value : getArray(transaction, "vin")) {
+      JsonObject input = value.asObject();
+      if (input.get("coinbase") != null) {
+        html.append(LOCAL_MSG_EXPLORER_COINBASE).append("<br/>");
+      } else {
+        html.append(link(LINK_TRANSACTION, input.getString("txid", ""))).append(" : ")
+            .append(input.getLong("vout", -1)).append("<br/>");
+      }
+    }
+
+    html.append("<h4>").append(LOCAL_MSG_EXPLORER_OUTPUTS).append("</h4>");
+    for (JsonValue value : getArray(transaction, "vout")) {
+      JsonObject output = value.asObject();
+      html.append(output.getLong("n", -1)).append(": ").append(df.format(output.getDouble("value", 0)));
+      JsonValue scriptPubKey = output.get("scriptPubKey");
+      if ((scriptPubKey != null) && scriptPubKey.isObject()) {
+        for (JsonValue address : getArray(scriptPubKey.asObject(), "addresses")) {
+          html.append(" ").append(escape(address.asString()));
+        }
+      }
+      html.append("<br/>");
+    }
+
+    int joinSplits = getArray(transaction, "vjoinsplit").size();
+    if (joinSplits > 0) {
+      html.append("<p>").append(escape(String.format(LOCAL_MSG_EXPLORER_SHIELDED, joinSplits))).append("</p>");
+    }
+
+    return html.toString();
+  }
+
+
+  // Without an address index only the addresses of this wallet can be looked up
+  private String formatAddress(String address)
+      throws WalletCallException, IOException, InterruptedException {
+    List<String> walletAddresses = new ArrayList<>();
+    walletAddresses.addAll(Arrays.asList(this.clientCaller.getWalletAllPublicAddresses()));
+    walletAddresses.addAll(Arrays.asList(this.clientCaller.getWalletZAddresses()));
+    if (!walletAddresses.contains(address)) {
+      return "<p>" + escape(String.format(LOCAL_MSG_EXPLORER_NOT_WALLET_ADDRESS, address)) + "</p>";
+    }
+
+    StringBuilder html = new StringBuilder();
+    html.append("<h3>").append(LOCAL_MSG_EXPLORER_ADDRESS).append("</h3>");
+    html.append("<table>");
+    appendRow(html, LOCAL_MSG_EXPLORER_HASH, escape(address));
+    appendRow(html, LOCAL_MSG_EXPLORER_BALANCE, escape(this.clientCaller.getBalanceForAddress(address)));
+    html.append("</table>");
+
+    html.append("<h4>").append(LOCAL_MSG_EXPLORER_TRANSACTIONS).append("</h4>");
+    Set<String> shown = new HashSet<>();
+    String[][][] transactionSets = {
+        this.clientCaller.getWalletPublicTransactions(),
+        Util.isZAddress(address) ? this.clientCaller.getWalletZReceivedTransactions() : new String[0][]
+    };
+    for (String[][] transactions : transactionSets) {
+      for (String[] transaction : transactions) {
+        String txID = transaction[6].replaceAll("\"", "");
+        if (address.equals(transaction[5]) && shown.add(txID)) {
+          html.append(link(LINK_TRANSACTION, txID)).append(" ").append(escape(transaction[3])).append("<br/>");
+        }
+      }
+    }
+
+    return html.toString();
+  }
+
+
+  private static String formatStatus(Result result, long nanos) {
+    String source;
+    switch (result.getSource()) {
+      case MEMORY:
+        source = LOCAL_MSG_EXPLORER_SOURCE_MEMORY;
+        break;
+      case DISK:
+        source = LOCAL_MSG_EXPLORER_SOURCE_DISK;
+        break;
+      default:
+        source = LOCAL_MSG_EXPLORER_SOURCE_DAEMON;
+    }
+
+    return String.format(LOCAL_MSG_EXPLORER_LOADED_FROM, source, nanos / 1000);
+  }
+
+
+  private static JsonArray getArray(JsonObject object, String name) {
+    JsonValue value = object.get(name);
+    return ((value != null) && value.isArray()) ? value.asArray() : new JsonArray();
+  }
+
+
+  private static void appendRow(StringBuilder html, String name, String value) {
+    html.append("<tr><td><b>").append(name).append("</b></td><td>").append(value).append("</td></tr>");
+  }
+
+
+  private static String link(String type, String hash) {
+    return "<a href=\"" + type + escape(hash) + "\">" + escape(hash) + "</a>";
+  }
+
+
+  private static String formatTime(long seconds) {
+    return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(seconds * 1000L));
+  }
+
+
+  private static String escape(String value) {
+    return Util.escapeHTMLValue(value);
+  }
+}
@@ -0,0 +1,146 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import org.cbitcoin.wallets.fullnode.util.Log;
+import org.cbitcoin.wallets.fullnode.util.Util;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A single file with the identities of all contacts, so at startup the contact list is read from it
+ * instead of from one identity file per contact. The format is:
+ * <p>
+ * {"version": 1, "contacts": [{"dir": "contact_0000", "identity": {...}}, ...]}
+ * <p>
+ * The file is only a cache - the identity.json of each contact remains the master copy. The summary is
+ * deleted before a contact is changed and stored again afterwards, so if the wallet stops in between, the
+ * contacts are read from their directories on next startup. This way no file of a contact needs to be
+ * accessed at startup.
+ * <p>
+ * Changes are not written one by one - storeLater() only records the new contact list and storePending()
+ * writes the latest one, e.g. once per message collection and on shutdown.
+ */
+class ContactsSummaryFile {
+    private static final int FORMAT_VERSION = 1;
+
+    private File summaryFile;
+
+    // Contact list to be written by storePending() - null if the summary is up to date or being changed
+    private List<MessagingStorage.SingleContactStorage> pendingContacts;
+
+
+    ContactsSummaryFile(File summaryFile) {
+        this.summaryFile = summaryFile;
+    }
+
+
+    /**
+     * Loads the summary.
+     *
+     * @return contact dir name -> identity - or null if there is no valid summary
+     */
+    Map<String, MessagingIdentity> loadIdentities() {
+        if (!this.summaryFile.exists()) {
+            return null;
+        }
+
+        Map<String, MessagingIdentity> identities = new HashMap<String, MessagingIdentity>();
+        try {
+            Reader r = new BufferedReader(new InputStreamReader(new FileInputStream(this.summaryFile), "UTF-8"));
+            JsonObject summary;
+            try {
+                summary = Util.parseJsonObject(r);
+            } finally {
+                r.close();
+            }
+
+            if (summary.getInt("version", 0) != FORMAT_VERSION) {
+                Log.warning("Unsupported contacts summary version in file {0}", this.summaryFile.getAbsolutePath());
+                return null;
+            }
+
+            for (JsonValue value : summary.get("contacts").asArray()) {
+                JsonObject entry = value.asObject();
+                identities.put(entry.getString("dir", ""), new MessagingIdentity(entry.get("identity").asObject()));
+            }
+        } catch (RuntimeException | IOException e) {
+            // Parse errors etc. - the contacts are read from their directories
+            Log.warning("Could not read contacts summary file {0}. Error: {1}",
+                    this.summaryFile.getAbsolutePath(), e.getMessage());
+            return null;
+        }
+
+        return identities;
+    }
+
+
+    // To be called before a contact is changed - until store() the contacts are read from their directories
+    synchronized void invalidate()
+            throws IOException {
+        this.pendingContacts = null;
+        if (this.summaryFile.exists() && (!this.summaryFile.delete())) {
+            throw new IOException("Could not delete file " + this.summaryFile.getAbsolutePath());
+        }
+    }
+
+
+    // To be called after a contact is changed - the summary is written by the next storePending()
+    synchronized void storeLater(List<MessagingStorage.SingleContactStorage> contacts) {
+        this.pendingContacts = contacts;
+    }
+
+
+    // Writes the contact list of the last storeLater() - if any
+    synchronized void storePending() {
+        if (this.pendingContacts != null) {
+            this.store(this.pendingContacts);
+            this.pendingContacts = null;
+        }
+    }
+
+
+    // Stores the summary of the contacts - if this fails the summary is deleted, it is rebuilt on next startup
+    synchronized void store(List<MessagingStorage.SingleContactStorage> contacts) {
+        this.pendingContacts = null;
+        File tempFile = new File(this.summaryFile.getParentFile(), this.summaryFile.getName() + ".tmp");
+        try {
+            JsonArray entries = new JsonArray();
+            for (MessagingStorage.SingleContactStorage contact : contacts) {
+                JsonObject entry = new JsonObject();
+                entry.set("dir", contact.getRootDir().getName());
+                entry.set("identity", contact.getIdentity().toJSONObject(false));
+                entries.add(entry);
+            }
+
+            JsonObject summary = new JsonObject();
+            summary.set("version", FORMAT_VERSION);
+            summary.set("contacts", entries);
+
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(tempFile));
+            try {
+                OutputStreamWriter osw = new OutputStreamWriter(os, "UTF-8");
+                summary.writeTo(osw);
+                osw.flush();
+            } finally {
+                os.close();
+            }
+
+            // Not atomic on all platforms - a missing summary is rebuilt
+            this.summaryFile.delete();
+            if (!tempFile.renameTo(this.summaryFile)) {
+                throw new IOException("Could not rename file " + tempFile.getAbsolutePath());
+            }
+        } catch (IOException ioe) {
+            Log.error("Could not store contacts summary file {0}. It will be rebuilt on next startup.", ioe,
+                    this.summaryFile.getAbsolutePath());
+            tempFile.delete();
+            this.summaryFile.delete();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import org.cbitcoin.wallets.fullnode.util.Log;
+
+import java.util.concurrent.*;
+
+
+/**
+ * Polls messaging groups in parallel on a long-lived pool of daemon threads. The pool is shared by
+ * all message collections; idle threads end after a while.
+ * <p>
+ * Each poll has a deadline counted from the moment it starts, so polls that wait for a free thread
+ * are not penalized. A poll that misses its deadline is interrupted - this ends the cbtc-cli call it
+ * is waiting for (see CommandExecutor).
+ */
+public class GroupPollingExecutor {
+    /**
+     * A single submitted poll.
+     *
+     * @param <T> the result of the poll
+     */
+    public static class PollingTask<T>
+            implements Callable<T> {
+        private final String name;
+        private final Callable<T> poll;
+        private volatile long startTime;
+        private Future<T> future;
+
+        PollingTask(String name, Callable<T> poll) {
+            this.name = name;
+            this.poll = poll;
+            this.startTime = 0;
+        }
+
+        @Override
+        public T call()
+                throws Exception {
+            this.startTime = System.currentTimeMillis();
+            return this.poll.call();
+        }
+
+        /**
+         * Waits for the result of the poll.
+         *
+         * @param timeout ms allowed from the moment the poll starts
+         * @return the result or null if the poll failed or did not finish in time - it is retried on the
+         * next collection
+         */
+        public T awaitResult(long timeout)
+                throws InterruptedException {
+            try {
+                while (true) {
+                    long waitTime = (this.startTime == 0) ?
+                            timeout : (this.startTime + timeout - System.currentTimeMillis());
+                    if (waitTime <= 0) {
+                        this.future.cancel(true);
+                        Log.warning("Polling messages for group {0} exceeded the deadline of {1} ms. Skipped for now!",
+                                this.name, timeout);
+                        return null;
+                    }
+
+                    try {
+                        return this.future.get(Math.min(waitTime, 500), TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException te) {
+                        // Check the deadline again - the task may not have been started yet
+                    }
+                }
+            } catch (CancellationException ce) {
+                return null;
+            } catch (ExecutionException ee) {
+                Log.error("Unexpected error polling messages for group " + this.name + ": ", ee.getCause());
+                return null;
+            }
+        }
+
+        /**
+         * Interrupts the poll if it is still running - does nothing if it is complete.
+         */
+        public void cancel() {
+            this.future.cancel(true);
+        }
+    }
+
+    private static final long IDLE_THREAD_TIMEOUT = 60;
+
+    private final ThreadPoolExecutor executor;
+
+
+    public GroupPollingExecutor(int concurrency) {
+        this.executor = new ThreadPoolExecutor(
+                concurrency, concurrency, IDLE_THREAD_TIMEOUT, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                r -> {
+                    Thread t = new Thread(r, "GroupPollingExecutor");
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+
+    /**
+     * Changes the number of groups polled in parallel - e.g. when the messaging options change.
+     */
+    public synchronized void setConcurrency(int concurrency) {
+        concurrency = Math.max(1, concurrency);
+        if (concurrency > this.executor.getMaximumPoolSize()) {
+            this.executor.setMaximumPoolSize(concurrency);
+            this.executor.setCorePoolSize(concurrency);
+        } else if (concurrency < this.executor.getMaximumPoolSize()) {
+            this.executor.setCorePoolSize(concurrency);
+            this.executor.setMaximumPoolSize(concurrency);
+        }
+    }
+
+
+    public synchronized int getConcurrency() {
+        return this.executor.getMaximumPoolSize();
+    }
+
+
+    /**
+     * Starts a poll as soon as a thread is free.
+     *
+     * @param name name of the group for the log
+     * @param poll the poll itself
+     * @return the task to wait for
+     */
+    public <T> PollingTask<T> submit(String name, Callable<T> poll) {
+        PollingTask<T> task = new PollingTask<>(name, poll);
+        task.future = this.executor.submit(task);
+        return task;
+    }
+}
@@ -0,0 +1,284 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import com.eclipsesource.json.JsonObject;
+import org.cbitcoin.wallets.fullnode.util.Log;
+import org.cbitcoin.wallets.fullnode.util.Util;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.UUID;
+
+
+/**
+ * Client for the HTTP API of the local IPFS daemon - by default http://127.0.0.1:5001/api/v0/.
+ * Files are streamed to the daemon as multipart uploads, without loading them in memory and
+ * without starting the ipfs command for every call.
+ * <p>
+ * Instances are thread safe.
+ */
+public class IPFSClient {
+    public static final String DEFAULT_API_URL = "http://127.0.0.1:5001/api/v0/";
+
+    // A probe must fail fast while the daemon is starting
+    private static final int PROBE_TIMEOUT = 1000;
+    private static final int PROBE_INTERVAL = 250;
+
+    private static final int CONNECT_TIMEOUT = 5000;
+    // The daemon responds to an add only when the whole file is hashed
+    private static final int READ_TIMEOUT = 5 * 60 * 1000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Receives the progress of an upload.
+     */
+    public interface ProgressListener {
+        /**
+         * @param done  bytes sent so far
+         * @param total size of the file
+         * @return false to cancel the upload
+         */
+        boolean update(long done, long total);
+    }
+
+    private final String apiURL;
+
+
+    public IPFSClient(String apiURL) {
+        this.apiURL = apiURL.endsWith("/") ? apiURL : (apiURL + "/");
+    }
+
+
+    /**
+     * Checks if the API answers - quickly, it does not wait for a daemon that is starting.
+     *
+     * @return true if the daemon is ready to be used
+     */
+    public boolean isAPIAvailable() {
+        try {
+            this.getVersion(PROBE_TIMEOUT);
+            return true;
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Waits until the API of a starting daemon answers.
+     *
+     * @param timeout maximum time to wait in ms
+     * @param daemon  process of the daemon - waiting ends if it exits, may be null
+     * @return true if the daemon is ready to be used, false if it did not start in time
+     */
+    public boolean waitUntilAvailable(long timeout, Process daemon)
+            throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (!this.isAPIAvailable()) {
+            if ((daemon != null) && (!daemon.isAlive())) {
+                Log.warning("IPFS daemon exited with code {0} while starting.", daemon.exitValue());
+                return false;
+            }
+
+            if ((System.currentTimeMillis() - start) >= timeout) {
+                Log.warning("IPFS API at {0} did not answer within {1}ms.", this.apiURL, timeout);
+                return false;
+            }
+
+            Thread.sleep(PROBE_INTERVAL);
+        }
+
+        Log.info("IPFS API at {0} is available after {1}ms.", this.apiURL, System.currentTimeMillis() - start);
+        return true;
+    }
+
+
+    public String getVersion()
+            throws IOException {
+        return this.getVersion(CONNECT_TIMEOUT);
+    }
+
+
+    /**
+     * Adds a file to IPFS - it is pinned by the local daemon.
+     *
+     * @param file     file to add
+     * @param listener receives the progress, may be null
+     * @return the IPFS hash of the file
+     * @throws InterruptedIOException if the upload is cancelled by the listener
+     */
+    public String add(File file, ProgressListener listener)
+            throws IOException {
+        long start = System.currentTimeMillis();
+
+        String boundary = "----IPFSBoundary" + UUID.randomUUID().toString().replace("-", "");
+        byte[] preamble = ("--" + boundary + "\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"" +
+                URLEncoder.encode(file.getName(), "UTF-8").replace("+", "%20") + "\"\r\n" +
+                "Content-Type: application/octet-stream\r\n\r\n").getBytes("UTF-8");
+        byte[] epilogue = ("\r\n--" + boundary + "--\r\n").getBytes("UTF-8");
+        long total = file.length();
+
+        HttpURLConnection con = this.openConnection("add?pin=true", CONNECT_TIMEOUT, READ_TIMEOUT);
+        try {
+            con.setDoOutput(true);
+            con.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+            // Known length - the file is streamed and not buffered by HttpURLConnection
+            con.setFixedLengthStreamingMode(preamble.length + total + epilogue.length);
+
+            OutputStream out = con.getOutputStream();
+            InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+            boolean sent = false;
+            try {
+                out.write(preamble);
+
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long done = 0;
+                int count;
+                while ((count = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, count);
+                    done += count;
+                    if ((listener != null) && (!listener.update(done, total))) {
+                        throw new InterruptedIOException("Upload of " + file.getName() + " to IPFS was cancelled.");
+                    }
+                }
+
+                out.write(epilogue);
+                sent = true;
+            } finally {
+                in.close();
+                // An incomplete request is aborted by disconnect() - closing would fail on the missing data
+                if (sent) {
+                    out.close();
+                }
+            }
+
+            // One JSON object per line - the last one is for the file
+            String hash = null;
+            for (String line : this.readResponse(con).split("\n")) {
+                if (line.trim().length() > 0) {
+                    hash = Util.parseJsonObject(line).getString("Hash", null);
+                }
+            }
+            if (hash == null) {
+                throw new IOException("IPFS API returned no hash for " + file.getName());
+            }
+
+            Log.info("Adding of {0} ({1} bytes) to IPFS done in {2}ms. Hash: {3}",
+                    file.getName(), total, System.currentTimeMillis() - start, hash);
+            return hash;
+        } finally {
+            con.disconnect();
+        }
+    }
+
+
+    /**
+     * Reads the content of an IPFS object - the daemon fetches it from the network if it is not local.
+     *
+     * @param hash     IPFS hash of the object
+     * @param out      receives the content
+     * @param maxBytes maximum size of the content
+     * @return the size of the content
+     * @throws IOException also if the content is larger than maxBytes
+     */
+    public long cat(String hash, OutputStream out, long maxBytes)
+            throws IOException {
+        HttpURLConnection con = this.openConnection(
+                "cat?arg=" + URLEncoder.encode(hash, "UTF-8"), CONNECT_TIMEOUT, READ_TIMEOUT);
+        try {
+            con.setDoOutput(true);
+            con.setFixedLengthStreamingMode(0);
+            con.getOutputStream().close();
+
+            if (con.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                this.readResponse(con); // Throws with the error message of the daemon
+            }
+
+            InputStream in = con.getInputStream();
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long size = 0;
+                int count;
+                while ((count = in.read(buffer)) > 0) {
+                    size += count;
+                    if (size > maxBytes) {
+                        throw new IOException("IPFS object " + hash + " is larger than " + maxBytes + " bytes.");
+                    }
+                    out.write(buffer, 0, count);
+                }
+                return size;
+            } finally {
+                in.close();
+            }
+        } finally {
+            con.disconnect();
+        }
+    }
+
+
+    private String getVersion(int timeout)
+            throws IOException {
+        HttpURLConnection con = this.openConnection("version", timeout, timeout);
+        try {
+            // API calls are POST requests - GET is rejected by current daemons
+            con.setDoOutput(true);
+            con.setFixedLengthStreamingMode(0);
+            con.getOutputStream().close();
+
+            JsonObject version = Util.parseJsonObject(this.readResponse(con));
+            return version.getString("Version", "");
+        } finally {
+            con.disconnect();
+        }
+    }
+
+
+    private HttpURLConnection openConnection(String command, int connectTimeout, int readTimeout)
+            throws IOException {
+        HttpURLConnection con = (HttpURLConnection) new URL(this.apiURL + command).openConnection();
+        con.setRequestMethod("POST");
+        con.setConnectTimeout(connectTimeout);
+        con.setReadTimeout(readTimeout);
+        con.setUseCaches(false);
+        return con;
+    }
+
+
+    // The response of a successful call - an IOException with the error message of the daemon otherwise
+    private String readResponse(HttpURLConnection con)
+            throws IOException {
+        int responseCode = con.getResponseCode();
+        InputStream in = (responseCode == HttpURLConnection.HTTP_OK) ? con.getInputStream() : con.getErrorStream();
+        String response = "";
+        if (in != null) {
+            Reader r = new InputStreamReader(in, "UTF-8");
+            try {
+                StringBuilder sb = new StringBuilder();
+                char[] buffer = new char[4096];
+                int count;
+                while ((count = r.read(buffer)) > 0) {
+                    sb.append(buffer, 0, count);
+                }
+                response = sb.toString();
+            } finally {
+                r.close();
+            }
+        }
+
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            String message = response.trim();
+            try {
+                message = Util.parseJsonObject(message).getString("Message", message);
+            } catch (IOException notJson) {
+                // Plain text error
+            }
+            throw new IOException("IPFS API call " + con.getURL().getPath() + " failed with HTTP status " +
+                    responseCode + ": " + message);
+        }
+
+        return response;
+    }
+}
@@ -0,0 +1,458 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import org.cbitcoin.wallets.fullnode.util.Log;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+
+/**
+ * Local cache of IPFS content linked in messages. Files are stored by IPFS hash, so a link that has been
+ * opened or prefetched once is served from disk without the IPFS daemon. The extension of a cached file
+ * is derived from its content - e.g. QmXyz.png - so that it can be opened by the desktop.
+ * <p>
+ * The total size of the cache is bounded. When it is exceeded, the least recently used files are
+ * deleted - the last use of a file is its modification time, so the order survives a restart.
+ * <p>
+ * Instances are thread safe.
+ */
+public class IPFSContentCache {
+    public static enum CONTENT_TYPE {
+        IMAGE, TEXT, OTHER
+    }
+
+    public static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+    // Larger objects are not cached - they are opened via the IPFS gateway each time
+    public static final long DEFAULT_MAX_ITEM_SIZE = 32L * 1024 * 1024;
+
+    private static final int TEXT_PREVIEW_LENGTH = 300;
+
+    // Bytes examined to find the type of the content
+    private static final int TYPE_DETECTION_SIZE = 4096;
+
+    private static final Pattern HASH_PATTERN = Pattern.compile("[a-zA-Z0-9]{15,100}");
+
+    private final File cacheDir;
+    private final long maxSize;
+    private final long maxItemSize;
+    private final IPFSClient client;
+
+    // Hash -> cached file, least recently used first
+    private final LinkedHashMap<String, File> files;
+    private long totalSize;
+
+    // Previews of cached files - computed on first use
+    private final Map<String, Preview> previews;
+
+    // Hashes being downloaded by the prefetcher
+    private final Set<String> pending;
+    private final ExecutorService prefetcher;
+
+
+    public IPFSContentCache(File cacheDir, long maxSize, long maxItemSize, IPFSClient client)
+            throws IOException {
+        long start = System.currentTimeMillis();
+
+        this.cacheDir = cacheDir;
+        this.maxSize = maxSize;
+        this.maxItemSize = maxItemSize;
+        this.client = client;
+        this.files = new LinkedHashMap<String, File>(16, 0.75f, true);
+        this.previews = new HashMap<String, Preview>();
+        this.pending = new HashSet<String>();
+
+        if ((!cacheDir.exists()) && (!cacheDir.mkdirs())) {
+            throw new IOException("Could not create directory: " + cacheDir.getAbsolutePath());
+        }
+
+        File[] cached = cacheDir.listFiles();
+        if (cached == null) {
+            throw new IOException("Could not list directory: " + cacheDir.getAbsolutePath());
+        }
+        Arrays.sort(cached, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        for (File file : cached) {
+            String hash = getHash(file);
+            if (file.getName().endsWith(".tmp") || (!isValidHash(hash))) {
+                // Left by an interrupted download
+                file.delete();
+                continue;
+            }
+
+            this.files.put(hash, file);
+            this.totalSize += file.length();
+        }
+
+        this.prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "IPFSContentPrefetcher");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+
+        Log.info("Loading of IPFS content cache with {0} files ({1} bytes) done in {2}ms.",
+                this.files.size(), this.totalSize, System.currentTimeMillis() - start);
+    }
+
+
+    public static boolean isValidHash(String hash) {
+        return (hash != null) && HASH_PATTERN.matcher(hash).matches();
+    }
+
+
+    /**
+     * Returns a cached file - it becomes the most recently used one.
+     *
+     * @param hash IPFS hash of the content
+     * @return the file or null if not cached
+     */
+    public synchronized File get(String hash) {
+        File file = this.files.get(hash);
+        if (file == null) {
+            return null;
+        }
+
+        if (!file.exists()) {
+            // Deleted outside of the wallet
+            this.remove(hash);
+            return null;
+        }
+
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+
+    /**
+     * Returns the cached file or downloads it from the IPFS daemon.
+     *
+     * @param hash IPFS hash of the content
+     * @return the cached file
+     * @throws IOException if the content cannot be downloaded or is too large to be cached
+     */
+    public File fetch(String hash)
+            throws IOException {
+        if (!isValidHash(hash)) {
+            throw new IOException("Invalid IPFS hash: " + hash);
+        }
+
+        File file = this.get(hash);
+        if (file != null) {
+            return file;
+        }
+
+        long start = System.currentTimeMillis();
+        // Unique - the same content may be fetched by the prefetcher and a click on a link at once
+        File tempFile = File.createTempFile(hash + ".", ".tmp", this.cacheDir);
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile));
+            try {
+                this.client.cat(hash, out, this.maxItemSize);
+            } finally {
+                out.close();
+            }
+
+            file = new File(this.cacheDir, hash + "." + detectExtension(tempFile));
+            // An existing file has been downloaded meanwhile by another thread - with the same content
+            if ((!file.exists()) && (!tempFile.renameTo(file))) {
+                throw new IOException("Could not rename file " + tempFile.getAbsolutePath() +
+                        " to " + file.getAbsolutePath());
+            }
+        } finally {
+            tempFile.delete();
+        }
+
+        synchronized (this) {
+            File previous = this.files.put(hash, file);
+            if (previous != null) {
+                this.totalSize -= previous.length();
+            }
+            this.totalSize += file.length();
+            this.evict(hash);
+        }
+
+        Log.info("Caching of IPFS object {0} ({1} bytes) done in {2}ms.",
+                hash, file.length(), System.currentTimeMillis() - start);
+        return file;
+    }
+
+
+    /**
+     * Downloads the content in the background if it is not cached yet - only if the IPFS daemon is
+     * already running, it is not started for a prefetch.
+     *
+     * @param hash     IPFS hash of the content
+     * @param onCached called in the prefetching thread when the content is cached, may be null
+     */
+    public void prefetch(final String hash, final Runnable onCached) {
+        synchronized (this) {
+            if ((!isValidHash(hash)) || this.files.containsKey(hash) || (!this.pending.add(hash))) {
+                return;
+            }
+        }
+
+        this.prefetcher.execute(() -> {
+            try {
+                if (!IPFSContentCache.this.client.isAPIAvailable()) {
+                    return;
+                }
+
+                IPFSContentCache.this.fetch(hash);
+                if (onCached != null) {
+                    onCached.run();
+                }
+            } catch (IOException ioe) {
+                Log.warning("Could not prefetch IPFS object {0}: {1}", hash, ioe.getMessage());
+            } finally {
+                synchronized (IPFSContentCache.this) {
+                    IPFSContentCache.this.pending.remove(hash);
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Returns a preview of cached content for showing it inline.
+     *
+     * @param hash IPFS hash of the content
+     * @return the preview or null if the content is not cached
+     */
+    public synchronized Preview getPreview(String hash) {
+        File file = this.files.get(hash);
+        if ((file == null) || (!file.exists())) {
+            return null;
+        }
+
+        Preview preview = this.previews.get(hash);
+        if (preview == null) {
+            preview = createPreview(file);
+            this.previews.put(hash, preview);
+        }
+
+        return preview;
+    }
+
+
+    public synchronized long getTotalSize() {
+        return this.totalSize;
+    }
+
+
+    public synchronized int getFileCount() {
+        return this.files.size();
+    }
+
+
+    // Deletes the least recently used files until the cache fits its maximum size
+    private void evict(String keepHash) {
+        Iterator<Map.Entry<String, File>> it = this.files.entrySet().iterator();
+        while ((this.totalSize > this.maxSize) && it.hasNext()) {
+            Map.Entry<String, File> entry = it.next();
+            if (entry.getKey().equals(keepHash)) {
+                continue;
+            }
+
+            Log.info("Removing IPFS object {0} from the content cache.", entry.getKey());
+            this.totalSize -= entry.getValue().length();
+            this.previews.remove(entry.getKey());
+            entry.getValue().delete();
+            it.remove();
+        }
+    }
+
+
+    private void remove(String hash) {
+        File file = this.files.remove(hash);
+        if (file != null) {
+            this.totalSize -= file.length();
+            this.previews.remove(hash);
+            file.delete();
+        }
+    }
+
+
+    private static String getHash(File file) {
+        String name = file.getName();
+        int dot = name.indexOf('.');
+        return (dot > 0) ? name.substring(0, dot) : name;
+    }
+
+
+    private static String detectExtension(File file)
+            throws IOException {
+        byte[] head = new byte[TYPE_DETECTION_SIZE];
+        int length;
+        InputStream in = new FileInputStream(file);
+        try {
+            length = Math.max(in.read(head), 0);
+        } finally {
+            in.close();
+        }
+
+        if (startsWith(head, length, 0x89, 'P', 'N', 'G')) {
+            return "png";
+        } else if (startsWith(head, length, 0xFF, 0xD8, 0xFF)) {
+            return "jpg";
+        } else if (startsWith(head, length, 'G', 'I', 'F', '8')) {
+            return "gif";
+        } else if (startsWith(head, length, '%', 'P', 'D', 'F')) {
+            return "pdf";
+        } else if ((length > 0) && isText(head, length, length == file.length())) {
+            return "txt";
+        }
+
+        return "bin";
+    }
+
+
+    private static boolean startsWith(byte[] data, int length, int... prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++) {
+            if ((data[i] & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    // UTF-8 without control characters other than white space
+    private static boolean isText(byte[] data, int length, boolean complete) {
+        for (int i = 0; i < length; i++) {
+            int b = data[i] & 0xFF;
+            if ((b < 0x20) && (b != '\n') && (b != '\r') && (b != '\t')) {
+                return false;
+            }
+        }
+
+        // A multi-byte character may be cut at the end of the examined bytes
+        int end = length;
+        if (!complete) {
+            while ((end > 0) && (length - end < 3) && ((data[end - 1] & 0xC0) == 0x80)) {
+                end--;
+            }
+            if ((end > 0) && ((data[end - 1] & 0xC0) == 0xC0)) {
+                end--;
+            }
+        }
+
+        try {
+            StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(data, 0, end));
+            return true;
+        } catch (CharacterCodingException notText) {
+            return false;
+        }
+    }
+
+
+    private static Preview createPreview(File file) {
+        String name = file.getName();
+        try {
+            if (name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".gif")) {
+                // Only the header is read for the size
+                ImageInputStream in = ImageIO.createImageInputStream(file);
+                try {
+                    Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+                    if (readers.hasNext()) {
+                        ImageReader reader = readers.next();
+                        try {
+                            reader.setInput(in);
+                            return new Preview(file, CONTENT_TYPE.IMAGE, null, reader.getWidth(0), reader.getHeight(0));
+                        } finally {
+                            reader.dispose();
+                        }
+                    }
+                } finally {
+                    if (in != null) {
+                        in.close();
+                    }
+                }
+            } else if (name.endsWith(".txt")) {
+                Reader r = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+                try {
+                    // One more character than shown - to know if the text goes on
+                    char[] buffer = new char[TEXT_PREVIEW_LENGTH + 1];
+                    int count = 0;
+                    int read;
+                    while ((count < buffer.length) && ((read = r.read(buffer, count, buffer.length - count)) > 0)) {
+                        count += read;
+                    }
+                    String text = (count > TEXT_PREVIEW_LENGTH) ?
+                            (new String(buffer, 0, TEXT_PREVIEW_LENGTH) + "...") : new String(buffer, 0, count);
+                    return new Preview(file, CONTENT_TYPE.TEXT, text, 0, 0);
+                } finally {
+                    r.close();
+                }
+            }
+        } catch (IOException ioe) {
+            Log.warning("Could not create preview of cached IPFS object {0}: {1}", name, ioe.getMessage());
+        }
+
+        return new Preview(file, CONTENT_TYPE.OTHER, null, 0, 0);
+    }
+
+
+    /**
+     * What is shown inline for cached content.
+     */
+    public static class Preview {
+        private final File file;
+        private final CONTENT_TYPE type;
+        private final String text;
+        private final int width;
+        private final int height;
+
+        Preview(File file, CONTENT_TYPE type, String text, int width, int height) {
+            this.file = file;
+            this.type = type;
+            this.text = text;
+            this.width = width;
+            this.height = height;
+        }
+
+        public File getFile() {
+            return this.file;
+        }
+
+        public CONTENT_TYPE getType() {
+            return this.type;
+        }
+
+        // Beginning of a text - null for other content
+        public String getText() {
+            return this.text;
+        }
+
+        // Size of an image - 0 for other content
+        public int getWidth() {
+            return this.width;
+        }
+
+        public int getHeight() {
+            return this.height;
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package org.cbitcoin.wallets.fullnode.messaging;
 
-import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller;
 import org.cbitcoin.wallets.fullnode.daemon.CBTCInstallationObserver;
 import org.cbitcoin.wallets.fullnode.daemon.CBTCInstallationObserver.*;
 import org.cbitcoin.wallets.fullnode.daemon.CommandExecutor;
@@ -14,7 +13,9 @@ import java.awt.datatransfer.StringSelection;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -22,17 +23,31 @@ import org.cbitcoin.wallets.fullnode.util.OSUtil.OS_TYPE;
 import org.cbitcoin.wallets.fullnode.util.Util;
 
 public class IPFSWrapper {
+    // Maximum time for the IPFS daemon to start answering API calls
+    private static final long IPFS_STARTUP_TIMEOUT = 60 * 1000;
+
+    private static final int MAX_PREVIEW_IMAGE_WIDTH = 320;
+
     private JFrame parentFrame;
 
     private Process IPFSProcess;
 
+    private IPFSClient ipfsClient;
+
+    private IPFSContentCache contentCache;
+
     private final Pattern ipfsUrlPattern = Pattern.compile(
             "https?://[a-zA-Z0-9\\.\\-]+(:[0-9]{2,5})?/ipfs/[a-zA-Z0-9]{15,100}");
 
 
-    public IPFSWrapper(JFrame parentFrame) {
+    public IPFSWrapper(JFrame parentFrame)
+            throws IOException {
         this.parentFrame = parentFrame;
         this.IPFSProcess = null;
+        this.ipfsClient = new IPFSClient(IPFSClient.DEFAULT_API_URL);
+        this.contentCache = new IPFSContentCache(
+                new File(OSUtil.getSettingsDirectory(), "ipfs_cache"), IPFSContentCache.DEFAULT_MAX_SIZE,
+                IPFSContentCache.DEFAULT_MAX_ITEM_SIZE, this.ipfsClient);
     }
 
 
@@ -41,12 +56,13 @@ public class IPFSWrapper {
     }
 
 
+    // Links are followed by previews of cached content - images and the beginning of texts
     public String replaceIPFSHTMLLinks(String html) {
         Matcher m = ipfsUrlPattern.matcher(html);
         StringBuffer sb = new StringBuffer(html.length());
         while (m.find()) {
             String link = m.group(0);
-            link = "<a href=\"" + link + "\">" + link + "</a>";
+            link = "<a href=\"" + link + "\">" + link + "</a>" + this.getPreviewHTML(this.getIPFSHash(link));
             m.appendReplacement(sb, Matcher.quoteReplacement(link));
         }
         m.appendTail(sb);
@@ -54,19 +70,55 @@ public class IPFSWrapper {
     }
 
 
+    // Starts caching the content of IPFS links in a message in the background - if IPFS is running
+    public void prefetchIPFSLinks(String message, Runnable onCached) {
+        Matcher m = ipfsUrlPattern.matcher(message);
+        while (m.find()) {
+            this.contentCache.prefetch(this.getIPFSHash(m.group(0)), onCached);
+        }
+    }
+
+
     public void followIPFSLink(URL u)
             throws IOException, InterruptedException, URISyntaxException {
+        // Cached content is opened without IPFS
+        File cached = this.contentCache.get(this.getIPFSHash(u.toString()));
+        if ((cached != null) && Desktop.getDesktop().isSupported(Desktop.Action.OPEN)) {
+            try {
+                Log.info("Opening cached content of IPFS link: {0}", u.toString());
+                Desktop.getDesktop().open(cached);
+                return;
+            } catch (IOException ioe) {
+                // E.g. no application for the type of content
+                Log.warning("Could not open cached IPFS content {0}: {1}", cached.getName(), ioe.getMessage());
+            }
+        }
+
         if (this.ensureIPFSIsRunning()) {
             Log.info("Opening IPFS link: {0}", u.toString());
             Desktop.getDesktop().browse(u.toURI());
+            // Cached for the next time
+            this.contentCache.prefetch(this.getIPFSHash(u.toString()), null);
         } else {
             Log.info("NOT opening IPFS link: {0} due to IPFS not running!!!", u.toString());
         }
     }
 
 
-    // Returns null or [name](link)
-    public String shareFileViaIPFS()
+    /**
+     * Called in the event dispatch thread when a file has been shared.
+     */
+    public static interface ShareListener {
+        /**
+         * @param link [name](link) of the shared file
+         */
+        void fileShared(String link);
+    }
+
+
+    // Lets the user pick a file and adds it in the background - the listener is called only if the
+    // file has been shared
+    public void shareFileViaIPFS(ShareListener listener)
             throws IOException, InterruptedException {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Share File via IPFS");
@@ -75,7 +127,7 @@ public class IPFSWrapper {
         int result = fileChooser.showOpenDialog(this.parentFrame);
 
         if (result != JFileChooser.APPROVE_OPTION) {
-            return null;
+            return;
         }
 
         File f = fileChooser.getSelectedFile();
@@ -87,51 +139,123 @@ public class IPFSWrapper {
             Log.info("Sharing file: {0}", f.getCanonicalPath());
 
             if (!this.ensureIPFSIsRunning()) {
-                return null;
+                return;
             }
+        } catch (Exception wce) {
+            this.showShareError(wce);
+            return;
+        } finally {
+            this.parentFrame.setCursor(oldCursor);
+        }
 
-            String ipfs = this.getIPFSFullExecutablePath();
-            String pathParameter = CBTCClientCaller.wrapStringParameter(f.getCanonicalPath());
+        this.addFileWithProgress(f, listener);
+    }
 
-            CommandExecutor exec = new CommandExecutor(new String[]
-                    {
-                            ipfs, "add", "--quieter", pathParameter
-                    });
 
-            String strResponse = exec.execute().trim();
+    private void fileShared(File f, String hash, ShareListener listener) {
+        Log.info("IPFS hash of added file is: " + hash);
 
-            Log.info("IPFS hash of added file is: " + strResponse);
+        // TODO: add via HTTP to some public writable IPFS gateway
+        //this.uploadIPFSDataViaPost(f, "http://localhost:8080/ipfs/");
 
-            // TODO: add via HTTP to some public writable IPFS gateway
-            //this.uploadIPFSDataViaPost(f, "http://localhost:8080/ipfs/");
+        Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
+        clipboard.setContents(new StringSelection("http://localhost:8080/ipfs/" + hash), null);
 
-            this.parentFrame.setCursor(oldCursor);
+        JOptionPane.showMessageDialog(
+                this.parentFrame,
+                "The file " + f.getName() + " has been shared successfully via IPFS. It may be\n" +
+                        "reached by other users (who have a local IPFS server running) via IPFS link: \n" +
+                        "http://localhost:8080/ipfs/" + hash + "\n\n" +
+                        "The link has been added to the messaging text box and also copied to the clipboard.\n",
+                "File shared successfully", JOptionPane.INFORMATION_MESSAGE);
 
-            Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
-            clipboard.setContents(new StringSelection("http://localhost:8080/ipfs/" + strResponse), null);
+        listener.fileShared("[" + f.getName() + "](" + "http://localhost:8080/ipfs/" + hash + ")");
+    }
 
-            JOptionPane.showMessageDialog(
-                    this.parentFrame,
-                    "The file " + f.getName() + " has been shared successfully via IPFS. It may be\n" +
-                            "reached by other users (who have a local IPFS server running) via IPFS link: \n" +
-                            "http://localhost:8080/ipfs/" + strResponse + "\n\n" +
-                            "The link has been added to the messaging text box and also copied to the clipboard.\n",
-                    "File shared successfully", JOptionPane.INFORMATION_MESSAGE);
-
-            return "[" + f.getName() + "](" +
-                    "http://localhost:8080/ipfs/" + strResponse + ")";
-        } catch (Exception wce) {
-            Log.error("Unexpected error: ", wce);
 
-            JOptionPane.showMessageDialog(
-                    this.parentFrame,
-                    "An unexpected error occurred while sharing file via IPFS!" +
-                            "\n" + wce.getMessage().replace(",", ",\n"),
-                    "Error in importing wallet private keys...", JOptionPane.ERROR_MESSAGE);
-            return null;
-        } finally {
-            this.parentFrame.setCursor(oldCursor);
+    private void showShareError(Exception wce) {
+        Log.error("Unexpected error: ", wce);
+
+        JOptionPane.showMessageDialog(
+                this.parentFrame,
+                "An unexpected error occurred while sharing file via IPFS!" +
+                        "\n" + wce.getMessage().replace(",", ",\n"),
+                "Error in importing wallet private keys...", JOptionPane.ERROR_MESSAGE);
+    }
+
+
+    // The hash is the last part of a link like http://localhost:8080/ipfs/Qm...
+    private String getIPFSHash(String url) {
+        return url.substring(url.lastIndexOf('/') + 1);
+    }
+
+
+    private String getPreviewHTML(String hash) {
+        IPFSContentCache.Preview preview = this.contentCache.getPreview(hash);
+        if (preview == null) {
+            return "";
         }
+
+        switch (preview.getType()) {
+            case IMAGE:
+                // Scaled down to fit the conversation
+                int width = Math.min(preview.getWidth(), MAX_PREVIEW_IMAGE_WIDTH);
+                int height = (preview.getWidth() > 0) ? ((preview.getHeight() * width) / preview.getWidth()) : 0;
+                return "<br/><img src=\"" + preview.getFile().toURI().toString() + "\" width=\"" + width +
+                        "\" height=\"" + height + "\"><br/>";
+            case TEXT:
+                return "<br/><span style=\"color:gray;font-style:italic;\">" +
+                        Util.escapeHTMLValue(preview.getText()).replace("\n", "<br/>") + "</span><br/>";
+            default:
+                return "";
+        }
+    }
+
+
+    // Adds the file via the IPFS API in a background thread while a modal progress dialog is shown.
+    // The outcome is handled in the event dispatch thread when the upload ends - nothing waits for it.
+    private void addFileWithProgress(final File f, final ShareListener listener) {
+        final JProgressBar progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        JOptionPane pane = new JOptionPane(
+                new Object[]{"Sharing file " + f.getName() + " via IPFS...", progressBar},
+                JOptionPane.INFORMATION_MESSAGE, JOptionPane.DEFAULT_OPTION, null, new Object[]{"Cancel"});
+        final JDialog progressDialog = pane.createDialog(this.parentFrame, "Sharing file via IPFS");
+
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+        Thread uploader = new Thread(() -> {
+            String hash = null;
+            Exception error = null;
+            try {
+                hash = IPFSWrapper.this.ipfsClient.add(f, (done, total) -> {
+                    final int percent = (int) ((total > 0) ? ((done * 100) / total) : 100);
+                    SwingUtilities.invokeLater(() -> progressBar.setValue(percent));
+                    return !cancelled.get();
+                });
+            } catch (IOException | RuntimeException e) {
+                error = e;
+            }
+
+            final String addedHash = hash;
+            final Exception addError = error;
+            SwingUtilities.invokeLater(() -> {
+                progressDialog.dispose();
+                if (addError instanceof InterruptedIOException) {
+                    Log.info("Sharing of file {0} via IPFS cancelled.", f.getName());
+                } else if (addError != null) {
+                    IPFSWrapper.this.showShareError(addError);
+                } else {
+                    IPFSWrapper.this.fileShared(f, addedHash, listener);
+                }
+            });
+        }, "IPFSFileUploader");
+        uploader.setDaemon(true);
+        uploader.start();
+
+        // Returns when the upload is complete or the dialog is closed by the user - the upload then
+        // stops at its next progress update
+        progressDialog.setVisible(true);
+        cancelled.set(true);
     }
 
 
@@ -211,12 +335,27 @@ public class IPFSWrapper {
 
         this.IPFSProcess = starter.startChildProcess();
 
-        // Wait 20 sec to make sure the daemon is started
-        // TODO: better way to find out if it is started
+        // Wait until the daemon answers API calls - usually a few seconds
         Cursor oldCursor = this.parentFrame.getCursor();
-        this.parentFrame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
-        Thread.sleep(20 * 1000);
-        this.parentFrame.setCursor(oldCursor);
+        boolean started;
+        try {
+            this.parentFrame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+            started = this.ipfsClient.waitUntilAvailable(IPFS_STARTUP_TIMEOUT, this.IPFSProcess);
+        } finally {
+            this.parentFrame.setCursor(oldCursor);
+        }
+
+        if (!started) {
+            JOptionPane.showMessageDialog(
+                    this.parentFrame,
+                    "The IPFS server did not start within " + (IPFS_STARTUP_TIMEOUT / 1000) + " seconds!\n" +
+                            "Please check that TCP ports 4001, 5001, 8080 are not used by other programs.",
+                    "IPFS server did not start", JOptionPane.ERROR_MESSAGE);
+            if (this.IPFSProcess.isAlive()) {
+                this.IPFSProcess.destroy();
+            }
+            return false;
+        }
 
         Runtime.getRuntime().addShutdownHook(new Thread() {
             public void run() {
@@ -278,6 +417,11 @@ public class IPFSWrapper {
 
     private boolean isIPFSWrapperRunning()
             throws IOException, InterruptedException {
+        // An answering API is enough - the daemon may also have been started outside of the wallet
+        if (this.ipfsClient.isAPIAvailable()) {
+            return true;
+        }
+
         DaemonInfo info = this.getIPFSDaemonInfo();
 
         return info.status == DAEMON_STATUS.RUNNING;
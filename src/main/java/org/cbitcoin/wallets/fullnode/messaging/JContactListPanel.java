@@ -232,6 +232,21 @@ public class JContactListPanel
   }
 
 
+  // Selects a contact (messages are then displayed) - false if it is not in the list
+  public boolean selectContact(MessagingIdentity contact) {
+    ListModel<MessagingIdentity> model = this.list.getModel();
+    for (int i = 0; i < model.getSize(); i++) {
+      if (model.getElementAt(i).isIdenticalTo(contact)) {
+        this.list.setSelectedIndex(i);
+        this.list.ensureIndexIsVisible(i);
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+
   private static class ContactList
       extends JList<MessagingIdentity> {
     ImageIcon contactBlackIcon;
@@ -1,12 +1,17 @@
 package org.cbitcoin.wallets.fullnode.messaging;
 
 
+import com.eclipsesource.json.JsonArray;
 import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
 import com.eclipsesource.json.WriterConfig;
 import org.cbitcoin.wallets.fullnode.util.Util;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 
 /**
@@ -40,6 +45,7 @@ public class Message
     private DIRECTION_TYPE    direction;
     private VERIFICATION_TYPE verification;
     private boolean           isAnonymous; // If the message is sent or received anonymously
+    private List<String>      chunkTransactionIDs; // All transactions of a message received in chunks
 
 
     public Message(JsonObject obj)
@@ -48,6 +54,25 @@ public class Message
     }
 
 
+    // Copies all fields - also those of an anonymous message that are not part of its JSON form
+    public Message(Message other)
+    {
+        this.version       = other.version;
+        this.from          = other.from;
+        this.message       = other.message;
+        this.sign          = other.sign;
+        this.threadID      = other.threadID;
+        this.returnAddress = other.returnAddress;
+
+        this.transactionID = other.transactionID;
+        this.time          = (other.time != null) ? new Date(other.time.getTime()) : null;
+        this.direction     = other.direction;
+        this.verification  = other.verification;
+        this.isAnonymous   = other.isAnonymous;
+        this.chunkTransactionIDs = other.chunkTransactionIDs;
+    }
+
+
     public Message(File f)
             throws IOException
     {
@@ -95,6 +120,17 @@ public class Message
             // Determine from content if it is anonymous
             this.isAnonymous = obj.get("threadid") != null;
         }
+
+        List<String> chunkTransactionIDs = new ArrayList<String>();
+        JsonValue jsonChunkTransactionIDs = obj.get("chunktransactionids");
+        if ((jsonChunkTransactionIDs != null) && jsonChunkTransactionIDs.isArray())
+        {
+            for (JsonValue chunkTransactionID : jsonChunkTransactionIDs.asArray())
+            {
+                chunkTransactionIDs.add(chunkTransactionID.asString());
+            }
+        }
+        this.chunkTransactionIDs = Collections.unmodifiableList(chunkTransactionIDs);
     }
 
 
@@ -122,6 +158,16 @@ public class Message
             obj.set("direction",     this.direction.toString());
             obj.set("verification",  this.verification.toString());
             obj.set("isanonymous",   isAnonymous);
+
+            if (!this.chunkTransactionIDs.isEmpty())
+            {
+                JsonArray jsonChunkTransactionIDs = new JsonArray();
+                for (String chunkTransactionID : this.chunkTransactionIDs)
+                {
+                    jsonChunkTransactionIDs.add(chunkTransactionID);
+                }
+                obj.set("chunktransactionids", jsonChunkTransactionIDs);
+            }
         }
 
         return obj;
@@ -255,6 +301,19 @@ public class Message
     }
 
 
+    // Transactions of the chunks of a long message in order - empty if it was received in one memo
+    public List<String> getChunkTransactionIDs()
+    {
+        return chunkTransactionIDs;
+    }
+
+
+    public void setChunkTransactionIDs(List<String> chunkTransactionIDs)
+    {
+        this.chunkTransactionIDs = Collections.unmodifiableList(new ArrayList<String>(chunkTransactionIDs));
+    }
+
+
     public String getThreadID()
     {
         return threadID;
@@ -322,6 +381,44 @@ public class Message
     }
 
 
+    /**
+     * Checks if a message body is a messaging identity - a JSON object of the form
+     * {"zenmessagingidentity": {"nickname": ..., "sendreceiveaddress": ..., "senderidaddress": ...}}
+     *
+     * @param message body of the message
+     *
+     * @return true if the message body is a messaging identity
+     */
+    public static boolean isZENIdentityMessage(String message)
+    {
+        if ((message == null) || (!message.trim().startsWith("{")))
+        {
+            return false;
+        }
+
+        JsonObject jsonMessage = null;
+        try
+        {
+            jsonMessage = Util.parseJsonObject(message);
+        } catch (Exception ex)
+        {
+            return false;
+        }
+
+        if ((jsonMessage.get("zenmessagingidentity") == null) ||
+            (!jsonMessage.get("zenmessagingidentity").isObject()))
+        {
+            return false;
+        }
+
+        JsonObject innerMessage = jsonMessage.get("zenmessagingidentity").asObject();
+
+        return (innerMessage.get("nickname")           != null) &&
+               (innerMessage.get("sendreceiveaddress") != null) &&
+               (innerMessage.get("senderidaddress")    != null);
+    }
+
+
     public String nonNull(String s)
     {
         return (s != null) ? s : "";
@@ -0,0 +1,293 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import org.cbitcoin.wallets.fullnode.messaging.OutgoingMessageQueue.BroadcastStatus;
+import org.cbitcoin.wallets.fullnode.messaging.OutgoingMessageQueue.RECIPIENT_STATE;
+import org.cbitcoin.wallets.fullnode.ui.WalletTextArea;
+import org.cbitcoin.wallets.fullnode.util.Log;
+import org.cbitcoin.wallets.fullnode.util.StatusUpdateErrorReporter;
+import org.cbitcoin.wallets.fullnode.util.Util;
+
+import javax.swing.*;
+import javax.swing.Timer;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.util.*;
+import java.util.List;
+
+
+/**
+ * Dialog for sending the own identity or a message to many contacts at once. After sending it shows
+ * the state of every recipient until all messages are sent.
+ */
+public class MessageBroadcastDialog
+        extends JDialog
+{
+    private static final int STATUS_REFRESH_INTERVAL = 2000;
+
+    protected MessagingPanel msgPanel;
+    protected MessagingStorage storage;
+    protected StatusUpdateErrorReporter errorReporter;
+
+    protected JRadioButton identityButton;
+    protected JRadioButton textButton;
+    protected WalletTextArea messageTextArea;
+    protected JList<Recipient> recipientList;
+    protected JPanel recipientPanel;
+    protected JButton sendButton;
+    protected JLabel statusLabel;
+    protected DefaultTableModel statusModel;
+
+    protected String broadcastID;
+    protected Timer statusTimer;
+
+    private static final String LOCAL_MSG_BROADCAST_TITLE = Util.local("LOCAL_MSG_BROADCAST_TITLE");
+    private static final String LOCAL_MSG_BROADCAST_IDENTITY = Util.local("LOCAL_MSG_BROADCAST_IDENTITY");
+    private static final String LOCAL_MSG_BROADCAST_TEXT = Util.local("LOCAL_MSG_BROADCAST_TEXT");
+    private static final String LOCAL_MSG_BROADCAST_RECIPIENTS = Util.local("LOCAL_MSG_BROADCAST_RECIPIENTS");
+    private static final String LOCAL_MSG_BROADCAST_SELECT_ALL = Util.local("LOCAL_MSG_BROADCAST_SELECT_ALL");
+    private static final String LOCAL_MSG_BROADCAST_SEND = Util.local("LOCAL_MSG_BROADCAST_SEND");
+    private static final String LOCAL_MSG_BROADCAST_CLOSE = Util.local("LOCAL_MSG_BROADCAST_CLOSE");
+    private static final String LOCAL_MSG_BROADCAST_STATUS = Util.local("LOCAL_MSG_BROADCAST_STATUS");
+    private static final String LOCAL_MSG_BROADCAST_RECIPIENT = Util.local("LOCAL_MSG_BROADCAST_RECIPIENT");
+    private static final String LOCAL_MSG_BROADCAST_STATE = Util.local("LOCAL_MSG_BROADCAST_STATE");
+    private static final String LOCAL_MSG_BROADCAST_PENDING = Util.local("LOCAL_MSG_BROADCAST_PENDING");
+    private static final String LOCAL_MSG_BROADCAST_SENDING = Util.local("LOCAL_MSG_BROADCAST_SENDING");
+    private static final String LOCAL_MSG_BROADCAST_SENT = Util.local("LOCAL_MSG_BROADCAST_SENT");
+    private static final String LOCAL_MSG_BROADCAST_FAILED = Util.local("LOCAL_MSG_BROADCAST_FAILED");
+
+
+    public MessageBroadcastDialog(JFrame parentFrame, MessagingPanel msgPanel, MessagingStorage storage,
+                                  StatusUpdateErrorReporter errorReporter)
+            throws IOException
+    {
+        super(parentFrame);
+
+        this.msgPanel      = msgPanel;
+        this.storage       = storage;
+        this.errorReporter = errorReporter;
+
+        this.setTitle(LOCAL_MSG_BROADCAST_TITLE);
+        this.setModal(false);
+        this.setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+
+        JPanel controlsPanel = new JPanel();
+        controlsPanel.setLayout(new BoxLayout(controlsPanel, BoxLayout.Y_AXIS));
+        controlsPanel.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+
+        ButtonGroup payloadGroup = new ButtonGroup();
+        JPanel tempPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 3, 3));
+        tempPanel.add(this.identityButton = new JRadioButton(LOCAL_MSG_BROADCAST_IDENTITY, true));
+        payloadGroup.add(this.identityButton);
+        controlsPanel.add(tempPanel);
+
+        tempPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 3, 3));
+        tempPanel.add(this.textButton = new JRadioButton(LOCAL_MSG_BROADCAST_TEXT));
+        payloadGroup.add(this.textButton);
+        controlsPanel.add(tempPanel);
+
+        this.messageTextArea = new WalletTextArea(4, 50);
+        this.messageTextArea.setLineWrap(true);
+        this.messageTextArea.setWrapStyleWord(true);
+        this.messageTextArea.setEnabled(false);
+        controlsPanel.add(new JScrollPane(this.messageTextArea));
+
+        tempPanel = new JPanel(new BorderLayout(0, 0));
+        tempPanel.setBorder(BorderFactory.createEmptyBorder(8, 0, 0, 0));
+        tempPanel.add(new JLabel(LOCAL_MSG_BROADCAST_RECIPIENTS), BorderLayout.CENTER);
+        controlsPanel.add(tempPanel);
+
+        // Only contacts with an address to send to may receive the broadcast
+        DefaultListModel<Recipient> recipientModel = new DefaultListModel<Recipient>();
+        for (MessagingIdentity contact : this.storage.getContactIdentities(false))
+        {
+            if (!Util.stringIsEmpty(contact.getSendreceiveaddress()))
+            {
+                recipientModel.addElement(new Recipient(contact));
+            }
+        }
+        this.recipientList = new JList<Recipient>(recipientModel);
+        this.recipientList.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        JScrollPane recipientPane = new JScrollPane(this.recipientList);
+        recipientPane.setPreferredSize(new Dimension(560, 280));
+
+        this.recipientPanel = new JPanel(new BorderLayout(0, 0));
+        this.recipientPanel.setBorder(BorderFactory.createEmptyBorder(0, 8, 0, 8));
+        this.recipientPanel.add(recipientPane, BorderLayout.CENTER);
+
+        this.getContentPane().setLayout(new BorderLayout(0, 0));
+        this.getContentPane().add(controlsPanel, BorderLayout.NORTH);
+        this.getContentPane().add(this.recipientPanel, BorderLayout.CENTER);
+
+        JPanel lowerPanel = new JPanel(new BorderLayout(0, 0));
+        tempPanel = new JPanel(new BorderLayout(0, 0));
+        tempPanel.setBorder(BorderFactory.createEmptyBorder(3, 8, 3, 8));
+        tempPanel.add(this.statusLabel = new JLabel(" "), BorderLayout.CENTER);
+        lowerPanel.add(tempPanel, BorderLayout.NORTH);
+
+        JPanel buttonPanel = new JPanel();
+        buttonPanel.setLayout(new FlowLayout(FlowLayout.CENTER, 3, 3));
+        JButton selectAllButton = new JButton(LOCAL_MSG_BROADCAST_SELECT_ALL);
+        buttonPanel.add(selectAllButton);
+        buttonPanel.add(this.sendButton = new JButton(LOCAL_MSG_BROADCAST_SEND));
+        JButton closeButton = new JButton(LOCAL_MSG_BROADCAST_CLOSE);
+        buttonPanel.add(closeButton);
+        lowerPanel.add(buttonPanel, BorderLayout.SOUTH);
+        this.getContentPane().add(lowerPanel, BorderLayout.SOUTH);
+
+        this.identityButton.addActionListener(e -> MessageBroadcastDialog.this.messageTextArea.setEnabled(false));
+        this.textButton.addActionListener(e -> MessageBroadcastDialog.this.messageTextArea.setEnabled(true));
+
+        selectAllButton.addActionListener(e ->
+        {
+            int size = MessageBroadcastDialog.this.recipientList.getModel().getSize();
+            if (size > 0)
+            {
+                MessageBroadcastDialog.this.recipientList.setSelectionInterval(0, size - 1);
+            }
+        });
+
+        this.sendButton.addActionListener(e -> MessageBroadcastDialog.this.send());
+
+        closeButton.addActionListener(e ->
+        {
+            MessageBroadcastDialog.this.setVisible(false);
+            MessageBroadcastDialog.this.dispose();
+        });
+
+        this.addWindowListener(new WindowAdapter()
+        {
+            @Override
+            public void windowClosed(WindowEvent e)
+            {
+                if (MessageBroadcastDialog.this.statusTimer != null)
+                {
+                    MessageBroadcastDialog.this.statusTimer.stop();
+                }
+            }
+        });
+
+        this.pack();
+        this.setLocationRelativeTo(parentFrame);
+    }
+
+
+    protected void send()
+    {
+        List<MessagingIdentity> recipients = new ArrayList<MessagingIdentity>();
+        for (Recipient recipient : this.recipientList.getSelectedValuesList())
+        {
+            recipients.add(recipient.contact);
+        }
+
+        Cursor oldCursor = this.getCursor();
+        try
+        {
+            this.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+
+            this.broadcastID = this.identityButton.isSelected() ?
+                    this.msgPanel.broadcastIdentity(recipients) :
+                    this.msgPanel.broadcastMessage(this.messageTextArea.getText(), recipients);
+        } catch (Exception ex)
+        {
+            Log.error("Unexpected error in broadcasting message: ", ex);
+            this.errorReporter.reportError(ex);
+        } finally
+        {
+            this.setCursor(oldCursor);
+        }
+
+        if (this.broadcastID == null)
+        {
+            return;
+        }
+
+        // The message is queued - from now on the state of the recipients is shown
+        this.identityButton.setEnabled(false);
+        this.textButton.setEnabled(false);
+        this.messageTextArea.setEnabled(false);
+        this.sendButton.setEnabled(false);
+
+        this.statusModel = new DefaultTableModel(
+                new Object[] { LOCAL_MSG_BROADCAST_RECIPIENT, LOCAL_MSG_BROADCAST_STATE }, 0)
+        {
+            @Override
+            public boolean isCellEditable(int row, int column)
+            {
+                return false;
+            }
+        };
+        this.recipientPanel.removeAll();
+        this.recipientPanel.add(new JScrollPane(new JTable(this.statusModel)), BorderLayout.CENTER);
+        this.recipientPanel.revalidate();
+
+        this.statusTimer = new Timer(STATUS_REFRESH_INTERVAL, e -> MessageBroadcastDialog.this.updateStatus());
+        this.statusTimer.setInitialDelay(0);
+        this.statusTimer.start();
+    }
+
+
+    protected void updateStatus()
+    {
+        BroadcastStatus status = this.storage.getOutgoingQueue().getBroadcastStatus(this.broadcastID);
+        if (status == null)
+        {
+            this.statusTimer.stop();
+            return;
+        }
+
+        List<String> names = status.getRecipientNames();
+        List<RECIPIENT_STATE> states = status.getRecipientStates();
+        this.statusModel.setRowCount(names.size());
+        for (int i = 0; i < names.size(); i++)
+        {
+            this.statusModel.setValueAt(names.get(i), i, 0);
+            this.statusModel.setValueAt(this.getStateText(states.get(i)), i, 1);
+        }
+
+        this.statusLabel.setText(String.format(LOCAL_MSG_BROADCAST_STATUS,
+                status.getRecipientCount(), status.getCount(RECIPIENT_STATE.SENT),
+                status.getCount(RECIPIENT_STATE.SENDING), status.getCount(RECIPIENT_STATE.PENDING),
+                status.getCount(RECIPIENT_STATE.FAILED)));
+
+        if (status.isComplete())
+        {
+            this.statusTimer.stop();
+        }
+    }
+
+
+    private String getStateText(RECIPIENT_STATE state)
+    {
+        switch (state)
+        {
+            case PENDING:
+                return LOCAL_MSG_BROADCAST_PENDING;
+            case SENDING:
+                return LOCAL_MSG_BROADCAST_SENDING;
+            case SENT:
+                return LOCAL_MSG_BROADCAST_SENT;
+            default:
+                return LOCAL_MSG_BROADCAST_FAILED;
+        }
+    }
+
+
+    private static class Recipient
+    {
+        final MessagingIdentity contact;
+
+        Recipient(MessagingIdentity contact)
+        {
+            this.contact = contact;
+        }
+
+        @Override
+        public String toString()
+        {
+            return this.contact.getDiplayString();
+        }
+    }
+}
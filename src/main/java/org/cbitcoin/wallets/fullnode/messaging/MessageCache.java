@@ -0,0 +1,216 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import java.util.*;
+
+
+/**
+ * Keeps the parsed messages of the most recently used contacts in memory, so the message files of a
+ * conversation are not read again each time it is displayed. The least recently used contacts are
+ * evicted when the estimated size of the cached messages exceeds the memory budget.
+ * <p>
+ * The cache is write-through: messages stored for a contact are added to its cached list (if any) - see
+ * startWrite(). A list loaded from disk is only cached if no message was stored meanwhile - see startLoad().
+ * <p>
+ * Messages are copied when they are cached and when they are returned, so callers may modify them. Instances
+ * are thread safe.
+ */
+public class MessageCache {
+    // Rough memory use of a Message object with its fields, not counting the characters of the strings
+    private static final int MESSAGE_OVERHEAD_BYTES = 400;
+
+    private final long maxSizeBytes;
+
+    // Contact number -> messages in ascending time order, in access order
+    private final LinkedHashMap<Integer, CachedMessages> entries;
+
+    private long sizeBytes;
+
+    // Incremented on every change - a load that started before a change is not cached
+    private long modificationCount;
+
+    // Messages being written - a load may or may not include them, so it is not cached
+    private int writesInProgress;
+
+    private long hitCount;
+    private long missCount;
+
+
+    public MessageCache(long maxSizeBytes) {
+        this.maxSizeBytes = maxSizeBytes;
+        this.entries = new LinkedHashMap<Integer, CachedMessages>(16, 0.75f, true);
+    }
+
+
+    /**
+     * Returns the cached messages of a contact and counts a hit or miss.
+     *
+     * @param contactNumber number of the contact
+     * @return copies of the messages in ascending time order or null if not cached
+     */
+    public synchronized List<Message> get(int contactNumber) {
+        CachedMessages cached = this.entries.get(contactNumber);
+        if (cached == null) {
+            this.missCount++;
+            return null;
+        }
+
+        this.hitCount++;
+        return copy(cached.messages);
+    }
+
+
+    /**
+     * To be called before the messages of a contact are loaded from disk.
+     *
+     * @return token to be passed to put()
+     */
+    public synchronized long startLoad() {
+        return this.modificationCount;
+    }
+
+
+    /**
+     * Caches the messages of a contact loaded from disk - unless messages were stored or a contact was
+     * deleted since startLoad() or a message is being written.
+     *
+     * @param contactNumber number of the contact
+     * @param messages      all messages of the contact in ascending time order
+     * @param loadToken     value returned by startLoad() before loading
+     */
+    public synchronized void put(int contactNumber, List<Message> messages, long loadToken) {
+        if ((loadToken != this.modificationCount) || (this.writesInProgress > 0)) {
+            return;
+        }
+
+        CachedMessages cached = new CachedMessages(copy(messages));
+        if (cached.sizeBytes > this.maxSizeBytes) {
+            return; // Would evict everything else
+        }
+
+        this.remove(contactNumber);
+        this.entries.put(contactNumber, cached);
+        this.sizeBytes += cached.sizeBytes;
+        this.evictIfRequired();
+    }
+
+
+    // To be called before a message file is written - and then finishWrite() in any case
+    public synchronized void startWrite() {
+        this.modificationCount++;
+        this.writesInProgress++;
+    }
+
+
+    /**
+     * Adds a newly stored message to the cached messages of the contact (if cached).
+     *
+     * @param contactNumber number of the contact
+     * @param msg           the message stored or null if writing failed
+     */
+    public synchronized void finishWrite(int contactNumber, Message msg) {
+        this.modificationCount++;
+        this.writesInProgress--;
+
+        CachedMessages cached = this.entries.get(contactNumber);
+        if (cached == null) {
+            return;
+        }
+
+        // The message file may or may not exist
+        if (msg == null) {
+            this.remove(contactNumber);
+            return;
+        }
+
+        // Usually the newest message - found at the end
+        int index = cached.messages.size();
+        while ((index > 0) && (cached.messages.get(index - 1).getTime().compareTo(msg.getTime()) > 0)) {
+            index--;
+        }
+
+        cached.messages.add(index, new Message(msg));
+        long messageSize = estimateSize(msg);
+        cached.sizeBytes += messageSize;
+        this.sizeBytes += messageSize;
+        this.evictIfRequired();
+    }
+
+
+    public synchronized void invalidate(int contactNumber) {
+        this.modificationCount++;
+        this.remove(contactNumber);
+    }
+
+
+    public synchronized long getHitCount() {
+        return this.hitCount;
+    }
+
+
+    public synchronized long getMissCount() {
+        return this.missCount;
+    }
+
+
+    // Estimated memory use of the cached messages
+    public synchronized long getSizeBytes() {
+        return this.sizeBytes;
+    }
+
+
+    public synchronized int getContactCount() {
+        return this.entries.size();
+    }
+
+
+    private void remove(int contactNumber) {
+        CachedMessages cached = this.entries.remove(contactNumber);
+        if (cached != null) {
+            this.sizeBytes -= cached.sizeBytes;
+        }
+    }
+
+
+    // Removes the least recently used contacts until the size is within the budget
+    private void evictIfRequired() {
+        Iterator<CachedMessages> it = this.entries.values().iterator();
+        while ((this.sizeBytes > this.maxSizeBytes) && it.hasNext()) {
+            this.sizeBytes -= it.next().sizeBytes;
+            it.remove();
+        }
+    }
+
+
+    private static List<Message> copy(List<Message> messages) {
+        List<Message> copies = new ArrayList<Message>(messages.size());
+        for (Message msg : messages) {
+            copies.add(new Message(msg));
+        }
+        return copies;
+    }
+
+
+    private static long estimateSize(Message msg) {
+        long chars = length(msg.getFrom()) + length(msg.getMessage()) + length(msg.getSign()) +
+                length(msg.getThreadID()) + length(msg.getReturnAddress()) + length(msg.getTransactionID());
+        return MESSAGE_OVERHEAD_BYTES + (chars * 2);
+    }
+
+
+    private static int length(String s) {
+        return (s != null) ? s.length() : 0;
+    }
+
+
+    private static class CachedMessages {
+        final List<Message> messages;
+        long sizeBytes;
+
+        CachedMessages(List<Message> messages) {
+            this.messages = messages;
+            for (Message msg : messages) {
+                this.sizeBytes += estimateSize(msg);
+            }
+        }
+    }
+}
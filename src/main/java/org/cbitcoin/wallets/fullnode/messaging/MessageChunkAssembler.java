@@ -0,0 +1,370 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import org.cbitcoin.wallets.fullnode.util.Log;
+import org.cbitcoin.wallets.fullnode.util.Util;
+
+import java.io.UnsupportedEncodingException;
+import java.security.SecureRandom;
+import java.util.*;
+
+
+/**
+ * Splits messages that do not fit in one memo into chunks and reassembles received chunks.
+ * <p>
+ * The text of the complete message {"zenmsg": {...}} is cut into parts, each sent in a memo of the form
+ * {"zenmsgchunk": {"ver": 3, "id": "...", "n": 0, "of": 3, "data": "..."}}. The ID is random and common
+ * to all chunks of a message, n is the number of the chunk (from 0) and of is the number of chunks. Clients
+ * older than protocol version 3 ignore the chunks.
+ * <p>
+ * Received chunks are buffered until all chunks of a message arrive. Messages that stay incomplete for
+ * longer than the timeout are dropped - the transactions of their chunks are handed out by
+ * takeExpiredTransactionIDs(), so they can be skipped from then on.
+ * <p>
+ * Instances are thread safe.
+ */
+public class MessageChunkAssembler {
+    public static final int MAX_CHUNKS = 20;
+
+    private static final int ID_LENGTH = 8; // bytes
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private long timeoutMillis;
+
+    // Key is the receiving address + message ID + number of chunks
+    private Map<String, PartialMessage> partialMessages;
+
+    // Messages that timed out - their chunks are ignored from now on
+    private Set<String> expiredMessages;
+
+    // Transactions of the chunks of messages that timed out - not yet taken
+    private Set<String> expiredTransactionIDs;
+
+
+    public MessageChunkAssembler(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        this.partialMessages = new HashMap<String, PartialMessage>();
+        this.expiredMessages = new HashSet<String>();
+        this.expiredTransactionIDs = new LinkedHashSet<String>();
+    }
+
+
+    /**
+     * Splits a message into chunk memos.
+     *
+     * @param outerMessage     message of the form {"zenmsg": {...}}
+     * @param allowCompression if the recipient can read compressed memos
+     * @return the memos to send, in order - or null if the message needs more than MAX_CHUNKS chunks
+     */
+    public static List<byte[]> split(JsonObject outerMessage, boolean allowCompression)
+            throws UnsupportedEncodingException {
+        byte[] idBytes = new byte[ID_LENGTH];
+        random.nextBytes(idBytes);
+        String id = Util.encodeHexArray(idBytes);
+
+        String text = outerMessage.toString();
+        List<String> parts = new ArrayList<String>();
+        int start = 0;
+        while (start < text.length()) {
+            if (parts.size() >= MAX_CHUNKS) {
+                return null;
+            }
+
+            // Longest part that fits - the plain size with the largest chunk numbers is an upper bound
+            int low = start + 1;
+            int high = text.length();
+            int end = start;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                String data = text.substring(start, mid);
+                int size = chunkMessage(id, MAX_CHUNKS - 1, MAX_CHUNKS, data).toString().getBytes("UTF-8").length;
+                if (size <= MessageEnvelope.MAX_MEMO_SIZE) {
+                    end = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+
+            // Do not separate a surrogate pair
+            if ((end < text.length()) && (end - start > 1) && Character.isHighSurrogate(text.charAt(end - 1))) {
+                end--;
+            }
+
+            parts.add(text.substring(start, end));
+            start = end;
+        }
+
+        List<byte[]> memos = new ArrayList<byte[]>();
+        for (int i = 0; i < parts.size(); i++) {
+            memos.add(MessageEnvelope.encode(chunkMessage(id, i, parts.size(), parts.get(i)), allowCompression));
+        }
+
+        return memos;
+    }
+
+
+    public static boolean isChunk(JsonObject memoMessage) {
+        return memoMessage.get("zenmsgchunk") != null;
+    }
+
+
+    /**
+     * Selects the messages received on an address that have not been stored yet - plain memos and long
+     * messages whose chunks have all been received. Stored transactions are skipped before their memos
+     * are decoded, so the chunks of a stored message are not assembled again on every poll.
+     *
+     * @param address              address the transactions were received on
+     * @param walletTransactions   received transactions with their "txid" and hex "memo"
+     * @param storedTransactionIDs transactions already stored - these are skipped
+     * @return the new memo messages - for long messages with the transaction IDs of all chunks in order
+     */
+    public List<ReceivedMemo> selectNewMemos(String address, JsonObject[] walletTransactions,
+                                             Set<String> storedTransactionIDs) {
+        List<ReceivedMemo> memos = new ArrayList<ReceivedMemo>();
+        Map<String, JsonObject> chunks = new LinkedHashMap<String, JsonObject>();
+        for (JsonObject trans : walletTransactions) {
+            String memoHex = trans.getString("memo", "ERROR");
+            String transactionID = trans.getString("txid", "ERROR");
+            if (memoHex.equals("ERROR") || storedTransactionIDs.contains(transactionID)) {
+                continue;
+            }
+
+            JsonObject jsonMessage = parseMemo(memoHex);
+            if ((jsonMessage != null) && isChunk(jsonMessage)) {
+                // Part of a long message - processed when all parts are received
+                chunks.put(transactionID, jsonMessage);
+            } else if (jsonMessage != null) {
+                memos.add(new ReceivedMemo(jsonMessage, Collections.singletonList(transactionID)));
+            }
+        }
+
+        for (AssembledMessage assembled : this.addChunks(address, chunks)) {
+            try {
+                memos.add(new ReceivedMemo(Util.parseJsonObject(assembled.getMemoText()), assembled.getTransactionIDs()));
+            } catch (Exception ex) {
+                Log.warningOneTime(
+                        "Assembled message is not parsable: {0}, due to {1}: {2}",
+                        assembled.getMemoText(), ex.getClass().getName(), ex.getMessage());
+            }
+        }
+
+        return memos;
+    }
+
+
+    /**
+     * Adds the chunks received on an address. The same chunks may be added repeatedly.
+     *
+     * @param address address the chunks were received on
+     * @param chunks  received chunks as full memo messages {"zenmsgchunk": {...}} - with their transaction IDs
+     * @return the messages completed by the chunks - text of the memo {"zenmsg": {...}} and the transaction
+     * IDs of the chunks in order
+     */
+    public synchronized List<AssembledMessage> addChunks(String address, Map<String, JsonObject> chunks) {
+        long now = System.currentTimeMillis();
+
+        Set<String> completedKeys = new LinkedHashSet<String>();
+        for (Map.Entry<String, JsonObject> entry : chunks.entrySet()) {
+            JsonObject chunk = getChunkObject(entry.getValue());
+            if (chunk == null) {
+                Log.warningOneTime("Ignoring invalid message chunk: {0}", entry.getValue().toString());
+                continue;
+            }
+
+            int count = chunk.getInt("of", 0);
+            String key = address + "/" + chunk.getString("id", "") + "/" + count;
+            if (this.expiredMessages.contains(key)) {
+                this.expiredTransactionIDs.add(entry.getKey());
+                continue;
+            }
+
+            PartialMessage partial = this.partialMessages.get(key);
+            if (partial == null) {
+                this.partialMessages.put(key, partial = new PartialMessage(count, now));
+            }
+
+            int number = chunk.getInt("n", 0);
+            if (partial.data[number] == null) {
+                partial.data[number] = chunk.getString("data", "");
+                partial.transactionIDs[number] = entry.getKey();
+                partial.received++;
+            }
+
+            if (partial.received == count) {
+                completedKeys.add(key);
+            }
+        }
+
+        List<AssembledMessage> assembled = new ArrayList<AssembledMessage>();
+        for (String key : completedKeys) {
+            PartialMessage partial = this.partialMessages.remove(key);
+            StringBuilder text = new StringBuilder();
+            for (String data : partial.data) {
+                text.append(data);
+            }
+
+            assembled.add(new AssembledMessage(text.toString(), Arrays.asList(partial.transactionIDs)));
+        }
+
+        // Drop messages for which chunks are still missing after the timeout
+        for (Iterator<Map.Entry<String, PartialMessage>> it = this.partialMessages.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, PartialMessage> entry = it.next();
+            if ((now - entry.getValue().firstReceived) > this.timeoutMillis) {
+                Log.warning("Message {0} is incomplete - only {1} of {2} chunks received. It will be ignored.",
+                        entry.getKey(), entry.getValue().received, entry.getValue().data.length);
+                this.expiredMessages.add(entry.getKey());
+                for (String transactionID : entry.getValue().transactionIDs) {
+                    if (transactionID != null) {
+                        this.expiredTransactionIDs.add(transactionID);
+                    }
+                }
+                it.remove();
+            }
+        }
+
+        return assembled;
+    }
+
+
+    public synchronized int getPartialMessageCount() {
+        return this.partialMessages.size();
+    }
+
+
+    /**
+     * Returns the transactions of chunks whose message stayed incomplete - since the last call.
+     *
+     * @return transaction IDs of the expired chunks
+     */
+    public synchronized List<String> takeExpiredTransactionIDs() {
+        List<String> transactionIDs = new ArrayList<String>(this.expiredTransactionIDs);
+        this.expiredTransactionIDs.clear();
+        return transactionIDs;
+    }
+
+
+    // Plain or compressed memo - null if it is not a JSON object
+    private static JsonObject parseMemo(String memoHex) {
+        String decodedMemo = null;
+        try {
+            decodedMemo = MessageEnvelope.decodeHexMemo(memoHex);
+            if (decodedMemo != null) {
+                return Util.parseJsonObject(decodedMemo);
+            }
+        } catch (Exception ex) {
+            Log.warningOneTime(
+                    "Decoded memo is not parsable: {0}, due to {1}: {2}",
+                    decodedMemo, ex.getClass().getName(), ex.getMessage());
+        }
+
+        return null;
+    }
+
+
+    private static JsonObject chunkMessage(String id, int number, int count, String data) {
+        JsonObject chunk = new JsonObject();
+        chunk.set("ver", MessageEnvelope.PROTOCOL_VERSION);
+        chunk.set("id", id);
+        chunk.set("n", number);
+        chunk.set("of", count);
+        chunk.set("data", data);
+
+        JsonObject outer = new JsonObject();
+        outer.set("zenmsgchunk", chunk);
+        return outer;
+    }
+
+
+    // Returns the inner chunk object if it is valid
+    private static JsonObject getChunkObject(JsonObject memoMessage) {
+        JsonValue value = memoMessage.get("zenmsgchunk");
+        if ((value == null) || (!value.isObject())) {
+            return null;
+        }
+
+        JsonObject chunk = value.asObject();
+        try {
+            int number = chunk.getInt("n", -1);
+            int count = chunk.getInt("of", -1);
+            if ((count < 2) || (count > MAX_CHUNKS) || (number < 0) || (number >= count) ||
+                    Util.stringIsEmpty(chunk.getString("id", "")) || (chunk.get("data") == null)) {
+                return null;
+            }
+            chunk.getString("data", "");
+        } catch (RuntimeException re) {
+            // Wrong value types
+            return null;
+        }
+
+        return chunk;
+    }
+
+
+    /**
+     * A message whose chunks have all been received.
+     */
+    public static class AssembledMessage {
+        private String memoText;
+        private List<String> transactionIDs;
+
+        AssembledMessage(String memoText, List<String> transactionIDs) {
+            this.memoText = memoText;
+            this.transactionIDs = transactionIDs;
+        }
+
+
+        public String getMemoText() {
+            return this.memoText;
+        }
+
+
+        // In the order of the chunks
+        public List<String> getTransactionIDs() {
+            return this.transactionIDs;
+        }
+    }
+
+
+    /**
+     * A new message found in the memos of received transactions.
+     */
+    public static class ReceivedMemo {
+        private JsonObject message;
+        private List<String> transactionIDs;
+
+        ReceivedMemo(JsonObject message, List<String> transactionIDs) {
+            this.message = message;
+            this.transactionIDs = transactionIDs;
+        }
+
+
+        // Of the form {"zenmsg": {...}} if it is a message
+        public JsonObject getMessage() {
+            return this.message;
+        }
+
+
+        // One transaction - or those of all chunks in order for a long message
+        public List<String> getTransactionIDs() {
+            return this.transactionIDs;
+        }
+    }
+
+
+    private static class PartialMessage {
+        String[] data;
+        String[] transactionIDs;
+        int received;
+        long firstReceived;
+
+        PartialMessage(int count, long firstReceived) {
+            this.data = new String[count];
+            this.transactionIDs = new String[count];
+            this.received = 0;
+            this.firstReceived = firstReceived;
+        }
+    }
+}
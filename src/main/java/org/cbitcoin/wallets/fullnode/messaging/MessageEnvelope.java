@@ -0,0 +1,188 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import com.eclipsesource.json.JsonObject;
+import org.cbitcoin.wallets.fullnode.util.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * Encodes and decodes the memo field of messages. Two formats exist:
+ * <ul>
+ *     <li>Plain - the UTF-8 text of the JSON message {"zenmsg": {...}}, as in protocol version 1.</li>
+ *     <li>Compressed - protocol version 2. The memo starts with byte 0xF5 (arbitrary data, not text
+ *     according to the memo conventions), followed by 'Z', the format version and the JSON text
+ *     compressed with raw deflate and a preset dictionary of the protocol keys.</li>
+ * </ul>
+ * A client announces that it can read compressed memos by sending messages with "ver" 2 or higher.
+ * Compressed memos are only sent to contacts from which such a message was received. Both formats are
+ * accepted when receiving.
+ */
+public class MessageEnvelope
+{
+    // Highest message protocol version supported (sent in the "ver" field of messages)
+    public static final int PROTOCOL_VERSION = 3;
+
+    // Minimum protocol version of a contact to send compressed memos to it
+    public static final int COMPRESSED_FORMAT_MIN_VERSION = 2;
+
+    // Minimum protocol version of a contact to send long messages in chunks - see MessageChunkAssembler
+    public static final int CHUNKED_MESSAGES_MIN_VERSION = 3;
+
+    public static final int MAX_MEMO_SIZE = 512;
+
+    private static final byte MEMO_ARBITRARY_DATA = (byte)0xF5;
+    private static final byte COMPRESSED_FORMAT_MAGIC = 'Z';
+    private static final byte COMPRESSED_FORMAT_VERSION = 2;
+
+    // A memo decompresses to at most this size - protection against corrupted or malicious data
+    private static final int MAX_DECOMPRESSED_SIZE = 16 * 1024;
+
+    // Preset dictionary - text that is likely to occur in messages. Deflate encodes matches near
+    // the end of the dictionary more cheaply, so the protocol keys come last. It is part of the
+    // compressed format - changing it requires a new COMPRESSED_FORMAT_VERSION.
+    private static final byte[] DICTIONARY = toUTF8(
+            " you the and to it is that for have with this not what but are was can just will " +
+            "know about like good thanks do be at on so if me my your we all from how when there " +
+            "{\\\"zenmessagingidentity\\\":{\\\"nickname\\\":\\\"\\\",\\\"firstname\\\":\\\"\\\"," +
+            "\\\"surname\\\":\\\"\\\",\\\"senderidaddress\\\":\\\"\\\",\\\"sendreceiveaddress\\\":\\\"zk" +
+            "\",\"threadid\":\"\",\"returnaddress\":\"zk\"}}" +
+            "{\"zenmsg\":{\"ver\":2,\"message\":\"" +
+            "\",\"sign\":\"\"}}" +
+            "{\"zenmsg\":{\"ver\":2,\"from\":\"\",\"message\":\"");
+
+
+    /**
+     * Encodes a message for the memo field.
+     *
+     * @param outerMessage message of the form {"zenmsg": {...}}
+     * @param allowCompression if the recipient can read the compressed format
+     *
+     * @return the memo bytes - the compressed format is used only if allowed and shorter
+     */
+    public static byte[] encode(JsonObject outerMessage, boolean allowCompression)
+            throws UnsupportedEncodingException
+    {
+        byte[] plain = outerMessage.toString().getBytes("UTF-8");
+        if (!allowCompression)
+        {
+            return plain;
+        }
+
+        byte[] compressed = encodeCompressed(plain);
+        return (compressed.length < plain.length) ? compressed : plain;
+    }
+
+
+    /**
+     * Decodes the memo field of a received transaction.
+     *
+     * @param memoHex memo as returned by the wallet - HEX encoded
+     *
+     * @return the text of the memo (for messages the JSON {"zenmsg": {...}}), or null if the memo is empty
+     *
+     * @throws IOException if the memo is in the compressed format but cannot be decompressed
+     */
+    public static String decodeHexMemo(String memoHex)
+            throws IOException
+    {
+        if (!isCompressed(memoHex))
+        {
+            return Util.decodeHexMemo(memoHex);
+        }
+
+        byte[] memo = Util.decodeHexArray(memoHex);
+        if (memo[2] != COMPRESSED_FORMAT_VERSION)
+        {
+            throw new IOException("Unsupported compressed memo format version: " + memo[2]);
+        }
+
+        Inflater inflater = new Inflater(true);
+        try
+        {
+            inflater.setDictionary(DICTIONARY);
+            // The zero padding of the memo also serves as the extra input byte raw inflate needs
+            inflater.setInput(memo, 3, memo.length - 3);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(MAX_MEMO_SIZE * 2);
+            byte[] buf = new byte[MAX_MEMO_SIZE];
+            while (!inflater.finished())
+            {
+                int count = inflater.inflate(buf);
+                if ((count == 0) && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    throw new IOException("Compressed memo is truncated.");
+                }
+
+                out.write(buf, 0, count);
+                if (out.size() > MAX_DECOMPRESSED_SIZE)
+                {
+                    throw new IOException("Compressed memo is too large when decompressed.");
+                }
+            }
+
+            return new String(out.toByteArray(), "UTF-8");
+        } catch (DataFormatException dfe)
+        {
+            throw new IOException("Compressed memo is corrupted: " + dfe.getMessage(), dfe);
+        } finally
+        {
+            inflater.end();
+        }
+    }
+
+
+    // Checks the first bytes - 0xF5 followed by the magic byte
+    public static boolean isCompressed(String memoHex)
+    {
+        return (memoHex.length() >= 6) &&
+               memoHex.substring(0, 4).equalsIgnoreCase(
+                   Util.encodeHexArray(new byte[] { MEMO_ARBITRARY_DATA, COMPRESSED_FORMAT_MAGIC }));
+    }
+
+
+    private static byte[] encodeCompressed(byte[] plain)
+    {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try
+        {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(plain);
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(plain.length);
+            out.write(MEMO_ARBITRARY_DATA);
+            out.write(COMPRESSED_FORMAT_MAGIC);
+            out.write(COMPRESSED_FORMAT_VERSION);
+
+            byte[] buf = new byte[MAX_MEMO_SIZE];
+            while (!deflater.finished())
+            {
+                int count = deflater.deflate(buf);
+                out.write(buf, 0, count);
+            }
+
+            return out.toByteArray();
+        } finally
+        {
+            deflater.end();
+        }
+    }
+
+
+    private static byte[] toUTF8(String s)
+    {
+        try
+        {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException uee)
+        {
+            throw new IllegalStateException(uee);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import org.cbitcoin.wallets.fullnode.messaging.Message.DIRECTION_TYPE;
+import org.cbitcoin.wallets.fullnode.ui.WalletTextField;
+import org.cbitcoin.wallets.fullnode.util.Log;
+import org.cbitcoin.wallets.fullnode.util.StatusUpdateErrorReporter;
+import org.cbitcoin.wallets.fullnode.util.Util;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+
+
+/**
+ * Dialog for searching the whole message history. Selecting a result shows the message in
+ * its conversation.
+ */
+public class MessageSearchDialog
+        extends JDialog
+{
+    // Only the most recent hits are shown
+    private static final int MAX_HITS = 200;
+
+    private static final int PREVIEW_LENGTH = 100;
+
+    protected MessagingPanel msgPanel;
+    protected MessagingStorage storage;
+    protected StatusUpdateErrorReporter errorReporter;
+
+    protected WalletTextField queryField;
+    protected JLabel resultLabel;
+    protected JList<SearchHit> resultList;
+
+    private static final String LOCAL_MSG_SEARCH = Util.local("LOCAL_MSG_SEARCH");
+    private static final String LOCAL_MSG_SEARCH_TITLE = Util.local("LOCAL_MSG_SEARCH_TITLE");
+    private static final String LOCAL_MSG_SEARCH_HINT = Util.local("LOCAL_MSG_SEARCH_HINT");
+    private static final String LOCAL_MSG_SEARCH_RESULTS = Util.local("LOCAL_MSG_SEARCH_RESULTS");
+    private static final String LOCAL_MSG_SEARCH_INDEXING = Util.local("LOCAL_MSG_SEARCH_INDEXING");
+    private static final String LOCAL_MSG_SEARCH_CLOSE = Util.local("LOCAL_MSG_SEARCH_CLOSE");
+
+
+    public MessageSearchDialog(MessagingPanel msgPanel, JFrame parentFrame, MessagingStorage storage,
+                               StatusUpdateErrorReporter errorReporter, String query)
+    {
+        super(parentFrame);
+
+        this.msgPanel      = msgPanel;
+        this.storage       = storage;
+        this.errorReporter = errorReporter;
+
+        this.setTitle(LOCAL_MSG_SEARCH_TITLE);
+        this.setModal(false);
+        this.setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+
+        JPanel controlsPanel = new JPanel();
+        controlsPanel.setLayout(new BoxLayout(controlsPanel, BoxLayout.Y_AXIS));
+        controlsPanel.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+
+        JPanel tempPanel = new JPanel(new BorderLayout(0, 0));
+        tempPanel.add(new JLabel(LOCAL_MSG_SEARCH_HINT), BorderLayout.CENTER);
+        controlsPanel.add(tempPanel);
+
+        tempPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 3, 3));
+        tempPanel.add(this.queryField = new WalletTextField(40));
+        JButton searchButton = new JButton(LOCAL_MSG_SEARCH);
+        tempPanel.add(searchButton);
+        controlsPanel.add(tempPanel);
+
+        tempPanel = new JPanel(new BorderLayout(0, 0));
+        tempPanel.add(this.resultLabel = new JLabel(" "), BorderLayout.CENTER);
+        controlsPanel.add(tempPanel);
+
+        this.resultList = new JList<SearchHit>(new DefaultListModel<SearchHit>());
+        this.resultList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        JScrollPane resultPane = new JScrollPane(this.resultList);
+        resultPane.setPreferredSize(new Dimension(640, 360));
+        resultPane.setBorder(BorderFactory.createCompoundBorder(
+                BorderFactory.createEmptyBorder(0, 8, 0, 8), resultPane.getBorder()));
+
+        this.getContentPane().setLayout(new BorderLayout(0, 0));
+        this.getContentPane().add(controlsPanel, BorderLayout.NORTH);
+        this.getContentPane().add(resultPane, BorderLayout.CENTER);
+
+        JPanel buttonPanel = new JPanel();
+        buttonPanel.setLayout(new FlowLayout(FlowLayout.CENTER, 3, 3));
+        JButton closeButton = new JButton(LOCAL_MSG_SEARCH_CLOSE);
+        buttonPanel.add(closeButton);
+        this.getContentPane().add(buttonPanel, BorderLayout.SOUTH);
+
+        searchButton.addActionListener(e -> MessageSearchDialog.this.search());
+        this.queryField.addActionListener(e -> MessageSearchDialog.this.search());
+
+        this.resultList.addMouseListener(new MouseAdapter()
+        {
+            @Override
+            public void mouseClicked(MouseEvent e)
+            {
+                if (e.getClickCount() == 2)
+                {
+                    MessageSearchDialog.this.showSelectedHit();
+                }
+            }
+        });
+
+        closeButton.addActionListener(e ->
+        {
+            MessageSearchDialog.this.setVisible(false);
+            MessageSearchDialog.this.dispose();
+        });
+
+        this.pack();
+        this.setLocationRelativeTo(parentFrame);
+
+        if ((query != null) && (!query.trim().isEmpty()))
+        {
+            this.queryField.setText(query.trim());
+            this.search();
+        }
+    }
+
+
+    protected void search()
+    {
+        String query = this.queryField.getText();
+        if ((query == null) || query.trim().isEmpty())
+        {
+            return;
+        }
+
+        Cursor oldCursor = this.getCursor();
+        try
+        {
+            this.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+
+            MessageSearchIndex.SearchResult result = this.storage.searchMessages(query, MAX_HITS);
+
+            final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+            DefaultListModel<SearchHit> model = new DefaultListModel<SearchHit>();
+            for (long location : result.getLocations())
+            {
+                MessagingIdentity contact = this.storage.getContactForSearchHit(location);
+                Message msg = this.storage.getMessageForSearchHit(location);
+                if ((contact == null) || (msg == null))
+                {
+                    continue;
+                }
+
+                model.addElement(new SearchHit(contact, msg,
+                        format.format(msg.getTime()) + " " +
+                        ((msg.getDirection() == DIRECTION_TYPE.SENT) ? "\u21E8 " : "\u21E6 ") +
+                        contact.getDiplayString() + ": " + this.getPreview(msg)));
+            }
+
+            this.resultList.setModel(model);
+
+            String resultText = String.format(LOCAL_MSG_SEARCH_RESULTS,
+                    result.getTotalHits(), result.getSearchTimeMs(), model.getSize());
+            if (this.storage.isSearchIndexBuildInProgress())
+            {
+                resultText += " " + LOCAL_MSG_SEARCH_INDEXING;
+            }
+            this.resultLabel.setText(resultText);
+        } catch (IOException ioe)
+        {
+            Log.error("Unexpected error: ", ioe);
+            this.errorReporter.reportError(ioe, false);
+        } finally
+        {
+            this.setCursor(oldCursor);
+        }
+    }
+
+
+    protected void showSelectedHit()
+    {
+        SearchHit hit = this.resultList.getSelectedValue();
+        if (hit == null)
+        {
+            return;
+        }
+
+        try
+        {
+            this.msgPanel.showMessageInConversation(hit.contact, hit.message);
+        } catch (IOException ioe)
+        {
+            Log.error("Unexpected error: ", ioe);
+            this.errorReporter.reportError(ioe, false);
+        }
+    }
+
+
+    private String getPreview(Message msg)
+    {
+        String text = Message.isZENIdentityMessage(msg.getMessage()) ?
+                "{zenmessagingidentity}" : msg.getMessage().replaceAll("\\s+", " ");
+
+        return (text.length() > PREVIEW_LENGTH) ? (text.substring(0, PREVIEW_LENGTH) + "...") : text;
+    }
+
+
+    // A single result in the list
+    private static class SearchHit
+    {
+        MessagingIdentity contact;
+        Message message;
+        String displayText;
+
+        SearchHit(MessagingIdentity contact, Message message, String displayText)
+        {
+            this.contact     = contact;
+            this.message     = message;
+            this.displayText = displayText;
+        }
+
+        @Override
+        public String toString()
+        {
+            return this.displayText;
+        }
+    }
+}
@@ -0,0 +1,706 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import org.cbitcoin.wallets.fullnode.messaging.Message.DIRECTION_TYPE;
+import org.cbitcoin.wallets.fullnode.util.Log;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+
+/**
+ * Inverted index over the stored messages - message bodies, sender nicknames and dates
+ * (yyyy, yyyy-MM, yyyy-MM-dd). Stored in the messaging root dir as:
+ * <p>
+ * search_index/index.dat - snapshot of the documents and term postings
+ * search_index/journal.txt - documents added/removed since the snapshot, one per line
+ * <p>
+ * A document is a single message file, identified by its location:
+ * contact_CCCC/(sent|received)/BBBB/message_FFF.json. Postings are kept in memory as sorted
+ * arrays of document numbers, so a query is an intersection of a few int arrays.
+ * <p>
+ * Instances are thread safe.
+ */
+public class MessageSearchIndex {
+    private static final int INDEX_FORMAT_VERSION = 1;
+
+    private static final String INDEX_FILE = "index.dat";
+    private static final String JOURNAL_FILE = "journal.txt";
+
+    // Journal is merged into the snapshot after this many entries
+    private static final int MAX_JOURNAL_ENTRIES = 10000;
+
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final int MAX_TERM_LENGTH = 40;
+
+    private static final String DATE_TERM_PREFIX = "date:";
+
+    private File indexDir;
+
+    // Document data - by document number
+    private long[] documentLocations;
+    private long[] documentTimes;
+    private int documentCount;
+    private BitSet deletedDocuments;
+
+    // Term -> sorted document numbers
+    private Map<String, Postings> postings;
+
+    private int journalEntries;
+    private Writer journalWriter;
+
+    // True if no index was found on disk and it has to be built from the messages
+    private boolean buildRequired;
+    private volatile boolean buildInProgress;
+    // Locations added while the index is being built - so they are not added twice
+    private Set<Long> locationsAddedDuringBuild;
+
+
+    public MessageSearchIndex(File indexDir)
+            throws IOException {
+        this.indexDir = indexDir;
+
+        if (!indexDir.exists()) {
+            if (!indexDir.mkdirs()) {
+                throw new IOException("Could not create directory: " + indexDir.getAbsolutePath());
+            }
+        }
+
+        long start = System.currentTimeMillis();
+
+        this.clear();
+
+        File indexFile = new File(indexDir, INDEX_FILE);
+        File journalFile = new File(indexDir, JOURNAL_FILE);
+
+        // Without a snapshot (e.g. the wallet was stopped while building) the journal is incomplete
+        this.buildRequired = !indexFile.exists();
+        try {
+            if (!this.buildRequired) {
+                this.readSnapshot(indexFile);
+
+                if (journalFile.exists()) {
+                    this.replayJournal(journalFile);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // The index may always be rebuilt from the messages
+            Log.warning("Message search index could not be loaded, it will be rebuilt. Error: {0}", e.getMessage());
+            this.clear();
+            this.buildRequired = true;
+        }
+
+        if (this.buildRequired) {
+            journalFile.delete();
+            indexFile.delete();
+        }
+
+        this.journalWriter = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(journalFile, true), "UTF-8"));
+
+        long end = System.currentTimeMillis();
+        Log.info("Loading of message search index with " + this.documentCount + " documents and " +
+                this.postings.size() + " terms done in " + (end - start) + "ms.");
+    }
+
+
+    public synchronized boolean isBuildRequired() {
+        return this.buildRequired;
+    }
+
+
+    public boolean isBuildInProgress() {
+        return this.buildInProgress;
+    }
+
+
+    public synchronized void startBuild() {
+        this.buildInProgress = true;
+        this.locationsAddedDuringBuild = new HashSet<Long>();
+    }
+
+
+    // Adds a message found while building the index, unless it was already added meanwhile
+    public synchronized void addMessageDuringBuild(long location, Message msg, String senderNickname)
+            throws IOException {
+        if (!this.locationsAddedDuringBuild.contains(location)) {
+            this.addDocument(location, msg.getTime().getTime(), getTerms(msg, senderNickname));
+        }
+    }
+
+
+    public synchronized void finishBuild()
+            throws IOException {
+        this.buildInProgress = false;
+        this.buildRequired = false;
+        this.locationsAddedDuringBuild = null;
+
+        this.writeSnapshot();
+    }
+
+
+    /**
+     * Adds a newly stored message to the index.
+     *
+     * @param location       location of the message file - see encodeLocation()
+     * @param msg            the message stored
+     * @param senderNickname nickname of the sender (may be null)
+     */
+    public synchronized void addMessage(long location, Message msg, String senderNickname)
+            throws IOException {
+        if (this.buildInProgress) {
+            this.locationsAddedDuringBuild.add(location);
+        }
+
+        long time = msg.getTime().getTime();
+        Set<String> terms = getTerms(msg, senderNickname);
+        this.addDocument(location, time, terms);
+
+        StringBuilder entry = new StringBuilder("A\t").append(location).append('\t').append(time).append('\t');
+        for (String term : terms) {
+            entry.append(term).append(' ');
+        }
+        this.writeJournalEntry(entry.toString());
+    }
+
+
+    /**
+     * Removes all messages of a contact from the index - e.g. when the contact is deleted.
+     *
+     * @param contactNumber the number CCCC of the contact dir contact_CCCC
+     */
+    public synchronized void removeContact(int contactNumber)
+            throws IOException {
+        this.removeContactDocuments(contactNumber, this.documentCount);
+        this.writeJournalEntry("D\t" + contactNumber + "\t" + this.documentCount);
+    }
+
+
+    /**
+     * Finds the messages that contain all words of a query. Words of the form yyyy, yyyy-MM or
+     * yyyy-MM-dd also match messages sent/received on that date.
+     *
+     * @param query   words to search for
+     * @param maxHits maximum number of results to return
+     * @return the locations of the most recent matching messages, most recent first
+     */
+    public synchronized SearchResult search(String query, int maxHits) {
+        long start = System.currentTimeMillis();
+
+        List<int[]> termDocuments = new ArrayList<int[]>();
+        for (String word : query.trim().split("\\s+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+
+            if (word.matches("[0-9]{4}(-[0-9]{2}(-[0-9]{2})?)?")) {
+                // Date or a number within the message
+                termDocuments.add(union(this.getDocuments(DATE_TERM_PREFIX + word), this.getDocuments(word)));
+            } else {
+                List<String> wordTerms = new ArrayList<String>();
+                tokenize(word, wordTerms);
+                for (String term : wordTerms) {
+                    termDocuments.add(this.getDocuments(term));
+                }
+            }
+        }
+
+        if (termDocuments.isEmpty()) {
+            return new SearchResult(new long[0], 0, 0);
+        }
+
+        // Intersect starting with the shortest list
+        Collections.sort(termDocuments, (a, b) -> Integer.compare(a.length, b.length));
+        int[] matches = termDocuments.get(0);
+        for (int i = 1; (i < termDocuments.size()) && (matches.length > 0); i++) {
+            matches = intersect(matches, termDocuments.get(i));
+        }
+
+        // Keep the most recent hits only - min-heap by time, the oldest of them at the top. Documents
+        // are mostly added in time order, so going backwards few of them get into the heap.
+        int[] heap = new int[Math.max(0, maxHits)];
+        int heapSize = 0;
+        int totalHits = 0;
+        for (int i = matches.length - 1; i >= 0; i--) {
+            int doc = matches[i];
+            if (this.deletedDocuments.get(doc)) {
+                continue;
+            }
+
+            totalHits++;
+            if (heapSize < heap.length) {
+                heap[heapSize] = doc;
+                this.siftUp(heap, heapSize++);
+            } else if ((heapSize > 0) && (this.documentTimes[doc] > this.documentTimes[heap[0]])) {
+                heap[0] = doc;
+                this.siftDown(heap, heapSize, 0);
+            }
+        }
+
+        long[] locations = new long[heapSize];
+        while (heapSize > 0) {
+            locations[heapSize - 1] = this.documentLocations[heap[0]];
+            heap[0] = heap[--heapSize];
+            this.siftDown(heap, heapSize, 0);
+        }
+
+        long end = System.currentTimeMillis();
+        Log.info("Message search for \"" + query + "\" found " + totalHits + " hits in " + (end - start) + "ms.");
+
+        return new SearchResult(locations, totalHits, end - start);
+    }
+
+
+    public synchronized void close()
+            throws IOException {
+        if (this.journalWriter != null) {
+            this.journalWriter.close();
+            this.journalWriter = null;
+        }
+    }
+
+
+    // Location of a message file as a number:
+    // ((contact * 2 + (received ? 1 : 0)) * 10000 + bucket) * 1000 + file
+    public static long encodeLocation(int contactNumber, DIRECTION_TYPE direction, int bucket, int file) {
+        long location = contactNumber * 2L + ((direction == DIRECTION_TYPE.RECEIVED) ? 1 : 0);
+        return (location * 10000 + bucket) * 1000 + file;
+    }
+
+
+    public static int getContactNumber(long location) {
+        return (int) (location / 1000 / 10000 / 2);
+    }
+
+
+    public static DIRECTION_TYPE getDirection(long location) {
+        return ((location / 1000 / 10000) % 2 == 1) ? DIRECTION_TYPE.RECEIVED : DIRECTION_TYPE.SENT;
+    }
+
+
+    public static int getBucket(long location) {
+        return (int) ((location / 1000) % 10000);
+    }
+
+
+    public static int getFile(long location) {
+        return (int) (location % 1000);
+    }
+
+
+    private void clear() {
+        this.documentLocations = new long[1024];
+        this.documentTimes = new long[1024];
+        this.documentCount = 0;
+        this.deletedDocuments = new BitSet();
+        this.postings = new HashMap<String, Postings>();
+        this.journalEntries = 0;
+    }
+
+
+    private void addDocument(long location, long time, Collection<String> terms) {
+        if (this.documentCount == this.documentLocations.length) {
+            this.documentLocations = Arrays.copyOf(this.documentLocations, this.documentCount * 2);
+            this.documentTimes = Arrays.copyOf(this.documentTimes, this.documentCount * 2);
+        }
+
+        int doc = this.documentCount++;
+        this.documentLocations[doc] = location;
+        this.documentTimes[doc] = time;
+
+        for (String term : terms) {
+            Postings termPostings = this.postings.get(term);
+            if (termPostings == null) {
+                this.postings.put(term, termPostings = new Postings());
+            }
+            termPostings.add(doc);
+        }
+    }
+
+
+    private void removeContactDocuments(int contactNumber, int documentLimit) {
+        for (int doc = 0; doc < Math.min(documentLimit, this.documentCount); doc++) {
+            if (getContactNumber(this.documentLocations[doc]) == contactNumber) {
+                this.deletedDocuments.set(doc);
+            }
+        }
+    }
+
+
+    private int[] getDocuments(String term) {
+        Postings termPostings = this.postings.get(term);
+        return (termPostings != null) ? termPostings.toArray() : new int[0];
+    }
+
+
+    private void writeJournalEntry(String entry)
+            throws IOException {
+        this.journalWriter.write(entry);
+        this.journalWriter.write('\n');
+        this.journalWriter.flush();
+
+        if ((++this.journalEntries > MAX_JOURNAL_ENTRIES) && (!this.buildInProgress)) {
+            this.writeSnapshot();
+        }
+    }
+
+
+    private void replayJournal(File journalFile)
+            throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+
+                if (fields[0].equals("A") && (fields.length >= 3)) {
+                    List<String> terms = (fields.length > 3) ?
+                            Arrays.asList(fields[3].trim().split(" ")) : Collections.<String>emptyList();
+                    this.addDocument(Long.parseLong(fields[1]), Long.parseLong(fields[2]), terms);
+                    this.journalEntries++;
+                } else if (fields[0].equals("D") && (fields.length == 3)) {
+                    this.removeContactDocuments(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+                    this.journalEntries++;
+                } else if (!line.isEmpty()) {
+                    // A partially written last line is possible if the wallet was killed
+                    Log.warning("Ignoring invalid message search journal entry: {0}", line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+
+    // Deleted documents are dropped and the rest renumbered - the journal is then truncated
+    private void writeSnapshot()
+            throws IOException {
+        long start = System.currentTimeMillis();
+
+        int[] newNumbers = new int[this.documentCount];
+        int liveDocuments = 0;
+        for (int doc = 0; doc < this.documentCount; doc++) {
+            newNumbers[doc] = this.deletedDocuments.get(doc) ? -1 : liveDocuments++;
+        }
+
+        File tempFile = new File(this.indexDir, INDEX_FILE + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(INDEX_FORMAT_VERSION);
+            out.writeInt(liveDocuments);
+            for (int doc = 0; doc < this.documentCount; doc++) {
+                if (newNumbers[doc] >= 0) {
+                    out.writeLong(this.documentLocations[doc]);
+                    out.writeLong(this.documentTimes[doc]);
+                }
+            }
+
+            out.writeInt(this.postings.size());
+            for (Map.Entry<String, Postings> entry : this.postings.entrySet()) {
+                int[] docs = entry.getValue().toArray();
+
+                int liveCount = 0;
+                for (int doc : docs) {
+                    liveCount += (newNumbers[doc] >= 0) ? 1 : 0;
+                }
+
+                out.writeUTF(entry.getKey());
+                out.writeInt(liveCount);
+                int previous = 0;
+                for (int doc : docs) {
+                    if (newNumbers[doc] >= 0) {
+                        writeVarInt(out, newNumbers[doc] - previous);
+                        previous = newNumbers[doc];
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        File indexFile = new File(this.indexDir, INDEX_FILE);
+        if (indexFile.exists() && (!indexFile.delete())) {
+            throw new IOException("Could not delete file: " + indexFile.getAbsolutePath());
+        }
+        if (!tempFile.renameTo(indexFile)) {
+            throw new IOException("Could not rename file: " + tempFile.getAbsolutePath());
+        }
+
+        // Start from the snapshot just written
+        this.journalWriter.close();
+        this.clear();
+        this.readSnapshot(indexFile);
+        this.journalWriter = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(this.indexDir, JOURNAL_FILE), false), "UTF-8"));
+
+        long end = System.currentTimeMillis();
+        Log.info("Writing of message search index with " + liveDocuments + " documents done in " +
+                (end - start) + "ms.");
+    }
+
+
+    private void readSnapshot(File indexFile)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            int version = in.readInt();
+            if (version != INDEX_FORMAT_VERSION) {
+                throw new IOException("Unsupported message search index version: " + version);
+            }
+
+            int documents = in.readInt();
+            this.documentLocations = new long[Math.max(1024, documents)];
+            this.documentTimes = new long[Math.max(1024, documents)];
+            for (int doc = 0; doc < documents; doc++) {
+                this.documentLocations[doc] = in.readLong();
+                this.documentTimes[doc] = in.readLong();
+            }
+            this.documentCount = documents;
+
+            int terms = in.readInt();
+            this.postings = new HashMap<String, Postings>(terms * 4 / 3 + 1);
+            for (int i = 0; i < terms; i++) {
+                String term = in.readUTF();
+                int count = in.readInt();
+
+                int[] docs = new int[count];
+                int previous = 0;
+                for (int j = 0; j < count; j++) {
+                    docs[j] = previous = previous + readVarInt(in);
+                }
+
+                this.postings.put(term, new Postings(docs));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+
+    // Terms of a message: words of the body, words of the sender nickname and the date
+    static Set<String> getTerms(Message msg, String senderNickname) {
+        List<String> terms = new ArrayList<String>();
+
+        tokenize(msg.getMessage(), terms);
+        tokenize(senderNickname, terms);
+
+        if (msg.getTime() != null) {
+            String day = new SimpleDateFormat("yyyy-MM-dd").format(msg.getTime());
+            terms.add(DATE_TERM_PREFIX + day);
+            terms.add(DATE_TERM_PREFIX + day.substring(0, 7));
+            terms.add(DATE_TERM_PREFIX + day.substring(0, 4));
+        }
+
+        return new LinkedHashSet<String>(terms);
+    }
+
+
+    // Lower case sequences of letters and digits
+    static void tokenize(String text, List<String> terms) {
+        if (text == null) {
+            return;
+        }
+
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while ((i < length) && (!Character.isLetterOrDigit(text.charAt(i)))) {
+                i++;
+            }
+
+            int start = i;
+            while ((i < length) && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+
+            if ((i - start) >= MIN_TERM_LENGTH) {
+                String term = text.substring(start, Math.min(i, start + MAX_TERM_LENGTH));
+                terms.add(term.toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+
+
+    private void siftUp(int[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (this.documentTimes[heap[i]] >= this.documentTimes[heap[parent]]) {
+                return;
+            }
+            int temp = heap[i];
+            heap[i] = heap[parent];
+            heap[parent] = temp;
+            i = parent;
+        }
+    }
+
+
+    private void siftDown(int[] heap, int size, int i) {
+        while (true) {
+            int smallest = i;
+            for (int child = 2 * i + 1; (child <= 2 * i + 2) && (child < size); child++) {
+                if (this.documentTimes[heap[child]] < this.documentTimes[heap[smallest]]) {
+                    smallest = child;
+                }
+            }
+
+            if (smallest == i) {
+                return;
+            }
+            int temp = heap[i];
+            heap[i] = heap[smallest];
+            heap[smallest] = temp;
+            i = smallest;
+        }
+    }
+
+
+    // a is the shorter array
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+
+        if (b.length > (a.length * 16)) {
+            // Much longer second array - binary search in it
+            int from = 0;
+            for (int i = 0; (i < a.length) && (from < b.length); i++) {
+                int pos = Arrays.binarySearch(b, from, b.length, a[i]);
+                if (pos >= 0) {
+                    result[count++] = a[i];
+                    from = pos + 1;
+                } else {
+                    from = -pos - 1;
+                }
+            }
+
+            return Arrays.copyOf(result, count);
+        }
+
+        for (int i = 0, j = 0; (i < a.length) && (j < b.length); ) {
+            if (a[i] == b[j]) {
+                result[count++] = a[i];
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+
+        return Arrays.copyOf(result, count);
+    }
+
+
+    private static int[] union(int[] a, int[] b) {
+        if ((a.length == 0) || (b.length == 0)) {
+            return (a.length == 0) ? b : a;
+        }
+
+        int[] result = new int[a.length + b.length];
+        int count = 0;
+
+        int i = 0, j = 0;
+        while ((i < a.length) || (j < b.length)) {
+            if ((j >= b.length) || ((i < a.length) && (a[i] < b[j]))) {
+                result[count++] = a[i++];
+            } else if ((i >= a.length) || (b[j] < a[i])) {
+                result[count++] = b[j++];
+            } else {
+                result[count++] = a[i++];
+                j++;
+            }
+        }
+
+        return Arrays.copyOf(result, count);
+    }
+
+
+    private static void writeVarInt(DataOutputStream out, int value)
+            throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+
+    private static int readVarInt(DataInputStream in)
+            throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Invalid variable length integer in message search index");
+    }
+
+
+    /**
+     * Result of a search - message locations, most recent first.
+     */
+    public static class SearchResult {
+        private long[] locations;
+        private int totalHits;
+        private long searchTimeMs;
+
+
+        SearchResult(long[] locations, int totalHits, long searchTimeMs) {
+            this.locations = locations;
+            this.totalHits = totalHits;
+            this.searchTimeMs = searchTimeMs;
+        }
+
+
+        public long[] getLocations() {
+            return this.locations;
+        }
+
+
+        public int getTotalHits() {
+            return this.totalHits;
+        }
+
+
+        public long getSearchTimeMs() {
+            return this.searchTimeMs;
+        }
+    }
+
+
+    // Growable sorted array of document numbers
+    private static class Postings {
+        private int[] documents;
+        private int size;
+
+
+        Postings() {
+            this.documents = new int[4];
+            this.size = 0;
+        }
+
+
+        Postings(int[] documents) {
+            this.documents = documents;
+            this.size = documents.length;
+        }
+
+
+        void add(int document) {
+            if (this.size == this.documents.length) {
+                this.documents = Arrays.copyOf(this.documents, Math.max(4, this.size * 2));
+            }
+            this.documents[this.size++] = document;
+        }
+
+
+        int[] toArray() {
+            return (this.size == this.documents.length) ? this.documents : Arrays.copyOf(this.documents, this.size);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import org.bitcoinj.core.Base58;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.VarInt;
+import org.cbitcoin.wallets.fullnode.util.Log;
+import org.cbitcoin.wallets.fullnode.util.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+ * Verifies message signatures produced by "cbtc-cli signmessage" locally, without calling
+ * "verifymessage" on the daemon. The public key is recovered from the compact signature and
+ * its hash is compared to the one encoded in the sender T address.
+ * <p>
+ * Only a positive result is final. A signature that does not match locally is checked again by
+ * the daemon, so that a difference in the local code cannot mark valid messages as forged.
+ * <p>
+ * Instances are thread safe. Batches of messages are verified in parallel on a small pool of
+ * daemon threads.
+ */
+public class MessageSignatureVerifier {
+    // Same message magic as used by cbtcd (inherited from Zcash/ZClassic)
+    static final String MESSAGE_MAGIC = "Zcash Signed Message:\n";
+
+    private static final int COMPACT_SIGNATURE_LENGTH = 65;
+    private static final int PUB_KEY_HASH_LENGTH = 20;
+
+    private ExecutorService executor;
+
+
+    public MessageSignatureVerifier() {
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "MessageSignatureVerifier");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+
+    /**
+     * Verifies a single message signature.
+     *
+     * @param address   the T address of the signer
+     * @param signature base64 encoded compact signature as returned by signmessage
+     * @param message   the message that has been signed
+     * @return TRUE/FALSE if the signature could be checked locally, null if the input could not
+     * be handled (e.g. unsupported address or signature format) and the daemon should be asked.
+     */
+    public static Boolean verifyMessage(String address, String signature, String message) {
+        return verifyMessage(address, signature, message, MESSAGE_MAGIC);
+    }
+
+
+    // The magic is a parameter so that the code can be checked with signatures of other daemons
+    static Boolean verifyMessage(String address, String signature, String message, String magic) {
+        if (Util.stringIsEmpty(address) || Util.stringIsEmpty(signature) || (message == null)) {
+            return null;
+        }
+
+        try {
+            byte[] sigBytes = Base64.getDecoder().decode(signature.trim());
+            if (sigBytes.length != COMPACT_SIGNATURE_LENGTH) {
+                return null;
+            }
+
+            int header = sigBytes[0] & 0xFF;
+            if ((header < 27) || (header > 34)) {
+                return null;
+            }
+
+            boolean compressed = header >= 31;
+            int recID = (header - 27) & 3;
+
+            BigInteger r = new BigInteger(1, Arrays.copyOfRange(sigBytes, 1, 33));
+            BigInteger s = new BigInteger(1, Arrays.copyOfRange(sigBytes, 33, 65));
+
+            ECKey key = ECKey.recoverFromSignature(
+                    recID, new ECKey.ECDSASignature(r, s), formatMessageForSigning(message, magic), compressed);
+            if (key == null) {
+                return Boolean.FALSE;
+            }
+
+            // Address payload is <version bytes><hash160> - version bytes are not checked
+            byte[] addressPayload = Base58.decodeChecked(address);
+            if (addressPayload.length <= PUB_KEY_HASH_LENGTH) {
+                return null;
+            }
+
+            byte[] addressHash = Arrays.copyOfRange(
+                    addressPayload, addressPayload.length - PUB_KEY_HASH_LENGTH, addressPayload.length);
+
+            return Arrays.equals(addressHash, key.getPubKeyHash());
+        } catch (IllegalArgumentException | IOException e) {
+            // AddressFormatException is an IllegalArgumentException
+            Log.warningOneTime("Message signature could not be verified locally for address {0}: {1}",
+                    address, e.getMessage());
+            return null;
+        }
+    }
+
+
+    /**
+     * Verifies the signatures of a number of (non-anonymous) messages in parallel. The text signed
+     * is the upper case HEX encoding of the message body - as done when sending.
+     *
+     * @param messages messages to verify
+     * @return map message -> verification result. Values are null if the daemon should be asked.
+     */
+    public Map<Message, Boolean> verifyMessages(List<Message> messages)
+            throws InterruptedException {
+        long start = System.currentTimeMillis();
+
+        Map<Message, Future<Boolean>> futures = new LinkedHashMap<>();
+        for (final Message msg : messages) {
+            if (msg.isAnonymous()) {
+                continue;
+            }
+
+            futures.put(msg, this.executor.submit(() ->
+                    verifyMessage(msg.getFrom(), msg.getSign(),
+                            Util.encodeHexString(msg.getMessage()).toUpperCase())));
+        }
+
+        Map<Message, Boolean> results = new HashMap<>();
+        for (Map.Entry<Message, Future<Boolean>> entry : futures.entrySet()) {
+            try {
+                results.put(entry.getKey(), entry.getValue().get());
+            } catch (ExecutionException ee) {
+                Log.warning("Unexpected error in local message verification: {0}", ee.getCause());
+                results.put(entry.getKey(), null);
+            }
+        }
+
+        if (!futures.isEmpty()) {
+            long end = System.currentTimeMillis();
+            Log.info("Local verification of " + futures.size() + " message signatures done in " +
+                    (end - start) + "ms.");
+        }
+
+        return results;
+    }
+
+
+    // Double SHA256 of <varint><magic><varint><message> - same as cbtcd
+    static Sha256Hash formatMessageForSigning(String message, String magic)
+            throws IOException {
+        byte[] magicBytes = magic.getBytes("UTF-8");
+        byte[] messageBytes = message.getBytes("UTF-8");
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bos.write(new VarInt(magicBytes.length).encode());
+        bos.write(magicBytes);
+        bos.write(new VarInt(messageBytes.length).encode());
+        bos.write(messageBytes);
+
+        return Sha256Hash.twiceOf(bos.toByteArray());
+    }
+}
@@ -0,0 +1,441 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import com.eclipsesource.json.JsonObject;
+import org.cbitcoin.wallets.fullnode.util.Log;
+import org.cbitcoin.wallets.fullnode.util.Util;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+
+/**
+ * A single compressed file with all messaging data - own identity, options, contacts with their messages
+ * and ignored contacts. The archive is a ZIP file (every entry has a CRC) with entries:
+ * <p>
+ * zenmessagingarchive.json - header {"version": 1, "created": millis}
+ * contact_0000/identity.json ... - files of the messaging dir, by their relative path
+ * manifest.json - {"version": 1, "files": N, "sha256": "..."} - the SHA-256 covers the name and content of
+ * all entries before the manifest
+ * <p>
+ * Export and restore process one file at a time, so memory use does not depend on the number of messages.
+ * A restore is unpacked to a staging dir next to the messaging dir (messaging_restore) and is only applied
+ * on next startup - see applyPendingRestore() - once the whole archive has been verified. An interrupted
+ * restore of the same archive resumes - the entries already unpacked are read to verify the checksum but
+ * are not written again.
+ */
+public class MessagingArchive {
+    static final String HEADER = "zenmessagingarchive.json";
+    static final String MANIFEST = "manifest.json";
+
+    private static final int FORMAT_VERSION = 1;
+
+    // Files in the restore dir - next to the data dir that replaces the messaging dir
+    private static final String RESTORE_DATA_DIR = "data";
+    private static final String RESTORE_STATE = "restore_state.json";
+    private static final String RESTORE_COMPLETE = "restore_complete";
+
+    // The position of a restore is saved every so many entries - and when it is cancelled
+    private static final int STATE_SAVE_INTERVAL = 500;
+
+
+    /**
+     * Receives the progress of an export or restore.
+     */
+    public interface ProgressListener {
+        /**
+         * @param done  work done so far
+         * @param total total work
+         * @return false to cancel the operation - it then fails with InterruptedIOException
+         */
+        boolean update(long done, long total);
+    }
+
+
+    /**
+     * Writes an archive to a stream - the header on creation, the manifest on finish().
+     */
+    public static class Writer
+            implements Closeable {
+        private ZipOutputStream zipOut;
+        private MessageDigest digest;
+        private int files;
+        private byte[] buffer = new byte[64 * 1024];
+
+
+        public Writer(OutputStream out)
+                throws IOException {
+            this.zipOut = new ZipOutputStream(new BufferedOutputStream(out));
+            this.digest = newDigest();
+
+            JsonObject header = new JsonObject();
+            header.set("version", FORMAT_VERSION);
+            header.set("created", System.currentTimeMillis());
+            this.addEntry(HEADER, new ByteArrayInputStream(header.toString().getBytes("UTF-8")));
+        }
+
+
+        /**
+         * Adds a file.
+         *
+         * @param path relative path in the archive - with / as separator
+         * @param file file to add
+         */
+        public void addFile(String path, File file)
+                throws IOException {
+            checkEntryName(path);
+
+            InputStream in = new FileInputStream(file);
+            try {
+                this.addEntry(path, in);
+            } finally {
+                in.close();
+            }
+            this.files++;
+        }
+
+
+        // Writes the manifest - the archive is invalid without it
+        public void finish()
+                throws IOException {
+            JsonObject manifest = new JsonObject();
+            manifest.set("version", FORMAT_VERSION);
+            manifest.set("files", this.files);
+            manifest.set("sha256", Util.encodeHexArray(this.digest.digest()));
+
+            ZipEntry entry = new ZipEntry(MANIFEST);
+            this.zipOut.putNextEntry(entry);
+            this.zipOut.write(manifest.toString().getBytes("UTF-8"));
+            this.zipOut.closeEntry();
+            this.zipOut.finish();
+            this.zipOut.flush();
+        }
+
+
+        @Override
+        public void close()
+                throws IOException {
+            this.zipOut.close();
+        }
+
+
+        private void addEntry(String path, InputStream in)
+                throws IOException {
+            this.digest.update(path.getBytes("UTF-8"));
+            this.digest.update((byte) 0);
+
+            this.zipOut.putNextEntry(new ZipEntry(path));
+            int count;
+            while ((count = in.read(this.buffer)) > 0) {
+                this.digest.update(this.buffer, 0, count);
+                this.zipOut.write(this.buffer, 0, count);
+            }
+            this.zipOut.closeEntry();
+        }
+    }
+
+
+    /**
+     * Unpacks and verifies an archive into the staging dir of a messaging dir. The messaging dir is
+     * replaced with it on next startup. If a restore of the same archive was interrupted, it is resumed.
+     *
+     * @param archive      archive to restore
+     * @param messagingDir the messaging dir to be replaced
+     * @param listener     receives the number of archive bytes processed - may be null
+     * @throws IOException if the archive is invalid (nothing is restored then) or on IO errors
+     */
+    public static void restore(File archive, File messagingDir, ProgressListener listener)
+            throws IOException {
+        long start = System.currentTimeMillis();
+
+        File restoreDir = getRestoreDir(messagingDir);
+        File dataDir = new File(restoreDir, RESTORE_DATA_DIR);
+        File stateFile = new File(restoreDir, RESTORE_STATE);
+        File completeFile = new File(restoreDir, RESTORE_COMPLETE);
+        String canonicalDataDir = dataDir.getCanonicalPath() + File.separator;
+
+        int entriesDone = 0;
+        if (restoreDir.exists()) {
+            JsonObject state = loadRestoreState(stateFile);
+            if ((state != null) && isSameArchive(state, archive) && (!completeFile.exists())) {
+                entriesDone = state.getInt("entries", 0);
+                Log.info("Resuming restore of messaging archive {0} after {1} entries.",
+                        archive.getAbsolutePath(), entriesDone);
+            } else {
+                Util.deleteDirectory(restoreDir);
+            }
+        }
+        if ((!dataDir.exists()) && (!dataDir.mkdirs())) {
+            throw new IOException("Could not create directory: " + dataDir.getAbsolutePath());
+        }
+
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[64 * 1024];
+        long archiveLength = archive.length();
+        int entries = 0;
+        boolean verified = false;
+
+        CountingInputStream counter = new CountingInputStream(new FileInputStream(archive));
+        ZipInputStream zipIn = new ZipInputStream(new BufferedInputStream(counter));
+        try {
+            ZipEntry entry = zipIn.getNextEntry();
+            if ((entry == null) || (!entry.getName().equals(HEADER))) {
+                throw new IOException("File " + archive.getAbsolutePath() + " is not a messaging archive.");
+            }
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            digestEntry(digest, HEADER, zipIn, headerBytes, buffer);
+            JsonObject header = Util.parseJsonObject(headerBytes.toString("UTF-8"));
+            if (header.getInt("version", 0) != FORMAT_VERSION) {
+                throw new IOException("Unsupported messaging archive version: " + header.getInt("version", 0));
+            }
+
+            while ((entry = zipIn.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (name.equals(MANIFEST)) {
+                    JsonObject manifest = Util.parseJsonObject(new InputStreamReader(zipIn, "UTF-8"));
+                    String checksum = Util.encodeHexArray(digest.digest());
+                    verified = (manifest.getInt("files", -1) == entries) &&
+                            checksum.equals(manifest.getString("sha256", ""));
+                    break;
+                }
+
+                checkEntryName(name);
+                File target = new File(dataDir, name.replace('/', File.separatorChar));
+                if ((!target.getCanonicalPath().startsWith(canonicalDataDir)) || entry.isDirectory()) {
+                    throw new IOException("Invalid entry in messaging archive: " + name);
+                }
+
+                if (entries < entriesDone) {
+                    // Unpacked before the interruption - only verified
+                    digestEntry(digest, name, zipIn, null, buffer);
+                } else {
+                    File parent = target.getParentFile();
+                    if ((!parent.exists()) && (!parent.mkdirs())) {
+                        throw new IOException("Could not create directory: " + parent.getAbsolutePath());
+                    }
+                    OutputStream out = new BufferedOutputStream(new FileOutputStream(target));
+                    try {
+                        digestEntry(digest, name, zipIn, out, buffer);
+                    } finally {
+                        out.close();
+                    }
+                }
+                entries++;
+
+                if ((entries > entriesDone) && ((entries % STATE_SAVE_INTERVAL) == 0)) {
+                    saveRestoreState(stateFile, archive, entries);
+                }
+
+                if ((listener != null) && (!listener.update(counter.getCount(), archiveLength))) {
+                    saveRestoreState(stateFile, archive, Math.max(entries, entriesDone));
+                    throw new InterruptedIOException("Restore of messaging archive cancelled.");
+                }
+            }
+        } catch (RuntimeException re) {
+            // Parse errors of the header or manifest
+            Util.deleteDirectory(restoreDir);
+            throw new IOException("Invalid messaging archive " + archive.getAbsolutePath(), re);
+        } catch (InterruptedIOException iioe) {
+            throw iioe;
+        } catch (IOException ioe) {
+            // A damaged archive cannot be resumed - but a failed write (e.g. disk full) can
+            if (ioe instanceof ZipException) {
+                Util.deleteDirectory(restoreDir);
+            }
+            throw ioe;
+        } finally {
+            zipIn.close();
+        }
+
+        if (!verified) {
+            Util.deleteDirectory(restoreDir);
+            throw new IOException("Messaging archive " + archive.getAbsolutePath() +
+                    " is incomplete or damaged - checksum verification failed.");
+        }
+
+        stateFile.delete();
+        if (!completeFile.createNewFile() && !completeFile.exists()) {
+            throw new IOException("Could not create file " + completeFile.getAbsolutePath());
+        }
+
+        long end = System.currentTimeMillis();
+        Log.info("Restore of messaging archive with " + entries + " files done in " + (end - start) + "ms.");
+    }
+
+
+    /**
+     * Replaces the messaging dir with a completely restored archive if there is one. The previous
+     * messaging dir is kept as messaging_before_restore_[time]. To be called before the messaging dir
+     * is used.
+     *
+     * @param messagingDir the messaging dir
+     * @return true if a restored archive was applied
+     */
+    public static boolean applyPendingRestore(File messagingDir)
+            throws IOException {
+        File restoreDir = getRestoreDir(messagingDir);
+        if (!new File(restoreDir, RESTORE_COMPLETE).exists()) {
+            return false;
+        }
+
+        if (messagingDir.exists()) {
+            File backupDir = new File(messagingDir.getParentFile(),
+                    messagingDir.getName() + "_before_restore_" + System.currentTimeMillis());
+            if (!messagingDir.renameTo(backupDir)) {
+                throw new IOException("Could not rename directory " + messagingDir.getAbsolutePath() +
+                        " to " + backupDir.getAbsolutePath());
+            }
+            Log.info("Messaging data before the restore kept in {0}", backupDir.getAbsolutePath());
+        }
+
+        File dataDir = new File(restoreDir, RESTORE_DATA_DIR);
+        if (!dataDir.renameTo(messagingDir)) {
+            throw new IOException("Could not rename directory " + dataDir.getAbsolutePath() +
+                    " to " + messagingDir.getAbsolutePath());
+        }
+        Util.deleteDirectory(restoreDir);
+
+        Log.info("Restored messaging archive applied to {0}", messagingDir.getAbsolutePath());
+        return true;
+    }
+
+
+    // messaging -> messaging_restore
+    static File getRestoreDir(File messagingDir) {
+        return new File(messagingDir.getParentFile(), messagingDir.getName() + "_restore");
+    }
+
+
+    private static void digestEntry(MessageDigest digest, String name, InputStream in, OutputStream out,
+                                    byte[] buffer)
+            throws IOException {
+        digest.update(name.getBytes("UTF-8"));
+        digest.update((byte) 0);
+
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            digest.update(buffer, 0, count);
+            if (out != null) {
+                out.write(buffer, 0, count);
+            }
+        }
+    }
+
+
+    // Relative paths with / only - no absolute paths or parent references
+    private static void checkEntryName(String name)
+            throws IOException {
+        if (name.isEmpty() || name.startsWith("/") || name.contains("\\") || name.contains(":") ||
+                name.equals("..") || name.startsWith("../") || name.contains("/../") || name.endsWith("/..") ||
+                name.equals(HEADER) || name.equals(MANIFEST)) {
+            throw new IOException("Invalid entry name in messaging archive: " + name);
+        }
+    }
+
+
+    private static boolean isSameArchive(JsonObject state, File archive) {
+        return archive.getAbsolutePath().equals(state.getString("archive", "")) &&
+                (archive.length() == state.getLong("length", -1)) &&
+                (archive.lastModified() == state.getLong("modified", -1));
+    }
+
+
+    private static JsonObject loadRestoreState(File stateFile) {
+        if (!stateFile.exists()) {
+            return null;
+        }
+
+        try {
+            Reader r = new InputStreamReader(new FileInputStream(stateFile), "UTF-8");
+            try {
+                return Util.parseJsonObject(r);
+            } finally {
+                r.close();
+            }
+        } catch (RuntimeException | IOException e) {
+            Log.warning("Could not read messaging restore state {0}. Error: {1}",
+                    stateFile.getAbsolutePath(), e.getMessage());
+            return null;
+        }
+    }
+
+
+    private static void saveRestoreState(File stateFile, File archive, int entries)
+            throws IOException {
+        JsonObject state = new JsonObject();
+        state.set("archive", archive.getAbsolutePath());
+        state.set("length", archive.length());
+        state.set("modified", archive.lastModified());
+        state.set("entries", entries);
+
+        File tempFile = new File(stateFile.getParentFile(), stateFile.getName() + ".tmp");
+        OutputStream os = new FileOutputStream(tempFile);
+        try {
+            os.write(state.toString().getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+
+        stateFile.delete();
+        if (!tempFile.renameTo(stateFile)) {
+            throw new IOException("Could not rename file " + tempFile.getAbsolutePath());
+        }
+    }
+
+
+    private static MessageDigest newDigest()
+            throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IOException(nsae);
+        }
+    }
+
+
+    // Counts the bytes read from the archive file - for the progress
+    private static class CountingInputStream
+            extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read()
+                throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                this.count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+                throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                this.count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n)
+                throws IOException {
+            long skipped = super.skip(n);
+            this.count += skipped;
+            return skipped;
+        }
+
+        long getCount() {
+            return this.count;
+        }
+    }
+}
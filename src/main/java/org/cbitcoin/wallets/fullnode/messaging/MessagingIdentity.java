@@ -31,6 +31,7 @@ public class MessagingIdentity
     private boolean isAnonymous; // If the remote contact sends messages anonymously
     private String threadID; // Thread ID for anonymous messages
     private boolean isGroup; // If it represents a messaging group
+    private int messageVersion; // Highest message protocol version received from the contact
 
     // TODO: automatically cut fields to XXX length to avoid issues with accidental big data
 
@@ -40,6 +41,7 @@ public class MessagingIdentity
         this.isAnonymous = false;
         this.isGroup     = false;
         this.threadID    = "";
+        this.messageVersion = 1;
     }
 
 
@@ -90,6 +92,7 @@ public class MessagingIdentity
         this.isAnonymous        = obj.getBoolean("isanonymous",       false);
         this.isGroup            = obj.getBoolean("isgroup",           false);
         this.threadID           = obj.getString("threadid",           "");
+        this.messageVersion     = obj.getInt("messageversion",        1);
 
         if (this.isGroup())
         {
@@ -134,6 +137,7 @@ public class MessagingIdentity
             obj.set("isanonymous",    isAnonymous);
             obj.set("isgroup",        isGroup);
             obj.set("threadid",       nonNull(threadID));
+            obj.set("messageversion", messageVersion);
         }
 
         return obj;
@@ -290,6 +294,18 @@ public class MessagingIdentity
     }
 
 
+    public int getMessageVersion()
+    {
+        return messageVersion;
+    }
+
+
+    public void setMessageVersion(int messageVersion)
+    {
+        this.messageVersion = messageVersion;
+    }
+
+
     /**
      * Produces a string in the form nick (first middle sur) suitable for display purposes.
      *
@@ -18,6 +18,10 @@ public class MessagingOptions
     private boolean automaticallyAddUsersIfNotExplicitlyImported;
     private double  amountToSend;
     private double  transactionFee;
+    private int     groupPollingConcurrency; // Max. number of groups polled in parallel
+    private int     groupPollingTimeout;     // Seconds allowed for polling a single group
+    private int     retentionDays;           // Older messages are archived - 0 means never
+    private int     retentionMessages;       // Number of latest messages per contact never archived
 
 
     public MessagingOptions()
@@ -25,6 +29,10 @@ public class MessagingOptions
         // Default values set if not loade etc.
         this.automaticallyAddUsersIfNotExplicitlyImported = true;
         this.amountToSend = this.transactionFee = 0.0001d;
+        this.groupPollingConcurrency = 4;
+        this.groupPollingTimeout = 120;
+        this.retentionDays = 365;
+        this.retentionMessages = 1000;
     }
 
 
@@ -64,6 +72,12 @@ public class MessagingOptions
                 obj.getBoolean("automaticallyaddusersifnotexplicitlyimported", true);
         this.amountToSend   = obj.getDouble("amounttosend",   0.0001d);
         this.transactionFee = obj.getDouble("transactionfee", 0.0001d);
+
+        // Optional fields - added later
+        this.groupPollingConcurrency = Math.max(1, obj.getInt("grouppollingconcurrency", 4));
+        this.groupPollingTimeout     = Math.max(1, obj.getInt("grouppollingtimeout",     120));
+        this.retentionDays           = Math.max(0, obj.getInt("retentiondays",           365));
+        this.retentionMessages       = Math.max(0, obj.getInt("retentionmessages",       1000));
     }
 
 
@@ -75,6 +89,10 @@ public class MessagingOptions
                 this.automaticallyAddUsersIfNotExplicitlyImported);
         obj.set("amounttosend",	this.amountToSend);
         obj.set("transactionfee",	this.transactionFee);
+        obj.set("grouppollingconcurrency", this.groupPollingConcurrency);
+        obj.set("grouppollingtimeout",     this.groupPollingTimeout);
+        obj.set("retentiondays",           this.retentionDays);
+        obj.set("retentionmessages",       this.retentionMessages);
 
         return obj;
     }
@@ -134,4 +152,52 @@ public class MessagingOptions
         this.transactionFee = transactionFee;
     }
 
+
+    public int getGroupPollingConcurrency()
+    {
+        return groupPollingConcurrency;
+    }
+
+
+    public void setGroupPollingConcurrency(int groupPollingConcurrency)
+    {
+        this.groupPollingConcurrency = groupPollingConcurrency;
+    }
+
+
+    public int getGroupPollingTimeout()
+    {
+        return groupPollingTimeout;
+    }
+
+
+    public void setGroupPollingTimeout(int groupPollingTimeout)
+    {
+        this.groupPollingTimeout = groupPollingTimeout;
+    }
+
+
+    public int getRetentionDays()
+    {
+        return retentionDays;
+    }
+
+
+    public void setRetentionDays(int retentionDays)
+    {
+        this.retentionDays = retentionDays;
+    }
+
+
+    public int getRetentionMessages()
+    {
+        return retentionMessages;
+    }
+
+
+    public void setRetentionMessages(int retentionMessages)
+    {
+        this.retentionMessages = retentionMessages;
+    }
+
 }
@@ -46,6 +46,8 @@ public class MessagingOptionsEditDialog
   protected WalletTextField amountTextField;
   protected WalletTextField transactionFeeTextField;
   protected JCheckBox automaticallyAddUsers;
+  protected WalletTextField retentionDaysTextField;
+  protected WalletTextField retentionMessagesTextField;
 
 
   private static final String LOCAL_MSG_MESSAGE_OPTS = Util.local("LOCAL_MSG_MESSAGE_OPTS");
@@ -61,6 +63,10 @@ public class MessagingOptionsEditDialog
   private static final String LOCAL_MSG_REQ = Util.local("LOCAL_MSG_REQ");
   private static final String LOCAL_MSG_POS_NR = Util.local("LOCAL_MSG_POS_NR");
   private static final String LOCAL_MSG_ERROR = Util.local("LOCAL_MSG_ERROR");
+  private static final String LOCAL_MSG_RETENTION_DAYS = Util.local("LOCAL_MSG_RETENTION_DAYS");
+  private static final String LOCAL_MSG_RETENTION_MESSAGES = Util.local("LOCAL_MSG_RETENTION_MESSAGES");
+  private static final String LOCAL_MSG_RETENTION_DAYS_NAME = Util.local("LOCAL_MSG_RETENTION_DAYS_NAME");
+  private static final String LOCAL_MSG_RETENTION_MESSAGES_NAME = Util.local("LOCAL_MSG_RETENTION_MESSAGES_NAME");
 
 
   public MessagingOptionsEditDialog(JFrame parentFrame, MessagingStorage storage, StatusUpdateErrorReporter errorReporter)
@@ -91,11 +97,15 @@ public class MessagingOptionsEditDialog
         automaticallyAddUsers = new JCheckBox());
     addFormField(detailsPanel, LOCAL_MSG_AMOUN_PER_MSG, amountTextField = new WalletTextField(12));
     addFormField(detailsPanel, LOCAL_MSG_TXN_FEE_MSG, transactionFeeTextField = new WalletTextField(12));
+    addFormField(detailsPanel, LOCAL_MSG_RETENTION_DAYS, retentionDaysTextField = new WalletTextField(12));
+    addFormField(detailsPanel, LOCAL_MSG_RETENTION_MESSAGES, retentionMessagesTextField = new WalletTextField(12));
 
     DecimalFormatSymbols decSymbols = new DecimalFormatSymbols(Locale.ROOT);
     automaticallyAddUsers.setSelected(options.isAutomaticallyAddUsersIfNotExplicitlyImported());
     amountTextField.setText(new DecimalFormat("########0.00######", decSymbols).format(options.getAmountToSend()));
     transactionFeeTextField.setText(new DecimalFormat("########0.00######", decSymbols).format(options.getTransactionFee()));
+    retentionDaysTextField.setText(String.valueOf(options.getRetentionDays()));
+    retentionMessagesTextField.setText(String.valueOf(options.getRetentionMessages()));
 
     detailsPanel.setBorder(BorderFactory.createEtchedBorder(EtchedBorder.LOWERED));
     this.getContentPane().add(detailsPanel, BorderLayout.CENTER);
@@ -118,9 +128,13 @@ public class MessagingOptionsEditDialog
       try {
         String amountToSend = MessagingOptionsEditDialog.this.amountTextField.getText();
         String transactionFee = MessagingOptionsEditDialog.this.transactionFeeTextField.getText();
+        String retentionDays = MessagingOptionsEditDialog.this.retentionDaysTextField.getText().trim();
+        String retentionMessages = MessagingOptionsEditDialog.this.retentionMessagesTextField.getText().trim();
 
         if ((!MessagingOptionsEditDialog.this.verifyNumericField(LOCAL_MSG_AMOUNT_TO_SEND, amountToSend)) ||
-            (!MessagingOptionsEditDialog.this.verifyNumericField(LOCAL_MSG_TXN_FEE, transactionFee))) {
+            (!MessagingOptionsEditDialog.this.verifyNumericField(LOCAL_MSG_TXN_FEE, transactionFee)) ||
+            (!MessagingOptionsEditDialog.this.verifyNumericField(LOCAL_MSG_RETENTION_DAYS_NAME, retentionDays)) ||
+            (!MessagingOptionsEditDialog.this.verifyNumericField(LOCAL_MSG_RETENTION_MESSAGES_NAME, retentionMessages))) {
           return;
         }
 
@@ -128,6 +142,8 @@ public class MessagingOptionsEditDialog
 
         options1.setAmountToSend(Double.parseDouble(amountToSend));
         options1.setTransactionFee(Double.parseDouble(transactionFee));
+        options1.setRetentionDays((int) Double.parseDouble(retentionDays));
+        options1.setRetentionMessages((int) Double.parseDouble(retentionMessages));
         options1.setAutomaticallyAddUsersIfNotExplicitlyImported(
             MessagingOptionsEditDialog.this.automaticallyAddUsers.isSelected());
 
@@ -6,9 +6,12 @@ import com.eclipsesource.json.WriterConfig;
 import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller;
 import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller.*;
 import org.cbitcoin.wallets.fullnode.daemon.DataGatheringThread;
+import org.cbitcoin.wallets.fullnode.daemon.OperationTracker;
+import org.cbitcoin.wallets.fullnode.daemon.OperationTracker.OperationResult;
 import org.cbitcoin.wallets.fullnode.ui.SendCashPanel;
 import org.cbitcoin.wallets.fullnode.ui.WalletTabPanel;
 import org.cbitcoin.wallets.fullnode.ui.WalletTextArea;
+import org.cbitcoin.wallets.fullnode.ui.WalletTextField;
 import org.cbitcoin.wallets.fullnode.util.Log;
 
 import javax.swing.*;
@@ -45,6 +48,7 @@ public class MessagingPanel
 
   private CBTCClientCaller clientCaller;
   private StatusUpdateErrorReporter errorReporter;
+  private OperationTracker operationTracker;
 
   private MessagingStorage messagingStorage;
 
@@ -70,6 +74,29 @@ public class MessagingPanel
   private Object messageCollectionMutex = new Object();
 
   private IPFSWrapper ipfs;
+  // Redraws the conversation once for all IPFS content cached meanwhile
+  private Timer ipfsPreviewTimer;
+
+  private MessageSignatureVerifier signatureVerifier;
+  private GroupPollingExecutor groupPollingExecutor;
+
+  // Chunks of long messages received so far
+  private MessageChunkAssembler chunkAssembler;
+
+  // Contact whose conversation is shown with the archived messages - null if none
+  private MessagingIdentity archiveShownForContact;
+
+  // Chunks of a long message may be delayed - e.g. if the sender is restarted meanwhile
+  private static final long INCOMPLETE_MESSAGE_TIMEOUT = 24L * 60 * 60 * 1000;
+
+  // IPFS previews cached within this time (ms) are shown by one redraw of the conversation
+  private static final int IPFS_PREVIEW_REFRESH_DELAY = 500;
+
+  // Old messages are archived once a day - see MessagingStorage.compactMessages()
+  private static final long MESSAGE_COMPACTION_INTERVAL = 24L * 60 * 60 * 1000;
+
+  // Link in the conversation that shows its archived messages
+  private static final String SHOW_ARCHIVED_URL = "http://SHOW_ARCHIVED";
 
 
   private static final String LOCAL_MSG_CONVERSATION = Util.local("LOCAL_MSG_CONVERSATION");
@@ -152,29 +179,64 @@ public class MessagingPanel
   private static final String LOCAL_MSG_INSUFF_BALANCE_MSG_CONFIRMED_DETAIL_2 = Util.local("LOCAL_MSG_INSUFF_BALANCE_MSG_CONFIRMED_DETAIL_2");
   private static final String LOCAL_MSG_TOO_LARGE = Util.local("LOCAL_MSG_TOO_LARGE");
   private static final String LOCAL_MSG_TOO_LARGE_DETAIL = Util.local("LOCAL_MSG_TOO_LARGE_DETAIL");
-  private static final String LOCAL_MSG_ERROR_SEND_MSG = Util.local("LOCAL_MSG_ERROR_SEND_MSG");
   private static final String LOCAL_MSG_ERROR = Util.local("LOCAL_MSG_ERROR");
   private static final String LOCAL_MSG_SUCCESSFUL = Util.local("LOCAL_MSG_SUCCESSFUL");
   private static final String LOCAL_MSG_IN_PROGRESS = Util.local("LOCAL_MSG_IN_PROGRESS");
+  private static final String LOCAL_MSG_FAILED_MESSAGES = Util.local("LOCAL_MSG_FAILED_MESSAGES");
+  private static final String LOCAL_MSG_FAILED_MESSAGES_Q = Util.local("LOCAL_MSG_FAILED_MESSAGES_Q");
+  private static final String LOCAL_MSG_SEND_OUTCOME_UNKNOWN = Util.local("LOCAL_MSG_SEND_OUTCOME_UNKNOWN");
+  private static final String LOCAL_MSG_SEND_AGAIN = Util.local("LOCAL_MSG_SEND_AGAIN");
+  private static final String LOCAL_MSG_DECIDE_LATER = Util.local("LOCAL_MSG_DECIDE_LATER");
+  private static final String LOCAL_MSG_DISCARD_MESSAGES = Util.local("LOCAL_MSG_DISCARD_MESSAGES");
   private static final String LOCAL_MSG_NO_MSG_ID_DETAIL_2 = Util.local("LOCAL_MSG_NO_MSG_ID_DETAIL_2");
   private static final String LOCAL_MSG_SEND_CONTACT_DETAILS = Util.local("LOCAL_MSG_SEND_CONTACT_DETAILS");
   private static final String LOCAL_MSG_SEND_CONTACT_DETAILS_Q = Util.local("LOCAL_MSG_SEND_CONTACT_DETAILS_Q");
   private static final String LOCAL_MSG_SEND_CONTACT_DETAILS_Q_2 = Util.local("LOCAL_MSG_SEND_CONTACT_DETAILS_Q_2");
   private static final String LOCAL_MSG_TOO_LARGE_ID = Util.local("LOCAL_MSG_TOO_LARGE_ID");
+  private static final String LOCAL_MSG_SEARCH = Util.local("LOCAL_MSG_SEARCH");
+  private static final String LOCAL_MSG_SHOW_ARCHIVED_MESSAGES = Util.local("LOCAL_MSG_SHOW_ARCHIVED_MESSAGES");
+  private static final String LOCAL_MSG_EXPORT_ARCHIVE = Util.local("LOCAL_MSG_EXPORT_ARCHIVE");
+  private static final String LOCAL_MSG_EXPORTING_ARCHIVE = Util.local("LOCAL_MSG_EXPORTING_ARCHIVE");
+  private static final String LOCAL_MSG_SUCCESS_EXPORT_ARCHIVE_DETAIL = Util.local("LOCAL_MSG_SUCCESS_EXPORT_ARCHIVE_DETAIL");
+  private static final String LOCAL_MSG_IMPORT_ARCHIVE = Util.local("LOCAL_MSG_IMPORT_ARCHIVE");
+  private static final String LOCAL_MSG_IMPORT_ARCHIVE_Q = Util.local("LOCAL_MSG_IMPORT_ARCHIVE_Q");
+  private static final String LOCAL_MSG_IMPORTING_ARCHIVE = Util.local("LOCAL_MSG_IMPORTING_ARCHIVE");
+  private static final String LOCAL_MSG_SUCCESS_IMPORT_ARCHIVE_DETAIL = Util.local("LOCAL_MSG_SUCCESS_IMPORT_ARCHIVE_DETAIL");
+  private static final String LOCAL_MSG_ARCHIVE_OPERATION_CANCELLED = Util.local("LOCAL_MSG_ARCHIVE_OPERATION_CANCELLED");
 
   public MessagingPanel(JFrame parentFrame, SendCashPanel sendCashPanel, JTabbedPane parentTabs,
-                        CBTCClientCaller clientCaller, StatusUpdateErrorReporter errorReporter)
+                        CBTCClientCaller clientCaller, StatusUpdateErrorReporter errorReporter,
+                        OperationTracker operationTracker)
       throws IOException, InterruptedException, WalletCallException {
     super();
 
+    long panelStart = System.currentTimeMillis();
+
     this.parentFrame = parentFrame;
     this.sendCashPanel = sendCashPanel;
     this.parentTabs = parentTabs;
 
     this.clientCaller = clientCaller;
     this.errorReporter = errorReporter;
+    this.operationTracker = operationTracker;
     this.messagingStorage = new MessagingStorage();
     this.ipfs = new IPFSWrapper(parentFrame);
+    this.ipfsPreviewTimer = new Timer(IPFS_PREVIEW_REFRESH_DELAY, e -> {
+      MessagingIdentity selectedContact = MessagingPanel.this.contactList.getSelectedContact();
+      if (selectedContact != null) {
+        try {
+          MessagingPanel.this.displayMessagesForContact(selectedContact);
+        } catch (IOException ioe) {
+          Log.error("Unexpected error in showing IPFS preview: ", ioe);
+        }
+      }
+    });
+    this.ipfsPreviewTimer.setRepeats(false);
+    this.timers.add(this.ipfsPreviewTimer);
+    this.signatureVerifier = new MessageSignatureVerifier();
+    this.groupPollingExecutor = new GroupPollingExecutor(
+        this.messagingStorage.getMessagingOptions().getGroupPollingConcurrency());
+    this.chunkAssembler = new MessageChunkAssembler(INCOMPLETE_MESSAGE_TIMEOUT);
 
     // Start building UI
     this.setLayout(new BorderLayout(0, 0));
@@ -203,7 +265,19 @@ public class MessagingPanel
     upperPanel.add(new JLabel(
         "<html><span style=\"font-size:1.6em;font-style:bold;\">&nbsp;</span>"));
     upperPanel.setBorder(BorderFactory.createEmptyBorder(0, 3, 0, 3));
-    conversationPanel.add(upperPanel, BorderLayout.NORTH);
+    JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 3, 0));
+    final WalletTextField searchField = new WalletTextField(15);
+    searchPanel.add(searchField);
+    JButton searchButton = new JButton(LOCAL_MSG_SEARCH);
+    searchPanel.add(searchButton);
+    JPanel conversationTopPanel = new JPanel(new BorderLayout(0, 0));
+    conversationTopPanel.add(upperPanel, BorderLayout.CENTER);
+    conversationTopPanel.add(searchPanel, BorderLayout.EAST);
+    conversationPanel.add(conversationTopPanel, BorderLayout.NORTH);
+
+    ActionListener searchListener = e -> MessagingPanel.this.openSearchDialog(searchField.getText());
+    searchButton.addActionListener(searchListener);
+    searchField.addActionListener(searchListener);
 
     textAndContactsPane.setLeftComponent(conversationPanel);
     SwingUtilities.invokeLater(() -> textAndContactsPane.setDividerLocation(590));
@@ -278,6 +352,94 @@ public class MessagingPanel
         },
         this.errorReporter, 45 * 1000, true);
     this.threads.add(receivedMessagesGatheringThread);
+
+    // Messages that could not be sent before the last shutdown - cbtcd should be available by then
+    if (this.messagingStorage.getOutgoingQueue().size() > 0) {
+      Timer resumeSendingTimer = new Timer(10 * 1000, e -> {
+        try {
+          MessagingPanel.this.sendNextQueuedMessages();
+          // Offered when the batch being sent is complete otherwise
+          if (MessagingPanel.this.operationStatusTimer == null) {
+            MessagingPanel.this.offerToSendFailedMessagesAgain();
+          }
+        } catch (Exception ex) {
+          Log.error("Unexpected error sending queued messages: ", ex);
+          MessagingPanel.this.errorReporter.reportError(ex, false);
+        }
+      });
+      resumeSendingTimer.setRepeats(false);
+      resumeSendingTimer.start();
+      this.timers.add(resumeSendingTimer);
+    }
+
+    // Build the message search index in the background - done only once. Then old messages are
+    // archived once a day - at low priority, it is disk bound.
+    Thread searchIndexBuilder = new Thread(() -> {
+      try {
+        MessagingPanel.this.messagingStorage.buildSearchIndexIfRequired();
+      } catch (Exception e) {
+        Log.error("Unexpected error while building the message search index: ", e);
+      }
+
+      while (true) {
+        try {
+          MessagingPanel.this.messagingStorage.compactMessages();
+        } catch (Exception e) {
+          Log.error("Unexpected error while archiving old messages: ", e);
+        }
+
+        try {
+          Thread.sleep(MESSAGE_COMPACTION_INTERVAL);
+        } catch (InterruptedException ie) {
+          return;
+        }
+      }
+    }, "MessageSearchIndexBuilder");
+    searchIndexBuilder.setPriority(Thread.MIN_PRIORITY);
+    searchIndexBuilder.setDaemon(true);
+    searchIndexBuilder.start();
+
+    long panelEnd = System.currentTimeMillis();
+    Log.info("Creating the messaging panel done in " + (panelEnd - panelStart) + "ms.");
+  }
+
+
+  private void openSearchDialog(String query) {
+    MessageSearchDialog searchDialog = new MessageSearchDialog(
+        this, this.parentFrame, this.messagingStorage, this.errorReporter, query);
+    searchDialog.setVisible(true);
+  }
+
+
+  /**
+   * Selects the conversation a message belongs to and scrolls to the message.
+   *
+   * @param contact contact or group of the conversation
+   * @param msg     the message to show
+   */
+  public void showMessageInConversation(MessagingIdentity contact, Message msg)
+      throws IOException {
+    // The message may be archived - the whole history is shown
+    boolean archiveShown = (this.archiveShownForContact != null) && this.archiveShownForContact.isIdenticalTo(contact);
+    this.archiveShownForContact = contact;
+
+    MessagingIdentity selectedContact = this.contactList.getSelectedContact();
+    if ((selectedContact == null) || (!selectedContact.isIdenticalTo(contact))) {
+      if (!this.contactList.selectContact(contact)) {
+        // Not shown in the list - display directly
+        this.displayMessagesForContact(contact);
+      }
+    } else if (!archiveShown) {
+      this.displayMessagesForContact(contact);
+    }
+
+    final String anchor = getMessageAnchor(msg);
+    SwingUtilities.invokeLater(() -> MessagingPanel.this.conversationTextPane.scrollToReference(anchor));
+  }
+
+
+  private static String getMessageAnchor(Message msg) {
+    return "msg_" + msg.getTime().getTime() + "_" + msg.getDirection().name();
   }
 
 
@@ -305,6 +467,16 @@ public class MessagingPanel
         return;
       }
 
+      // Show the archived messages of the conversation
+      if (id.equals(SHOW_ARCHIVED_URL)) {
+        MessagingIdentity selectedContact = MessagingPanel.this.contactList.getSelectedContact();
+        if (selectedContact != null) {
+          MessagingPanel.this.archiveShownForContact = selectedContact;
+          MessagingPanel.this.displayMessagesForContact(selectedContact);
+        }
+        return;
+      }
+
       // Handle uer links
       if (id.startsWith("http://")) {
         id = id.substring("http://".length());
@@ -365,12 +537,26 @@ public class MessagingPanel
     MessagingIdentity ownIdentity = this.messagingStorage.getOwnIdentity();
     List<Message> messages = this.messagingStorage.getAllMessagesForContact(contact);
 
-    // Analyze the received messages to extract from them messaging identities (if there are any)
-    // TODO: This could be cached to optimize performance
+    // Archived messages are shown on request only
+    StringBuilder text = new StringBuilder();
+    if ((this.archiveShownForContact != null) && this.archiveShownForContact.isIdenticalTo(contact)) {
+      List<Message> allMessages = this.messagingStorage.getArchivedMessagesForContact(contact);
+      allMessages.addAll(messages);
+      messages = allMessages;
+    } else {
+      this.archiveShownForContact = null;
+      int archivedCount = this.messagingStorage.getArchivedMessageCount(contact);
+      if (archivedCount > 0) {
+        text.append("<a href=\"" + SHOW_ARCHIVED_URL + "\">");
+        text.append(String.format(LOCAL_MSG_SHOW_ARCHIVED_MESSAGES, archivedCount));
+        text.append("</a><br/>");
+      }
+    }
+
+    // Messaging identities sent by group members - cached and updated as messages are stored
     Map<String, MessagingIdentity> knownSenders = this.getKnownSendersForGroup(contact);
 
     Date now = new Date();
-    StringBuilder text = new StringBuilder();
 
     final SimpleDateFormat defaultFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
     final SimpleDateFormat shortFormat = new SimpleDateFormat("HH:mm:ss");
@@ -427,9 +613,9 @@ public class MessagingPanel
         text.append(msg.getDirection() == DIRECTION_TYPE.SENT ? "\u21E8 " : "\u21E6 ");
         text.append("</span>");
       }
-      text.append("(");
+      text.append("<a name=\"" + getMessageAnchor(msg) + "\">(");
       text.append(stamp);
-      text.append(") ");
+      text.append(")</a> ");
 
       if (!msg.isAnonymous()) {
         if ((msg.getDirection() == DIRECTION_TYPE.RECEIVED) &&
@@ -491,6 +677,15 @@ public class MessagingPanel
   }
 
 
+  @Override
+  public void stopThreadsAndTimers() {
+    super.stopThreadsAndTimers();
+
+    // Contacts changed since the last message collection
+    this.messagingStorage.storeContactsSummary();
+  }
+
+
   /**
    * Called when the TAB is selected - currently shows the welcome message
    */
@@ -581,6 +776,105 @@ public class MessagingPanel
   }
 
 
+  /**
+   * Exports all messaging data (identities, contacts and messages) to an archive file. The export runs
+   * in the background with a progress monitor.
+   */
+  public void exportMessagingArchive() {
+    try {
+      JFileChooser fileChooser = new JFileChooser();
+      fileChooser.setDialogTitle(LOCAL_MSG_EXPORT_ARCHIVE);
+      fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+      fileChooser.setSelectedFile(new File(OSUtil.getUserHomeDirectory(),
+          "messaging_archive_" + new SimpleDateFormat("yyyyMMdd").format(new Date()) + ".zip"));
+
+      if (fileChooser.showSaveDialog(this.parentFrame) != JFileChooser.APPROVE_OPTION) {
+        return;
+      }
+
+      final File archiveFile = fileChooser.getSelectedFile();
+      this.runArchiveOperation(LOCAL_MSG_EXPORTING_ARCHIVE, "MessagingArchiveExport",
+          listener -> this.messagingStorage.exportArchive(archiveFile, listener),
+          LOCAL_MSG_SUCCESS_EXPORT_ARCHIVE_DETAIL + archiveFile.getName(), LOCAL_MSG_EXPORT_ARCHIVE);
+    } catch (Exception ex) {
+      Log.error("Unexpected error exporting messaging archive!", ex);
+      this.errorReporter.reportError(ex, false);
+    }
+  }
+
+
+  /**
+   * Restores all messaging data from an archive file. The current data is replaced on next start of
+   * the wallet. An interrupted import of the same file is resumed.
+   */
+  public void importMessagingArchive() {
+    JFileChooser fileChooser = new JFileChooser();
+    fileChooser.setDialogTitle(LOCAL_MSG_IMPORT_ARCHIVE);
+    fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+
+    if (fileChooser.showOpenDialog(this.parentFrame) != JFileChooser.APPROVE_OPTION) {
+      return;
+    }
+
+    int reply = JOptionPane.showConfirmDialog(
+        this.parentFrame, LOCAL_MSG_IMPORT_ARCHIVE_Q,
+        LOCAL_MSG_IMPORT_ARCHIVE, JOptionPane.YES_NO_OPTION);
+    if (reply != JOptionPane.YES_OPTION) {
+      return;
+    }
+
+    final File archiveFile = fileChooser.getSelectedFile();
+    this.runArchiveOperation(LOCAL_MSG_IMPORTING_ARCHIVE, "MessagingArchiveImport",
+        listener -> this.messagingStorage.importArchive(archiveFile, listener),
+        LOCAL_MSG_SUCCESS_IMPORT_ARCHIVE_DETAIL, LOCAL_MSG_IMPORT_ARCHIVE);
+  }
+
+
+  // An export or import - the work done by a background thread
+  private interface ArchiveOperation {
+    void run(MessagingArchive.ProgressListener listener)
+        throws IOException;
+  }
+
+
+  private void runArchiveOperation(String progressMessage, String threadName, final ArchiveOperation operation,
+                                   final String successMessage, final String title) {
+    final ProgressMonitor progressMonitor = new ProgressMonitor(this.parentFrame, progressMessage, null, 0, 100);
+    progressMonitor.setMillisToPopup(10);
+
+    Thread worker = new Thread(() -> {
+      try {
+        operation.run((done, total) -> {
+          final int percent = (int) ((total > 0) ? ((done * 100) / total) : 0);
+          SwingUtilities.invokeLater(() -> progressMonitor.setProgress(percent));
+          return !progressMonitor.isCanceled();
+        });
+
+        SwingUtilities.invokeLater(() -> {
+          progressMonitor.close();
+          JOptionPane.showMessageDialog(
+              MessagingPanel.this.parentFrame, successMessage, title, JOptionPane.INFORMATION_MESSAGE);
+        });
+      } catch (InterruptedIOException iioe) {
+        SwingUtilities.invokeLater(() -> {
+          progressMonitor.close();
+          JOptionPane.showMessageDialog(
+              MessagingPanel.this.parentFrame, LOCAL_MSG_ARCHIVE_OPERATION_CANCELLED, title,
+              JOptionPane.INFORMATION_MESSAGE);
+        });
+      } catch (Exception ex) {
+        Log.error("Unexpected error in messaging archive operation: " + title, ex);
+        SwingUtilities.invokeLater(() -> {
+          progressMonitor.close();
+          MessagingPanel.this.errorReporter.reportError(ex, false);
+        });
+      }
+    }, threadName);
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+
   /**
    * Shows the UI dialog to edit+save one's own identity.
    *
@@ -895,6 +1189,7 @@ public class MessagingPanel
   // MessagingIdentity remoteIdentity - if null selection is taken
   private void sendMessage(String textToSend, MessagingIdentity remoteIdentity)
       throws IOException, WalletCallException, InterruptedException {
+    final boolean textFromTextArea = (textToSend == null);
     boolean sendAnonymously = this.sendAnonymously.isSelected();
     boolean sendReturnAddress = false;
     boolean updateMessagingIdentityJustBeforeSend = false;
@@ -991,8 +1286,8 @@ public class MessagingPanel
       return;
     }
 
-    // Make sure there is not another send operation going on - at this time
-    if ((this.operationStatusTimer != null) || (!this.sendButton.isEnabled())) {
+    // Make sure there is not another message being prepared - messages being sent are queued
+    if (!this.sendButton.isEnabled()) {
       JOptionPane.showMessageDialog(
           this.parentFrame,
           LOCAL_MSG_SENDING_MSG_DETAIL,
@@ -1009,9 +1304,192 @@ public class MessagingPanel
 
     MessagingOptions msgOptions = this.messagingStorage.getMessagingOptions();
 
-    // Check to make sure the sending address has some funds!!!
-    final double minimumBalance = msgOptions.getAmountToSend() + msgOptions.getTransactionFee();
+    // Check to make sure the sending address has some funds!!! Also for the messages already queued.
+    OutgoingMessageQueue outgoingQueue = this.messagingStorage.getOutgoingQueue();
+    final double minimumBalance =
+        (outgoingQueue.size() + 1) * msgOptions.getAmountToSend() + msgOptions.getTransactionFee();
+
+    if (!this.checkSendingBalance(ownIdentity, minimumBalance)) {
+      // Restore controls
+      this.sendButton.setEnabled(true);
+      this.writeMessageTextArea.setEnabled(true);
+      return;
+    }
+
+    JsonObject jsonInnerMessage = null;
 
+    if (sendAnonymously) {
+      // Form an anonymous message
+      jsonInnerMessage = new JsonObject();
+      jsonInnerMessage.set("ver", MessageEnvelope.PROTOCOL_VERSION);
+      jsonInnerMessage.set("message", textToSend);
+      jsonInnerMessage.set("threadid", contactIdentity.getThreadID());
+      if (sendReturnAddress) {
+        jsonInnerMessage.set("returnaddress", ownIdentity.getSendreceiveaddress());
+      }
+    } else {
+      // Sign a HEX encoded message ... to avoid possible UNICODE issues
+      String signature = this.clientCaller.signMessage(
+          ownIdentity.getSenderidaddress(), Util.encodeHexString(textToSend).toUpperCase());
+
+      jsonInnerMessage = new JsonObject();
+      jsonInnerMessage.set("ver", MessageEnvelope.PROTOCOL_VERSION);
+      jsonInnerMessage.set("from", ownIdentity.getSenderidaddress());
+      jsonInnerMessage.set("message", textToSend);
+      jsonInnerMessage.set("sign", signature);
+    }
+
+    JsonObject jsonOuterMessage = new JsonObject();
+    jsonOuterMessage.set("zenmsg", jsonInnerMessage);
+
+    List<byte[]> memos = this.encodeMemos(jsonOuterMessage, contactIdentity);
+
+    // Check the size of the message to be sent, error if it exceeds.
+    if (memos == null) {
+      Log.warning("Text length of exceeding message: {0}", textToSend.length());
+      // We give exact size and advice on reduction...
+      JOptionPane.showMessageDialog(
+          this.parentFrame,
+          LOCAL_MSG_TOO_LARGE_DETAIL,
+          LOCAL_MSG_TOO_LARGE, JOptionPane.ERROR_MESSAGE);
+      // Restore controls and exit
+      this.sendButton.setEnabled(true);
+      this.writeMessageTextArea.setEnabled(true);
+      return;
+    }
+
+    if (updateMessagingIdentityJustBeforeSend) {
+      if (!contactIdentity.isGroup()) {
+        this.messagingStorage.updateContactIdentityForSenderIDAddress(
+            contactIdentity.getSenderidaddress(), contactIdentity);
+      } else {
+        this.messagingStorage.updateGroupContactIdentityForSendReceiveAddress(
+            contactIdentity.getSendreceiveaddress(), contactIdentity);
+      }
+    }
+
+    // Queue the message - pending messages are sent together in one transaction
+    outgoingQueue.addAll(this.createQueuedMessages(contactIdentity, jsonInnerMessage, memos));
+
+    // Restore controls - more messages may be written while this one is being sent
+    this.sendButton.setEnabled(true);
+    this.writeMessageTextArea.setEnabled(true);
+    if (textFromTextArea) {
+      this.writeMessageTextArea.setText(""); // clear message from text area
+    }
+
+    this.sendNextQueuedMessages();
+  }
+
+
+  /**
+   * Sends the same signed message to many contacts. The messages are queued as one broadcast and sent
+   * in as few transactions as the wallet allows (see sendNextQueuedMessages()).
+   *
+   * @param textToSend text of the message
+   * @param recipients contacts to send the message to
+   * @return ID of the broadcast - for following the state of the recipients, null if nothing was queued
+   */
+  public String broadcastMessage(String textToSend, List<MessagingIdentity> recipients)
+      throws IOException, WalletCallException, InterruptedException {
+    if (recipients.isEmpty()) {
+      JOptionPane.showMessageDialog(
+          this.parentFrame,
+          LOCAL_MSG_NO_RECIPIENT_DETAIL,
+          LOCAL_MSG_NO_RECIPIENT, JOptionPane.ERROR_MESSAGE);
+      return null;
+    }
+
+    if (textToSend.length() <= 0) {
+      JOptionPane.showMessageDialog(
+          this.parentFrame,
+          LOCAL_MSG_NO_TEXT_DETAIL,
+          LOCAL_MSG_NO_TEXT, JOptionPane.ERROR_MESSAGE);
+      return null;
+    }
+
+    MessagingIdentity ownIdentity = this.messagingStorage.getOwnIdentity();
+    MessagingOptions msgOptions = this.messagingStorage.getMessagingOptions();
+
+    // One fee per transaction - the recipients share the transactions
+    OutgoingMessageQueue outgoingQueue = this.messagingStorage.getOutgoingQueue();
+    int transactions = (recipients.size() + MAX_OUTPUTS_PER_TRANSACTION - 1) / MAX_OUTPUTS_PER_TRANSACTION;
+    final double minimumBalance = (outgoingQueue.size() + recipients.size()) * msgOptions.getAmountToSend() +
+        transactions * msgOptions.getTransactionFee();
+    if (!this.checkSendingBalance(ownIdentity, minimumBalance)) {
+      return null;
+    }
+
+    // Signed once - the message is the same for all recipients
+    String signature = this.clientCaller.signMessage(
+        ownIdentity.getSenderidaddress(), Util.encodeHexString(textToSend).toUpperCase());
+
+    JsonObject jsonInnerMessage = new JsonObject();
+    jsonInnerMessage.set("ver", MessageEnvelope.PROTOCOL_VERSION);
+    jsonInnerMessage.set("from", ownIdentity.getSenderidaddress());
+    jsonInnerMessage.set("message", textToSend);
+    jsonInnerMessage.set("sign", signature);
+
+    JsonObject jsonOuterMessage = new JsonObject();
+    jsonOuterMessage.set("zenmsg", jsonInnerMessage);
+
+    List<OutgoingMessageQueue.QueuedMessage> messages = new ArrayList<>();
+    List<MessagingIdentity> failedRecipients = new ArrayList<>();
+    for (MessagingIdentity recipient : recipients) {
+      MessagingIdentity contactIdentity = recipient.getCloneCopy();
+      List<byte[]> memos = Util.stringIsEmpty(contactIdentity.getSendreceiveaddress()) ? null :
+          this.encodeMemos(jsonOuterMessage, contactIdentity);
+      if (memos == null) {
+        Log.warning("Broadcast message cannot be sent to contact: {0}", contactIdentity.getDiplayString());
+        failedRecipients.add(contactIdentity);
+        continue;
+      }
+
+      messages.addAll(this.createQueuedMessages(contactIdentity, jsonInnerMessage, memos));
+    }
+
+    String broadcastID = outgoingQueue.addBroadcast(messages, failedRecipients);
+    Log.info("Broadcast {0} queued for {1} recipients, {2} of them cannot be sent to.",
+        broadcastID, recipients.size(), failedRecipients.size());
+
+    this.sendNextQueuedMessages();
+    return broadcastID;
+  }
+
+
+  // Sends the own messaging identity to many contacts - see broadcastMessage()
+  public String broadcastIdentity(List<MessagingIdentity> recipients)
+      throws IOException, WalletCallException, InterruptedException {
+    String identityString = identityToString(this.messagingStorage.getOwnIdentity());
+    if (identityString.length() > 330) // Protocol V1 restriction
+    {
+      JOptionPane.showMessageDialog(
+          this.parentFrame,
+          LOCAL_MSG_TOO_LARGE_ID,
+          LOCAL_MSG_TOO_LARGE, JOptionPane.ERROR_MESSAGE);
+      return null;
+    }
+
+    return this.broadcastMessage(identityString, recipients);
+  }
+
+
+  public void openBroadcastDialog() {
+    try {
+      MessageBroadcastDialog dialog = new MessageBroadcastDialog(
+          this.parentFrame, this, this.messagingStorage, this.errorReporter);
+      dialog.setVisible(true);
+    } catch (Exception ex) {
+      Log.error("Unexpected error in opening the broadcast dialog!", ex);
+      this.errorReporter.reportError(ex, false);
+    }
+  }
+
+
+  // Checks that the sending address has enough funds - also for the messages already queued.
+  // Shows an error and returns false if not.
+  private boolean checkSendingBalance(MessagingIdentity ownIdentity, double minimumBalance)
+      throws IOException, WalletCallException, InterruptedException {
     Double balance = null;
     Double unconfirmedBalance = null;
     Cursor oldCursor = this.parentFrame.getCursor();
@@ -1035,13 +1513,10 @@ public class MessagingPanel
               LOCAL_MSG_INSUFF_BALANCE_MSG_DETAIL_2,
           LOCAL_MSG_INSUFF_BALANCE_MSG, JOptionPane.ERROR_MESSAGE);
 
-      // Restore controls and move to the send cbtc tab etc.
-      this.sendButton.setEnabled(true);
-      this.writeMessageTextArea.setEnabled(true);
-
+      // Move to the send cbtc tab etc.
       sendCashPanel.prepareForSending(ownIdentity.getSendreceiveaddress());
       parentTabs.setSelectedIndex(2);
-      return;
+      return false;
     }
 
     if ((balance < minimumBalance) && (unconfirmedBalance >= minimumBalance)) {
@@ -1054,185 +1529,297 @@ public class MessagingPanel
               LOCAL_MSG_INSUFF_BALANCE_MSG_CONFIRMED_DETAIL_2,
           LOCAL_MSG_INSUFF_BALANCE_MSG_CONFIRMED, JOptionPane.ERROR_MESSAGE);
 
-      // Restore controls and move to the send cash tab etc.
-      this.sendButton.setEnabled(true);
-      this.writeMessageTextArea.setEnabled(true);
+      return false;
+    }
 
-      return;
+    return true;
+  }
+
+
+  // Encodes the memos for sending the message to a contact - several chunks for a long message if the
+  // contact can reassemble them. Null if the message is too large for the contact.
+  private List<byte[]> encodeMemos(JsonObject jsonOuterMessage, MessagingIdentity contactIdentity)
+      throws IOException {
+    // Compressed memos only go to contacts known to read them - group members may have older clients
+    boolean allowCompression = (!contactIdentity.isGroup()) &&
+        (contactIdentity.getMessageVersion() >= MessageEnvelope.COMPRESSED_FORMAT_MIN_VERSION);
+    byte[] memo = MessageEnvelope.encode(jsonOuterMessage, allowCompression);
+    if (memo.length <= MessageEnvelope.MAX_MEMO_SIZE) {
+      return Collections.singletonList(memo);
     }
 
+    // A long message may be sent in chunks to contacts that can reassemble them
+    if ((!contactIdentity.isGroup()) &&
+        (contactIdentity.getMessageVersion() >= MessageEnvelope.CHUNKED_MESSAGES_MIN_VERSION)) {
+      List<byte[]> chunkMemos = MessageChunkAssembler.split(jsonOuterMessage, allowCompression);
+      Log.info("Message of {0} bytes will be sent in {1} chunks.", memo.length, chunkMemos.size());
+      return chunkMemos;
+    }
 
-    String memoString = null;
-    JsonObject jsonInnerMessage = null;
+    return null;
+  }
 
-    if (sendAnonymously) {
-      // Form an anonymous message
-      jsonInnerMessage = new JsonObject();
-      jsonInnerMessage.set("ver", 1d);
-      jsonInnerMessage.set("message", textToSend);
-      jsonInnerMessage.set("threadid", contactIdentity.getThreadID());
-      if (sendReturnAddress) {
-        jsonInnerMessage.set("returnaddress", ownIdentity.getSendreceiveaddress());
-      }
 
-      JsonObject jsonOuterMessage = new JsonObject();
-      jsonOuterMessage.set("zenmsg", jsonInnerMessage);
-      memoString = jsonOuterMessage.toString();
-    } else {
-      // Sign a HEX encoded message ... to avoid possible UNICODE issues
-      String signature = this.clientCaller.signMessage(
-          ownIdentity.getSenderidaddress(), Util.encodeHexString(textToSend).toUpperCase());
+  private List<OutgoingMessageQueue.QueuedMessage> createQueuedMessages(MessagingIdentity contactIdentity,
+                                                                        JsonObject jsonInnerMessage,
+                                                                        List<byte[]> memos)
+      throws IOException {
+    List<OutgoingMessageQueue.QueuedMessage> messages = new ArrayList<>();
+    if (memos.size() == 1) {
+      messages.add(new OutgoingMessageQueue.QueuedMessage(
+          contactIdentity, jsonInnerMessage, Util.encodeHexArray(memos.get(0))));
+      return messages;
+    }
 
-      jsonInnerMessage = new JsonObject();
-      jsonInnerMessage.set("ver", 1d);
-      jsonInnerMessage.set("from", ownIdentity.getSenderidaddress());
-      jsonInnerMessage.set("message", textToSend);
-      jsonInnerMessage.set("sign", signature);
-      JsonObject jsonOuterMessage = new JsonObject();
-      jsonOuterMessage.set("zenmsg", jsonInnerMessage);
-      memoString = jsonOuterMessage.toString();
+    String chunkID = UUID.randomUUID().toString();
+    for (int i = 0; i < memos.size(); i++) {
+      // The message is stored as sent with the last chunk
+      messages.add(new OutgoingMessageQueue.QueuedMessage(contactIdentity,
+          (i == (memos.size() - 1)) ? jsonInnerMessage : null, Util.encodeHexArray(memos.get(i)), chunkID));
     }
+    return messages;
+  }
 
-    final JsonObject jsonInnerMessageForFurtherUse = jsonInnerMessage;
 
-    // Check the size of the message to be sent, error if it exceeds.
-    final int maxSendingLength = 512;
-    int overallSendingLength = memoString.getBytes("UTF-8").length;
-    if (overallSendingLength > maxSendingLength) {
-      Log.warning("Text length of exceeding message: {0}", textToSend.length());
-      int difference = Math.abs(maxSendingLength - overallSendingLength);
-      // We give exact size and advice on reduction...
-      JOptionPane.showMessageDialog(
-          this.parentFrame,
-          LOCAL_MSG_TOO_LARGE_DETAIL,
-          LOCAL_MSG_TOO_LARGE, JOptionPane.ERROR_MESSAGE);
-      // Restore controls and exit
-      this.sendButton.setEnabled(true);
-      this.writeMessageTextArea.setEnabled(true);
+  // Messages sent in one transaction at most
+  private static final int MAX_MESSAGES_PER_TRANSACTION = 10;
+
+  // Outputs of one transaction at most - the limit of the wallet for shielded outputs of z_sendmany.
+  // Only messages of a broadcast fill a transaction up to this limit.
+  private static final int MAX_OUTPUTS_PER_TRANSACTION = 54;
+
+  // On Windows the command line of the wallet call is limited to 32767 characters, the HEX memos must
+  // leave room for the addresses and amounts
+  private static final int MAX_MEMO_HEX_CHARS_PER_TRANSACTION_WINDOWS = 22000;
+
+
+  // Sends the next batch of queued messages in one transaction - unless a batch is being sent.
+  // Called again when the batch being sent is complete.
+  private void sendNextQueuedMessages()
+      throws IOException, WalletCallException, InterruptedException {
+    OutgoingMessageQueue outgoingQueue = this.messagingStorage.getOutgoingQueue();
+
+    if (this.operationStatusTimer != null) {
+      this.showSendStatus("orange", LOCAL_MSG_IN_PROGRESS);
       return;
     }
 
-    if (updateMessagingIdentityJustBeforeSend) {
-      if (!contactIdentity.isGroup()) {
-        this.messagingStorage.updateContactIdentityForSenderIDAddress(
-            contactIdentity.getSenderidaddress(), contactIdentity);
-      } else {
-        this.messagingStorage.updateGroupContactIdentityForSendReceiveAddress(
-            contactIdentity.getSendreceiveaddress(), contactIdentity);
-      }
+    // A batch that was being sent before a restart - the tracker asks cbtcd in its own thread. If cbtcd
+    // was restarted too, the outcome is unknown and the user decides (see storeSendingResult()).
+    Map<String, List<OutgoingMessageQueue.QueuedMessage>> sendingBatches = outgoingQueue.getSendingBatches();
+    if (!sendingBatches.isEmpty()) {
+      String operationID = sendingBatches.keySet().iterator().next();
+      this.followSendingOperation(operationID, sendingBatches.get(operationID));
+      return;
+    }
+
+    int maxMemoHexChars = (OSUtil.getOSType() == OSUtil.OS_TYPE.WINDOWS) ?
+        MAX_MEMO_HEX_CHARS_PER_TRANSACTION_WINDOWS : Integer.MAX_VALUE;
+    final List<OutgoingMessageQueue.QueuedMessage> batch = outgoingQueue.getNextBatch(
+        MAX_MESSAGES_PER_TRANSACTION, MAX_OUTPUTS_PER_TRANSACTION, maxMemoHexChars);
+    if (batch.isEmpty()) {
+      return;
+    }
+
+    MessagingIdentity ownIdentity = this.messagingStorage.getOwnIdentity();
+    MessagingOptions msgOptions = this.messagingStorage.getMessagingOptions();
+
+    List<String> toAddresses = new ArrayList<>();
+    List<String> hexMemos = new ArrayList<>();
+    for (OutgoingMessageQueue.QueuedMessage queuedMessage : batch) {
+      toAddresses.add(queuedMessage.getToAddress());
+      hexMemos.add(queuedMessage.getMemoHex());
     }
 
-    // Finally send the message
+    // Finally send the messages
     String tempOperationID = null;
     try {
-      tempOperationID = this.clientCaller.sendMessage(
-          ownIdentity.getSendreceiveaddress(), contactIdentity.getSendreceiveaddress(),
-          msgOptions.getAmountToSend(), msgOptions.getTransactionFee(), memoString);
+      tempOperationID = this.clientCaller.sendMessages(
+          ownIdentity.getSendreceiveaddress(), toAddresses, hexMemos,
+          msgOptions.getAmountToSend(), msgOptions.getTransactionFee());
     } catch (WalletCallException wce) {
       Log.error("Wallet call error in sending message: ", wce);
+      outgoingQueue.markFailed(batch, wce.getMessage(), false);
 
-      sendResultLabel.setText(
-          "<html><span style=\"color:red;font-size:0.8em;font-weight:bold\">" + LOCAL_MSG_ERROR + "</span></html>");
-      JOptionPane.showMessageDialog(
-          MessagingPanel.this.getRootPane().getParent(),
-          LOCAL_MSG_ERROR_SEND_MSG + " : " + wce.getMessage(),
-          LOCAL_MSG_ERROR_SEND_MSG, JOptionPane.ERROR_MESSAGE);
-
+      this.showSendStatus("red", LOCAL_MSG_ERROR);
       sendMessageProgressBar.setValue(0);
-      sendButton.setEnabled(true);
-      writeMessageTextArea.setEnabled(true);
 
-      // Exit prematurely
+      // Messages to other recipients may still be sent
+      this.sendNextQueuedMessages();
+      if (this.operationStatusTimer == null) {
+        this.offerToSendFailedMessagesAgain();
+      }
       return;
     }
 
-    final String operationStatusID = tempOperationID;
-
-    // Start a data gathering thread specific to the operation being executed - this is done is a separate
-    // thread since the server responds more slowly during JoinSPlits and this blocks he GUI somewhat.
-    final DataGatheringThread<Boolean> opFollowingThread = new DataGatheringThread<Boolean>(
-        () -> {
-          long start = System.currentTimeMillis();
-          Boolean result = MessagingPanel.this.clientCaller.isSendingOperationComplete(operationStatusID);
-          long end = System.currentTimeMillis();
-          Log.info("Checking for messaging operation " + operationStatusID + " status done in " + (end - start) + "ms.");
+    outgoingQueue.markSending(batch, tempOperationID);
+    this.followSendingOperation(tempOperationID, batch);
+  }
 
-          return result;
-        },
-        this.errorReporter, 2000, true);
 
+  // Follows the operation that sends a batch of messages until it is complete
+  private void followSendingOperation(final String operationStatusID,
+                                      final List<OutgoingMessageQueue.QueuedMessage> batch) {
     // Start a timer to update the progress of the operation
     this.operationStatusTimer = new Timer(2000, new ActionListener() {
       public int operationStatusCounter = 0;
 
       @Override
       public void actionPerformed(ActionEvent e) {
-        try {
-          Boolean opComplete = opFollowingThread.getLastData();
-
-          if ((opComplete != null) && opComplete.booleanValue()) {
-            // End the special thread used to follow the operation
-            opFollowingThread.setSuspended(true);
-
-            boolean sendWasSuccessful = clientCaller.isCompletedOperationSuccessful(operationStatusID);
-            if (sendWasSuccessful) {
-              sendResultLabel.setText(
-                  "<html><span style=\"color:green;font-size:0.8em;font-weight:bold\">" + LOCAL_MSG_SUCCESSFUL + "</span></html>");
-            } else {
-              String errorMessage = clientCaller.getOperationFinalErrorMessage(operationStatusID);
-              sendResultLabel.setText(
-                  "<html><span style=\"color:red;font-size:0.8em;font-weight:bold\">" + LOCAL_MSG_ERROR + "</span></html>");
-              JOptionPane.showMessageDialog(
-                  MessagingPanel.this.getRootPane().getParent(),
-                  LOCAL_MSG_ERROR_SEND_MSG + ": " + errorMessage,
-                  LOCAL_MSG_ERROR_SEND_MSG, JOptionPane.ERROR_MESSAGE);
-            }
-
+        // Update the progress
+        showSendStatus("orange", LOCAL_MSG_IN_PROGRESS);
+        operationStatusCounter += 2;
+        int progress = 0;
+        if (operationStatusCounter <= 100) {
+          progress = operationStatusCounter;
+        } else {
+          progress = 100 + (((operationStatusCounter - 100) * 6) / 10);
+        }
+        sendMessageProgressBar.setValue(progress);
 
-            // Restore controls etc. final actions - reenable
-            sendMessageProgressBar.setValue(0);
-            operationStatusTimer.stop();
-            operationStatusTimer = null;
-            sendButton.setEnabled(true);
-            writeMessageTextArea.setEnabled(true);
-            writeMessageTextArea.setText(""); // clear message from text area
-
-            if (sendWasSuccessful) {
-              // Save message as outgoing
-              Message msg = new Message(jsonInnerMessageForFurtherUse);
-              msg.setTime(new Date());
-              msg.setDirection(DIRECTION_TYPE.SENT);
-              // TODO: We can get the transaction ID for outgoing messages but is is probably unnecessary
-              msg.setTransactionID("");
-              messagingStorage.writeNewSentMessageForContact(contactIdentity, msg);
-            }
+        MessagingPanel.this.repaint();
+      }
+    }); // End timer operation
+    operationStatusTimer.setInitialDelay(0);
+    operationStatusTimer.start();
 
-            // Update conversation text pane
-            displayMessagesForContact(contactIdentity);
-
-          } else {
-            // Update the progress
-            sendResultLabel.setText(
-                "<html><span style=\"color:orange;font-size:0.8em;font-weight:bold\">" + LOCAL_MSG_IN_PROGRESS + "</span></html>");
-            operationStatusCounter += 2;
-            int progress = 0;
-            if (operationStatusCounter <= 100) {
-              progress = operationStatusCounter;
-            } else {
-              progress = 100 + (((operationStatusCounter - 100) * 6) / 10);
-            }
-            sendMessageProgressBar.setValue(progress);
-          }
+    // The shared tracker follows the operation in its own thread since the server responds more slowly
+    // during JoinSPlits and this blocks he GUI somewhat.
+    this.operationTracker.track(operationStatusID, result -> {
+      // Stored in the tracking thread - the tracker releases the operation in cbtcd when this returns
+      try {
+        MessagingPanel.this.storeSendingResult(result, batch);
+      } catch (Exception ex) {
+        Log.error("Unexpected error storing sent messages: ", ex);
+        SwingUtilities.invokeLater(() -> MessagingPanel.this.errorReporter.reportError(ex));
+      }
 
-          MessagingPanel.this.repaint();
+      SwingUtilities.invokeLater(() -> {
+        try {
+          MessagingPanel.this.completeSendingOperation(result, batch);
         } catch (Exception ex) {
           Log.error("Unexpected error sending message: ", ex);
           MessagingPanel.this.errorReporter.reportError(ex);
         }
+      });
+    });
+  }
+
+
+  // Stores the sent messages and updates the queue when the operation that sends a batch is complete
+  private void storeSendingResult(OperationResult result, List<OutgoingMessageQueue.QueuedMessage> batch)
+      throws IOException {
+    boolean sendWasSuccessful = result.successful;
+    if (sendWasSuccessful) {
+      // Save messages as outgoing
+      for (OutgoingMessageQueue.QueuedMessage queuedMessage : batch) {
+        // A long message is stored when its last chunk is sent
+        if (queuedMessage.getMessage() == null) {
+          continue;
+        }
+
+        Message msg = new Message(queuedMessage.getMessage());
+        msg.setTime(new Date());
+        msg.setDirection(DIRECTION_TYPE.SENT);
+        // TODO: We can get the transaction ID for outgoing messages but is is probably unnecessary
+        msg.setTransactionID("");
+        try {
+          messagingStorage.writeNewSentMessageForContact(queuedMessage.getContact(), msg);
+        } catch (Exception ex) {
+          // E.g. the contact has been deleted meanwhile
+          Log.error("Could not store sent message {0}", ex, msg.toJSONObject(false).toString());
+        }
       }
-    }); // End timer operation
-    operationStatusTimer.setInitialDelay(0);
-    operationStatusTimer.start();
+    }
+    if (sendWasSuccessful) {
+      messagingStorage.getOutgoingQueue().remove(batch);
+    } else {
+      // Kept until the user decides - never sent again automatically, the transaction may exist
+      if (result.unknown) {
+        Log.warning("Operation {0} for sending {1} queued messages is unknown. They may have been sent.",
+            result.opID, batch.size());
+      }
+      messagingStorage.getOutgoingQueue().markFailed(batch, result.errorMessage, result.unknown);
+    }
+  }
+
+
+  // Shows the outcome when the operation that sends a batch of messages is complete - see storeSendingResult()
+  private void completeSendingOperation(OperationResult result, List<OutgoingMessageQueue.QueuedMessage> batch)
+      throws IOException, WalletCallException, InterruptedException {
+    // Restore controls etc. final actions
+    sendMessageProgressBar.setValue(0);
+    operationStatusTimer.stop();
+    operationStatusTimer = null;
+
+    showSendStatus(result.successful ? "green" : "red", result.successful ? LOCAL_MSG_SUCCESSFUL : LOCAL_MSG_ERROR);
+
+    // Update conversation text pane
+    MessagingIdentity selectedContact = contactList.getSelectedContact();
+    for (OutgoingMessageQueue.QueuedMessage queuedMessage : batch) {
+      if ((selectedContact != null) && selectedContact.isIdenticalTo(queuedMessage.getContact())) {
+        displayMessagesForContact(selectedContact);
+        break;
+      }
+    }
+
+    // Messages queued meanwhile
+    sendNextQueuedMessages();
+    if (this.operationStatusTimer == null) {
+      this.offerToSendFailedMessagesAgain();
+    }
+
+    MessagingPanel.this.repaint();
+  }
+
+
+  // Failed messages stay in the queue until the user sends them again or discards them
+  private void offerToSendFailedMessagesAgain()
+      throws IOException, WalletCallException, InterruptedException {
+    OutgoingMessageQueue outgoingQueue = this.messagingStorage.getOutgoingQueue();
+    List<OutgoingMessageQueue.QueuedMessage> failed = outgoingQueue.getFailedMessages();
+    if (failed.isEmpty()) {
+      return;
+    }
+
+    Set<String> recipients = new LinkedHashSet<>();
+    Set<String> errors = new LinkedHashSet<>();
+    boolean outcomeUnknown = false;
+    for (OutgoingMessageQueue.QueuedMessage msg : failed) {
+      recipients.add(msg.getContact().getDiplayString());
+      if (msg.getErrorMessage() != null) {
+        errors.add(msg.getErrorMessage());
+      }
+      outcomeUnknown |= msg.isOutcomeUnknown();
+    }
+
+    String question = String.format(LOCAL_MSG_FAILED_MESSAGES_Q,
+        failed.size(), String.join(", ", recipients), String.join("\n", errors));
+    if (outcomeUnknown) {
+      question += "\n\n" + LOCAL_MSG_SEND_OUTCOME_UNKNOWN;
+    }
+
+    String[] options = {LOCAL_MSG_SEND_AGAIN, LOCAL_MSG_DECIDE_LATER, LOCAL_MSG_DISCARD_MESSAGES};
+    int reply = JOptionPane.showOptionDialog(
+        this.getRootPane().getParent(), question, LOCAL_MSG_FAILED_MESSAGES,
+        JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE,
+        null, options, outcomeUnknown ? options[1] : options[0]);
+
+    if (reply == 0) {
+      outgoingQueue.retryFailed();
+      this.sendNextQueuedMessages();
+    } else if (reply == 2) {
+      outgoingQueue.discardFailed();
+      this.showSendStatus("red", LOCAL_MSG_ERROR);
+    }
+  }
+
+
+  private void showSendStatus(String color, String status) {
+    int queued = this.messagingStorage.getOutgoingQueue().size();
+    this.sendResultLabel.setText(
+        "<html><span style=\"color:" + color + ";font-size:0.8em;font-weight:bold\">" + status +
+            ((queued > 0) ? (" (" + queued + ")") : "") + "</span></html>");
   }
 
 
@@ -1240,6 +1827,9 @@ public class MessagingPanel
       throws Exception {
     try {
       synchronized (this.messageCollectionMutex) {
+        // Contact changes since the last collection are written once - also if the collection is skipped
+        this.messagingStorage.storeContactsSummary();
+
         // When a large number of messages has been accumulated, this operation partly
         // slows down blockchain synchronization. So messages are collected only when
         // sync is full.
@@ -1251,15 +1841,65 @@ public class MessagingPanel
           return;
         }
 
-        // Call it for the own identity
-        collectAndStoreNewReceivedMessages(null);
+        MessagingIdentity ownIdentity = this.messagingStorage.getOwnIdentity();
 
-        // Call it for all existing groups
+        if (!this.isOwnIdentityZAddressValid(ownIdentity)) {
+          return;
+        }
+
+        if (ownIdentity == null) {
+          Log.warning(LOCAL_MSG_NO_MSG_ID_DETAIL);
+          return;
+        }
+
+        // Get the transaction IDs from all received transactions in the local storage - once per collection
+        Set<String> storedTransactionIDs = this.messagingStorage.getReceivedTransactionIDs();
+        MessagingOptions msgOptions = this.messagingStorage.getMessagingOptions();
+
+        List<MessagingIdentity> groups = new ArrayList<MessagingIdentity>();
         for (MessagingIdentity id : this.messagingStorage.getContactIdentities(false)) {
           if (id.isGroup()) {
-            collectAndStoreNewReceivedMessages(id);
+            groups.add(id);
+          }
+        }
+
+        // Poll all groups in parallel (wallet calls are slow) and the own identity meanwhile. Pollers
+        // get a snapshot of the stored transactions, the original set is updated as messages are stored.
+        final Set<String> knownTransactionIDs = Collections.unmodifiableSet(new HashSet<String>(storedTransactionIDs));
+        this.groupPollingExecutor.setConcurrency(msgOptions.getGroupPollingConcurrency());
+        boolean bNewContactCreated = false;
+        List<GroupPollingExecutor.PollingTask<List<Message>>> groupTasks =
+            new ArrayList<GroupPollingExecutor.PollingTask<List<Message>>>();
+        try {
+          for (final MessagingIdentity group : groups) {
+            groupTasks.add(this.groupPollingExecutor.submit(group.getDiplayString(),
+                () -> this.fetchNewReceivedMessages(group.getSendreceiveaddress(), knownTransactionIDs)));
+          }
+
+          List<Message> ownMessages = this.fetchNewReceivedMessages(
+              ownIdentity.getSendreceiveaddress(), knownTransactionIDs);
+          bNewContactCreated |= this.storeNewReceivedMessages(
+              null, ownMessages, storedTransactionIDs, msgOptions);
+
+          // Results are merged into the storage serially - in the same order as before
+          for (int i = 0; i < groupTasks.size(); i++) {
+            List<Message> groupMessages = groupTasks.get(i).awaitResult(msgOptions.getGroupPollingTimeout() * 1000L);
+            if (groupMessages != null) {
+              bNewContactCreated |= this.storeNewReceivedMessages(
+                  groups.get(i), groupMessages, storedTransactionIDs, msgOptions);
+            }
+          }
+
+          // Chunks of long messages that stayed incomplete are not collected again
+          this.messagingStorage.addExpiredChunkTransactionIDs(this.chunkAssembler.takeExpiredTransactionIDs());
+        } finally {
+          // E.g. the collection failed - polls still running are not needed any more
+          for (GroupPollingExecutor.PollingTask<List<Message>> task : groupTasks) {
+            task.cancel();
           }
         }
+
+        this.refreshUIAfterMessageCollection(bNewContactCreated);
       }
     } catch (Exception e) {
       if (Thread.currentThread() instanceof DataGatheringThread) {
@@ -1275,11 +1915,9 @@ public class MessagingPanel
   }
 
 
-  private void collectAndStoreNewReceivedMessages(MessagingIdentity groupIdentity)
+  // Check to make sure the Z address of the messaging identity is valid
+  private boolean isOwnIdentityZAddressValid(MessagingIdentity ownIdentity)
       throws IOException, WalletCallException, InterruptedException {
-    MessagingIdentity ownIdentity = this.messagingStorage.getOwnIdentity();
-
-    // Check to make sure the Z address of the messaging identity is valid
     if ((ownIdentity != null) && (!this.identityZAddressValidityChecked)) {
       String ownZAddress = ownIdentity.getSendreceiveaddress();
       String[] walletZaddresses = this.clientCaller.getWalletZAddresses();
@@ -1296,83 +1934,107 @@ public class MessagingPanel
             MessagingPanel.this.getRootPane().getParent(),
             LOCAL_MSG_NO_MSG_ID_DETAIL_2,
             LOCAL_MSG_NO_MSG_ID, JOptionPane.ERROR_MESSAGE);
-        return;
+        return false;
       }
 
       this.identityZAddressValidityChecked = true;
     }
 
-    // Get the transaction IDs from all received transactions in the local storage
-    // TODO: optimize/cache this
-    Set<String> storedTransactionIDs = new HashSet<String>();
-    for (MessagingIdentity identity : this.messagingStorage.getContactIdentities(true)) {
-      for (Message localMessage : this.messagingStorage.getAllMessagesForContact(identity)) {
-        if ((localMessage.getDirection() == DIRECTION_TYPE.RECEIVED) &&
-            (!Util.stringIsEmpty(localMessage.getTransactionID()))) {
-          storedTransactionIDs.add(localMessage.getTransactionID());
-        }
-      }
-    }
+    return true;
+  }
 
-    if (ownIdentity == null) {
-      Log.warning(LOCAL_MSG_NO_MSG_ID_DETAIL);
-      return;
-    }
 
-    String ZAddress = (groupIdentity != null) ?
-        groupIdentity.getSendreceiveaddress() : ownIdentity.getSendreceiveaddress();
+  /**
+   * Obtains the new messages received on a Z address. Only wallet calls are made - the storage
+   * is not modified, so this may be called for several addresses in parallel.
+   *
+   * @param ZAddress             address to check
+   * @param storedTransactionIDs transactions already stored - these are skipped
+   * @return the new messages found
+   */
+  private List<Message> fetchNewReceivedMessages(String ZAddress, Set<String> storedTransactionIDs)
+      throws IOException, WalletCallException, InterruptedException {
     // Get all known transactions received from the wallet
     JsonObject[] walletTransactions = this.clientCaller.getTransactionMessagingDataForZaddress(ZAddress);
 
     // Filter the transactions to obtain only those that have memos parsable as JSON
-    // and being real messages. In addition only those remain that are not registered before
+    // and being real messages. In addition only those remain that are not registered before.
+    // Long messages get the transaction ID of the first chunk and the time of the last one.
     List<Message> filteredMessages = new ArrayList<Message>();
-    for (JsonObject trans : walletTransactions) {
-      String memoHex = trans.getString("memo", "ERROR");
-      String transactionID = trans.getString("txid", "ERROR");
-      if (!memoHex.equals("ERROR")) {
-        String decodedMemo = Util.decodeHexMemo(memoHex);
-        JsonObject jsonMessage = null;
-        try {
-          if (decodedMemo != null) {
-            jsonMessage = Util.parseJsonObject(decodedMemo);
-          }
-        } catch (Exception ex) {
-          Log.warningOneTime(
-              "Decoded memo is not parsable: {0}, due to {1}: {2}",
-              decodedMemo, ex.getClass().getName(), ex.getMessage());
+    for (MessageChunkAssembler.ReceivedMemo memo :
+        this.chunkAssembler.selectNewMemos(ZAddress, walletTransactions, storedTransactionIDs)) {
+      List<String> transactionIDs = memo.getTransactionIDs();
+      Message message = this.getReceivedMessage(
+          memo.getMessage(), transactionIDs.get(0), transactionIDs.get(transactionIDs.size() - 1));
+      if (message != null) {
+        if (transactionIDs.size() > 1) {
+          message.setChunkTransactionIDs(transactionIDs);
         }
+        filteredMessages.add(message);
+      }
+    }
 
-        if ((jsonMessage != null) &&
-            ((jsonMessage.get("zenmsg") != null) &&
-                (!storedTransactionIDs.contains(transactionID)))) {
-          JsonObject innerZenmsg = jsonMessage.get("zenmsg").asObject();
-          if (Message.isValidZENMessagingProtocolMessage(innerZenmsg)) {
-            // Finally test that the message has all attributes required
-            Message message = new Message(innerZenmsg);
-            // Set additional message attributes not available over the wire
-            message.setDirection(DIRECTION_TYPE.RECEIVED);
-            message.setTransactionID(transactionID);
-            String UNIXDate = this.clientCaller.getWalletTransactionTime(transactionID);
-            message.setTime(new Date(Long.valueOf(UNIXDate).longValue() * 1000L));
-            // TODO: additional sanity check that T/Z addresses are valid etc.
-            filteredMessages.add(message);
-          } else {
-            // Warn of unexpected message content
-            Log.warningOneTime(
-                "Ignoring received message with invalid or incomplete content: {0}",
-                jsonMessage.toString());
-          }
-        }
-      } // End if (!memoHex.equals("ERROR"))
-    } // for (JsonObject trans : walletTransactions)
+    return filteredMessages;
+  }
 
-    MessagingOptions msgOptions = this.messagingStorage.getMessagingOptions();
+
+  // Returns the message sent in a memo, or null if the memo is not a valid message
+  private Message getReceivedMessage(JsonObject jsonMessage, String transactionID, String timeTransactionID)
+      throws WalletCallException, IOException, InterruptedException {
+    if (jsonMessage.get("zenmsg") == null) {
+      return null;
+    }
+
+    JsonObject innerZenmsg = jsonMessage.get("zenmsg").asObject();
+    if (!Message.isValidZENMessagingProtocolMessage(innerZenmsg)) {
+      // Warn of unexpected message content
+      Log.warningOneTime(
+          "Ignoring received message with invalid or incomplete content: {0}",
+          jsonMessage.toString());
+      return null;
+    }
+
+    // Finally test that the message has all attributes required
+    Message message = new Message(innerZenmsg);
+    // Set additional message attributes not available over the wire
+    message.setDirection(DIRECTION_TYPE.RECEIVED);
+    message.setTransactionID(transactionID);
+    String UNIXDate = this.clientCaller.getWalletTransactionTime(timeTransactionID);
+    message.setTime(new Date(Long.valueOf(UNIXDate).longValue() * 1000L));
+    // TODO: additional sanity check that T/Z addresses are valid etc.
+    return message;
+  }
+
+
+  /**
+   * Finds out who the sender of every new message is, verifies and stores it. Must be called
+   * serially - in the message collection mutex.
+   *
+   * @param groupIdentity        group the messages were sent to, or null for the own identity
+   * @param filteredMessages     new messages
+   * @param storedTransactionIDs transactions already stored - updated with the newly stored ones
+   * @param msgOptions           messaging options
+   * @return true if a new contact was created
+   */
+  private boolean storeNewReceivedMessages(MessagingIdentity groupIdentity, List<Message> filteredMessages,
+                                           Set<String> storedTransactionIDs, MessagingOptions msgOptions)
+      throws IOException, WalletCallException, InterruptedException {
+    // Messages may have been stored for another address in the meantime
+    List<Message> newMessages = new ArrayList<Message>();
+    for (Message message : filteredMessages) {
+      if (!storedTransactionIDs.contains(message.getTransactionID())) {
+        newMessages.add(message);
+      }
+    }
+    filteredMessages = newMessages;
 
     // Finally we have all messages that are new and unprocessed. For every message we find out
     // who the sender is, verify it and store it
     boolean bNewContactCreated = false;
 
+    // Signatures are verified locally in one batch - the daemon is asked only if this is not possible
+    Map<Message, Boolean> localVerifications = this.signatureVerifier.verifyMessages(filteredMessages);
+
     // Loop for processing standard (not anonymous messages)
     standard_message_loop:
     for (Message message : filteredMessages) {
@@ -1413,13 +2075,26 @@ public class MessagingPanel
         bNewContactCreated = true;
       }
 
-      // Verify the message signature
-      if (this.clientCaller.verifyMessage(message.getFrom(), message.getSign(),
-          Util.encodeHexString(message.getMessage()).toUpperCase())) {
+      // Verify the message signature - the daemon has the final word unless the local check succeeded
+      Boolean signatureOK = localVerifications.get(message);
+      if (!Boolean.TRUE.equals(signatureOK)) {
+        boolean localFailure = Boolean.FALSE.equals(signatureOK);
+        signatureOK = this.clientCaller.verifyMessage(message.getFrom(), message.getSign(),
+            Util.encodeHexString(message.getMessage()).toUpperCase());
+        if (localFailure && signatureOK) {
+          Log.warningOneTime("Message signature from {0} failed the local check but was verified by cbtcd.",
+              message.getFrom());
+        }
+      }
+
+      if (signatureOK) {
         // Handle the special case of a messaging identity sent as payload - update identity then
         if ((groupIdentity == null) && this.isZENIdentityMessage(message.getMessage())) {
           this.updateAndStoreExistingIdentityFromIDMessage(contactID, message.getMessage());
         }
+        if (groupIdentity == null) {
+          this.updateContactMessageVersion(contactID, message);
+        }
         message.setVerification(VERIFICATION_TYPE.VERIFICATION_OK);
       } else {
         //Set verification status permanently - store even invalid messages
@@ -1430,6 +2105,12 @@ public class MessagingPanel
 
       this.messagingStorage.writeNewReceivedMessageForContact(
           (groupIdentity == null) ? contactID : groupIdentity, message);
+      storedTransactionIDs.add(message.getTransactionID());
+      storedTransactionIDs.addAll(message.getChunkTransactionIDs());
+      // Links in forged messages are not fetched
+      if (message.getVerification() != VERIFICATION_TYPE.VERIFICATION_FAILED) {
+        this.prefetchIPFSLinks(message);
+      }
     } // End for (Message message : filteredMessages)
 
     // Loop for processing anonymous messages
@@ -1481,10 +2162,51 @@ public class MessagingPanel
         }
       }
 
+      if (groupIdentity == null) {
+        this.updateContactMessageVersion(anonContactID, message);
+      }
+
       this.messagingStorage.writeNewReceivedMessageForContact(
           (groupIdentity == null) ? anonContactID : groupIdentity, message);
+      storedTransactionIDs.add(message.getTransactionID());
+      storedTransactionIDs.addAll(message.getChunkTransactionIDs());
+      this.prefetchIPFSLinks(message);
+    }
+
+    return bNewContactCreated;
+  }
+
+
+  // Linked IPFS content is cached in the background - the conversation shows its preview when cached
+  private void prefetchIPFSLinks(Message message) {
+    this.ipfs.prefetchIPFSLinks(message.getMessage(), () -> SwingUtilities.invokeLater(() -> {
+      // Content cached until the timer fires is shown by the same redraw
+      if (!MessagingPanel.this.ipfsPreviewTimer.isRunning()) {
+        MessagingPanel.this.ipfsPreviewTimer.start();
+      }
+    }));
+  }
+
+
+  // Remembers the highest protocol version a contact uses - e.g. to send compressed messages to it
+  private void updateContactMessageVersion(MessagingIdentity contact, Message message)
+      throws IOException {
+    int version = Math.min(message.getVersion(), MessageEnvelope.PROTOCOL_VERSION);
+    if (version <= contact.getMessageVersion()) {
+      return;
     }
 
+    Log.info("Contact {0} uses message protocol version {1}.", contact.getDiplayString(), version);
+    contact.setMessageVersion(version);
+    if (contact.isAnonymous()) {
+      this.messagingStorage.updateAnonymousContactIdentityForThreadID(contact.getThreadID(), contact);
+    } else {
+      this.messagingStorage.updateContactIdentityForSenderIDAddress(contact.getSenderidaddress(), contact);
+    }
+  }
+
+
+  private void refreshUIAfterMessageCollection(boolean bNewContactCreated) {
     if (bNewContactCreated) {
       SwingUtilities.invokeLater(new Runnable() {
         @Override
@@ -1525,34 +2247,7 @@ public class MessagingPanel
    * @return true if a ZEN identity is inside
    */
   public boolean isZENIdentityMessage(String message) {
-    if (message == null) {
-      return false;
-    }
-
-    if (!message.trim().startsWith("{")) {
-      return false;
-    }
-
-    JsonObject jsonMessage = null;
-    try {
-      jsonMessage = Util.parseJsonObject(message);
-    } catch (Exception ex) {
-      return false;
-    }
-
-    if (jsonMessage.get("zenmessagingidentity") == null) {
-      return false;
-    }
-
-    JsonObject innerMessage = jsonMessage.get("zenmessagingidentity").asObject();
-    if ((innerMessage.get("nickname") == null) ||
-        (innerMessage.get("sendreceiveaddress") == null) ||
-        (innerMessage.get("senderidaddress") == null)) {
-      return false;
-    }
-
-    // All conditions met - return true
-    return true;
+    return Message.isZENIdentityMessage(message);
   }
 
 
@@ -1563,6 +2258,9 @@ public class MessagingPanel
     MessagingIdentity newID = new MessagingIdentity(
         Util.parseJsonObject(idMessage).get("zenmessagingidentity").asObject());
 
+    // The stored contact is found by the sender ID address it has before the update
+    String storedSenderIDAddress = existingIdentity.getSenderidaddress();
+
     if (!Util.stringIsEmpty(newID.getSenderidaddress())) {
       existingIdentity.setSenderidaddress(newID.getSenderidaddress());
     }
@@ -1588,7 +2286,7 @@ public class MessagingPanel
     }
 
     this.messagingStorage.updateContactIdentityForSenderIDAddress(
-        existingIdentity.getSenderidaddress(), existingIdentity);
+        storedSenderIDAddress, existingIdentity);
   }
 
 
@@ -1640,20 +2338,11 @@ public class MessagingPanel
 
   private Map<String, MessagingIdentity> getKnownSendersForGroup(MessagingIdentity group)
       throws IOException {
-    List<Message> messages = this.messagingStorage.getAllMessagesForContact(group);
-
-    Map<String, MessagingIdentity> knownSenders = new HashMap<>();
-    for (Message msg : messages) {
-      if (isZENIdentityMessage(msg.getMessage()) &&
-          ((msg.getDirection() == DIRECTION_TYPE.SENT) ||
-              (msg.getVerification() == VERIFICATION_TYPE.VERIFICATION_OK))) {
-        MessagingIdentity senderIdentity = new MessagingIdentity(
-            Util.parseJsonObject(msg.getMessage()).get("zenmessagingidentity").asObject());
-        knownSenders.put(senderIdentity.getSenderidaddress(), senderIdentity);
-      }
+    if (!group.isGroup()) {
+      return new HashMap<>();
     }
 
-    return knownSenders;
+    return this.messagingStorage.getKnownSendersForGroup(group);
   }
 
   private String identityToString(MessagingIdentity ownIdentity) {
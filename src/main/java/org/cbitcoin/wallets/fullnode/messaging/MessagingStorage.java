@@ -2,6 +2,8 @@ package org.cbitcoin.wallets.fullnode.messaging;
 
 import com.eclipsesource.json.Json;
 import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
 import com.eclipsesource.json.WriterConfig;
 import org.cbitcoin.wallets.fullnode.util.Log;
 import org.cbitcoin.wallets.fullnode.util.OSUtil;
@@ -9,6 +11,11 @@ import org.cbitcoin.wallets.fullnode.util.Util;
 
 import java.io.*;
 import java.util.*;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 
 /**
@@ -20,34 +27,93 @@ import java.util.*;
  * ~/.ClassicBitcoinSwingWallet/messaging/ownidentity.json - own identity
  * ~/.ClassicBitcoinSwingWallet/messaging/ownidentity.json.bak.1 - own identity most recent backup
  * ~/.ClassicBitcoinSwingWallet/messaging/ownidentity.json.bak.9 - own identity oldest backup
+ * ~/.ClassicBitcoinSwingWallet/messaging/contacts_summary.json - identities of all contacts (see ContactsSummaryFile)
  * ~/.ClassicBitcoinSwingWallet/messaging/contact_XXXX - a single contact named 0000 to 9999
  * ~/.ClassicBitcoinSwingWallet/messaging/contact_XXXX/identity.json - contact's identity
  * ~/.ClassicBitcoinSwingWallet/messaging/contact_XXXX/sent - sent messages dir
  * ~/.ClassicBitcoinSwingWallet/messaging/contact_XXXX/received - received messages dir
  * ~/.ClassicBitcoinSwingWallet/messaging/ignored_contacts - dir where ignored msg identities reside
  * ~/.ClassicBitcoinSwingWallet/messaging/ignored_contacts/UUID.json - single ignored identity.
+ * ~/.ClassicBitcoinSwingWallet/messaging/search_index - full text search index (see MessageSearchIndex)
+ * ~/.ClassicBitcoinSwingWallet/messaging/outgoing_queue.json - messages waiting to be sent (see OutgoingMessageQueue)
+ * ~/.ClassicBitcoinSwingWallet/messaging/expired_chunk_transactions.json - chunks of long messages that stayed incomplete
+ * ~/.ClassicBitcoinSwingWallet/messaging_restore - archive being restored, applied on next startup (see MessagingArchive)
  * <p>
  * The sent/received directories have a substructure of type:
  * sent/XXXX/message_xxx.json - where XXXX is between 0000 and 9999, xxx is between 000 and 999
+ * sent/XXXX.zip - archived messages of bucket XXXX (see compactMessages())
+ * <p>
+ * The storage is used concurrently by the message collection thread and the GUI. The contact list
+ * and its indexes are an immutable snapshot that is replaced on every change, so lookups never
+ * block. Changes of the contact list are serialized, and writes for one contact (messages, identity,
+ * group data) are serialized on the contact. Message files are written to a temporary file first,
+ * so readers never see a partially written message. Identities are returned as copies.
+ * <p>
+ * At startup only the contacts summary is read. Message stores, ignored contacts and group data are
+ * read on first access.
  *
  * @author Ivan Vaklinov <ivan@vaklinov.com>
  */
 public class MessagingStorage {
+    // Memory budget for the parsed messages of recently displayed contacts
+    private static final long MESSAGE_CACHE_SIZE_BYTES = 16L * 1024 * 1024;
+
+    private static final Pattern CONTACT_DIR_NAME = Pattern.compile("contact_[0-9]{4}");
+
+    private static final String EXPIRED_CHUNK_TRANSACTIONS_FILE = "expired_chunk_transactions.json";
+
+    // Backups like identity.json.1 - see Util.renameFileForMultiVersionBackup()
+    private static final Pattern BACKUP_FILE_NAME = Pattern.compile(".*\\.json\\.[0-9]+");
+
     private File rootDir;
     private File ignoredContactsDir;
 
-    private List<SingleContactStorage> contactsList;
+    // Contacts with in-memory indexes - replaced as a whole on every change
+    private volatile ContactsSnapshot contacts;
+
+    // Ignored identities indexed by sender ID address and thread ID - loaded on first use, replaced on reload
+    private volatile Map<String, MessagingIdentity> ignoredContactsBySenderIDAddress;
+    private volatile Map<String, MessagingIdentity> ignoredContactsByThreadID;
+
+    // Serializes changes of the contact list, contact identities and ignored contacts.
+    // Lock order - this lock first, then a single contact.
+    private final Object contactsWriteLock = new Object();
 
-    private List<MessagingIdentity> ignoredContacts;
+    // Own identity and options
+    private final Object settingsLock = new Object();
 
-    MessagingIdentity cachedOwnIdentity;
+    private volatile MessagingIdentity cachedOwnIdentity;
+
+    private MessageSearchIndex searchIndex;
+
+    private OutgoingMessageQueue outgoingQueue;
+
+    private MessageCache messageCache;
+
+    private ContactsSummaryFile contactsSummary;
+
+    // Transaction IDs of all stored received messages, archived ones included - built on first use
+    private Set<String> receivedTransactionIDs;
+    private final Object receivedTransactionIDsLock = new Object();
 
 
     public MessagingStorage()
             throws IOException {
+        this(new File(OSUtil.getSettingsDirectory() + File.separator + "messaging"));
+    }
+
+
+    // Storage in a specific directory - e.g. for tests
+    MessagingStorage(File rootDir)
+            throws IOException {
+        // An archive restored last time replaces the current data
+        MessagingArchive.applyPendingRestore(rootDir);
+
         this.cachedOwnIdentity = null;
 
-        this.rootDir = new File(OSUtil.getSettingsDirectory() + File.separator + "messaging");
+        this.messageCache = new MessageCache(MESSAGE_CACHE_SIZE_BYTES);
+
+        this.rootDir = rootDir;
 
         if (!rootDir.exists()) {
             if (!rootDir.mkdirs()) {
@@ -63,44 +129,47 @@ public class MessagingStorage {
             }
         }
 
+        this.contactsSummary = new ContactsSummaryFile(new File(this.rootDir, "contacts_summary.json"));
+
         this.reloadContactListFromStorage();
 
-        this.reloadIgnoredContactsFromStorage();
+        this.searchIndex = new MessageSearchIndex(new File(this.rootDir, "search_index"));
+
+        this.outgoingQueue = new OutgoingMessageQueue(new File(this.rootDir, "outgoing_queue.json"));
     }
 
 
     public void addIgnoredContact(MessagingIdentity contact)
             throws IOException {
-        String fileName = UUID.randomUUID().toString() + ".json";
-        File contactFile = new File(this.ignoredContactsDir, fileName);
+        synchronized (this.contactsWriteLock) {
+            String fileName = UUID.randomUUID().toString() + ".json";
+            File contactFile = new File(this.ignoredContactsDir, fileName);
 
-        contact.writeToFile(contactFile);
+            contact.writeToFile(contactFile);
 
-        this.reloadIgnoredContactsFromStorage(); // Acceptable since it will be rare
+            this.reloadIgnoredContactsFromStorage(); // Acceptable since it will be rare
+        }
     }
 
 
     // If a message is from an igonred contact - returns it, else null
-    public MessagingIdentity getIgnoredContactForMessage(Message msg) {
-        MessagingIdentity contact = null;
-
-        for (MessagingIdentity id : this.ignoredContacts) {
-            if (id.isAnonymous()) {
-                if (msg.isAnonymous() && (!Util.stringIsEmpty(id.getThreadID())) &&
-                        id.getThreadID().equals(msg.getThreadID())) {
-                    contact = id;
-                    break;
-                }
-            } else {
-                if ((!msg.isAnonymous()) && (!Util.stringIsEmpty(id.getSenderidaddress())) &&
-                        id.getSenderidaddress().equals(msg.getFrom())) {
-                    contact = id;
-                    break;
+    public MessagingIdentity getIgnoredContactForMessage(Message msg)
+            throws IOException {
+        if (this.ignoredContactsBySenderIDAddress == null) {
+            synchronized (this.contactsWriteLock) {
+                if (this.ignoredContactsBySenderIDAddress == null) {
+                    this.reloadIgnoredContactsFromStorage();
                 }
             }
         }
 
-        return contact;
+        if (msg.isAnonymous()) {
+            return Util.stringIsEmpty(msg.getThreadID()) ?
+                    null : this.ignoredContactsByThreadID.get(msg.getThreadID());
+        } else {
+            return Util.stringIsEmpty(msg.getFrom()) ?
+                    null : this.ignoredContactsBySenderIDAddress.get(msg.getFrom());
+        }
     }
 
 
@@ -108,12 +177,15 @@ public class MessagingStorage {
             throws IOException {
         File optionsFile = new File(rootDir, "messagingoptions.json");
 
-        if (!optionsFile.exists()) {
-            return new MessagingOptions();
-        }
+        // The file is briefly missing while being updated
+        synchronized (this.settingsLock) {
+            if (!optionsFile.exists()) {
+                return new MessagingOptions();
+            }
 
-        // Caching is not required - rarely used
-        return new MessagingOptions(optionsFile);
+            // Caching is not required - rarely used
+            return new MessagingOptions(optionsFile);
+        }
     }
 
 
@@ -121,26 +193,35 @@ public class MessagingStorage {
             throws IOException {
         final String OPTIONS_FILE_NAME = "messagingoptions.json";
 
-        File optionsFile = new File(rootDir, OPTIONS_FILE_NAME);
-        Util.renameFileForMultiVersionBackup(rootDir, OPTIONS_FILE_NAME);
-        newOptions.writeToFile(optionsFile);
+        synchronized (this.settingsLock) {
+            File optionsFile = new File(rootDir, OPTIONS_FILE_NAME);
+            Util.renameFileForMultiVersionBackup(rootDir, OPTIONS_FILE_NAME);
+            newOptions.writeToFile(optionsFile);
+        }
     }
 
 
     public MessagingIdentity getOwnIdentity()
             throws IOException {
-        if (this.cachedOwnIdentity != null) {
-            return this.cachedOwnIdentity;
+        MessagingIdentity ownIdentity = this.cachedOwnIdentity;
+        if (ownIdentity != null) {
+            return ownIdentity;
         }
 
-        File identityFile = new File(rootDir, "ownidentity.json");
+        synchronized (this.settingsLock) {
+            if (this.cachedOwnIdentity != null) {
+                return this.cachedOwnIdentity;
+            }
+
+            File identityFile = new File(rootDir, "ownidentity.json");
 
-        if (!identityFile.exists()) {
-            return null;
-        }
+            if (!identityFile.exists()) {
+                return null;
+            }
 
-        this.cachedOwnIdentity = new MessagingIdentity(identityFile);
-        return this.cachedOwnIdentity;
+            this.cachedOwnIdentity = new MessagingIdentity(identityFile);
+            return this.cachedOwnIdentity;
+        }
     }
 
 
@@ -148,13 +229,15 @@ public class MessagingStorage {
             throws IOException {
         final String OWN_IDENTITY = "ownidentity.json";
 
-        File identityFile = new File(rootDir, OWN_IDENTITY);
+        synchronized (this.settingsLock) {
+            File identityFile = new File(rootDir, OWN_IDENTITY);
 
-        Util.renameFileForMultiVersionBackup(rootDir, OWN_IDENTITY);
+            Util.renameFileForMultiVersionBackup(rootDir, OWN_IDENTITY);
 
-        newIdentity.writeToFile(identityFile);
+            newIdentity.writeToFile(identityFile);
 
-        this.cachedOwnIdentity = newIdentity;
+            this.cachedOwnIdentity = newIdentity;
+        }
     }
 
 
@@ -162,10 +245,10 @@ public class MessagingStorage {
             throws IOException {
         List<MessagingIdentity> identities = new ArrayList<MessagingIdentity>();
 
-        for (SingleContactStorage contact : this.contactsList) {
+        for (SingleContactStorage contact : this.contacts.contactsList) {
             MessagingIdentity id = contact.getIdentity();
             if ((!id.isAnonymous()) || includeAnonymous) {
-                identities.add(id);
+                identities.add(id.getCloneCopy());
             }
         }
 
@@ -175,28 +258,22 @@ public class MessagingStorage {
 
     public MessagingIdentity getContactIdentityForSenderIDAddress(String senderIDAddress)
             throws IOException {
-        List<MessagingIdentity> allIdentities = this.getContactIdentities(false);
-
-        MessagingIdentity id = null;
-
-        for (MessagingIdentity tempID : allIdentities) {
-            if ((!tempID.isAnonymous()) && tempID.getSenderidaddress().equals(senderIDAddress)) {
-                id = tempID;
-            }
-        }
+        List<SingleContactStorage> contacts =
+                this.findContacts(this.contacts, ContactIndex.SENDER_ID_ADDRESS, senderIDAddress);
 
-        return id;
+        // Same as a scan - the last one found is returned
+        return contacts.isEmpty() ? null : contacts.get(contacts.size() - 1).getIdentity().getCloneCopy();
     }
 
 
     public void updateContactIdentityForSenderIDAddress(String senderIDAddress, MessagingIdentity newID)
             throws IOException {
-        for (SingleContactStorage contact : this.contactsList) {
-            MessagingIdentity tempID = contact.getIdentity();
-
-            if ((!tempID.isAnonymous()) && tempID.getSenderidaddress().equals(senderIDAddress)) {
-                tempID.copyFromJSONObject(newID.toJSONObject(false));
-                contact.updateIdentity(tempID);
+        synchronized (this.contactsWriteLock) {
+            for (SingleContactStorage contact :
+                    this.findContactsForUpdate(ContactIndex.SENDER_ID_ADDRESS, senderIDAddress)) {
+                MessagingIdentity tempID = contact.getIdentity().getCloneCopy();
+                copyIdentity(tempID, newID);
+                this.updateContactIdentity(contact, tempID);
             }
         }
     }
@@ -204,12 +281,12 @@ public class MessagingStorage {
 
     public void updateGroupContactIdentityForSendReceiveAddress(String sendReceiveAddress, MessagingIdentity newID)
             throws IOException {
-        for (SingleContactStorage contact : this.contactsList) {
-            MessagingIdentity tempID = contact.getIdentity();
-
-            if ((tempID.isGroup()) && tempID.getSendreceiveaddress().equals(sendReceiveAddress)) {
-                tempID.copyFromJSONObject(newID.toJSONObject(false));
-                contact.updateIdentity(tempID);
+        synchronized (this.contactsWriteLock) {
+            for (SingleContactStorage contact :
+                    this.findContactsForUpdate(ContactIndex.GROUP_SEND_RECEIVE_ADDRESS, sendReceiveAddress)) {
+                MessagingIdentity tempID = contact.getIdentity().getCloneCopy();
+                copyIdentity(tempID, newID);
+                this.updateContactIdentity(contact, tempID);
             }
         }
     }
@@ -227,15 +304,9 @@ public class MessagingStorage {
      */
     public boolean isSenderIdentityIgnoredForGroup(String senderID, MessagingIdentity groupID)
             throws IOException {
-        for (SingleContactStorage contact : this.contactsList) {
-            MessagingIdentity tempID = contact.getIdentity();
-
-            if ((tempID.isGroup()) && tempID.isIdenticalTo(groupID)) {
-                return contact.isGroupSenderIDIgnored(senderID);
-            }
-        }
+        SingleContactStorage contact = groupID.isGroup() ? this.findContactStorage(groupID) : null;
 
-        return false;
+        return (contact != null) && contact.isGroupSenderIDIgnored(senderID);
     }
 
 
@@ -248,43 +319,48 @@ public class MessagingStorage {
      */
     public void addIgnoredSenderIdentityForGroup(String senderID, MessagingIdentity groupID)
             throws IOException {
-        for (SingleContactStorage contact : this.contactsList) {
-            MessagingIdentity tempID = contact.getIdentity();
+        SingleContactStorage contact = groupID.isGroup() ? this.findContactStorage(groupID) : null;
 
-            if ((tempID.isGroup()) && tempID.isIdenticalTo(groupID)) {
-                contact.addGroupIgnoredSenderID(senderID);
-                return;
-            }
+        if (contact != null) {
+            contact.addGroupIgnoredSenderID(senderID);
         }
     }
 
 
     public void addContactIdentity(MessagingIdentity identity)
             throws IOException {
-        File contactDirs[] = this.rootDir.listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File pathname) {
-                return pathname.isDirectory() && pathname.getName().matches("contact_[0-9]{4}");
-            }
-        });
+        synchronized (this.contactsWriteLock) {
+            File contactDirs[] = this.rootDir.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File pathname) {
+                    return CONTACT_DIR_NAME.matcher(pathname.getName()).matches() && pathname.isDirectory();
+                }
+            });
 
-        int contactDirIndex = contactDirs.length;
-        String contactDirName;
+            int contactDirIndex = contactDirs.length;
+            String contactDirName;
 
-        // We need to make sure the dir does not exist.. if it does maybe users were removed before etc
-        // so we increment!
-        do {
-            contactDirName = String.valueOf(contactDirIndex++);
-            while (contactDirName.length() < 4) {
-                contactDirName = "0" + contactDirName;
-            }
+            // We need to make sure the dir does not exist.. if it does maybe users were removed before etc
+            // so we increment!
+            do {
+                contactDirName = String.valueOf(contactDirIndex++);
+                while (contactDirName.length() < 4) {
+                    contactDirName = "0" + contactDirName;
+                }
+
+                contactDirName = "contact_" + contactDirName;
+            } while (new File(this.rootDir, contactDirName).exists());
+
+            this.contactsSummary.invalidate();
 
-            contactDirName = "contact_" + contactDirName;
-        } while (new File(this.rootDir, contactDirName).exists());
+            SingleContactStorage contactStorage = new SingleContactStorage(new File(this.rootDir, contactDirName));
+            contactStorage.updateIdentity(identity);
 
-        SingleContactStorage contactStorage = new SingleContactStorage(new File(this.rootDir, contactDirName));
-        contactStorage.updateIdentity(identity);
-        this.contactsList.add(contactStorage);
+            List<SingleContactStorage> newContactsList = new ArrayList<SingleContactStorage>(this.contacts.contactsList);
+            newContactsList.add(contactStorage);
+            this.contacts = new ContactsSnapshot(newContactsList);
+            this.contactsSummary.storeLater(newContactsList);
+        }
     }
 
 
@@ -299,33 +375,25 @@ public class MessagingStorage {
             throws IOException {
         MessagingIdentity newID = new MessagingIdentity();
 
-        String nickName = null;
-        naming_loop:
-        for (int i = 1; i <= 1000; i++) // TODO: more reliable naming scheme
-        {
-            nickName = "Unknown_" + i;
-            for (MessagingIdentity existignID : this.getContactIdentities(true)) {
-                if (nickName.equalsIgnoreCase(existignID.getNickname())) {
-                    continue naming_loop;
-                }
-            }
-            break naming_loop;
-        }
+        // The nickname must remain free until the contact is added
+        synchronized (this.contactsWriteLock) {
+            String nickName = this.getFirstFreeNickname("Unknown_");
 
-        newID.setNickname(nickName);
-        newID.setFirstname(senderIDAdderss.substring(0, 10) + "...");
-        newID.setSenderidaddress(senderIDAdderss);
-        newID.setSendreceiveaddress(""); // Empty - unknown
+            newID.setNickname(nickName);
+            newID.setFirstname(senderIDAdderss.substring(0, 10) + "...");
+            newID.setSenderidaddress(senderIDAdderss);
+            newID.setSendreceiveaddress(""); // Empty - unknown
 
-        // All fields need to be filled
-        newID.setMiddlename("");
-        newID.setSurname("");
-        newID.setEmail("");
-        newID.setStreetaddress("");
-        newID.setFacebook("");
-        newID.setTwitter("");
+            // All fields need to be filled
+            newID.setMiddlename("");
+            newID.setSurname("");
+            newID.setEmail("");
+            newID.setStreetaddress("");
+            newID.setFacebook("");
+            newID.setTwitter("");
 
-        this.addContactIdentity(newID);
+            this.addContactIdentity(newID);
+        }
 
         return newID;
     }
@@ -342,17 +410,10 @@ public class MessagingStorage {
      */
     public MessagingIdentity findAnonymousOrNormalContactIdentityByThreadID(String threadID)
             throws IOException {
-        List<MessagingIdentity> allIdentities = this.getContactIdentities(true);
-
-        MessagingIdentity id = null;
-
-        for (MessagingIdentity tempID : allIdentities) {
-            if ((!Util.stringIsEmpty(tempID.getThreadID())) && tempID.getThreadID().equals(threadID)) {
-                id = tempID;
-            }
-        }
+        List<SingleContactStorage> contacts = this.findContacts(this.contacts, ContactIndex.THREAD_ID, threadID);
 
-        return id;
+        // Same as a scan - the last one found is returned
+        return contacts.isEmpty() ? null : contacts.get(contacts.size() - 1).getIdentity().getCloneCopy();
     }
 
 
@@ -362,33 +423,25 @@ public class MessagingStorage {
         newID.setAnonymous(true);
         newID.setThreadID(threadID);
 
-        String nickName = null;
-        naming_loop:
-        for (int i = 1; i <= 1000; i++) // TODO: more reliable naming scheme
-        {
-            nickName = "Anonymous_" + i;
-            for (MessagingIdentity existignID : this.getContactIdentities(true)) {
-                if (nickName.equalsIgnoreCase(existignID.getNickname())) {
-                    continue naming_loop;
-                }
-            }
-            break naming_loop;
-        }
+        // The nickname must remain free until the contact is added
+        synchronized (this.contactsWriteLock) {
+            String nickName = this.getFirstFreeNickname("Anonymous_");
 
-        newID.setNickname(nickName);
-        newID.setFirstname(threadID.substring(0, 10) + "...");
-        newID.setSendreceiveaddress(returnAddress);
-        newID.setSenderidaddress("");
+            newID.setNickname(nickName);
+            newID.setFirstname(threadID.substring(0, 10) + "...");
+            newID.setSendreceiveaddress(returnAddress);
+            newID.setSenderidaddress("");
 
-        // All fields need to be filled
-        newID.setMiddlename("");
-        newID.setSurname("");
-        newID.setEmail("");
-        newID.setStreetaddress("");
-        newID.setFacebook("");
-        newID.setTwitter("");
+            // All fields need to be filled
+            newID.setMiddlename("");
+            newID.setSurname("");
+            newID.setEmail("");
+            newID.setStreetaddress("");
+            newID.setFacebook("");
+            newID.setTwitter("");
 
-        this.addContactIdentity(newID);
+            this.addContactIdentity(newID);
+        }
 
         return newID;
     }
@@ -396,20 +449,23 @@ public class MessagingStorage {
 
     public void updateAnonymousContactIdentityForThreadID(String threadID, MessagingIdentity newID)
             throws IOException {
-        for (SingleContactStorage contact : this.contactsList) {
-            MessagingIdentity tempID = contact.getIdentity();
+        synchronized (this.contactsWriteLock) {
+            for (SingleContactStorage contact : this.findContactsForUpdate(ContactIndex.THREAD_ID, threadID)) {
+                MessagingIdentity tempID = contact.getIdentity().getCloneCopy();
 
-            if ((tempID.isAnonymous()) && tempID.getThreadID().equals(threadID)) {
-                tempID.copyFromJSONObject(newID.toJSONObject(false));
-                contact.updateIdentity(tempID);
-                break;
+                if (tempID.isAnonymous()) {
+                    copyIdentity(tempID, newID);
+                    this.updateContactIdentity(contact, tempID);
+                    break;
+                }
             }
         }
     }
 
 
     /**
-     * Returns all known messages for a certain contact in ascending date order.
+     * Returns all known messages for a certain contact in ascending date order - except archived ones
+     * (see getArchivedMessagesForContact()).
      * If identity not found etc. thorws an exception
      *
      * @param contact
@@ -418,14 +474,7 @@ public class MessagingStorage {
     public List<Message> getAllMessagesForContact(MessagingIdentity contact)
             throws IOException {
         // Find the contact
-        SingleContactStorage contactStorage = null;
-        for (SingleContactStorage scs : this.contactsList) {
-            if (scs.getIdentity().isIdenticalTo(contact)) {
-                contactStorage = scs;
-            }
-        }
-
-        List<Message> messages = new ArrayList<Message>();
+        SingleContactStorage contactStorage = this.findContactStorage(contact);
 
         // Should never happen but ...
         if (contactStorage == null) {
@@ -435,6 +484,14 @@ public class MessagingStorage {
                     contact.toJSONObject(false).toString());
         }
 
+        List<Message> messages = this.messageCache.get(contactStorage.getContactNumber());
+        if (messages != null) {
+            return messages;
+        }
+
+        long loadToken = this.messageCache.startLoad();
+
+        messages = new ArrayList<Message>();
         messages.addAll(contactStorage.getAllReceivedMessages());
         messages.addAll(contactStorage.getAllSentMessages());
 
@@ -443,6 +500,8 @@ public class MessagingStorage {
             (o1, o2) -> o1.getTime().compareTo(o2.getTime())
         );
 
+        this.messageCache.put(contactStorage.getContactNumber(), messages, loadToken);
+
         return messages;
     }
 
@@ -450,176 +509,936 @@ public class MessagingStorage {
     public void writeNewSentMessageForContact(MessagingIdentity contact, Message msg)
             throws IOException {
         // Find the contact
-        SingleContactStorage contactStorage = null;
-        for (SingleContactStorage scs : this.contactsList) {
-            if (scs.getIdentity().isIdenticalTo(contact)) {
-                contactStorage = scs;
-            }
-        }
+        SingleContactStorage contactStorage = this.getContactStorageForWrite(contact);
 
-        contactStorage.sentMessages.writeNewMessage(msg);
+        File messageFile = this.writeThroughMessageCache(contactStorage, Message.DIRECTION_TYPE.SENT, msg);
+        this.searchIndex.addMessage(
+                contactStorage.getMessageLocation(Message.DIRECTION_TYPE.SENT, messageFile),
+                msg, this.getSenderNickname(contactStorage, msg));
     }
 
 
     public void writeNewReceivedMessageForContact(MessagingIdentity contact, Message msg)
             throws IOException {
         // Find the contact
-        SingleContactStorage contactStorage = null;
-        for (SingleContactStorage scs : this.contactsList) {
-            if (scs.getIdentity().isIdenticalTo(contact)) {
-                contactStorage = scs;
+        SingleContactStorage contactStorage = this.getContactStorageForWrite(contact);
+
+        File messageFile = this.writeThroughMessageCache(contactStorage, Message.DIRECTION_TYPE.RECEIVED, msg);
+        synchronized (this.receivedTransactionIDsLock) {
+            if (this.receivedTransactionIDs != null) {
+                addTransactionIDs(this.receivedTransactionIDs, msg);
             }
         }
-        contactStorage.receivedMessages.writeNewMessage(msg);
+
+        this.searchIndex.addMessage(
+                contactStorage.getMessageLocation(Message.DIRECTION_TYPE.RECEIVED, messageFile),
+                msg, this.getSenderNickname(contactStorage, msg));
     }
 
 
-    // Deletes a certain contact and reloads the contact list
-    public void deleteContact(MessagingIdentity contact)
+    /**
+     * Returns the transaction IDs of all stored received messages - archived ones included. The chunks of
+     * long messages are included with all their transactions, also those that stayed incomplete (see
+     * addExpiredChunkTransactionIDs()). They are read from the message files on first use only and then
+     * kept up to date as messages are stored, so the message collection does not load all messages each
+     * time.
+     *
+     * @return a copy of the transaction IDs
+     */
+    public Set<String> getReceivedTransactionIDs()
             throws IOException {
-        for (SingleContactStorage scs : this.contactsList) {
-            if (scs.getIdentity().isIdenticalTo(contact)) {
-                Util.deleteDirectory(scs.getRootDir());
-                this.reloadContactListFromStorage();
-                break;
+        synchronized (this.receivedTransactionIDsLock) {
+            if (this.receivedTransactionIDs == null) {
+                long start = System.currentTimeMillis();
+                Set<String> transactionIDs = new HashSet<String>();
+                for (SingleContactStorage contactStorage : this.contacts.contactsList) {
+                    transactionIDs.addAll(contactStorage.getArchivedReceivedTransactionIDs());
+                    for (Message msg : contactStorage.getAllReceivedMessages()) {
+                        addTransactionIDs(transactionIDs, msg);
+                    }
+                }
+                transactionIDs.addAll(this.loadExpiredChunkTransactionIDs());
+
+                this.receivedTransactionIDs = transactionIDs;
+                long end = System.currentTimeMillis();
+                Log.info("Index of " + transactionIDs.size() + " received message transactions built in " +
+                        (end - start) + "ms.");
             }
+
+            return new HashSet<String>(this.receivedTransactionIDs);
         }
     }
 
 
-    private void reloadContactListFromStorage()
+    /**
+     * Remembers the chunk transactions of long messages that stayed incomplete, so they are not collected
+     * again - also not after a restart.
+     *
+     * @param transactionIDs transactions of the chunks received
+     */
+    public void addExpiredChunkTransactionIDs(Collection<String> transactionIDs)
             throws IOException {
-        this.contactsList = new ArrayList<SingleContactStorage>();
+        if (transactionIDs.isEmpty()) {
+            return;
+        }
 
-        File contactDirs[] = this.rootDir.listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File pathname) {
-                return pathname.isDirectory() && pathname.getName().matches("contact_[0-9]{4}");
+        synchronized (this.receivedTransactionIDsLock) {
+            Set<String> expired = this.loadExpiredChunkTransactionIDs();
+            expired.addAll(transactionIDs);
+
+            JsonArray jsonExpired = new JsonArray();
+            for (String transactionID : expired) {
+                jsonExpired.add(transactionID);
+            }
+            File expiredFile = new File(this.rootDir, EXPIRED_CHUNK_TRANSACTIONS_FILE);
+            File tempFile = new File(this.rootDir, EXPIRED_CHUNK_TRANSACTIONS_FILE + ".tmp");
+            Writer w = new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8");
+            try {
+                jsonExpired.writeTo(w);
+            } finally {
+                w.close();
             }
-        });
 
-        for (File dir : contactDirs) {
-            this.contactsList.add(new SingleContactStorage(dir));
+            expiredFile.delete();
+            if (!tempFile.renameTo(expiredFile)) {
+                throw new IOException("Could not rename file " + tempFile.getAbsolutePath() + " to " +
+                        expiredFile.getAbsolutePath());
+            }
+
+            if (this.receivedTransactionIDs != null) {
+                this.receivedTransactionIDs.addAll(transactionIDs);
+            }
         }
     }
 
 
-    private void reloadIgnoredContactsFromStorage()
+    // Called with receivedTransactionIDsLock held
+    private Set<String> loadExpiredChunkTransactionIDs()
             throws IOException {
-        this.ignoredContacts = new ArrayList<MessagingIdentity>();
-
-        File ignoredContacts[] = this.ignoredContactsDir.listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File pathname) {
-                return pathname.isFile() && pathname.getName().endsWith(".json");
+        Set<String> expired = new LinkedHashSet<String>();
+        File expiredFile = new File(this.rootDir, EXPIRED_CHUNK_TRANSACTIONS_FILE);
+        if (expiredFile.exists()) {
+            Reader r = new InputStreamReader(new FileInputStream(expiredFile), "UTF-8");
+            try {
+                for (JsonValue transactionID : Json.parse(r).asArray()) {
+                    expired.add(transactionID.asString());
+                }
+            } catch (RuntimeException re) {
+                // Parse errors etc. - the chunks are collected again and expire again
+                Log.warning("Could not read file {0}. Error: {1}", expiredFile.getAbsolutePath(), re.getMessage());
+            } finally {
+                r.close();
             }
-        });
+        }
 
-        for (File contactFile : ignoredContacts) {
-            this.ignoredContacts.add(new MessagingIdentity(contactFile));
+        return expired;
+    }
+
+
+    // The transaction of a message and those of all its chunks
+    private static void addTransactionIDs(Set<String> transactionIDs, Message msg) {
+        if (!Util.stringIsEmpty(msg.getTransactionID())) {
+            transactionIDs.add(msg.getTransactionID());
         }
+        transactionIDs.addAll(msg.getChunkTransactionIDs());
     }
 
 
-    ///////////////////////////////////////////////////////////////////////////////////////////////////
+    // Writes the message and adds it to the cached messages of the contact
+    private File writeThroughMessageCache(SingleContactStorage contactStorage, Message.DIRECTION_TYPE direction,
+                                          Message msg)
+            throws IOException {
+        Message storedMessage = null;
+        this.messageCache.startWrite();
+        try {
+            File messageFile = (direction == Message.DIRECTION_TYPE.SENT) ?
+                    contactStorage.writeNewSentMessage(msg) : contactStorage.writeNewReceivedMessage(msg);
+            storedMessage = msg; // Copied by the cache
+            return messageFile;
+        } finally {
+            this.messageCache.finishWrite(contactStorage.getContactNumber(), storedMessage);
+        }
+    }
 
 
-    // Stores the details of a single contact
-    // Root dir may be like:
-    // ~/.ClassicBitcoinDesktopWallet/messaging/contact_XXXX
-    static class SingleContactStorage {
-        final String IGNORED_GROUP_IDS = "ignored_group_ids.json";
+    private SingleContactStorage getContactStorageForWrite(MessagingIdentity contact)
+            throws IOException {
+        SingleContactStorage contactStorage = this.findContactStorage(contact);
 
-        private File rootDir;
+        // E.g. the contact has been deleted meanwhile
+        if (contactStorage == null) {
+            throw new IOException("Could not find messaging identity in the contact list " +
+                    contact.toJSONObject(false).toString());
+        }
 
-        private SentOrReceivedMessagesStore sentMessages;
-        private SentOrReceivedMessagesStore receivedMessages;
+        return contactStorage;
+    }
 
-        private MessagingIdentity cachedIdentity;
 
-        private Set<String> cachedIgnoredGroupSenderIDs;
+    /**
+     * Returns the archived messages of a contact in ascending date order - read from disk each time.
+     *
+     * @param contact contact or group
+     * @return messages archived by compactMessages()
+     */
+    public List<Message> getArchivedMessagesForContact(MessagingIdentity contact)
+            throws IOException {
+        List<Message> messages = new ArrayList<Message>();
+        messages.addAll(this.getContactStorageForWrite(contact).getAllArchivedMessages());
+        Collections.sort(messages,
+            (o1, o2) -> o1.getTime().compareTo(o2.getTime())
+        );
+
+        return messages;
+    }
 
 
-        public SingleContactStorage(File rootDir)
-                throws IOException {
-            this.cachedIdentity = null;
-            this.cachedIgnoredGroupSenderIDs = null;
+    public int getArchivedMessageCount(MessagingIdentity contact)
+            throws IOException {
+        return this.getContactStorageForWrite(contact).getArchivedMessageCount();
+    }
 
-            this.rootDir = rootDir;
 
-            if (!rootDir.exists()) {
-                if (!rootDir.mkdirs()) {
-                    throw new IOException("Could not create directory: " + rootDir.getAbsolutePath());
-                }
-            }
+    // Transaction IDs of the archived received messages of a contact - archived messages are still known
+    public Set<String> getArchivedReceivedTransactionIDs(MessagingIdentity contact)
+            throws IOException {
+        return this.getContactStorageForWrite(contact).getArchivedReceivedTransactionIDs();
+    }
 
-            this.sentMessages = new SentOrReceivedMessagesStore(new File(rootDir, "sent"));
-            this.receivedMessages = new SentOrReceivedMessagesStore(new File(rootDir, "received"));
+
+    /**
+     * Moves old messages to compressed archive segments according to the retention options. Each bucket
+     * of up to 1000 messages (sent/XXXX) is archived as a whole once all its messages are older than the
+     * retention days and it is not needed to keep the most recent messages of the contact. The current
+     * bucket is never archived. Archived messages remain searchable. May take a while - to be called on a
+     * background thread.
+     *
+     * @return number of messages archived
+     */
+    public int compactMessages()
+            throws IOException {
+        MessagingOptions options = this.getMessagingOptions();
+        if (options.getRetentionDays() <= 0) {
+            return 0;
         }
 
+        long start = System.currentTimeMillis();
+        long cutoffTime = start - (options.getRetentionDays() * 24L * 3600 * 1000);
+        int archivedMessages = 0;
 
-        public MessagingIdentity getIdentity()
-                throws IOException {
-            if (this.cachedIdentity != null) {
-                return this.cachedIdentity;
+        for (SingleContactStorage contactStorage : this.contacts.contactsList) {
+            int archived = contactStorage.compactMessages(cutoffTime, options.getRetentionMessages());
+            if (archived > 0) {
+                // Loads started before the compaction are not cached
+                this.messageCache.invalidate(contactStorage.getContactNumber());
+                archivedMessages += archived;
             }
+        }
 
-            File identityFile = new File(rootDir, "identity.json");
+        long end = System.currentTimeMillis();
+        Log.info("Compaction of messages (" + archivedMessages + " archived) done in " + (end - start) + "ms.");
+        return archivedMessages;
+    }
 
-            this.cachedIdentity = new MessagingIdentity(identityFile);
 
-            return this.cachedIdentity;
-        }
+    public OutgoingMessageQueue getOutgoingQueue() {
+        return this.outgoingQueue;
+    }
 
 
-        public void updateIdentity(MessagingIdentity newIdentity)
-                throws IOException {
-            final String IDENTITY = "identity.json";
-            File identityFile = new File(rootDir, IDENTITY);
+    /**
+     * Exports all messaging data to an archive (see MessagingArchive). Data that is rebuilt automatically
+     * (search index, contacts summary, backups) and the outgoing queue are not exported. Messages may be
+     * stored meanwhile - each contact is exported in a consistent state.
+     *
+     * @param archiveFile file to write - replaced only if the export succeeds
+     * @param listener    receives the number of contacts exported - may be null
+     */
+    public void exportArchive(File archiveFile, MessagingArchive.ProgressListener listener)
+            throws IOException {
+        long start = System.currentTimeMillis();
+
+        File tempFile = new File(archiveFile.getParentFile(), archiveFile.getName() + ".tmp");
+        List<SingleContactStorage> contactsList = this.contacts.contactsList;
+
+        MessagingArchive.Writer writer = new MessagingArchive.Writer(new FileOutputStream(tempFile));
+        try {
+            synchronized (this.settingsLock) {
+                for (String name : new String[] { "ownidentity.json", "messagingoptions.json" }) {
+                    File file = new File(this.rootDir, name);
+                    if (file.exists()) {
+                        writer.addFile(name, file);
+                    }
+                }
+            }
 
-            Util.renameFileForMultiVersionBackup(rootDir, IDENTITY);
+            synchronized (this.contactsWriteLock) {
+                this.addDirToArchive(writer, this.ignoredContactsDir, this.ignoredContactsDir.getName());
+            }
 
-            newIdentity.writeToFile(identityFile);
+            for (int i = 0; i < contactsList.size(); i++) {
+                SingleContactStorage contact = contactsList.get(i);
+                // No messages are written meanwhile - a deleted contact has no dir
+                synchronized (contact) {
+                    this.addDirToArchive(writer, contact.getRootDir(), contact.getRootDir().getName());
+                }
 
-            this.cachedIdentity = newIdentity;
-        }
+                if ((listener != null) && (!listener.update(i + 1, contactsList.size()))) {
+                    throw new InterruptedIOException("Export of messaging archive cancelled.");
+                }
+            }
 
+            writer.finish();
+            writer.close();
+        } catch (IOException | RuntimeException e) {
+            writer.close();
+            tempFile.delete();
+            throw e;
+        }
 
-        /**
-         * Checks if a particular sender's ID is ignored. This makes sense only if the
-         * current contact is a group. The ID may be an anonymous sender UUID or a
-         * normal from address.
-         *
-         * @param senderID
-         * @return true if a particular sender's ID is ignored
-         */
-        public boolean isGroupSenderIDIgnored(String senderID)
-                throws IOException {
-            this.preloadCachedIgnoredGroupSenderIDs();
-            boolean ignored = this.cachedIgnoredGroupSenderIDs.contains(senderID);
-            return ignored;
+        archiveFile.delete();
+        if (!tempFile.renameTo(archiveFile)) {
+            throw new IOException("Could not rename file " + tempFile.getAbsolutePath() + " to " +
+                    archiveFile.getAbsolutePath());
         }
 
+        long end = System.currentTimeMillis();
+        Log.info("Export of " + contactsList.size() + " messaging contacts to archive done in " +
+                (end - start) + "ms.");
+    }
 
-        /**
-         * Adds a new ignored sender ID. This makes sense only if the
-         * current contact is a group. The ID may be an anonymous sender UUID or a
-         * normal from address.
-         *
-         * @param senderID to add
-         */
-        public void addGroupIgnoredSenderID(String senderID)
-                throws IOException {
-            this.preloadCachedIgnoredGroupSenderIDs();
 
-            File ignoredIDsFile = new File(rootDir, IGNORED_GROUP_IDS);
+    /**
+     * Restores an archive made by exportArchive(). The current data is replaced on next startup - see
+     * MessagingArchive.restore().
+     *
+     * @param archiveFile archive to restore
+     * @param listener    receives the number of archive bytes processed - may be null
+     */
+    public void importArchive(File archiveFile, MessagingArchive.ProgressListener listener)
+            throws IOException {
+        MessagingArchive.restore(archiveFile, this.rootDir, listener);
+    }
 
-            Util.renameFileForMultiVersionBackup(rootDir, IGNORED_GROUP_IDS);
 
-            this.cachedIgnoredGroupSenderIDs.add(senderID);
+    /**
+     * Writes the contacts summary if contacts have changed since it was last written. Changes are batched
+     * - this is to be called once per message collection and on shutdown.
+     */
+    public void storeContactsSummary() {
+        this.contactsSummary.storePending();
+    }
 
-            JsonArray ar = new JsonArray();
-            for (String id : this.cachedIgnoredGroupSenderIDs) {
+
+    // Cache of the messages of recently used contacts - e.g. for its hit/miss statistics
+    public MessageCache getMessageCache() {
+        return this.messageCache;
+    }
+
+
+    /**
+     * Searches all stored messages for a number of words (see MessageSearchIndex.search()).
+     * The messages found may be loaded with getMessageForSearchHit().
+     *
+     * @param query   words to search for
+     * @param maxHits maximum number of results to return
+     * @return search result - locations of the most recent messages found
+     */
+    public MessageSearchIndex.SearchResult searchMessages(String query, int maxHits) {
+        return this.searchIndex.search(query, maxHits);
+    }
+
+
+    public boolean isSearchIndexBuildInProgress() {
+        return this.searchIndex.isBuildInProgress();
+    }
+
+
+    /**
+     * Returns the contact a search hit belongs to.
+     *
+     * @param location location of the message as returned by searchMessages()
+     * @return the contact or null if it no longer exists
+     */
+    public MessagingIdentity getContactForSearchHit(long location)
+            throws IOException {
+        SingleContactStorage contactStorage = this.contacts.contactsByNumber.get(
+                MessageSearchIndex.getContactNumber(location));
+
+        return (contactStorage != null) ? contactStorage.getIdentity().getCloneCopy() : null;
+    }
+
+
+    /**
+     * Loads the message for a search hit.
+     *
+     * @param location location of the message as returned by searchMessages()
+     * @return the message or null if it no longer exists
+     */
+    public Message getMessageForSearchHit(long location)
+            throws IOException {
+        SingleContactStorage contactStorage = this.contacts.contactsByNumber.get(
+                MessageSearchIndex.getContactNumber(location));
+
+        if (contactStorage == null) {
+            return null;
+        }
+
+        return contactStorage.getMessage(location);
+    }
+
+
+    /**
+     * Builds the search index from all stored messages - if it does not exist yet. May take a while
+     * for a long message history, so this is to be called on a background thread. Messages stored
+     * meanwhile are indexed as usual.
+     */
+    public void buildSearchIndexIfRequired()
+            throws IOException {
+        if (!this.searchIndex.isBuildRequired()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        int messageCount = 0;
+
+        this.searchIndex.startBuild();
+
+        for (SingleContactStorage contactStorage : this.contacts.contactsList) {
+            for (Message.DIRECTION_TYPE direction : Message.DIRECTION_TYPE.values()) {
+                SentOrReceivedMessagesStore store = (direction == Message.DIRECTION_TYPE.SENT) ?
+                        contactStorage.sentMessages : contactStorage.receivedMessages;
+
+                for (File messageFile : store.getAllMessageFiles()) {
+                    Message msg = new Message(messageFile);
+                    this.searchIndex.addMessageDuringBuild(
+                            contactStorage.getMessageLocation(direction, messageFile),
+                            msg, this.getSenderNickname(contactStorage, msg));
+                    messageCount++;
+                }
+
+                for (File segment : store.listSegments()) {
+                    int bucket = SentOrReceivedMessagesStore.getBucket(segment);
+                    for (Map.Entry<String, Message> entry : SentOrReceivedMessagesStore.readSegment(segment).entrySet()) {
+                        this.searchIndex.addMessageDuringBuild(
+                                contactStorage.getMessageLocation(direction, bucket, entry.getKey()),
+                                entry.getValue(), this.getSenderNickname(contactStorage, entry.getValue()));
+                        messageCount++;
+                    }
+                }
+            }
+        }
+
+        this.searchIndex.finishBuild();
+
+        long end = System.currentTimeMillis();
+        Log.info("Building of message search index for " + messageCount + " messages done in " +
+                (end - start) + "ms.");
+    }
+
+
+    // Nickname of the sender of a message - for the search index
+    private String getSenderNickname(SingleContactStorage contactStorage, Message msg)
+            throws IOException {
+        if (msg.getDirection() == Message.DIRECTION_TYPE.SENT) {
+            MessagingIdentity ownIdentity = this.getOwnIdentity();
+            return (ownIdentity != null) ? ownIdentity.getNickname() : null;
+        }
+
+        MessagingIdentity contact = contactStorage.getIdentity();
+        if (!contact.isGroup()) {
+            return contact.getNickname();
+        }
+
+        if (msg.isAnonymous()) {
+            return null;
+        }
+
+        synchronized (contactStorage) {
+            MessagingIdentity groupSender = contactStorage.getKnownGroupSenders().get(msg.getFrom());
+            return (groupSender != null) ? groupSender.getNickname() : null;
+        }
+    }
+
+
+    /**
+     * Returns the messaging identities sent to a group by its members (and by the user), keyed by
+     * sender ID address. Only sent messages and received messages with a valid signature count.
+     * The map is cached and persisted with the group and updated as new messages are stored, so
+     * the group history is read only once.
+     *
+     * @param group the group contact
+     * @return map sender ID address -> last known identity (a copy)
+     */
+    public Map<String, MessagingIdentity> getKnownSendersForGroup(MessagingIdentity group)
+            throws IOException {
+        SingleContactStorage contactStorage = this.findContactStorage(group);
+
+        if (contactStorage == null) {
+            throw new IOException("Could not find messaging identity in the contact list " +
+                    group.toJSONObject(false).toString());
+        }
+
+        synchronized (contactStorage) {
+            return new HashMap<String, MessagingIdentity>(contactStorage.getKnownGroupSenders());
+        }
+    }
+
+
+    // Deletes a certain contact and removes it from the contact list
+    public void deleteContact(MessagingIdentity contact)
+            throws IOException {
+        synchronized (this.contactsWriteLock) {
+            for (SingleContactStorage scs : this.contacts.contactsList) {
+                if (scs.getIdentity().isIdenticalTo(contact)) {
+                    this.contactsSummary.invalidate();
+
+                    // Messages being written meanwhile fail
+                    scs.delete();
+
+                    List<SingleContactStorage> newContactsList =
+                            new ArrayList<SingleContactStorage>(this.contacts.contactsList);
+                    newContactsList.remove(scs);
+                    this.contacts = new ContactsSnapshot(newContactsList);
+                    this.contactsSummary.storeLater(newContactsList);
+
+                    this.messageCache.invalidate(scs.getContactNumber());
+                    this.searchIndex.removeContact(scs.getContactNumber());
+
+                    // The messages of the contact are no longer stored - the index is rebuilt
+                    synchronized (this.receivedTransactionIDsLock) {
+                        this.receivedTransactionIDs = null;
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+
+    // Identities are taken from the contacts summary if it is up to date - else read from the contact dirs
+    private void reloadContactListFromStorage()
+            throws IOException {
+        long start = System.currentTimeMillis();
+
+        List<SingleContactStorage> contactsList = new ArrayList<SingleContactStorage>();
+
+        File contactDirs[] = this.rootDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File pathname) {
+                return CONTACT_DIR_NAME.matcher(pathname.getName()).matches() && pathname.isDirectory();
+            }
+        });
+
+        Map<String, MessagingIdentity> summaryIdentities = this.contactsSummary.loadIdentities();
+        int identitiesFromSummary = 0;
+
+        for (File dir : contactDirs) {
+            MessagingIdentity identity = (summaryIdentities != null) ? summaryIdentities.get(dir.getName()) : null;
+            if (identity != null) {
+                identitiesFromSummary++;
+            }
+
+            contactsList.add(new SingleContactStorage(dir, identity));
+        }
+
+        this.contacts = new ContactsSnapshot(contactsList);
+
+        if ((summaryIdentities == null) || (identitiesFromSummary != contactDirs.length) ||
+                (summaryIdentities.size() != contactDirs.length)) {
+            this.contactsSummary.store(contactsList);
+        }
+
+        long end = System.currentTimeMillis();
+        Log.info("Loading of " + contactDirs.length + " messaging contacts (" + identitiesFromSummary +
+                " from summary) done in " + (end - start) + "ms.");
+    }
+
+
+    // The message version is learned from received messages - an older copy of the identity must not lower it
+    private static void copyIdentity(MessagingIdentity target, MessagingIdentity source)
+            throws IOException {
+        int messageVersion = Math.max(target.getMessageVersion(), source.getMessageVersion());
+        target.copyFromJSONObject(source.toJSONObject(false));
+        target.setMessageVersion(messageVersion);
+    }
+
+
+    // Stores a changed identity - the indexes are rebuilt if its keys changed. Called with contactsWriteLock held.
+    private void updateContactIdentity(SingleContactStorage contact, MessagingIdentity newIdentity)
+            throws IOException {
+        MessagingIdentity oldIdentity = contact.getIdentity();
+
+        this.contactsSummary.invalidate();
+        contact.updateIdentity(newIdentity);
+
+        if (!ContactsSnapshot.haveSameKeys(oldIdentity, newIdentity)) {
+            this.contacts = new ContactsSnapshot(this.contacts.contactsList);
+        }
+
+        this.contactsSummary.storeLater(this.contacts.contactsList);
+    }
+
+
+    // Finds the storage for an identity using the indexes - equivalent to a scan with isIdenticalTo()
+    private SingleContactStorage findContactStorage(MessagingIdentity identity)
+            throws IOException {
+        ContactsSnapshot snapshot = this.contacts;
+
+        List<SingleContactStorage> candidates;
+        if (identity.isAnonymous()) {
+            candidates = this.findContacts(snapshot, ContactIndex.THREAD_ID, identity.getThreadID());
+        } else if (identity.isGroup()) {
+            candidates = this.findContacts(
+                    snapshot, ContactIndex.GROUP_SEND_RECEIVE_ADDRESS, identity.getSendreceiveaddress());
+        } else {
+            candidates = this.findContacts(snapshot, ContactIndex.SENDER_ID_ADDRESS, identity.getSenderidaddress());
+        }
+
+        SingleContactStorage contactStorage = null;
+        for (SingleContactStorage scs : candidates) {
+            if (scs.getIdentity().isIdenticalTo(identity)) {
+                contactStorage = scs;
+            }
+        }
+
+        // Not expected - but an identity with missing key fields may still be identical to a stored one
+        if (contactStorage == null) {
+            for (SingleContactStorage scs : snapshot.contactsList) {
+                if (scs.getIdentity().isIdenticalTo(identity)) {
+                    contactStorage = scs;
+                }
+            }
+        }
+
+        return contactStorage;
+    }
+
+
+    // Returns the contacts indexed under a key that still match it, in contact list order
+    private List<SingleContactStorage> findContacts(ContactsSnapshot snapshot, ContactIndex index, String key)
+            throws IOException {
+        List<SingleContactStorage> found = new ArrayList<SingleContactStorage>();
+
+        List<SingleContactStorage> indexed = Util.stringIsEmpty(key) ? null : snapshot.indexes.get(index).get(key);
+        if (indexed == null) {
+            return found;
+        }
+
+        // An identity may be changed just before the new snapshot is published
+        for (SingleContactStorage contact : indexed) {
+            if (key.equals(index.getKey(contact.getIdentity()))) {
+                found.add(contact);
+            }
+        }
+
+        return found;
+    }
+
+
+    // Same as findContacts() but falls back to a scan if nothing is indexed under the key. Called
+    // with contactsWriteLock held.
+    private List<SingleContactStorage> findContactsForUpdate(ContactIndex index, String key)
+            throws IOException {
+        List<SingleContactStorage> found = this.findContacts(this.contacts, index, key);
+        if (found.isEmpty() && (!Util.stringIsEmpty(key))) {
+            for (SingleContactStorage contact : this.contacts.contactsList) {
+                if (key.equals(index.getKey(contact.getIdentity()))) {
+                    found.add(contact);
+                }
+            }
+        }
+
+        return found;
+    }
+
+
+    // Called with contactsWriteLock held
+    private String getFirstFreeNickname(String prefix) {
+        String nickName = null;
+        for (int i = 1; i <= 1000; i++) // TODO: more reliable naming scheme
+        {
+            nickName = prefix + i;
+            if (!this.contacts.nicknames.contains(nickName.toLowerCase(Locale.ROOT))) {
+                break;
+            }
+        }
+
+        return nickName;
+    }
+
+
+    // Adds the files of a dir recursively - except temporary files and backups. The dir may not exist.
+    private void addDirToArchive(MessagingArchive.Writer writer, File dir, String path)
+            throws IOException {
+        File files[] = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isDirectory()) {
+                this.addDirToArchive(writer, file, path + "/" + name);
+            } else if (!(name.endsWith(".tmp") || BACKUP_FILE_NAME.matcher(name).matches())) {
+                writer.addFile(path + "/" + name, file);
+            }
+        }
+    }
+
+
+    // Called with contactsWriteLock held
+    private void reloadIgnoredContactsFromStorage()
+            throws IOException {
+        List<MessagingIdentity> ignoredContacts = new ArrayList<MessagingIdentity>();
+
+        File ignoredContactFiles[] = this.ignoredContactsDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File pathname) {
+                return pathname.isFile() && pathname.getName().endsWith(".json");
+            }
+        });
+
+        for (File contactFile : ignoredContactFiles) {
+            ignoredContacts.add(new MessagingIdentity(contactFile));
+        }
+
+        // The first matching ignored identity wins - as in a scan
+        Map<String, MessagingIdentity> bySenderIDAddress = new HashMap<String, MessagingIdentity>();
+        Map<String, MessagingIdentity> byThreadID = new HashMap<String, MessagingIdentity>();
+        for (MessagingIdentity id : ignoredContacts) {
+            if (id.isAnonymous()) {
+                if (!Util.stringIsEmpty(id.getThreadID())) {
+                    byThreadID.putIfAbsent(id.getThreadID(), id);
+                }
+            } else if (!Util.stringIsEmpty(id.getSenderidaddress())) {
+                bySenderIDAddress.putIfAbsent(id.getSenderidaddress(), id);
+            }
+        }
+
+        // Assigned last - a non-null value means the ignored contacts are loaded
+        this.ignoredContactsByThreadID = byThreadID;
+        this.ignoredContactsBySenderIDAddress = bySenderIDAddress;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+
+    // Keys under which contacts are indexed
+    private static enum ContactIndex {
+        SENDER_ID_ADDRESS, GROUP_SEND_RECEIVE_ADDRESS, THREAD_ID;
+
+        String getKey(MessagingIdentity id) {
+            switch (this) {
+                case THREAD_ID:
+                    return id.getThreadID();
+                case GROUP_SEND_RECEIVE_ADDRESS:
+                    return id.isGroup() ? id.getSendreceiveaddress() : null;
+                default:
+                    return id.isAnonymous() ? null : id.getSenderidaddress();
+            }
+        }
+    }
+
+
+    // An immutable contact list with hash indexes over it. Lists are used in the indexes
+    // since (rarely) several contacts may share a key.
+    private static class ContactsSnapshot {
+        final List<SingleContactStorage> contactsList;
+        final Map<ContactIndex, Map<String, List<SingleContactStorage>>> indexes;
+        final Map<Integer, SingleContactStorage> contactsByNumber;
+        final Set<String> nicknames; // lower case
+
+
+        ContactsSnapshot(List<SingleContactStorage> contactsList)
+                throws IOException {
+            this.contactsList = Collections.unmodifiableList(new ArrayList<SingleContactStorage>(contactsList));
+            this.indexes = new EnumMap<ContactIndex, Map<String, List<SingleContactStorage>>>(ContactIndex.class);
+            this.contactsByNumber = new HashMap<Integer, SingleContactStorage>();
+            this.nicknames = new HashSet<String>();
+
+            for (ContactIndex index : ContactIndex.values()) {
+                this.indexes.put(index, new HashMap<String, List<SingleContactStorage>>());
+            }
+
+            for (SingleContactStorage contact : this.contactsList) {
+                MessagingIdentity id = contact.getIdentity();
+                for (ContactIndex index : ContactIndex.values()) {
+                    String key = index.getKey(id);
+                    if (!Util.stringIsEmpty(key)) {
+                        this.indexes.get(index).computeIfAbsent(
+                                key, k -> new ArrayList<SingleContactStorage>(1)).add(contact);
+                    }
+                }
+
+                this.contactsByNumber.put(contact.getContactNumber(), contact);
+
+                if (id.getNickname() != null) {
+                    this.nicknames.add(id.getNickname().toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+
+
+        // If the identities are indexed under the same keys
+        static boolean haveSameKeys(MessagingIdentity id1, MessagingIdentity id2) {
+            for (ContactIndex index : ContactIndex.values()) {
+                if (!Objects.equals(index.getKey(id1), index.getKey(id2))) {
+                    return false;
+                }
+            }
+
+            String nickname1 = (id1.getNickname() != null) ? id1.getNickname().toLowerCase(Locale.ROOT) : null;
+            String nickname2 = (id2.getNickname() != null) ? id2.getNickname().toLowerCase(Locale.ROOT) : null;
+            return Objects.equals(nickname1, nickname2);
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////
+
+
+    // Stores the details of a single contact
+    // Root dir may be like:
+    // ~/.ClassicBitcoinDesktopWallet/messaging/contact_XXXX
+    // Writes are synchronized on the instance, messages may be read concurrently.
+    static class SingleContactStorage {
+        static final String IDENTITY = "identity.json";
+
+        final String IGNORED_GROUP_IDS = "ignored_group_ids.json";
+        final String KNOWN_GROUP_SENDERS = "known_group_senders.json";
+
+        private File rootDir;
+
+        private SentOrReceivedMessagesStore sentMessages;
+        private SentOrReceivedMessagesStore receivedMessages;
+
+        // Never modified once set - updates replace it
+        private volatile MessagingIdentity cachedIdentity;
+
+        private Set<String> cachedIgnoredGroupSenderIDs;
+
+        private Map<String, MessagingIdentity> cachedKnownGroupSenders;
+
+        // Set when the contact is deleted - no more writes are possible
+        private boolean deleted;
+
+
+        // Creates the dir of a new contact
+        public SingleContactStorage(File rootDir)
+                throws IOException {
+            this(rootDir, null);
+
+            if (!rootDir.exists()) {
+                if (!rootDir.mkdirs()) {
+                    throw new IOException("Could not create directory: " + rootDir.getAbsolutePath());
+                }
+            }
+        }
+
+
+        // An existing contact - the identity may be known already (from the contacts summary), else it is
+        // read on first access
+        public SingleContactStorage(File rootDir, MessagingIdentity identity) {
+            this.cachedIdentity = identity;
+            this.cachedIgnoredGroupSenderIDs = null;
+
+            this.rootDir = rootDir;
+
+            this.sentMessages = new SentOrReceivedMessagesStore(new File(rootDir, "sent"));
+            this.receivedMessages = new SentOrReceivedMessagesStore(new File(rootDir, "received"));
+        }
+
+
+        // The identity returned must not be modified - see updateIdentity()
+        public MessagingIdentity getIdentity()
+                throws IOException {
+            MessagingIdentity identity = this.cachedIdentity;
+            if (identity != null) {
+                return identity;
+            }
+
+            synchronized (this) {
+                if (this.cachedIdentity == null) {
+                    File identityFile = new File(rootDir, IDENTITY);
+
+                    this.cachedIdentity = new MessagingIdentity(identityFile);
+                }
+
+                return this.cachedIdentity;
+            }
+        }
+
+
+        public synchronized void updateIdentity(MessagingIdentity newIdentity)
+                throws IOException {
+            this.checkNotDeleted();
+
+            File identityFile = new File(rootDir, IDENTITY);
+
+            Util.renameFileForMultiVersionBackup(rootDir, IDENTITY);
+
+            newIdentity.writeToFile(identityFile);
+
+            // A copy - the caller may go on changing its object
+            this.cachedIdentity = newIdentity.getCloneCopy();
+        }
+
+
+        // Deletes the contact from disk - concurrent writes wait and then fail
+        public synchronized void delete()
+                throws IOException {
+            this.deleted = true;
+            Util.deleteDirectory(this.rootDir);
+        }
+
+
+        private void checkNotDeleted()
+                throws IOException {
+            if (this.deleted) {
+                throw new IOException("Contact " + this.rootDir.getName() + " has been deleted.");
+            }
+        }
+
+
+        /**
+         * Checks if a particular sender's ID is ignored. This makes sense only if the
+         * current contact is a group. The ID may be an anonymous sender UUID or a
+         * normal from address.
+         *
+         * @param senderID
+         * @return true if a particular sender's ID is ignored
+         */
+        public synchronized boolean isGroupSenderIDIgnored(String senderID)
+                throws IOException {
+            this.preloadCachedIgnoredGroupSenderIDs();
+            boolean ignored = this.cachedIgnoredGroupSenderIDs.contains(senderID);
+            return ignored;
+        }
+
+
+        /**
+         * Adds a new ignored sender ID. This makes sense only if the
+         * current contact is a group. The ID may be an anonymous sender UUID or a
+         * normal from address.
+         *
+         * @param senderID to add
+         */
+        public synchronized void addGroupIgnoredSenderID(String senderID)
+                throws IOException {
+            this.checkNotDeleted();
+            this.preloadCachedIgnoredGroupSenderIDs();
+
+            File ignoredIDsFile = new File(rootDir, IGNORED_GROUP_IDS);
+
+            Util.renameFileForMultiVersionBackup(rootDir, IGNORED_GROUP_IDS);
+
+            this.cachedIgnoredGroupSenderIDs.add(senderID);
+
+            JsonArray ar = new JsonArray();
+            for (String id : this.cachedIgnoredGroupSenderIDs) {
                 ar.add(id);
             }
 
@@ -637,125 +1456,323 @@ public class MessagingStorage {
         }
 
 
-        private void preloadCachedIgnoredGroupSenderIDs()
+        private void preloadCachedIgnoredGroupSenderIDs()
+                throws IOException {
+            if (this.cachedIgnoredGroupSenderIDs == null) {
+                this.cachedIgnoredGroupSenderIDs = new HashSet<String>();
+
+                File ignoredIDsFile = new File(rootDir, IGNORED_GROUP_IDS);
+
+                if (!ignoredIDsFile.exists()) {
+                    return;
+                }
+
+                InputStream is = null;
+                try {
+                    is = new BufferedInputStream(new FileInputStream(ignoredIDsFile));
+                    InputStreamReader isr = new InputStreamReader(is, "UTF-8");
+                    JsonArray ar = Json.parse(isr).asArray(); // TODO: repackage to checked exception
+
+                    for (int i = 0; i < ar.size(); i++) {
+                        String val = ar.get(i).toString();
+
+                        if (val.startsWith("\"")) // Strip the string of the quotes
+                        {
+                            val = val.substring(1);
+                        }
+
+                        if (val.endsWith("\"")) {
+                            val = val.substring(0, val.length() - 1);
+                        }
+
+                        this.cachedIgnoredGroupSenderIDs.add(val);
+                    }
+                } finally {
+                    if (is != null) {
+                        is.close();
+                    }
+                }
+            }
+        }
+
+
+        public List<Message> getAllSentMessages()
+                throws IOException {
+            return this.sentMessages.getAllMessages();
+        }
+
+
+        public synchronized File writeNewSentMessage(Message msg)
+                throws IOException {
+            this.checkNotDeleted();
+            File messageFile = this.sentMessages.writeNewMessage(msg);
+            this.updateKnownGroupSenders(msg);
+            return messageFile;
+        }
+
+
+        public List<Message> getAllReceivedMessages()
+                throws IOException {
+            return this.receivedMessages.getAllMessages();
+        }
+
+
+        public List<Message> getAllArchivedMessages()
+                throws IOException {
+            List<Message> messages = new ArrayList<Message>();
+            messages.addAll(this.receivedMessages.getArchivedMessages());
+            messages.addAll(this.sentMessages.getArchivedMessages());
+            return messages;
+        }
+
+
+        public synchronized int getArchivedMessageCount()
+                throws IOException {
+            return this.receivedMessages.getArchivedMessageCount() + this.sentMessages.getArchivedMessageCount();
+        }
+
+
+        public synchronized Set<String> getArchivedReceivedTransactionIDs()
+                throws IOException {
+            return new HashSet<String>(this.receivedMessages.getArchivedTransactionIDs());
+        }
+
+
+        // Archives old messages - see SentOrReceivedMessagesStore.compact(). Returns the number archived.
+        public synchronized int compactMessages(long cutoffTime, int keepLatest)
+                throws IOException {
+            if (this.deleted) {
+                return 0;
+            }
+
+            // Group senders are learned from the history - make sure they are stored before it is archived
+            if (this.getIdentity().isGroup()) {
+                this.getKnownGroupSenders();
+            }
+
+            return this.receivedMessages.compact(cutoffTime, keepLatest) +
+                    this.sentMessages.compact(cutoffTime, keepLatest);
+        }
+
+
+        public synchronized File writeNewReceivedMessage(Message msg)
                 throws IOException {
-            if (this.cachedIgnoredGroupSenderIDs == null) {
-                this.cachedIgnoredGroupSenderIDs = new HashSet<String>();
+            this.checkNotDeleted();
+            File messageFile = this.receivedMessages.writeNewMessage(msg);
+            this.updateKnownGroupSenders(msg);
+            return messageFile;
+        }
 
-                File ignoredIDsFile = new File(rootDir, IGNORED_GROUP_IDS);
 
-                if (!ignoredIDsFile.exists()) {
-                    return;
-                }
+        /**
+         * Returns the known group senders - identities sent to the group. This makes sense only if
+         * the current contact is a group. If not available on disk, the map is built once from
+         * the full message history and stored.
+         *
+         * @return map sender ID address -> identity - to be used while holding the lock of this object
+         */
+        public synchronized Map<String, MessagingIdentity> getKnownGroupSenders()
+                throws IOException {
+            if (this.cachedKnownGroupSenders != null) {
+                return this.cachedKnownGroupSenders;
+            }
 
-                InputStream is = null;
+            File knownSendersFile = new File(rootDir, KNOWN_GROUP_SENDERS);
+            Map<String, MessagingIdentity> knownSenders = new HashMap<String, MessagingIdentity>();
+
+            if (knownSendersFile.exists()) {
                 try {
-                    is = new BufferedInputStream(new FileInputStream(ignoredIDsFile));
-                    InputStreamReader isr = new InputStreamReader(is, "UTF-8");
-                    JsonArray ar = Json.parse(isr).asArray(); // TODO: repackage to checked exception
+                    InputStream is = null;
+                    try {
+                        is = new BufferedInputStream(new FileInputStream(knownSendersFile));
+                        InputStreamReader isr = new InputStreamReader(is, "UTF-8");
+                        JsonObject obj = Json.parse(isr).asObject();
+
+                        for (JsonObject.Member member : obj) {
+                            knownSenders.put(member.getName(), new MessagingIdentity(member.getValue().asObject()));
+                        }
+                    } finally {
+                        if (is != null) {
+                            is.close();
+                        }
+                    }
 
-                    for (int i = 0; i < ar.size(); i++) {
-                        String val = ar.get(i).toString();
+                    this.cachedKnownGroupSenders = knownSenders;
+                    return this.cachedKnownGroupSenders;
+                } catch (RuntimeException | IOException e) {
+                    // Parse errors etc. - the file is just a cache, rebuild it
+                    Log.warning("Could not read file {0}, rebuilding it. Error: {1}",
+                            knownSendersFile.getAbsolutePath(), e.getMessage());
+                    knownSenders.clear();
+                }
+            }
 
-                        if (val.startsWith("\"")) // Strip the string of the quotes
-                        {
-                            val = val.substring(1);
-                        }
+            long start = System.currentTimeMillis();
 
-                        if (val.endsWith("\"")) {
-                            val = val.substring(0, val.length() - 1);
-                        }
+            List<Message> messages = new ArrayList<Message>();
+            messages.addAll(this.getAllReceivedMessages());
+            messages.addAll(this.getAllSentMessages());
+            Collections.sort(messages, (o1, o2) -> o1.getTime().compareTo(o2.getTime()));
 
-                        this.cachedIgnoredGroupSenderIDs.add(val);
-                    }
-                } finally {
-                    if (is != null) {
-                        is.close();
-                    }
+            for (Message msg : messages) {
+                MessagingIdentity senderIdentity = getKnownGroupSenderIdentity(msg);
+                if (senderIdentity != null) {
+                    knownSenders.put(senderIdentity.getSenderidaddress(), senderIdentity);
                 }
             }
-        }
 
+            this.cachedKnownGroupSenders = knownSenders;
+            this.storeKnownGroupSenders();
 
-        public List<Message> getAllSentMessages()
-                throws IOException {
-            return this.sentMessages.getAllMessages();
+            long end = System.currentTimeMillis();
+            Log.info("Building known group senders from " + messages.size() + " messages done in " +
+                    (end - start) + "ms.");
+
+            return this.cachedKnownGroupSenders;
         }
 
 
-        public void writeNewSentMessage(Message msg)
+        // Only groups keep known senders - for other contacts the identity message updates the contact
+        private void updateKnownGroupSenders(Message msg)
                 throws IOException {
-            this.sentMessages.writeNewMessage(msg);
+            if (!this.getIdentity().isGroup()) {
+                return;
+            }
+
+            MessagingIdentity senderIdentity = getKnownGroupSenderIdentity(msg);
+            if (senderIdentity == null) {
+                return;
+            }
+
+            // Loads or builds the map from the history, including the message just written
+            this.getKnownGroupSenders().put(senderIdentity.getSenderidaddress(), senderIdentity);
+            this.storeKnownGroupSenders();
         }
 
 
-        public List<Message> getAllReceivedMessages()
+        private void storeKnownGroupSenders()
                 throws IOException {
-            return this.receivedMessages.getAllMessages();
+            JsonObject obj = new JsonObject();
+            for (Map.Entry<String, MessagingIdentity> entry : this.cachedKnownGroupSenders.entrySet()) {
+                obj.set(entry.getKey(), entry.getValue().toJSONObject(false));
+            }
+
+            OutputStream os = null;
+            try {
+                os = new BufferedOutputStream(new FileOutputStream(new File(rootDir, KNOWN_GROUP_SENDERS)));
+                OutputStreamWriter osw = new OutputStreamWriter(os, "UTF-8");
+                obj.writeTo(osw, WriterConfig.PRETTY_PRINT);
+                osw.flush();
+            } finally {
+                if (os != null) {
+                    os.close();
+                }
+            }
         }
 
 
-        public void writeNewReceivedMessage(Message msg)
+        // Returns the identity carried by a message if it is an identity message from a trusted sender
+        private static MessagingIdentity getKnownGroupSenderIdentity(Message msg)
                 throws IOException {
-            this.receivedMessages.writeNewMessage(msg);
+            if (Message.isZENIdentityMessage(msg.getMessage()) &&
+                    ((msg.getDirection() == Message.DIRECTION_TYPE.SENT) ||
+                            (msg.getVerification() == Message.VERIFICATION_TYPE.VERIFICATION_OK))) {
+                return new MessagingIdentity(
+                        Util.parseJsonObject(msg.getMessage()).get("zenmessagingidentity").asObject());
+            }
+
+            return null;
         }
 
 
         public File getRootDir() {
             return this.rootDir;
         }
+
+
+        // The number CCCC of the dir contact_CCCC
+        public int getContactNumber() {
+            return Integer.parseInt(this.rootDir.getName().substring("contact_".length()));
+        }
+
+
+        // Location of a message file of this contact - for the search index
+        public long getMessageLocation(Message.DIRECTION_TYPE direction, File messageFile) {
+            return this.getMessageLocation(direction,
+                    Integer.parseInt(messageFile.getParentFile().getName()), messageFile.getName());
+        }
+
+
+        // Location of a message by bucket XXXX and file name message_FFF.json - also for archived messages
+        public long getMessageLocation(Message.DIRECTION_TYPE direction, int bucket, String fileName) {
+            return MessageSearchIndex.encodeLocation(
+                    this.getContactNumber(), direction, bucket,
+                    Integer.parseInt(fileName.substring("message_".length(), fileName.indexOf('.'))));
+        }
+
+
+        // The message at a location - whether archived or not. Null if not found.
+        public Message getMessage(long location)
+                throws IOException {
+            SentOrReceivedMessagesStore store =
+                    (MessageSearchIndex.getDirection(location) == Message.DIRECTION_TYPE.SENT) ?
+                            this.sentMessages : this.receivedMessages;
+
+            return store.readMessage(MessageSearchIndex.getBucket(location), MessageSearchIndex.getFile(location));
+        }
     }
 
 
     // Stores messages of one type - sent/received for one contact
     // Root directory may be like:
     // ~/.ClassicBitcoinDesktopWallet/messaging/contact_XXXX/sent
+    // Writes must be serialized by the caller, reads may run concurrently with a write.
+    // Old buckets XXXX may be archived as XXXX.zip - with the same message file names plus an index.
     static class SentOrReceivedMessagesStore {
-        private File rootDir;
+        static final String SEGMENT_INDEX = "index.json";
 
-        private int currentOutputDirForWrite;
+        private static final Pattern SEGMENT_NAME = Pattern.compile("[0-9]{4}\\.zip");
 
-        public SentOrReceivedMessagesStore(File rootDir)
-                throws IOException {
-            this.rootDir = rootDir;
+        private File rootDir;
 
-            if (!rootDir.exists()) {
-                if (!rootDir.mkdirs()) {
-                    throw new IOException("Could not create directory: " + rootDir.getAbsolutePath());
-                }
-            }
+        // Determined on first write, -1 until then
+        private int currentOutputDirForWrite;
 
-            // Use the dir with the highest number created so far
-            this.currentOutputDirForWrite = 0;
-            File currentDirs[] = rootDir.listFiles(new FileFilter() {
-                @Override
-                public boolean accept(File pathname) {
-                    return pathname.isDirectory() && pathname.getName().matches("[0-9]{4}");
-                }
-            });
+        // From the indexes of the archive segments - loaded on first use, null until then
+        private Set<String> cachedArchivedTransactionIDs;
+        private int cachedArchivedMessageCount;
 
-            for (File dir : currentDirs) {
-                if (Integer.parseInt(dir.getName()) > this.currentOutputDirForWrite) {
-                    this.currentOutputDirForWrite = Integer.parseInt(dir.getName());
-                }
-            }
+        // No disk access - the directories are read or created on first use
+        public SentOrReceivedMessagesStore(File rootDir) {
+            this.rootDir = rootDir;
+            this.currentOutputDirForWrite = -1;
         }
 
 
-        // Returns all messages in ascending time order
+        // Returns all messages that are not archived in ascending time order
         public List<Message> getAllMessages()
                 throws IOException {
             List<Message> allMessages = new ArrayList<Message>();
 
-            File currentDirs[] = this.rootDir.listFiles(new FileFilter() {
-                @Override
-                public boolean accept(File pathname) {
-                    return pathname.isDirectory() && pathname.getName().matches("[0-9]{4}");
-                }
-            });
+            File currentDirs[] = this.listNumberedDirs();
 
             for (File dir : currentDirs) {
-                this.collectMessagesFromDir(dir, allMessages);
+                File segment = this.getSegmentFile(dir);
+                if (segment.exists()) {
+                    continue; // Archived - the dir is about to be deleted
+                }
+
+                List<Message> dirMessages = new ArrayList<Message>();
+                try {
+                    this.collectMessagesFromDir(dir, dirMessages);
+                } catch (FileNotFoundException fnfe) {
+                    // Archived meanwhile
+                    if (segment.exists()) {
+                        continue;
+                    }
+                    throw fnfe;
+                }
+                allMessages.addAll(dirMessages);
             }
 
             Collections.sort(allMessages,
@@ -770,18 +1787,13 @@ public class MessagingStorage {
         }
 
 
-        public void writeNewMessage(Message msg)
+        public File writeNewMessage(Message msg)
                 throws IOException {
             File dir = this.getCurrentDirForWrite();
 
             // See how many message files currently exist (000 -> 999)
             // TODO: This could be avoided - cache current number of files
-            File messages[] = dir.listFiles(new FileFilter() {
-                @Override
-                public boolean accept(File pathname) {
-                    return pathname.isFile();
-                }
-            });
+            File messages[] = listMessageFiles(dir);
 
             String name = String.valueOf(messages.length);
             while (name.length() < 3) {
@@ -789,27 +1801,321 @@ public class MessagingStorage {
             }
             name = "message_" + name + ".json";
 
-            msg.writeToFile(new File(dir, name));
+            // Written under a temporary name first - readers never see a partial message
+            File messageFile = new File(dir, name);
+            File tempFile = new File(dir, name + ".tmp");
+            msg.writeToFile(tempFile);
+            if (!tempFile.renameTo(messageFile)) {
+                tempFile.delete();
+                throw new IOException("Could not rename file " + tempFile.getAbsolutePath() + " to " +
+                        messageFile.getAbsolutePath());
+            }
+
+            return messageFile;
         }
 
 
-        private void collectMessagesFromDir(File dir, List<Message> messages)
+        // Returns the archived messages in no particular order
+        public List<Message> getArchivedMessages()
+                throws IOException {
+            List<Message> messages = new ArrayList<Message>();
+            for (File segment : this.listSegments()) {
+                messages.addAll(readSegment(segment).values());
+            }
+
+            return messages;
+        }
+
+
+        // A single message by bucket XXXX and file number - whether archived or not. Null if not found.
+        public Message readMessage(int bucket, int fileNumber)
                 throws IOException {
-            File messageFiles[] = dir.listFiles(new FileFilter() {
+            String name = String.format("message_%03d.json", fileNumber);
+            File messageFile = new File(new File(this.rootDir, String.format("%04d", bucket)), name);
+            if (messageFile.exists()) {
+                try {
+                    return new Message(messageFile);
+                } catch (FileNotFoundException fnfe) {
+                    // Archived meanwhile
+                }
+            }
+
+            File segment = new File(this.rootDir, String.format("%04d.zip", bucket));
+            if (!segment.exists()) {
+                return null;
+            }
+
+            ZipFile zipFile = new ZipFile(segment);
+            try {
+                ZipEntry entry = zipFile.getEntry(name);
+                return (entry != null) ? readSegmentMessage(zipFile.getInputStream(entry)) : null;
+            } finally {
+                zipFile.close();
+            }
+        }
+
+
+        // Called with the contact locked
+        public int getArchivedMessageCount()
+                throws IOException {
+            this.loadArchiveIndexIfRequired();
+            return this.cachedArchivedMessageCount;
+        }
+
+
+        // Called with the contact locked - the set returned must not be modified
+        public Set<String> getArchivedTransactionIDs()
+                throws IOException {
+            this.loadArchiveIndexIfRequired();
+            return this.cachedArchivedTransactionIDs;
+        }
+
+
+        /**
+         * Archives buckets whose messages are all older than the cutoff time - except the current bucket
+         * and those needed to keep the latest messages. Each bucket is written to a compressed segment
+         * XXXX.zip, then the bucket dir is deleted. Writes must be serialized by the caller.
+         *
+         * @param cutoffTime only buckets with all messages older than this are archived
+         * @param keepLatest minimum number of latest messages not to archive
+         * @return number of messages archived
+         */
+        public int compact(long cutoffTime, int keepLatest)
+                throws IOException {
+            this.loadArchiveIndexIfRequired();
+
+            // Newest bucket first
+            File dirs[] = this.listNumberedDirs();
+            Arrays.sort(dirs, Collections.reverseOrder());
+
+            int newerMessages = 0;
+            int archivedMessages = 0;
+            for (int i = 0; i < dirs.length; i++) {
+                File dir = dirs[i];
+                if (this.getSegmentFile(dir).exists()) {
+                    // Archiving was interrupted after the segment was complete
+                    Util.deleteDirectory(dir);
+                    continue;
+                }
+
+                File messageFiles[] = listMessageFiles(dir);
+                if ((i > 0) && (newerMessages >= keepLatest)) {
+                    List<Message> messages = new ArrayList<Message>();
+                    this.collectMessagesFromDir(dir, messages);
+
+                    boolean allOld = true;
+                    for (Message msg : messages) {
+                        allOld &= msg.getTime().getTime() < cutoffTime;
+                    }
+
+                    if (allOld) {
+                        this.writeSegment(dir, messageFiles, messages);
+                        archivedMessages += messages.size();
+                        continue;
+                    }
+                }
+
+                newerMessages += messageFiles.length;
+            }
+
+            return archivedMessages;
+        }
+
+
+        // The segments XXXX.zip with archived messages
+        public File[] listSegments() {
+            File segments[] = this.rootDir.listFiles(new FileFilter() {
                 @Override
                 public boolean accept(File pathname) {
-                    return pathname.isFile();
+                    return pathname.isFile() && SEGMENT_NAME.matcher(pathname.getName()).matches();
                 }
             });
 
-            for (File f : messageFiles) {
+            return (segments != null) ? segments : new File[0];
+        }
+
+
+        // Bucket number XXXX of a segment XXXX.zip
+        public static int getBucket(File segment) {
+            return Integer.parseInt(segment.getName().substring(0, 4));
+        }
+
+
+        /**
+         * Reads all messages of an archive segment.
+         *
+         * @param segment segment file XXXX.zip
+         * @return file name (message_xxx.json) -> message
+         */
+        public static Map<String, Message> readSegment(File segment)
+                throws IOException {
+            Map<String, Message> messages = new LinkedHashMap<String, Message>();
+
+            ZipInputStream zipIn = new ZipInputStream(new BufferedInputStream(new FileInputStream(segment)));
+            try {
+                ZipEntry entry;
+                while ((entry = zipIn.getNextEntry()) != null) {
+                    if (!entry.getName().equals(SEGMENT_INDEX)) {
+                        messages.put(entry.getName(), readSegmentMessage(zipIn));
+                    }
+                }
+            } finally {
+                zipIn.close();
+            }
+
+            return messages;
+        }
+
+
+        private static Message readSegmentMessage(InputStream in)
+                throws IOException {
+            return new Message(Util.parseJsonObject(new InputStreamReader(in, "UTF-8")));
+        }
+
+
+        // Writes the segment of a bucket and deletes the bucket dir
+        private void writeSegment(File dir, File messageFiles[], List<Message> messages)
+                throws IOException {
+            Set<String> transactionIDs = new HashSet<String>();
+            JsonArray transactions = new JsonArray();
+            for (Message msg : messages) {
+                addTransactionIDs(transactionIDs, msg);
+            }
+            for (String transactionID : transactionIDs) {
+                transactions.add(transactionID);
+            }
+
+            JsonObject index = new JsonObject();
+            index.set("messages", messages.size());
+            index.set("transactions", transactions);
+
+            File segment = this.getSegmentFile(dir);
+            File tempFile = new File(this.rootDir, segment.getName() + ".tmp");
+            ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                for (File messageFile : messageFiles) {
+                    zipOut.putNextEntry(new ZipEntry(messageFile.getName()));
+                    java.nio.file.Files.copy(messageFile.toPath(), zipOut);
+                    zipOut.closeEntry();
+                }
+
+                zipOut.putNextEntry(new ZipEntry(SEGMENT_INDEX));
+                zipOut.write(index.toString().getBytes("UTF-8"));
+                zipOut.closeEntry();
+            } finally {
+                zipOut.close();
+            }
+
+            if (!tempFile.renameTo(segment)) {
+                tempFile.delete();
+                throw new IOException("Could not rename file " + tempFile.getAbsolutePath() + " to " +
+                        segment.getAbsolutePath());
+            }
+
+            Util.deleteDirectory(dir);
+
+            this.cachedArchivedMessageCount += messages.size();
+            this.cachedArchivedTransactionIDs.addAll(transactionIDs);
+        }
+
+
+        private void loadArchiveIndexIfRequired()
+                throws IOException {
+            if (this.cachedArchivedTransactionIDs != null) {
+                return;
+            }
+
+            Set<String> transactionIDs = new HashSet<String>();
+            int messageCount = 0;
+            for (File segment : this.listSegments()) {
+                ZipFile zipFile = new ZipFile(segment);
+                try {
+                    ZipEntry entry = zipFile.getEntry(SEGMENT_INDEX);
+                    if (entry == null) {
+                        throw new IOException("Archive segment " + segment.getAbsolutePath() + " has no index.");
+                    }
+
+                    JsonObject index = Util.parseJsonObject(
+                            new InputStreamReader(zipFile.getInputStream(entry), "UTF-8"));
+                    messageCount += index.getInt("messages", 0);
+                    for (JsonValue transactionID : index.get("transactions").asArray()) {
+                        transactionIDs.add(transactionID.asString());
+                    }
+                } finally {
+                    zipFile.close();
+                }
+            }
+
+            this.cachedArchivedMessageCount = messageCount;
+            this.cachedArchivedTransactionIDs = transactionIDs;
+        }
+
+
+        // sent/XXXX -> sent/XXXX.zip
+        private File getSegmentFile(File dir) {
+            return new File(this.rootDir, dir.getName() + ".zip");
+        }
+
+
+        public List<File> getAllMessageFiles() {
+            List<File> allMessageFiles = new ArrayList<File>();
+
+            File currentDirs[] = this.listNumberedDirs();
+
+            for (File dir : currentDirs) {
+                if (!this.getSegmentFile(dir).exists()) {
+                    allMessageFiles.addAll(Arrays.asList(listMessageFiles(dir)));
+                }
+            }
+
+            return allMessageFiles;
+        }
+
+
+        private void collectMessagesFromDir(File dir, List<Message> messages)
+                throws IOException {
+            for (File f : listMessageFiles(dir)) {
                 messages.add(new Message(f));
             }
         }
 
 
+        // Complete message files only - not files being written
+        private static File[] listMessageFiles(File dir) {
+            return dir.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File pathname) {
+                    return pathname.isFile() && pathname.getName().matches("message_[0-9]{3}\\.json");
+                }
+            });
+        }
+
+
+        // The sent/received dir may not exist yet
+        private File[] listNumberedDirs() {
+            File dirs[] = this.rootDir.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File pathname) {
+                    return pathname.isDirectory() && pathname.getName().matches("[0-9]{4}");
+                }
+            });
+
+            return (dirs != null) ? dirs : new File[0];
+        }
+
+
         private File getCurrentDirForWrite()
                 throws IOException {
+            if (this.currentOutputDirForWrite < 0) {
+                // Use the dir with the highest number created so far
+                this.currentOutputDirForWrite = 0;
+                for (File dir : this.listNumberedDirs()) {
+                    if (Integer.parseInt(dir.getName()) > this.currentOutputDirForWrite) {
+                        this.currentOutputDirForWrite = Integer.parseInt(dir.getName());
+                    }
+                }
+            }
+
             String name = String.valueOf(this.currentOutputDirForWrite);
             while (name.length() < 4) {
                 name = "0" + name;
@@ -824,12 +2130,7 @@ public class MessagingStorage {
             } else {
                 // Make sure there are not too many messages
                 // TODO: This could be avoided - cache current number of files
-                File messages[] = dir.listFiles(new FileFilter() {
-                    @Override
-                    public boolean accept(File pathname) {
-                        return pathname.isFile();
-                    }
-                });
+                File messages[] = listMessageFiles(dir);
 
                 if (messages.length > 999) {
                     this.currentOutputDirForWrite++;
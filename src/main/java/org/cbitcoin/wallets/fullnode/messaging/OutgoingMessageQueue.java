@@ -0,0 +1,624 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import com.eclipsesource.json.WriterConfig;
+import org.cbitcoin.wallets.fullnode.util.Log;
+import org.cbitcoin.wallets.fullnode.util.Util;
+
+import java.io.*;
+import java.util.*;
+
+
+/**
+ * Queue of outgoing messages waiting to be sent. Pending messages are sent in batches - several
+ * messages in one z_sendmany transaction with one memo output each. The queue is stored in
+ * messaging/outgoing_queue.json after every change so that messages survive a restart.
+ * <p>
+ * A message is PENDING until its batch is sent and SENDING while the z_sendmany operation is
+ * being executed. It is removed from the queue when the operation succeeds. If the operation fails,
+ * or its outcome is unknown, the message is kept as FAILED until the user sends it again or discards it.
+ * <p>
+ * A long message is queued as several chunks (see MessageChunkAssembler) with a common chunk ID.
+ * The chunks go out in consecutive transactions in order, since a transaction may have only one
+ * output per address.
+ * <p>
+ * A broadcast is the same message queued for many contacts at once (see addBroadcast()). Its messages
+ * are packed into transactions with as many outputs as allowed, and the state of every recipient is
+ * tracked until the last broadcasts are pruned.
+ * <p>
+ * Instances are thread safe.
+ */
+public class OutgoingMessageQueue {
+    public static enum STATE {
+        PENDING, SENDING, FAILED
+    }
+
+    public static enum RECIPIENT_STATE {
+        PENDING, SENDING, SENT, FAILED
+    }
+
+    // Completed broadcasts are kept until there are more than this
+    private static final int MAX_BROADCASTS = 10;
+
+    private File queueFile;
+
+    private List<QueuedMessage> messages;
+
+    private List<BroadcastStatus> broadcasts;
+
+
+    public OutgoingMessageQueue(File queueFile)
+            throws IOException {
+        this.queueFile = queueFile;
+        this.messages = new ArrayList<QueuedMessage>();
+        this.broadcasts = new ArrayList<BroadcastStatus>();
+
+        if (queueFile.exists()) {
+            Reader r = new BufferedReader(new InputStreamReader(new FileInputStream(queueFile), "UTF-8"));
+            try {
+                // Older versions stored just the array of messages
+                JsonValue queue = Json.parse(r);
+                JsonArray ar = queue.isArray() ? queue.asArray() : queue.asObject().get("messages").asArray();
+                for (JsonValue val : ar) {
+                    this.messages.add(new QueuedMessage(val.asObject()));
+                }
+
+                if (queue.isObject() && (queue.asObject().get("broadcasts") != null)) {
+                    for (JsonValue val : queue.asObject().get("broadcasts").asArray()) {
+                        this.broadcasts.add(new BroadcastStatus(val.asObject()));
+                    }
+                }
+            } catch (RuntimeException re) {
+                throw new IOException("Could not read the outgoing message queue " + queueFile.getAbsolutePath(), re);
+            } finally {
+                r.close();
+            }
+
+            if (!this.messages.isEmpty()) {
+                Log.info("Outgoing message queue has " + this.messages.size() + " messages to send.");
+            }
+        }
+    }
+
+
+    public synchronized void add(QueuedMessage msg)
+            throws IOException {
+        this.messages.add(msg);
+        this.store();
+    }
+
+
+    // E.g. all chunks of a message - stored at once
+    public synchronized void addAll(List<QueuedMessage> msgs)
+            throws IOException {
+        this.messages.addAll(msgs);
+        this.store();
+    }
+
+
+    /**
+     * Queues the same message for many recipients.
+     *
+     * @param msgs             the messages for the recipients - possibly several chunks per recipient
+     * @param failedRecipients recipients the message could not be queued for - e.g. too large for them
+     * @return ID of the broadcast - see getBroadcastStatus()
+     */
+    public synchronized String addBroadcast(List<QueuedMessage> msgs, List<MessagingIdentity> failedRecipients)
+            throws IOException {
+        BroadcastStatus broadcast = new BroadcastStatus(UUID.randomUUID().toString(), new Date());
+        for (QueuedMessage msg : msgs) {
+            msg.broadcastID = broadcast.id;
+            broadcast.setState(msg.getToAddress(), msg.contact.getDiplayString(), RECIPIENT_STATE.PENDING);
+        }
+        for (MessagingIdentity recipient : failedRecipients) {
+            broadcast.setState(recipient.getSendreceiveaddress(), recipient.getDiplayString(),
+                    RECIPIENT_STATE.FAILED);
+        }
+
+        this.broadcasts.add(broadcast);
+        this.pruneBroadcasts();
+        this.messages.addAll(msgs);
+        this.store();
+
+        return broadcast.id;
+    }
+
+
+    public synchronized int size() {
+        return this.messages.size();
+    }
+
+
+    // Single messages only - see getNextBatch(int, int, int)
+    public synchronized List<QueuedMessage> getNextBatch(int maxMessages) {
+        return this.getNextBatch(maxMessages, maxMessages, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Selects the next pending messages to send in one transaction - oldest first. A transaction
+     * may have only one output per address, so later messages to the same recipient wait for
+     * the next batch - also if the first pending one does not fit in this batch.
+     *
+     * @param maxMessages     maximum number of single messages in the batch
+     * @param maxOutputs      maximum number of outputs in the batch - single and broadcast messages
+     * @param maxMemoHexChars maximum total length of the HEX memos - the wallet call has a length limit
+     * @return the messages to send, empty if none are pending
+     */
+    public synchronized List<QueuedMessage> getNextBatch(int maxMessages, int maxOutputs, int maxMemoHexChars) {
+        List<QueuedMessage> batch = new ArrayList<QueuedMessage>();
+        Set<String> addresses = new HashSet<String>();
+        int singleMessages = 0;
+        int memoHexChars = 0;
+
+        for (QueuedMessage msg : this.messages) {
+            // The address is taken also by a message that does not fit - later ones must not overtake it
+            if ((msg.state != STATE.PENDING) || (!addresses.add(msg.getToAddress())) ||
+                    (batch.size() >= maxOutputs) ||
+                    ((msg.broadcastID == null) && (singleMessages >= maxMessages)) ||
+                    ((!batch.isEmpty()) && ((memoHexChars + msg.memoHex.length()) > maxMemoHexChars))) {
+                continue;
+            }
+
+            batch.add(msg);
+            memoHexChars += msg.memoHex.length();
+            if (msg.broadcastID == null) {
+                singleMessages++;
+            }
+        }
+
+        return batch;
+    }
+
+
+    // State of the recipients of a broadcast - a copy, null if not known (any more)
+    public synchronized BroadcastStatus getBroadcastStatus(String broadcastID) {
+        for (BroadcastStatus broadcast : this.broadcasts) {
+            if (broadcast.id.equals(broadcastID)) {
+                return new BroadcastStatus(broadcast.toJSONObject());
+            }
+        }
+
+        return null;
+    }
+
+
+    // Messages being sent - grouped by operation ID
+    public synchronized Map<String, List<QueuedMessage>> getSendingBatches() {
+        Map<String, List<QueuedMessage>> batches = new LinkedHashMap<String, List<QueuedMessage>>();
+
+        for (QueuedMessage msg : this.messages) {
+            if (msg.state == STATE.SENDING) {
+                List<QueuedMessage> batch = batches.get(msg.operationID);
+                if (batch == null) {
+                    batches.put(msg.operationID, batch = new ArrayList<QueuedMessage>());
+                }
+                batch.add(msg);
+            }
+        }
+
+        return batches;
+    }
+
+
+    public synchronized void markSending(List<QueuedMessage> batch, String operationID)
+            throws IOException {
+        for (QueuedMessage msg : batch) {
+            msg.state = STATE.SENDING;
+            msg.operationID = operationID;
+            this.updateBroadcastState(msg, RECIPIENT_STATE.SENDING);
+        }
+
+        this.store();
+    }
+
+
+    // Failed messages waiting for the decision of the user - see retryFailed() and discardFailed()
+    public synchronized List<QueuedMessage> getFailedMessages() {
+        List<QueuedMessage> failed = new ArrayList<QueuedMessage>();
+        for (QueuedMessage msg : this.messages) {
+            if (msg.state == STATE.FAILED) {
+                failed.add(msg);
+            }
+        }
+
+        return failed;
+    }
+
+
+    // Removes a batch that has been sent
+    public synchronized void remove(List<QueuedMessage> batch)
+            throws IOException {
+        for (QueuedMessage msg : batch) {
+            // A recipient of a long message has got it with the last chunk
+            this.updateBroadcastState(msg, (msg.message != null) ? RECIPIENT_STATE.SENT : RECIPIENT_STATE.PENDING);
+        }
+
+        this.messages.removeAll(batch);
+        this.store();
+    }
+
+
+    /**
+     * Keeps a batch that could not be sent as FAILED - with the remaining chunks of any long message
+     * in it, they must not be sent without the failed chunks.
+     *
+     * @param batch          the messages of the batch
+     * @param errorMessage   the error of the operation
+     * @param outcomeUnknown true if the operation may have been executed - e.g. cbtcd was restarted and
+     *                       does not know it any more
+     */
+    public synchronized void markFailed(List<QueuedMessage> batch, String errorMessage, boolean outcomeUnknown)
+            throws IOException {
+        Set<String> failedChunkIDs = new HashSet<String>();
+        for (QueuedMessage msg : batch) {
+            if (msg.chunkID != null) {
+                failedChunkIDs.add(msg.chunkID);
+            }
+        }
+
+        for (QueuedMessage msg : this.messages) {
+            if (batch.contains(msg) ||
+                    ((msg.chunkID != null) && failedChunkIDs.contains(msg.chunkID) && (msg.state == STATE.PENDING))) {
+                msg.state = STATE.FAILED;
+                msg.operationID = null;
+                msg.errorMessage = errorMessage;
+                msg.outcomeUnknown = outcomeUnknown;
+                this.updateBroadcastState(msg, RECIPIENT_STATE.FAILED);
+            }
+        }
+
+        this.store();
+    }
+
+
+    // The user sends the failed messages again
+    public synchronized void retryFailed()
+            throws IOException {
+        for (QueuedMessage msg : this.messages) {
+            if (msg.state == STATE.FAILED) {
+                msg.state = STATE.PENDING;
+                msg.errorMessage = null;
+                msg.outcomeUnknown = false;
+                this.updateBroadcastState(msg, RECIPIENT_STATE.PENDING);
+            }
+        }
+
+        this.store();
+    }
+
+
+    // The user gives up the failed messages - recipients of broadcasts stay FAILED
+    public synchronized void discardFailed()
+            throws IOException {
+        for (Iterator<QueuedMessage> it = this.messages.iterator(); it.hasNext(); ) {
+            if (it.next().state == STATE.FAILED) {
+                it.remove();
+            }
+        }
+
+        this.store();
+    }
+
+
+    private void updateBroadcastState(QueuedMessage msg, RECIPIENT_STATE state) {
+        if (msg.broadcastID == null) {
+            return;
+        }
+
+        for (BroadcastStatus broadcast : this.broadcasts) {
+            if (broadcast.id.equals(msg.broadcastID)) {
+                broadcast.setState(msg.getToAddress(), msg.contact.getDiplayString(), state);
+                return;
+            }
+        }
+    }
+
+
+    // Removes the oldest completed broadcasts - the states of the recipients are no longer shown
+    private void pruneBroadcasts() {
+        for (Iterator<BroadcastStatus> it = this.broadcasts.iterator();
+             (this.broadcasts.size() > MAX_BROADCASTS) && it.hasNext(); ) {
+            BroadcastStatus broadcast = it.next();
+            if (broadcast.isComplete()) {
+                it.remove();
+            }
+        }
+    }
+
+
+    private void store()
+            throws IOException {
+        JsonArray messagesArray = new JsonArray();
+        for (QueuedMessage msg : this.messages) {
+            messagesArray.add(msg.toJSONObject());
+        }
+
+        JsonArray broadcastsArray = new JsonArray();
+        for (BroadcastStatus broadcast : this.broadcasts) {
+            broadcastsArray.add(broadcast.toJSONObject());
+        }
+
+        JsonObject ar = new JsonObject();
+        ar.set("messages", messagesArray);
+        ar.set("broadcasts", broadcastsArray);
+
+        // Written to a temporary file first - the queue must not be lost if writing fails
+        File tempFile = new File(this.queueFile.getParentFile(), this.queueFile.getName() + ".tmp");
+        Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+        try {
+            ar.writeTo(w, WriterConfig.PRETTY_PRINT);
+        } finally {
+            w.close();
+        }
+
+        if (this.queueFile.exists() && (!this.queueFile.delete())) {
+            throw new IOException("Could not delete file: " + this.queueFile.getAbsolutePath());
+        }
+        if (!tempFile.renameTo(this.queueFile)) {
+            throw new IOException("Could not rename file: " + tempFile.getAbsolutePath());
+        }
+    }
+
+
+    /**
+     * A single message in the queue.
+     */
+    public static class QueuedMessage {
+        private String id;
+        private MessagingIdentity contact;
+        // Message as sent in the memo (inner JSON object of "zenmsg") - null for all but the last chunk
+        private JsonObject message;
+        private String memoHex; // As sent - may be compressed
+        private String chunkID; // Only for chunks of a long message
+        private String broadcastID; // Only for messages of a broadcast
+        private Date queuedTime;
+
+        private STATE state;
+        private String operationID;
+        // Only for FAILED messages
+        private String errorMessage;
+        private boolean outcomeUnknown;
+
+
+        public QueuedMessage(MessagingIdentity contact, JsonObject message, String memoHex)
+                throws IOException {
+            this(contact, message, memoHex, null);
+        }
+
+
+        public QueuedMessage(MessagingIdentity contact, JsonObject message, String memoHex, String chunkID)
+                throws IOException {
+            this.id = UUID.randomUUID().toString();
+            this.contact = contact.getCloneCopy();
+            this.message = message;
+            this.memoHex = memoHex;
+            this.chunkID = chunkID;
+            this.queuedTime = new Date();
+            this.state = STATE.PENDING;
+            this.operationID = null;
+        }
+
+
+        QueuedMessage(JsonObject obj)
+                throws IOException {
+            this.id = obj.getString("id", UUID.randomUUID().toString());
+            this.contact = new MessagingIdentity(obj.get("contact").asObject());
+            this.message = (obj.get("message") != null) ? obj.get("message").asObject() : null;
+            this.memoHex = obj.getString("memohex", "");
+            this.chunkID = obj.getString("chunkid", null);
+            this.broadcastID = obj.getString("broadcastid", null);
+            this.queuedTime = new Date(obj.getLong("queuedtime", System.currentTimeMillis()));
+            this.state = STATE.valueOf(obj.getString("state", STATE.PENDING.toString()));
+            this.operationID = obj.getString("operationid", null);
+            this.errorMessage = obj.getString("errormessage", null);
+            this.outcomeUnknown = obj.getBoolean("outcomeunknown", false);
+
+            if (Util.stringIsEmpty(this.memoHex)) {
+                throw new IOException("Queued message has no memo: " + obj.toString());
+            }
+        }
+
+
+        JsonObject toJSONObject() {
+            JsonObject obj = new JsonObject();
+            obj.set("id", this.id);
+            obj.set("contact", this.contact.toJSONObject(false));
+            if (this.message != null) {
+                obj.set("message", this.message);
+            }
+            obj.set("memohex", this.memoHex);
+            if (this.chunkID != null) {
+                obj.set("chunkid", this.chunkID);
+            }
+            if (this.broadcastID != null) {
+                obj.set("broadcastid", this.broadcastID);
+            }
+            obj.set("queuedtime", this.queuedTime.getTime());
+            obj.set("state", this.state.toString());
+            if (this.operationID != null) {
+                obj.set("operationid", this.operationID);
+            }
+            if (this.errorMessage != null) {
+                obj.set("errormessage", this.errorMessage);
+                obj.set("outcomeunknown", this.outcomeUnknown);
+            }
+
+            return obj;
+        }
+
+
+        public MessagingIdentity getContact() {
+            return this.contact;
+        }
+
+
+        public String getToAddress() {
+            return this.contact.getSendreceiveaddress();
+        }
+
+
+        public JsonObject getMessage() {
+            return this.message;
+        }
+
+
+        public String getMemoHex() {
+            return this.memoHex;
+        }
+
+
+        public String getChunkID() {
+            return this.chunkID;
+        }
+
+
+        public String getBroadcastID() {
+            return this.broadcastID;
+        }
+
+
+        public STATE getState() {
+            return this.state;
+        }
+
+
+        public String getOperationID() {
+            return this.operationID;
+        }
+
+
+        public String getErrorMessage() {
+            return this.errorMessage;
+        }
+
+
+        // The message may have been sent - see markFailed()
+        public boolean isOutcomeUnknown() {
+            return this.outcomeUnknown;
+        }
+    }
+
+
+    /**
+     * The state of every recipient of a broadcast.
+     */
+    public static class BroadcastStatus {
+        private String id;
+        private Date created;
+        // Recipient address -> display name and state, in the order queued
+        private Map<String, Recipient> recipients;
+
+
+        BroadcastStatus(String id, Date created) {
+            this.id = id;
+            this.created = created;
+            this.recipients = new LinkedHashMap<String, Recipient>();
+        }
+
+
+        BroadcastStatus(JsonObject obj) {
+            this(obj.getString("id", ""), new Date(obj.getLong("created", 0)));
+            for (JsonValue val : obj.get("recipients").asArray()) {
+                JsonObject recipient = val.asObject();
+                this.setState(recipient.getString("address", ""), recipient.getString("name", ""),
+                        RECIPIENT_STATE.valueOf(recipient.getString("state", RECIPIENT_STATE.FAILED.toString())));
+            }
+        }
+
+
+        JsonObject toJSONObject() {
+            JsonArray recipientsArray = new JsonArray();
+            for (Map.Entry<String, Recipient> entry : this.recipients.entrySet()) {
+                JsonObject recipient = new JsonObject();
+                recipient.set("address", entry.getKey());
+                recipient.set("name", entry.getValue().name);
+                recipient.set("state", entry.getValue().state.toString());
+                recipientsArray.add(recipient);
+            }
+
+            JsonObject obj = new JsonObject();
+            obj.set("id", this.id);
+            obj.set("created", this.created.getTime());
+            obj.set("recipients", recipientsArray);
+            return obj;
+        }
+
+
+        private void setState(String address, String name, RECIPIENT_STATE state) {
+            this.recipients.put(address, new Recipient(name, state));
+        }
+
+
+        public String getID() {
+            return this.id;
+        }
+
+
+        public Date getCreated() {
+            return this.created;
+        }
+
+
+        // Display names of the recipients - in the order queued
+        public List<String> getRecipientNames() {
+            List<String> names = new ArrayList<String>();
+            for (Recipient recipient : this.recipients.values()) {
+                names.add(recipient.name);
+            }
+            return names;
+        }
+
+
+        // States of the recipients - in the order queued
+        public List<RECIPIENT_STATE> getRecipientStates() {
+            List<RECIPIENT_STATE> states = new ArrayList<RECIPIENT_STATE>();
+            for (Recipient recipient : this.recipients.values()) {
+                states.add(recipient.state);
+            }
+            return states;
+        }
+
+
+        public RECIPIENT_STATE getRecipientState(String address) {
+            Recipient recipient = this.recipients.get(address);
+            return (recipient != null) ? recipient.state : null;
+        }
+
+
+        public int getCount(RECIPIENT_STATE state) {
+            int count = 0;
+            for (Recipient recipient : this.recipients.values()) {
+                if (recipient.state == state) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+
+        public int getRecipientCount() {
+            return this.recipients.size();
+        }
+
+
+        // All recipients have got the message or it failed
+        public boolean isComplete() {
+            return (this.getCount(RECIPIENT_STATE.PENDING) + this.getCount(RECIPIENT_STATE.SENDING)) == 0;
+        }
+
+
+        private static class Recipient {
+            final String name;
+            final RECIPIENT_STATE state;
+
+            Recipient(String name, RECIPIENT_STATE state) {
+                this.name = name;
+                this.state = state;
+            }
+        }
+    }
+}
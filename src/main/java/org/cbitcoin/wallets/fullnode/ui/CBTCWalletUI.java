@@ -7,6 +7,9 @@ import org.cbitcoin.wallets.fullnode.daemon.CBTCInstallationObserver;
 import org.cbitcoin.wallets.fullnode.daemon.CBTCInstallationObserver.DAEMON_STATUS;
 import org.cbitcoin.wallets.fullnode.daemon.CBTCInstallationObserver.DaemonInfo;
 import org.cbitcoin.wallets.fullnode.daemon.CBTCInstallationObserver.InstallationDetectionException;
+import org.cbitcoin.wallets.fullnode.daemon.OperationTracker;
+import org.cbitcoin.wallets.fullnode.daemon.SyncProgressMonitor;
+import org.cbitcoin.wallets.fullnode.explorer.ExplorerPanel;
 import org.cbitcoin.wallets.fullnode.messaging.MessagingPanel;
 import org.cbitcoin.wallets.fullnode.util.*;
 import org.cbitcoin.wallets.fullnode.util.OSUtil.OS_TYPE;
@@ -39,12 +42,16 @@ public class CBTCWalletUI extends JFrame {
     private JMenuItem menuItemImportContactIdentity;
     private JMenuItem menuItemRemoveContactIdentity;
     private JMenuItem menuItemMessagingOptions;
+    private JMenuItem menuItemExportMessagingArchive;
+    private JMenuItem menuItemImportMessagingArchive;
+    private JMenuItem menuItemBroadcastMessage;
 
     private DashboardPanel dashboard;
     private AddressesPanel addresses;
     private SendCashPanel sendPanel;
     private AddressBookPanel addressBookPanel;
     private MessagingPanel messagingPanel;
+    private ExplorerPanel explorerPanel;
 
 
     private JMenuItem langEnglish;
@@ -64,6 +71,7 @@ public class CBTCWalletUI extends JFrame {
     private static final String LOCAL_MSG_TAB_SEND = Util.local("LOCAL_MSG_TAB_SEND");
     private static final String LOCAL_MSG_TAB_ADDRESS_BOOK = Util.local("LOCAL_MSG_TAB_ADDRESS_BOOK");
     private static final String LOCAL_MSG_TAB_MSG = Util.local("LOCAL_MSG_TAB_MSG");
+    private static final String LOCAL_MSG_TAB_EXPLORER = Util.local("LOCAL_MSG_TAB_EXPLORER");
     private static final String LOCAL_MENU_MAIN = Util.local("LOCAL_MENU_MAIN");
     private static final String LOCAL_MENU_ABOUT = Util.local("LOCAL_MENU_ABOUT");
     private static final String LOCAL_MENU_QUIT = Util.local("LOCAL_MENU_QUIT");
@@ -76,6 +84,9 @@ public class CBTCWalletUI extends JFrame {
     private static final String LOCAL_MENU_IMPORT_CONTACT = Util.local("LOCAL_MENU_IMPORT_CONTACT");
     private static final String LOCAL_MENU_REMOVE_CONTACT = Util.local("LOCAL_MENU_REMOVE_CONTACT");
     private static final String LOCAL_MENU_OPTIONS = Util.local("LOCAL_MENU_OPTIONS");
+    private static final String LOCAL_MENU_EXPORT_MSG_ARCHIVE = Util.local("LOCAL_MENU_EXPORT_MSG_ARCHIVE");
+    private static final String LOCAL_MENU_IMPORT_MSG_ARCHIVE = Util.local("LOCAL_MENU_IMPORT_MSG_ARCHIVE");
+    private static final String LOCAL_MENU_BROADCAST_MSG = Util.local("LOCAL_MENU_BROADCAST_MSG");
     private static final String LOCAL_MSG_INITIAL_DISCLAIMER = Util.local("LOCAL_MSG_INITIAL_DISCLAIMER");
     private static final String LOCAL_MSG_TITLE_DISCLAIMER = Util.local("LOCAL_MSG_TITLE_DISCLAIMER");
     private static final String LOCAL_MSG_EXITING = Util.local("LOCAL_MSG_EXITING");
@@ -92,6 +103,7 @@ public class CBTCWalletUI extends JFrame {
     private static final String IMG_TAB_SEND = "images/send.png";
     private static final String IMG_TAB_ADDRESS_BOOK = "images/address-book.png";
     private static final String IMG_TAB_MSG = "images/messaging.png";
+    private static final String IMG_TAB_EXPLORER = "images/overview.png";
     private static final String IMG_CBTC_ICON = "images/cbtc-200.png";
 
     JTabbedPane tabs;
@@ -119,6 +131,9 @@ public class CBTCWalletUI extends JFrame {
 
         errorReporter = new StatusUpdateErrorReporter(this);
         installationObserver = new CBTCInstallationObserver(OSUtil.getProgramDirectory());
+        if (progressDialog != null) {
+            installationObserver.setDaemonProcess(progressDialog.getStartedDaemonProcess());
+        }
         clientCaller = new CBTCClientCaller(OSUtil.getProgramDirectory());
 
         if (installationObserver.isOnTestNet()) {
@@ -131,23 +146,37 @@ public class CBTCWalletUI extends JFrame {
         Font newTabFont = new Font(oldTabFont.getName(), Font.BOLD, oldTabFont.getSize() * 57 / 50);
         tabs.setFont(newTabFont);
         BackupTracker backupTracker = new BackupTracker(this);
+        // Follows the sending operations of all panels
+        OperationTracker operationTracker = new OperationTracker(clientCaller);
+        // Created first - transactions in the dashboard may be shown in it
+        explorerPanel = new ExplorerPanel(clientCaller);
 
         tabs.addTab(LOCAL_MSG_TAB_TRANSACTIONS.concat(" "),
             new ImageIcon(cl.getResource(IMG_TAB_TRANSACTIONS)),
             dashboard = new DashboardPanel(this, installationObserver, clientCaller,
-                errorReporter, backupTracker));
+                errorReporter, backupTracker,
+                (progressDialog != null) ? progressDialog.getSyncProgressMonitor() : new SyncProgressMonitor(),
+                explorerPanel));
+        if ((progressDialog != null) && (progressDialog.getDaemonNotificationListener() != null)) {
+            dashboard.useDaemonNotifications(progressDialog.getDaemonNotificationListener());
+        }
         tabs.addTab(LOCAL_MSG_TAB_ADDRESSES,
             new ImageIcon(cl.getResource(IMG_TAB_ADDRESSES)),
             addresses = new AddressesPanel(this, clientCaller, errorReporter));
         tabs.addTab(LOCAL_MSG_TAB_SEND,
             new ImageIcon(cl.getResource(IMG_TAB_SEND)),
-            sendPanel = new SendCashPanel(clientCaller, errorReporter, installationObserver, backupTracker));
+            sendPanel = new SendCashPanel(clientCaller, errorReporter, installationObserver, backupTracker,
+                operationTracker));
         tabs.addTab(LOCAL_MSG_TAB_ADDRESS_BOOK,
             new ImageIcon(cl.getResource(IMG_TAB_ADDRESS_BOOK)),
             addressBookPanel = new AddressBookPanel(sendPanel, tabs));
         tabs.addTab(LOCAL_MSG_TAB_MSG,
             new ImageIcon(cl.getResource(IMG_TAB_MSG)),
-            messagingPanel = new MessagingPanel(this, sendPanel, tabs, clientCaller, errorReporter));
+            messagingPanel = new MessagingPanel(this, sendPanel, tabs, clientCaller, errorReporter,
+                operationTracker));
+        tabs.addTab(LOCAL_MSG_TAB_EXPLORER,
+            new ImageIcon(cl.getResource(IMG_TAB_EXPLORER)),
+            explorerPanel);
         contentPane.add(tabs);
 
         this.walletOps = new WalletOperations(
@@ -203,6 +232,10 @@ public class CBTCWalletUI extends JFrame {
         messaging.add(menuItemMessagingOptions = new JMenuItem(LOCAL_MENU_OPTIONS, KeyEvent.VK_O));
         menuItemMessagingOptions.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_O, accelaratorKeyMask));
 
+        messaging.add(menuItemExportMessagingArchive = new JMenuItem(LOCAL_MENU_EXPORT_MSG_ARCHIVE, KeyEvent.VK_E));
+        messaging.add(menuItemImportMessagingArchive = new JMenuItem(LOCAL_MENU_IMPORT_MSG_ARCHIVE, KeyEvent.VK_M));
+        messaging.add(menuItemBroadcastMessage = new JMenuItem(LOCAL_MENU_BROADCAST_MSG, KeyEvent.VK_B));
+
         mb.add(messaging);
 
         JMenu lang = new JMenu(LOCAL_MSG_SET_LANG);
@@ -264,6 +297,18 @@ public class CBTCWalletUI extends JFrame {
             e -> CBTCWalletUI.this.messagingPanel.openOptionsDialog()
         );
 
+        menuItemExportMessagingArchive.addActionListener(
+            e -> CBTCWalletUI.this.messagingPanel.exportMessagingArchive()
+        );
+
+        menuItemImportMessagingArchive.addActionListener(
+            e -> CBTCWalletUI.this.messagingPanel.importMessagingArchive()
+        );
+
+        menuItemBroadcastMessage.addActionListener(
+            e -> CBTCWalletUI.this.messagingPanel.openBroadcastDialog()
+        );
+
         langEnglish.addActionListener(
             e -> {
                 Util.setLanguage("en");
@@ -0,0 +1,179 @@
+package org.cbitcoin.wallets.fullnode.ui;
+
+import org.cbitcoin.wallets.fullnode.daemon.DaemonResourceHistory;
+import org.cbitcoin.wallets.fullnode.daemon.DaemonResourceHistory.SERIES;
+import org.cbitcoin.wallets.fullnode.util.Util;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.text.DecimalFormat;
+
+
+/**
+ * Small sparkline charts of the daemon resource use - CPU, memory (resident and virtual), connections,
+ * block height and synchronization speed. Clicking the panel switches between the last hour, 6 hours and
+ * 24 hours.
+ */
+public class DaemonResourceChartPanel
+    extends JPanel {
+  private static final long[] TIME_SPANS = {60 * 60 * 1000L, 6 * 60 * 60 * 1000L, 24 * 60 * 60 * 1000L};
+  private static final String[] TIME_SPAN_NAMES = {"1h", "6h", "24h"};
+
+  private static final int CHART_WIDTH = 110;
+  private static final int CHART_HEIGHT = 22;
+  private static final int GAP = 8;
+
+  private static final Color LINE_COLOR = new Color(0, 102, 204);
+  private static final Color SECOND_LINE_COLOR = new Color(160, 160, 160);
+  private static final Color BACKGROUND_COLOR = new Color(245, 245, 245);
+
+  private static final String LOCAL_MSG_DAEMON_CHART_CPU = Util.local("LOCAL_MSG_DAEMON_CHART_CPU");
+  private static final String LOCAL_MSG_DAEMON_CHART_MEMORY = Util.local("LOCAL_MSG_DAEMON_CHART_MEMORY");
+  private static final String LOCAL_MSG_DAEMON_CHART_CONNECTIONS = Util.local("LOCAL_MSG_DAEMON_CHART_CONNECTIONS");
+  private static final String LOCAL_MSG_DAEMON_CHART_BLOCKS = Util.local("LOCAL_MSG_DAEMON_CHART_BLOCKS");
+  private static final String LOCAL_MSG_DAEMON_CHART_BLOCKS_PER_SECOND = Util.local("LOCAL_MSG_DAEMON_CHART_BLOCKS_PER_SECOND");
+  private static final String LOCAL_MSG_DAEMON_CHART_TOOLTIP = Util.local("LOCAL_MSG_DAEMON_CHART_TOOLTIP");
+
+  private final DaemonResourceHistory history;
+
+  private int timeSpanIndex = 0;
+
+
+  public DaemonResourceChartPanel(DaemonResourceHistory history) {
+    this.history = history;
+
+    this.setOpaque(false);
+    this.setPreferredSize(new Dimension(5 * (CHART_WIDTH + GAP), CHART_HEIGHT + 20));
+    this.updateToolTip();
+
+    this.addMouseListener(new MouseAdapter() {
+      @Override
+      public void mouseClicked(MouseEvent e) {
+        DaemonResourceChartPanel.this.timeSpanIndex = (DaemonResourceChartPanel.this.timeSpanIndex + 1) % TIME_SPANS.length;
+        DaemonResourceChartPanel.this.updateToolTip();
+        DaemonResourceChartPanel.this.repaint();
+      }
+    });
+  }
+
+
+  @Override
+  protected void paintComponent(Graphics g) {
+    super.paintComponent(g);
+
+    Graphics2D g2 = (Graphics2D) g.create();
+    try {
+      g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+      g2.setFont(this.getFont().deriveFont(Font.PLAIN, 10f));
+
+      long timeSpan = TIME_SPANS[this.timeSpanIndex];
+      long now = System.currentTimeMillis();
+      DecimalFormat df = new DecimalFormat("##0.#");
+
+      double[] cpu = this.history.getValues(SERIES.CPU, timeSpan, now);
+      double[] resident = this.history.getValues(SERIES.RESIDENT_SIZE, timeSpan, now);
+      double[] virtual = this.history.getValues(SERIES.VIRTUAL_SIZE, timeSpan, now);
+      double[] connections = this.history.getValues(SERIES.CONNECTIONS, timeSpan, now);
+      double[] blocks = this.history.getValues(SERIES.BLOCK_HEIGHT, timeSpan, now);
+      double[] blocksPerSecond = this.history.getValues(SERIES.BLOCKS_PER_SECOND, timeSpan, now);
+
+      int x = 0;
+      this.paintChart(g2, x, LOCAL_MSG_DAEMON_CHART_CPU + " " + formatLast(cpu, df) + "%", cpu, null, true);
+      x += CHART_WIDTH + GAP;
+      this.paintChart(g2, x, LOCAL_MSG_DAEMON_CHART_MEMORY + " " + formatLast(resident, df) + " MB",
+          resident, virtual, true);
+      x += CHART_WIDTH + GAP;
+      this.paintChart(g2, x, LOCAL_MSG_DAEMON_CHART_CONNECTIONS + " " + formatLast(connections, df),
+          connections, null, true);
+      x += CHART_WIDTH + GAP;
+      this.paintChart(g2, x, LOCAL_MSG_DAEMON_CHART_BLOCKS + " " + formatLast(blocks, new DecimalFormat("0")),
+          blocks, null, false);
+      x += CHART_WIDTH + GAP;
+      this.paintChart(g2, x, LOCAL_MSG_DAEMON_CHART_BLOCKS_PER_SECOND + " " + formatLast(blocksPerSecond, df),
+          blocksPerSecond, null, true);
+    } finally {
+      g2.dispose();
+    }
+  }
+
+
+  // Label on top, sparkline below - the second line is drawn behind the first one with the same scale
+  private void paintChart(Graphics2D g2, int x, String label, double[] values, double[] secondValues,
+                          boolean fromZero) {
+    FontMetrics fm = g2.getFontMetrics();
+    int chartY = fm.getHeight() + 2;
+
+    g2.setColor(this.getForeground());
+    g2.drawString(label, x, fm.getAscent());
+
+    g2.setColor(BACKGROUND_COLOR);
+    g2.fillRect(x, chartY, CHART_WIDTH, CHART_HEIGHT);
+
+    double min = fromZero ? 0 : Double.MAX_VALUE;
+    double max = -Double.MAX_VALUE;
+    for (double[] series : new double[][]{values, secondValues}) {
+      if (series != null) {
+        for (double v : series) {
+          if (!Double.isNaN(v)) {
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+          }
+        }
+      }
+    }
+
+    if (max < min) {
+      return; // No samples yet
+    }
+    if (max == min) {
+      max = min + 1;
+    }
+
+    if (secondValues != null) {
+      this.paintLine(g2, x, chartY, secondValues, min, max, SECOND_LINE_COLOR);
+    }
+    this.paintLine(g2, x, chartY, values, min, max, LINE_COLOR);
+  }
+
+
+  // Gaps without samples are not connected
+  private void paintLine(Graphics2D g2, int x, int y, double[] values, double min, double max, Color color) {
+    g2.setColor(color);
+
+    int lastX = -1;
+    int lastY = -1;
+    for (int i = 0; i < values.length; i++) {
+      if (Double.isNaN(values[i])) {
+        lastX = -1;
+        continue;
+      }
+
+      int px = x + ((values.length > 1) ? (i * (CHART_WIDTH - 1) / (values.length - 1)) : (CHART_WIDTH - 1));
+      int py = y + CHART_HEIGHT - 1 - (int) Math.round((values[i] - min) / (max - min) * (CHART_HEIGHT - 1));
+      if (lastX >= 0) {
+        g2.drawLine(lastX, lastY, px, py);
+      } else {
+        g2.drawLine(px, py, px, py);
+      }
+      lastX = px;
+      lastY = py;
+    }
+  }
+
+
+  private void updateToolTip() {
+    this.setToolTipText(String.format(LOCAL_MSG_DAEMON_CHART_TOOLTIP, TIME_SPAN_NAMES[this.timeSpanIndex]));
+  }
+
+
+  private static String formatLast(double[] values, DecimalFormat df) {
+    for (int i = values.length - 1; i >= 0; i--) {
+      if (!Double.isNaN(values[i])) {
+        return df.format(values[i]);
+      }
+    }
+    return "-";
+  }
+}
@@ -1,12 +1,21 @@
 package org.cbitcoin.wallets.fullnode.ui;
 
 import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller;
+import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller.BlockchainSyncInfo;
 import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller.NetworkAndBlockchainInfo;
 import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller.WalletBalance;
 import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller.WalletCallException;
 import org.cbitcoin.wallets.fullnode.daemon.CBTCInstallationObserver;
 import org.cbitcoin.wallets.fullnode.daemon.CBTCInstallationObserver.DaemonInfo;
+import org.cbitcoin.wallets.fullnode.daemon.CBTCInstallationObserver.DAEMON_STATUS;
+import org.cbitcoin.wallets.fullnode.daemon.DaemonNotificationListener;
+import org.cbitcoin.wallets.fullnode.daemon.DaemonResourceHistory;
 import org.cbitcoin.wallets.fullnode.daemon.DataGatheringThread;
+import org.cbitcoin.wallets.fullnode.daemon.MempoolWatcher;
+import org.cbitcoin.wallets.fullnode.daemon.MempoolWatcher.PendingPayment;
+import org.cbitcoin.wallets.fullnode.daemon.SyncProgressMonitor;
+import org.cbitcoin.wallets.fullnode.daemon.SyncProgressMonitor.SyncStatus;
+import org.cbitcoin.wallets.fullnode.explorer.ExplorerPanel;
 import org.cbitcoin.wallets.fullnode.util.*;
 import org.cbitcoin.wallets.fullnode.util.OSUtil.OS_TYPE;
 
@@ -19,6 +28,7 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 
 /**
@@ -37,12 +47,20 @@ public class DashboardPanel
 
   private DataGatheringThread<NetworkAndBlockchainInfo> netInfoGatheringThread = null;
 
+  private SyncProgressMonitor syncProgressMonitor;
+  private ExplorerPanel explorerPanel;
+  private DataGatheringThread<SyncStatus> syncStatusGatheringThread = null;
+
   private Boolean walletIsEncrypted = null;
   private Integer blockchainPercentage = null;
 
   private JLabel daemonStatusLabel = null;
   private DataGatheringThread<DaemonInfo> daemonInfoGatheringThread = null;
 
+  // Resource use of the daemon during the last 24 hours - shown as charts
+  private DaemonResourceHistory daemonResourceHistory = new DaemonResourceHistory();
+  private DaemonResourceChartPanel daemonResourceChartPanel = null;
+
   private JLabel walletBalanceLabel = null;
   private DataGatheringThread<WalletBalance> walletBalanceGatheringThread = null;
 
@@ -51,6 +69,17 @@ public class DashboardPanel
   private String[][] lastTransactionsData = null;
   private DataGatheringThread<String[][]> transactionGatheringThread = null;
 
+  // Payments seen in the memory pool - shown before they reach listtransactions
+  private MempoolWatcher mempoolWatcher = null;
+  private DataGatheringThread<Integer> mempoolGatheringThread = null;
+  private List<PendingPayment> pendingPayments = new ArrayList<>();
+  private JLabel pendingPaymentLabel = null;
+
+  // Notifications of the daemon - null if not used. The first one sets daemonNotificationsWork (used in the
+  // notification thread only).
+  private DaemonNotificationListener daemonNotificationListener = null;
+  private boolean daemonNotificationsWork = false;
+
   private static final String small_icon_resource = "images/cbtc-44.png";
 
   private static final String LOCAL_MSG_CBTC_WALLET_TITLE = Util.local("LOCAL_MSG_CBTC_WALLET_TITLE");
@@ -77,8 +106,13 @@ public class DashboardPanel
   private static final String LOCAL_MSG_UNCONFIRMED_TOOLTIP_B = Util.local("LOCAL_MSG_UNCONFIRMED_TOOLTIP_B");
   private static final String LOCAL_MSG_UNCONFIRMED_TOOLTIP_Z = Util.local("LOCAL_MSG_UNCONFIRMED_TOOLTIP_Z");
 
+  private static final String LOCAL_MSG_PENDING_PAYMENT = Util.local("LOCAL_MSG_PENDING_PAYMENT");
+  private static final String LOCAL_MSG_PENDING_PAYMENTS_MORE = Util.local("LOCAL_MSG_PENDING_PAYMENTS_MORE");
+
   private static final String LOCAL_MSG_SYNC = Util.local("LOCAL_MSG_SYNC");
   private static final String LOCAL_MSG_BLOCK = Util.local("LOCAL_MSG_BLOCK");
+  private static final String LOCAL_MSG_SYNC_BLOCKS_PER_SECOND = Util.local("LOCAL_MSG_SYNC_BLOCKS_PER_SECOND");
+  private static final String LOCAL_MSG_SYNC_REMAINING = Util.local("LOCAL_MSG_SYNC_REMAINING");
 
   private static final String daemon_txn_receive = "receive";
   private static final String daemon_txn_send = "send";
@@ -90,13 +124,17 @@ public class DashboardPanel
                         CBTCInstallationObserver installationObserver,
                         CBTCClientCaller clientCaller,
                         StatusUpdateErrorReporter errorReporter,
-                        BackupTracker backupTracker)
+                        BackupTracker backupTracker,
+                        SyncProgressMonitor syncProgressMonitor,
+                        ExplorerPanel explorerPanel)
       throws IOException, InterruptedException, WalletCallException {
     this.parentFrame = parentFrame;
     this.installationObserver = installationObserver;
     this.clientCaller = clientCaller;
     this.errorReporter = errorReporter;
     this.backupTracker = backupTracker;
+    this.syncProgressMonitor = syncProgressMonitor;
+    this.explorerPanel = explorerPanel;
 
     this.timers = new ArrayList<>();
     this.threads = new ArrayList<>();
@@ -125,6 +163,9 @@ public class DashboardPanel
 
     balanceStatusPanel.add(walletBalanceLabel = new JLabel(), BorderLayout.EAST);
 
+    balanceStatusPanel.add(pendingPaymentLabel = new JLabel(), BorderLayout.SOUTH);
+    pendingPaymentLabel.setVisible(false);
+
     dashboard.add(balanceStatusPanel, BorderLayout.NORTH);
 
     // Table of transactions
@@ -137,6 +178,8 @@ public class DashboardPanel
     JPanel installationStatusPanel = new JPanel();
     installationStatusPanel.setLayout(new BorderLayout());
     installationStatusPanel.add(daemonStatusLabel = new JLabel(), BorderLayout.WEST);
+    installationStatusPanel.add(daemonResourceChartPanel = new DaemonResourceChartPanel(daemonResourceHistory),
+        BorderLayout.EAST);
 
     dashboard.add(installationStatusPanel, BorderLayout.SOUTH);
 
@@ -148,6 +191,8 @@ public class DashboardPanel
           long end = System.currentTimeMillis();
           Log.info("Gathering of dashboard daemon status data done in " + (end - start) + "ms.");
 
+          DashboardPanel.this.recordDaemonResources(daemonInfo, end);
+
           return daemonInfo;
         },
         this.errorReporter, 2000, true);
@@ -248,6 +293,131 @@ public class DashboardPanel
     netAndBlockchainTimer.setInitialDelay(1000);
     netAndBlockchainTimer.start();
     this.timers.add(netAndBlockchainTimer);
+
+    // Thread to follow the blockchain synchronization - shown with the network details
+    this.syncStatusGatheringThread = new DataGatheringThread<>(
+        () -> {
+          long start = System.currentTimeMillis();
+          BlockchainSyncInfo info = DashboardPanel.this.clientCaller.getBlockchainSyncInfo();
+          long end = System.currentTimeMillis();
+          Log.info("Gathering of blockchain synchronization data done in " + (end - start) + "ms.");
+
+          return DashboardPanel.this.syncProgressMonitor.update(info, end);
+        },
+        this.errorReporter, 5000, true);
+    this.threads.add(this.syncStatusGatheringThread);
+
+    // Thread to watch the memory pool - incoming payments are shown as soon as the daemon has them
+    this.mempoolWatcher = new MempoolWatcher(this.clientCaller);
+    this.mempoolWatcher.addListener(new MempoolWatcher.PendingPaymentListener() {
+      @Override
+      public void paymentReceived(PendingPayment payment) {
+        SwingUtilities.invokeLater(() -> {
+          DashboardPanel.this.pendingPayments.add(payment);
+          DashboardPanel.this.updatePendingPaymentLabel();
+        });
+      }
+
+      @Override
+      public void paymentLeftMempool(PendingPayment payment) {
+        SwingUtilities.invokeLater(() -> {
+          DashboardPanel.this.pendingPayments.remove(payment);
+          DashboardPanel.this.updatePendingPaymentLabel();
+        });
+      }
+    });
+    this.mempoolGatheringThread = new DataGatheringThread<>(
+        () -> {
+          long start = System.currentTimeMillis();
+          int newTransactions = DashboardPanel.this.mempoolWatcher.poll(start);
+          long end = System.currentTimeMillis();
+          Log.info("Checking of " + newTransactions + " new memory pool transactions done in " + (end - start) + "ms.");
+
+          return newTransactions;
+        },
+        this.errorReporter, 2000, true);
+    this.threads.add(this.mempoolGatheringThread);
+  }
+
+
+  /**
+   * Refreshes the data affected by the notifications of the daemon when they arrive. Once the first
+   * notification has arrived, polling only serves as a safety net - except for the synchronization progress,
+   * since the daemon does not notify about blocks during the initial download, and the connections.
+   * Until then the data is polled as usual, e.g. if the notify commands do not work on this system.
+   *
+   * @param notificationListener notifications of the daemon
+   */
+  public void useDaemonNotifications(DaemonNotificationListener notificationListener) {
+    this.daemonNotificationListener = notificationListener;
+    notificationListener.addHandler(new DaemonNotificationListener.NotificationHandler() {
+      @Override
+      public void blockNotified(String blockHash) {
+        Log.info("Block notification: " + blockHash);
+        DashboardPanel.this.daemonNotificationReceived();
+        // Confirmations change with each block
+        DashboardPanel.this.netInfoGatheringThread.gatherNow();
+        DashboardPanel.this.transactionGatheringThread.gatherNow();
+        DashboardPanel.this.walletBalanceGatheringThread.gatherNow();
+        DashboardPanel.this.mempoolGatheringThread.gatherNow();
+      }
+
+      @Override
+      public void walletTransactionNotified(String txID) {
+        Log.info("Wallet transaction notification: " + txID);
+        DashboardPanel.this.daemonNotificationReceived();
+        DashboardPanel.this.transactionGatheringThread.gatherNow();
+        DashboardPanel.this.walletBalanceGatheringThread.gatherNow();
+        DashboardPanel.this.mempoolGatheringThread.gatherNow();
+      }
+    });
+  }
+
+
+  @Override
+  public void stopThreadsAndTimers() {
+    super.stopThreadsAndTimers();
+
+    // Removes the pipe - notifications of a daemon that keeps running do nothing
+    if (this.daemonNotificationListener != null) {
+      this.daemonNotificationListener.close();
+    }
+  }
+
+
+  // The notifications work - polling is slowed down. Called in the notification thread.
+  private void daemonNotificationReceived() {
+    if (this.daemonNotificationsWork) {
+      return;
+    }
+
+    Log.info("Daemon notifications work - slowing down the polling of the wallet data.");
+    this.daemonNotificationsWork = true;
+    this.transactionGatheringThread.setInterval(120000);
+    this.walletBalanceGatheringThread.setInterval(60000);
+    this.mempoolGatheringThread.setInterval(30000);
+    this.netInfoGatheringThread.setInterval(30000);
+  }
+
+
+  // Shows the latest pending payment - the balance includes it only after the next gathering
+  private void updatePendingPaymentLabel() {
+    if (this.pendingPayments.isEmpty()) {
+      this.pendingPaymentLabel.setVisible(false);
+      return;
+    }
+
+    DecimalFormat df = new DecimalFormat("########0.00######");
+    PendingPayment latest = this.pendingPayments.get(this.pendingPayments.size() - 1);
+    String text = String.format(LOCAL_MSG_PENDING_PAYMENT, df.format(latest.amount), latest.address);
+    if (this.pendingPayments.size() > 1) {
+      text += " " + String.format(LOCAL_MSG_PENDING_PAYMENTS_MORE, this.pendingPayments.size() - 1);
+    }
+
+    this.pendingPaymentLabel.setText("<html><span style=\"font-weight:bold;color:#cc3300;\">" +
+        Util.escapeHTMLValue(text) + "</span></html>");
+    this.pendingPaymentLabel.setToolTipText(latest.txID);
+    this.pendingPaymentLabel.setVisible(true);
   }
 
   private void updateStatusLabels()
@@ -293,6 +463,14 @@ public class DashboardPanel
       this.blockchainPercentage = 100;
     }
 
+    // The estimate of the daemon is more accurate than the one from the date of the last block
+    SyncStatus syncStatus = this.syncStatusGatheringThread.getLastData();
+    if (syncStatus != null) {
+      double dPercentage = syncStatus.isSynchronized ? 100d : Math.min(99.99d, syncStatus.verificationProgress * 100d);
+      percentage = new DecimalFormat("##0.##").format(dPercentage);
+      this.blockchainPercentage = (int) dPercentage;
+    }
+
     // Just in case early on the call returns some junk date
     if (info.lastBlockDate.before(startDate)) {
       // TODO: write log that we fix minimum date! - this condition should not occur
@@ -345,7 +523,18 @@ public class DashboardPanel
     stringBuilder.append(syncPercentageColor);
     stringBuilder.append("\">");
     stringBuilder.append(percentage);
-    stringBuilder.append("%</span><br/>");
+    stringBuilder.append("%</span>");
+    if ((syncStatus != null) && (!syncStatus.isSynchronized)) {
+      if (syncStatus.blocksPerSecond > 0) {
+        stringBuilder.append(", " + new DecimalFormat("##0.#").format(syncStatus.blocksPerSecond) + " " +
+            LOCAL_MSG_SYNC_BLOCKS_PER_SECOND);
+      }
+      if (syncStatus.remainingSeconds > 0) {
+        stringBuilder.append(", " + Util.formatDuration(syncStatus.remainingSeconds) + " " +
+            LOCAL_MSG_SYNC_REMAINING);
+      }
+    }
+    stringBuilder.append("<br/>");
     stringBuilder.append("<span style=\"font-weight:bold\">" + LOCAL_MSG_BLOCK + "&nbsp;-&nbsp;");
     stringBuilder.append(info.lastBlockHeight.trim());
     stringBuilder.append("</span>");
@@ -355,6 +544,34 @@ public class DashboardPanel
     String text =
         stringBuilder.toString();
     this.daemonStatusLabel.setText(text);
+    this.daemonResourceChartPanel.repaint();
+  }
+
+
+  // Connections and block height are taken from the last network info - if already gathered
+  private void recordDaemonResources(DaemonInfo daemonInfo, long time) {
+    if ((daemonInfo == null) || (daemonInfo.status != DAEMON_STATUS.RUNNING)) {
+      return;
+    }
+
+    double connections = Double.NaN;
+    double blockHeight = Double.NaN;
+    NetworkAndBlockchainInfo netInfo =
+        (this.netInfoGatheringThread != null) ? this.netInfoGatheringThread.getLastData() : null;
+    if (netInfo != null) {
+      connections = netInfo.numConnections;
+      try {
+        blockHeight = Double.parseDouble(netInfo.lastBlockHeight.trim());
+      } catch (NumberFormatException | NullPointerException e) {
+        // Not yet known
+      }
+    }
+
+    SyncStatus syncStatus = this.syncProgressMonitor.getLastStatus();
+    double blocksPerSecond = (syncStatus != null) ? syncStatus.blocksPerSecond : Double.NaN;
+
+    this.daemonResourceHistory.addSample(time, daemonInfo.cpuPercentage, daemonInfo.residentSizeMB,
+        daemonInfo.virtualSizeMB, connections, blockHeight, blocksPerSecond);
   }
 
 
@@ -443,7 +660,7 @@ public class DashboardPanel
       throws WalletCallException, IOException, InterruptedException {
     String columnNames[] = {LOCAL_MSG_TXN_TYPE, LOCAL_MSG_TXN_DIRECTION, LOCAL_MSG_TXN_IS_CONFIRMED, LOCAL_MSG_TXN_AMOUNT, LOCAL_MSG_TXN_DATE, LOCAL_MSG_TXN_DESTINATION};
     JTable table = new TransactionTable(
-        rowData, columnNames, this.parentFrame, this.clientCaller, this.installationObserver);
+        rowData, columnNames, this.parentFrame, this.clientCaller, this.installationObserver, this.explorerPanel);
     table.setAutoResizeMode(JTable.AUTO_RESIZE_SUBSEQUENT_COLUMNS);
     table.getColumnModel().getColumn(0).setPreferredWidth(190);
     table.getColumnModel().getColumn(1).setPreferredWidth(145);
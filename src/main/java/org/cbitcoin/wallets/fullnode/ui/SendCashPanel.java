@@ -4,6 +4,8 @@ import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller;
 import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller.WalletCallException;
 import org.cbitcoin.wallets.fullnode.daemon.CBTCInstallationObserver;
 import org.cbitcoin.wallets.fullnode.daemon.DataGatheringThread;
+import org.cbitcoin.wallets.fullnode.daemon.OperationTracker;
+import org.cbitcoin.wallets.fullnode.daemon.OperationTracker.OperationResult;
 import org.cbitcoin.wallets.fullnode.util.BackupTracker;
 import org.cbitcoin.wallets.fullnode.util.Log;
 import org.cbitcoin.wallets.fullnode.util.StatusUpdateErrorReporter;
@@ -38,6 +40,7 @@ public class SendCashPanel
   private StatusUpdateErrorReporter errorReporter;
   private CBTCInstallationObserver installationObserver;
   private BackupTracker backupTracker;
+  private OperationTracker operationTracker;
 
   private JComboBox balanceAddressCombo = null;
   private JPanel comboBoxParentPanel = null;
@@ -108,7 +111,8 @@ public class SendCashPanel
   public SendCashPanel(CBTCClientCaller clientCaller,
                        StatusUpdateErrorReporter errorReporter,
                        CBTCInstallationObserver installationObserver,
-                       BackupTracker backupTracker)
+                       BackupTracker backupTracker,
+                       OperationTracker operationTracker)
       throws IOException, InterruptedException, WalletCallException {
     this.timers = new ArrayList<>();
     this.threads = new ArrayList<>();
@@ -117,6 +121,7 @@ public class SendCashPanel
     this.errorReporter = errorReporter;
     this.installationObserver = installationObserver;
     this.backupTracker = backupTracker;
+    this.operationTracker = operationTracker;
 
     // Build content
     this.setBorder(BorderFactory.createEmptyBorder(3, 3, 3, 3));
@@ -454,73 +459,57 @@ public class SendCashPanel
     destinationMemoField.setEnabled(false);
     transactionFeeField.setEnabled(false);
 
-    // Start a data gathering thread specific to the operation being executed - this is done is a separate
-    // thread since the server responds more slowly during JoinSPlits and this blocks he GUI somewhat.
-    final DataGatheringThread<Boolean> opFollowingThread = new DataGatheringThread<>(
-        () -> {
-          long start = System.currentTimeMillis();
-          Boolean result = clientCaller.isSendingOperationComplete(operationStatusID);
-          long end = System.currentTimeMillis();
-          Log.info("Checking for operation " + operationStatusID + " status done in " + (end - start) + "ms.");
-
-          return result;
-        },
-        this.errorReporter, 2000, true);
-
     // Start a timer to update the progress of the operation
     operationStatusCounter = 0;
     operationStatusTimer = new Timer(2000, e -> {
+      operationStatusLabel.setText(
+          "<html><span style=\"color:orange;font-weight:bold\">" + LOCAL_MSG_IN_PROGRESS + "</span></html>");
+      operationStatusCounter += 2;
+      int progress = 0;
+      if (operationStatusCounter <= 100) {
+        progress = operationStatusCounter;
+      } else {
+        progress = 100 + (((operationStatusCounter - 100) * 6) / 10);
+      }
+      operationStatusProhgressBar.setValue(progress);
+
+      SendCashPanel.this.repaint();
+    });
+    operationStatusTimer.setInitialDelay(0);
+    operationStatusTimer.start();
+
+    // The shared tracker follows the operation in its own thread since the server responds more slowly
+    // during JoinSPlits and this blocks he GUI somewhat.
+    this.operationTracker.track(operationStatusID, result -> SwingUtilities.invokeLater(() -> {
       try {
-        // TODO: Handle errors in case of restarted server while wallet is sending ...
-        Boolean opComplete = opFollowingThread.getLastData();
-
-        if ((opComplete != null) && opComplete.booleanValue()) {
-          // End the special thread used to follow the operation
-          opFollowingThread.setSuspended(true);
-
-          SendCashPanel.this.reportCompleteOperationToTheUser(
-              amount, sourceAddress, destinationAddress);
-
-          // Lock the wallet again
-          if (bEncryptedWallet) {
-            SendCashPanel.this.clientCaller.lockWallet();
-          }
-
-          // Restore controls etc.
-          operationStatusCounter = 0;
-          operationStatusID = null;
-          operationStatusTimer.stop();
-          operationStatusTimer = null;
-          operationStatusProhgressBar.setValue(0);
-
-          sendButton.setEnabled(true);
-          balanceAddressCombo.setEnabled(true);
-          destinationAddressField.setEnabled(true);
-          destinationAmountField.setEnabled(true);
-          transactionFeeField.setEnabled(true);
-          destinationMemoField.setEnabled(true);
-        } else {
-          // Update the progress
-          operationStatusLabel.setText(
-              "<html><span style=\"color:orange;font-weight:bold\">" + LOCAL_MSG_IN_PROGRESS + "</span></html>");
-          operationStatusCounter += 2;
-          int progress = 0;
-          if (operationStatusCounter <= 100) {
-            progress = operationStatusCounter;
-          } else {
-            progress = 100 + (((operationStatusCounter - 100) * 6) / 10);
-          }
-          operationStatusProhgressBar.setValue(progress);
+        // Restore controls etc.
+        operationStatusCounter = 0;
+        operationStatusID = null;
+        operationStatusTimer.stop();
+        operationStatusTimer = null;
+        operationStatusProhgressBar.setValue(0);
+
+        SendCashPanel.this.reportCompleteOperationToTheUser(
+            result, amount, sourceAddress, destinationAddress);
+
+        // Lock the wallet again
+        if (bEncryptedWallet) {
+          SendCashPanel.this.clientCaller.lockWallet();
         }
 
+        sendButton.setEnabled(true);
+        balanceAddressCombo.setEnabled(true);
+        destinationAddressField.setEnabled(true);
+        destinationAmountField.setEnabled(true);
+        transactionFeeField.setEnabled(true);
+        destinationMemoField.setEnabled(true);
+
         SendCashPanel.this.repaint();
       } catch (Exception ex) {
         Log.error("Unexpected error: ", ex);
         SendCashPanel.this.errorReporter.reportError(ex);
       }
-    });
-    operationStatusTimer.setInitialDelay(0);
-    operationStatusTimer.start();
+    }));
   }
 
 
@@ -620,12 +609,13 @@ public class SendCashPanel
   }
 
 
-  private void reportCompleteOperationToTheUser(String amount, String sourceAddress, String destinationAddress)
+  private void reportCompleteOperationToTheUser(OperationResult result,
+                                                String amount, String sourceAddress, String destinationAddress)
       throws InterruptedException, WalletCallException, IOException, URISyntaxException {
-    if (clientCaller.isCompletedOperationSuccessful(operationStatusID)) {
+    if (result.successful) {
       operationStatusLabel.setText(
           "<html><span style=\"color:green;font-weight:bold\">" + LOCAL_MSG_SUCCESSFUL + "</span></html>");
-      String TXID = clientCaller.getSuccessfulOperationTXID(operationStatusID);
+      String TXID = result.txID;
 
       Object[] options = {LOCAL_MSG_OK, LOCAL_MSG_COPY_TXN_ID, LOCAL_MSG_VIEW_ON_EXPLORER};
 
@@ -659,7 +649,7 @@ public class SendCashPanel
       // Call the backup tracker - to remind the user
       this.backupTracker.handleNewTransaction();
     } else {
-      String errorMessage = clientCaller.getOperationFinalErrorMessage(operationStatusID);
+      String errorMessage = result.errorMessage;
       operationStatusLabel.setText(
           "<html><span style=\"color:red;font-weight:bold\">ERROR: " + errorMessage + "</span></html>");
 
@@ -8,6 +8,7 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
+import java.text.DecimalFormat;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -27,7 +28,10 @@ import com.eclipsesource.json.JsonObject;
 import com.eclipsesource.json.JsonValue;
 import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller;
 
+import org.cbitcoin.wallets.fullnode.daemon.DaemonNotificationListener;
 import org.cbitcoin.wallets.fullnode.daemon.ProvingKeyFetcher;
+import org.cbitcoin.wallets.fullnode.daemon.SyncProgressMonitor;
+import org.cbitcoin.wallets.fullnode.daemon.SyncProgressMonitor.SyncStatus;
 import org.cbitcoin.wallets.fullnode.util.Log;
 import org.cbitcoin.wallets.fullnode.util.OSUtil;
 import org.cbitcoin.wallets.fullnode.util.OSUtil.*;
@@ -50,8 +54,20 @@ public class StartupProgressDialog extends JFrame {
 
     private final CBTCClientCaller clientCaller;
 
+    // The daemon started by the wallet - null if it was already running
+    private volatile Process startedDaemonProcess = null;
+    // Notifications of the started daemon - null if not available
+    private volatile DaemonNotificationListener daemonNotificationListener = null;
+
+    // Continued by the dashboard - so the rates are known from the start
+    private final SyncProgressMonitor syncProgressMonitor = new SyncProgressMonitor();
+    private volatile boolean disposed = false;
+
     private static final String LOCAL_MSG_CBTC_WALLET_TITLE = Util.local("LOCAL_MSG_CBTC_WALLET_TITLE");
     private static final String LOCAL_MSG_STARTING = Util.local("LOCAL_MSG_STARTING");
+    private static final String LOCAL_MSG_SYNC_PROGRESS = Util.local("LOCAL_MSG_SYNC_PROGRESS");
+    private static final String LOCAL_MSG_SYNC_BLOCKS_PER_SECOND = Util.local("LOCAL_MSG_SYNC_BLOCKS_PER_SECOND");
+    private static final String LOCAL_MSG_SYNC_REMAINING = Util.local("LOCAL_MSG_SYNC_REMAINING");
 
     private static final String splash_resource = "images/cbtc-400.png";
 
@@ -118,8 +134,19 @@ public class StartupProgressDialog extends JFrame {
             Log.info("Splash: cbtcd will be started...");
         }
 
+        // Not on Windows - the wallet polls as before
+        if (shouldStartZCashd && DaemonNotificationListener.isSupported()) {
+            try {
+                this.daemonNotificationListener = new DaemonNotificationListener();
+            } catch (IOException ioe) {
+                // The wallet then relies on polling only
+                Log.warning("Could not listen for daemon notifications: {0}", ioe.getMessage());
+            }
+        }
+
         final Process daemonProcess =
-                shouldStartZCashd ? clientCaller.startDaemon() : null;
+                shouldStartZCashd ? clientCaller.startDaemon(this.daemonNotificationListener) : null;
+        this.startedDaemonProcess = daemonProcess;
 
         Thread.sleep(POLL_PERIOD); // just a little extra
 
@@ -148,6 +175,8 @@ public class StartupProgressDialog extends JFrame {
 
         }
 
+        this.startSyncProgressUpdates();
+
         // doDispose(); - will be called later by the main GUI
 
         //if (daemonProcess != null) // Shutdown only if we started it
@@ -188,7 +217,53 @@ public class StartupProgressDialog extends JFrame {
 
     }
 
+    // Shows the synchronization progress while the main window is being prepared
+    private void startSyncProgressUpdates() {
+        Thread updater = new Thread(() -> {
+            try {
+                while (!this.disposed) {
+                    BlockchainSyncInfo info = this.clientCaller.getBlockchainSyncInfo();
+                    SyncStatus status = this.syncProgressMonitor.update(info, System.currentTimeMillis());
+                    if (status.isSynchronized) {
+                        break;
+                    }
+
+                    StringBuilder text = new StringBuilder(String.format(LOCAL_MSG_SYNC_PROGRESS,
+                            new DecimalFormat("##0.##").format(status.verificationProgress * 100),
+                            status.blocks, status.headers));
+                    if (status.blocksPerSecond > 0) {
+                        text.append(" - ").append(new DecimalFormat("##0.#").format(status.blocksPerSecond))
+                                .append(" ").append(LOCAL_MSG_SYNC_BLOCKS_PER_SECOND);
+                    }
+                    if (status.remainingSeconds > 0) {
+                        text.append(", ").append(Util.formatDuration(status.remainingSeconds))
+                                .append(" ").append(LOCAL_MSG_SYNC_REMAINING);
+                    }
+
+                    final int percentage = (int) (status.verificationProgress * 100);
+                    SwingUtilities.invokeLater(() -> {
+                        progressBar.setIndeterminate(false);
+                        progressBar.setValue(percentage);
+                    });
+                    setProgressText(text.toString());
+
+                    Thread.sleep(POLL_PERIOD);
+                }
+            } catch (Exception e) {
+                // Only informative - the dashboard reports the synchronization as well
+                Log.warning("Could not get the synchronization progress: {0}", e.toString());
+            }
+        });
+        updater.setDaemon(true);
+        updater.start();
+    }
+
+    public SyncProgressMonitor getSyncProgressMonitor() {
+        return this.syncProgressMonitor;
+    }
+
     public void doDispose() {
+        this.disposed = true;
         SwingUtilities.invokeLater(() -> {
             setVisible(false);
             dispose();
@@ -235,4 +310,12 @@ public class StartupProgressDialog extends JFrame {
         }
         return false;
     }
+
+    public Process getStartedDaemonProcess() {
+        return this.startedDaemonProcess;
+    }
+
+    public DaemonNotificationListener getDaemonNotificationListener() {
+        return this.daemonNotificationListener;
+    }
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package org.cbitcoin.wallets.fullnode.ui;
 
 import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller;
 import org.cbitcoin.wallets.fullnode.daemon.CBTCInstallationObserver;
+import org.cbitcoin.wallets.fullnode.explorer.ExplorerPanel;
 import org.cbitcoin.wallets.fullnode.util.Log;
 import org.cbitcoin.wallets.fullnode.util.Util;
 
@@ -12,7 +13,6 @@ import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -31,6 +31,7 @@ public class TransactionTable extends DataTable {
 
     private static final String LOCAL_MSG_SHOW_DETAILS = Util.local("LOCAL_MSG_SHOW_DETAILS");
     private static final String LOCAL_MSG_VIEW_ON_EXPLORER = Util.local("LOCAL_MSG_VIEW_ON_EXPLORER");
+    private static final String LOCAL_MSG_SHOW_IN_EXPLORER = Util.local("LOCAL_MSG_SHOW_IN_EXPLORER");
     private static final String LOCAL_MSG_SHOW_MEMO = Util.local("LOCAL_MSG_SHOW_MEMO");
     private static final String LOCAL_MSG_NO_MEMO = Util.local("LOCAL_MSG_NO_MEMO");
     private static final String LOCAL_MSG_NO_MEMO_TITLE = Util.local("LOCAL_MSG_NO_MEMO_TITLE");
@@ -45,7 +46,8 @@ public class TransactionTable extends DataTable {
     private static final String LOCAL_MSG_TXN_CLOSE = Util.local("LOCAL_MSG_TXN_CLOSE");
 
     public TransactionTable(final Object[][] rowData, final Object[] columnNames, final JFrame parent,
-                            final CBTCClientCaller caller, final CBTCInstallationObserver installationObserver) {
+                            final CBTCClientCaller caller, final CBTCInstallationObserver installationObserver,
+                            final ExplorerPanel explorerPanel) {
         super(rowData, columnNames);
 
         JMenuItem showDetails = new JMenuItem(LOCAL_MSG_SHOW_DETAILS);
@@ -58,10 +60,19 @@ public class TransactionTable extends DataTable {
                     txID = txID.replaceAll("\"", ""); // In case it has quotes
 
                     Log.info("Transaction ID for detail dialog is: " + txID);
-                    Map<String, String> details = caller.getRawTransactionDetails(txID);
-                    String rawTrans = caller.getRawTransaction(txID);
 
-                    DetailsDialog dd = new DetailsDialog(parent, details);
+                    // The dialog shows a progress bar until the details are loaded
+                    final DetailsDialog dd = new DetailsDialog(parent);
+                    final String finalTxID = txID;
+                    new Thread(() -> {
+                        try {
+                            Map<String, String> details = caller.getRawTransactionDetails(finalTxID);
+                            SwingUtilities.invokeLater(() -> dd.showDetails(details));
+                        } catch (Exception ex) {
+                            Log.error("Unexpected error: ", ex);
+                            SwingUtilities.invokeLater(() -> dd.dispose());
+                        }
+                    }, "TransactionDetails").start();
                     dd.setVisible(true);
                 } catch (Exception ex) {
                     Log.error("Unexpected error: ", ex);
@@ -94,6 +105,21 @@ public class TransactionTable extends DataTable {
             }
         });
 
+        if (explorerPanel != null) {
+            JMenuItem showInWalletExplorer = new JMenuItem(LOCAL_MSG_SHOW_IN_EXPLORER);
+            popupMenu.add(showInWalletExplorer);
+
+            showInWalletExplorer.addActionListener(e -> {
+                if ((lastRow >= 0) && (lastColumn >= 0)) {
+                    String txID = TransactionTable.this.getModel().getValueAt(lastRow, 6).toString();
+                    txID = txID.replaceAll("\"", ""); // In case it has quotes
+
+                    Log.info("Transaction ID for wallet explorer is: " + txID);
+                    explorerPanel.showTransaction(txID);
+                }
+            });
+        }
+
         JMenuItem showMemoField = new JMenuItem(LOCAL_MSG_SHOW_MEMO);
         popupMenu.add(showMemoField);
 
@@ -147,7 +173,7 @@ public class TransactionTable extends DataTable {
     } // End constructor
 
     private static class DetailsDialog extends JDialog {
-        public DetailsDialog(JFrame parent, Map<String, String> details) throws UnsupportedEncodingException {
+        public DetailsDialog(JFrame parent) {
             this.setTitle(LOCAL_MSG_TXN_DETAILS);
             this.setSize(600, 310);
             this.setLocation(100, 100);
@@ -165,6 +191,28 @@ public class TransactionTable extends DataTable {
             tempPanel.add(infoLabel, BorderLayout.CENTER);
             this.getContentPane().add(tempPanel, BorderLayout.NORTH);
 
+            // Replaced by the details when they are loaded
+            JPanel progressPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 3, 100));
+            JProgressBar progressBar = new JProgressBar();
+            progressBar.setIndeterminate(true);
+            progressPanel.add(progressBar);
+            this.getContentPane().add(progressPanel, BorderLayout.CENTER);
+
+            // Lower close button
+            JPanel closePanel = new JPanel();
+            closePanel.setLayout(new FlowLayout(FlowLayout.CENTER, 3, 3));
+            JButton closeButton = new JButton(LOCAL_MSG_TXN_CLOSE);
+            closePanel.add(closeButton);
+            this.getContentPane().add(closePanel, BorderLayout.SOUTH);
+
+            closeButton.addActionListener(e -> {
+                DetailsDialog.this.setVisible(false);
+                DetailsDialog.this.dispose();
+            });
+        }
+
+
+        public void showDetails(Map<String, String> details) {
             String[] columns = new String[]{LOCAL_MSG_TXN_NAME, LOCAL_MSG_TXN_VALUE};
             String[][] data = new String[details.size()][2];
             int i = 0;
@@ -196,19 +244,11 @@ public class TransactionTable extends DataTable {
             JScrollPane tablePane = new JScrollPane(table, JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED,
                     JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
 
+            BorderLayout layout = (BorderLayout) this.getContentPane().getLayout();
+            this.getContentPane().remove(layout.getLayoutComponent(BorderLayout.CENTER));
             this.getContentPane().add(tablePane, BorderLayout.CENTER);
-
-            // Lower close button
-            JPanel closePanel = new JPanel();
-            closePanel.setLayout(new FlowLayout(FlowLayout.CENTER, 3, 3));
-            JButton closeButton = new JButton(LOCAL_MSG_TXN_CLOSE);
-            closePanel.add(closeButton);
-            this.getContentPane().add(closePanel, BorderLayout.SOUTH);
-
-            closeButton.addActionListener(e -> {
-                DetailsDialog.this.setVisible(false);
-                DetailsDialog.this.dispose();
-            });
+            this.validate();
+            this.repaint();
         }
     }
 }
@@ -226,6 +226,16 @@ public class Util {
   }
 
 
+  public static byte[] decodeHexArray(String hex) {
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, (i * 2) + 2), 16);
+    }
+
+    return bytes;
+  }
+
+
   /**
    * Maintains a set of old copies for a file.
    * For a file dir/file, the old versions are dir/file.1, dir/file.2 etc. up to 9.
@@ -412,4 +422,27 @@ public class Util {
   public static String removeUTF8BOM(String s) {
     return (s.startsWith(UTF8_BOM) ? s.substring(1) : s);
   }
+
+
+  /**
+   * Formats a duration for display with its two largest units - e.g. 2d 5h, 3h 12m, 7m.
+   *
+   * @param seconds duration in seconds
+   * @return formatted duration
+   */
+  public static String formatDuration(long seconds) {
+    long minutes = seconds / 60;
+    long hours = minutes / 60;
+    long days = hours / 24;
+
+    if (days > 0) {
+      return days + "d " + (hours % 24) + "h";
+    } else if (hours > 0) {
+      return hours + "h " + (minutes % 60) + "m";
+    } else if (minutes > 0) {
+      return minutes + "m";
+    } else {
+      return "< 1m";
+    }
+  }
 }
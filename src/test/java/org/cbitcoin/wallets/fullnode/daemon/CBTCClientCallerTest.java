@@ -0,0 +1,144 @@
+package org.cbitcoin.wallets.fullnode.daemon;
+
+import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller.NetworkAndBlockchainInfo;
+import org.cbitcoin.wallets.fullnode.util.OSUtil;
+import org.cbitcoin.wallets.fullnode.util.OSUtil.OS_TYPE;
+import org.cbitcoin.wallets.fullnode.util.Util;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CBTCClientCallerTest {
+
+    private File installDir;
+    private File callLog;
+    private File height;
+
+
+    @Before
+    public void setUp() throws Exception {
+        // The fake cbtc-cli is a shell script
+        Assume.assumeTrue(OSUtil.getOSType() != OS_TYPE.WINDOWS);
+
+        this.installDir = Files.createTempDirectory("cbtc").toFile();
+        this.callLog = new File(this.installDir, "calls.log");
+        this.height = new File(this.installDir, "height");
+        write(this.height, "100");
+
+        // Logs each call and answers with the current height - block N has hash hashN and time 1500000000 + N
+        File cli = new File(this.installDir, "cbtc-cli");
+        write(cli, "#!/bin/sh\n" +
+                "echo \"$*\" >> '" + this.callLog.getAbsolutePath() + "'\n" +
+                "HEIGHT=$(cat '" + this.height.getAbsolutePath() + "')\n" +
+                "case \"$1\" in\n" +
+                "  getblockchaininfo) echo \"{\\\"blocks\\\": $HEIGHT, \\\"bestblockhash\\\": \\\"hash$HEIGHT\\\"}\" ;;\n" +
+                "  getconnectioncount) echo 8 ;;\n" +
+                "  getblockhash) echo \"hash$2\" ;;\n" +
+                "  getblockheader) N=${2#hash}; " +
+                "echo \"{\\\"hash\\\": \\\"$2\\\", \\\"height\\\": $N, \\\"time\\\": $((1500000000 + N))}\" ;;\n" +
+                "  z_listreceivedbyaddress) sleep 1; echo \"[{\\\"txid\\\": \\\"$2\\\"}]\" ;;\n" +
+                "  *) echo \"error: unexpected call $1\" ;;\n" +
+                "esac\n");
+        cli.setExecutable(true);
+        File daemon = new File(this.installDir, "cbtcd");
+        write(daemon, "#!/bin/sh\n");
+        daemon.setExecutable(true);
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (this.installDir != null) {
+            Util.deleteDirectory(this.installDir);
+        }
+    }
+
+
+    @Test
+    public void testLastBlockIsOnlyLookedUpWhenTheTipChanges() throws Exception {
+        CBTCClientCaller caller = new CBTCClientCaller(this.installDir.getAbsolutePath());
+
+        NetworkAndBlockchainInfo info = caller.getNetworkAndBlockchainInfo();
+        assertEquals(8, info.numConnections);
+        assertEquals("100", info.lastBlockHeight);
+        assertEquals(1500000100 * 1000L, info.lastBlockDate.getTime());
+        assertEquals(3, this.getCalls().size());
+
+        assertEquals("getblockchaininfo", this.getCalls().get(0));
+
+        // The tip is still recent - only the connections are read
+        info = caller.getNetworkAndBlockchainInfo();
+        assertEquals(1500000100 * 1000L, info.lastBlockDate.getTime());
+        assertEquals(4, this.getCalls().size());
+        assertEquals("getconnectioncount", this.getCalls().get(3));
+
+        // New block seen by the sync status poll - its header only, not the whole block
+        write(this.height, "101");
+        assertEquals(101, caller.getBlockchainSyncInfo().blocks);
+        info = caller.getNetworkAndBlockchainInfo();
+        assertEquals("101", info.lastBlockHeight);
+        assertEquals(1500000101 * 1000L, info.lastBlockDate.getTime());
+        List<String> calls = this.getCalls();
+        assertEquals(7, calls.size());
+        assertEquals("getblockheader hash101", calls.get(5));
+
+        // Back to a known block - the header is cached
+        write(this.height, "100");
+        caller.getBlockchainSyncInfo();
+        caller.getNetworkAndBlockchainInfo();
+        assertEquals(9, this.getCalls().size());
+        assertEquals(1500000100 * 1000L, caller.getBlockHeader("hash100").time.getTime());
+        assertEquals(9, this.getCalls().size());
+    }
+
+
+    @Test
+    public void testMessagingPollsOfSeveralAddressesOverlap() throws Exception {
+        final CBTCClientCaller caller = new CBTCClientCaller(this.installDir.getAbsolutePath());
+
+        // Each call takes a second
+        final List<String> results = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        for (final String address : new String[]{"zA", "zB", "zC"}) {
+            Thread t = new Thread(() -> {
+                try {
+                    results.add(caller.getTransactionMessagingDataForZaddress(address)[0].getString("txid", null));
+                } catch (Exception e) {
+                    results.add(e.toString());
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertTrue(System.currentTimeMillis() - start < 2500);
+        Collections.sort(results);
+        assertEquals(Arrays.asList("zA", "zB", "zC"), results);
+    }
+
+
+    private List<String> getCalls() throws IOException {
+        return Files.readAllLines(this.callLog.toPath());
+    }
+
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes("UTF-8"));
+    }
+}
@@ -0,0 +1,123 @@
+package org.cbitcoin.wallets.fullnode.daemon;
+
+import org.cbitcoin.wallets.fullnode.daemon.DaemonNotificationListener.NotificationHandler;
+import org.cbitcoin.wallets.fullnode.util.Util;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DaemonNotificationListenerTest {
+
+    private File installDir;
+    private File pipe;
+    private DaemonNotificationListener listener;
+    private final BlockingQueue<String> notifications = new LinkedBlockingQueue<>();
+
+
+    @Before
+    public void setUp() throws Exception {
+        // The fake cbtcd is a shell script
+        Assume.assumeTrue(DaemonNotificationListener.isSupported());
+
+        // A space in the path as in "Application Support" on macOS
+        this.installDir = Files.createTempDirectory("cbtc dir").toFile();
+        this.pipe = new File(this.installDir, "daemon_notifications");
+
+        // Runs the notify commands once - as cbtcd does through the shell on a new block and transaction
+        File daemon = new File(this.installDir, "cbtcd");
+        write(daemon, "#!/bin/sh\n" +
+                "for ARG in \"$@\"; do\n" +
+                "  case \"$ARG\" in\n" +
+                "    -blocknotify=*) sh -c \"$(echo \"${ARG#-blocknotify=}\" | sed 's/%s/00ab/')\" ;;\n" +
+                "    -walletnotify=*) sh -c \"$(echo \"${ARG#-walletnotify=}\" | sed 's/%s/ff01/')\" ;;\n" +
+                "  esac\n" +
+                "done\n");
+        daemon.setExecutable(true);
+        File cli = new File(this.installDir, "cbtc-cli");
+        write(cli, "#!/bin/sh\n");
+        cli.setExecutable(true);
+
+        this.listener = new DaemonNotificationListener(this.pipe);
+        this.listener.addHandler(new NotificationHandler() {
+            @Override
+            public void blockNotified(String blockHash) {
+                DaemonNotificationListenerTest.this.notifications.add("block " + blockHash);
+            }
+
+            @Override
+            public void walletTransactionNotified(String txID) {
+                DaemonNotificationListenerTest.this.notifications.add("wallet " + txID);
+            }
+        });
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (this.listener != null) {
+            this.listener.close();
+        }
+        if (this.installDir != null) {
+            Util.deleteDirectory(this.installDir);
+        }
+    }
+
+
+    @Test
+    public void testNotifyCommandsOfTheDaemonReachTheListener() throws Exception {
+        CBTCClientCaller caller = new CBTCClientCaller(this.installDir.getAbsolutePath());
+        Process daemon = caller.startDaemon(this.listener);
+        assertTrue(daemon.waitFor(30, TimeUnit.SECONDS));
+
+        assertEquals("block 00ab", this.notifications.poll(10, TimeUnit.SECONDS));
+        assertEquals("wallet ff01", this.notifications.poll(10, TimeUnit.SECONDS));
+    }
+
+
+    @Test
+    public void testInvalidNotificationsAreIgnored() throws Exception {
+        try (OutputStream out = new FileOutputStream(this.pipe)) {
+            out.write(("block not a hash\nother 00ab\nblock 00ab extra\n" +
+                    "block " + new String(new char[300]).replace('\0', 'a') + "\nwallet 0c\n").getBytes("US-ASCII"));
+        }
+
+        // Handled in order - the valid one comes after the invalid ones
+        assertEquals("wallet 0c", this.notifications.poll(10, TimeUnit.SECONDS));
+        assertNull(this.notifications.poll());
+    }
+
+
+    @Test
+    public void testNotificationsAfterCloseDoNothing() throws Exception {
+        String command = this.listener.getBlockNotifyCommand();
+        this.listener.close();
+        this.listener = null;
+        assertFalse(this.pipe.exists());
+
+        // The daemon still runs - its notify command neither blocks nor creates a file
+        Process notify = new ProcessBuilder("sh", "-c", command.replace("%s", "00ab")).start();
+        assertTrue(notify.waitFor(10, TimeUnit.SECONDS));
+        assertFalse(this.pipe.exists());
+        assertNull(this.notifications.poll());
+    }
+
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes("UTF-8"));
+    }
+}
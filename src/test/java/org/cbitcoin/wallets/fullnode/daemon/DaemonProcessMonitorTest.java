@@ -0,0 +1,135 @@
+package org.cbitcoin.wallets.fullnode.daemon;
+
+import org.cbitcoin.wallets.fullnode.daemon.CBTCInstallationObserver.DAEMON_STATUS;
+import org.cbitcoin.wallets.fullnode.daemon.CBTCInstallationObserver.DaemonInfo;
+import org.cbitcoin.wallets.fullnode.util.Log;
+import org.cbitcoin.wallets.fullnode.util.Util;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DaemonProcessMonitorTest {
+
+    private File procDir;
+    private File pidFile;
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.procDir = Files.createTempDirectory("proc").toFile();
+        this.pidFile = new File(this.procDir, "cbtcd.pid");
+
+        // Own process with 4kB pages - 2000 pages, 8000 kB
+        write(new File(this.procDir, "self/statm"), "2000 1000 500 10 0 800 0\n");
+        write(new File(this.procDir, "self/status"), "Name:\tjava\nVmPeak:\t    8100 kB\nVmSize:\t    8000 kB\n");
+        write(new File(this.procDir, "uptime"), "1100.00 4000.00\n");
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        Util.deleteDirectory(this.procDir);
+    }
+
+
+    @Test
+    public void testCPUAndMemoryFromProc() throws Exception {
+        // Started at 100s uptime, 250 ticks of CPU time in 1000s
+        writeProcess(4242, "cbtcd", 200, 50, 10000);
+        write(this.pidFile, "4242\n");
+
+        DaemonProcessMonitor monitor = new DaemonProcessMonitor("cbtcd", this.procDir, this.pidFile);
+        DaemonInfo info = monitor.getDaemonInfo(1000000);
+        assertEquals(DAEMON_STATUS.RUNNING, info.status);
+        assertEquals(0.25, info.cpuPercentage, 0.0001);
+        // 2000 and 1000 KiB - the same values as those of ps
+        assertEquals(2.0, info.virtualSizeMB, 0.0001);
+        assertEquals(1.0, info.residentSizeMB, 0.0001);
+
+        // 150 ticks in 2 seconds
+        writeProcess(4242, "cbtcd", 300, 100, 10000);
+        info = monitor.getDaemonInfo(1002000);
+        assertEquals(75, info.cpuPercentage, 0.0001);
+
+        // No CPU used since
+        info = monitor.getDaemonInfo(1004000);
+        assertEquals(0, info.cpuPercentage, 0.0001);
+    }
+
+
+    @Test
+    public void testUnknownOrReusedPID() throws Exception {
+        DaemonProcessMonitor monitor = new DaemonProcessMonitor("cbtcd", this.procDir, this.pidFile);
+        assertNull(monitor.getDaemonInfo(1000));
+
+        // The PID of the file now belongs to another program
+        writeProcess(4242, "bash", 10, 10, 10000);
+        write(this.pidFile, "4242\n");
+        assertNull(monitor.getDaemonInfo(2000));
+
+        // The daemon is restarted with a new PID
+        writeProcess(5000, "cbtcd", 10, 10, 10000);
+        write(this.pidFile, "5000\n");
+        assertNotNull(monitor.getDaemonInfo(3000));
+
+        Util.deleteDirectory(new File(this.procDir, "5000"));
+        assertNull(monitor.getDaemonInfo(4000));
+    }
+
+
+    @Test
+    public void testOwnProcess() throws Exception {
+        Assume.assumeTrue(DaemonProcessMonitor.isSupported());
+
+        // The own process is found by the name of its command, truncated to 15 characters
+        String stat = new String(Files.readAllBytes(new File("/proc/self/stat").toPath()), "US-ASCII");
+        String command = stat.substring(stat.indexOf('(') + 1, stat.lastIndexOf(')'));
+        File ownPIDFile = new File(this.procDir, "own.pid");
+        write(ownPIDFile, new File("/proc/self").getCanonicalFile().getName());
+
+        DaemonProcessMonitor monitor = new DaemonProcessMonitor(command, new File("/proc"), ownPIDFile);
+        long start = System.nanoTime();
+        DaemonInfo info = monitor.getDaemonInfo();
+        for (int i = 0; i < 100; i++) {
+            info = monitor.getDaemonInfo();
+        }
+        long procTime = (System.nanoTime() - start) / 101;
+
+        assertEquals(DAEMON_STATUS.RUNNING, info.status);
+        assertTrue(info.residentSizeMB > 1);
+        assertTrue(info.virtualSizeMB >= info.residentSizeMB);
+        assertTrue(info.cpuPercentage >= 0);
+
+        start = System.nanoTime();
+        CBTCInstallationObserver.getDaemonInfoForUNIXLikeOS("cbtcd");
+        long psTime = System.nanoTime() - start;
+        Log.info("Daemon info from /proc: {0}us, from ps: {1}us", procTime / 1000, psTime / 1000);
+    }
+
+
+    // stat and statm of a process with 500 pages - utime, stime and starttime in ticks
+    private void writeProcess(int pid, String command, long utime, long stime, long startTime)
+            throws IOException {
+        write(new File(this.procDir, pid + "/stat"), pid + " (" + command + ") S 1 " + pid + " " + pid +
+                " 0 -1 4194560 1000 0 0 0 " + utime + " " + stime + " 0 0 20 0 12 0 " + startTime +
+                " 2048000 250 18446744073709551615 1 1 0 0 0 0 0 4096 17411 0 0 0 17 1 0 0 0 0 0\n");
+        write(new File(this.procDir, pid + "/statm"), "500 250 100 10 0 300 0\n");
+    }
+
+
+    private static void write(File file, String content)
+            throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes("US-ASCII"));
+    }
+}
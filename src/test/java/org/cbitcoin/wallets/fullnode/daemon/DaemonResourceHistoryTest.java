@@ -0,0 +1,74 @@
+package org.cbitcoin.wallets.fullnode.daemon;
+
+import org.cbitcoin.wallets.fullnode.daemon.DaemonResourceHistory.SERIES;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DaemonResourceHistoryTest {
+
+    private static final double NaN = Double.NaN;
+
+
+    @Test
+    public void testBucketsAreAveraged() {
+        // 10s buckets for 1 min, 60s buckets for 5 min
+        DaemonResourceHistory history = new DaemonResourceHistory(new long[]{10000, 60000}, new int[]{6, 5});
+
+        history.addSample(0, 10, 100, 1000, 3, 500, NaN);
+        history.addSample(5000, 30, 200, 1000, NaN, 501, NaN);
+        history.addSample(12000, 50, 300, 1000, 5, NaN, NaN);
+
+        assertArrayEquals(new double[]{NaN, NaN, NaN, NaN, 20, 50},
+                history.getValues(SERIES.CPU, 60000, 15000), 0.0001);
+        assertArrayEquals(new double[]{NaN, NaN, NaN, NaN, 3, 5},
+                history.getValues(SERIES.CONNECTIONS, 60000, 15000), 0.0001);
+        // The maximum height of a bucket
+        assertArrayEquals(new double[]{NaN, NaN, NaN, NaN, 501, NaN},
+                history.getValues(SERIES.BLOCK_HEIGHT, 60000, 15000), 0.0001);
+
+        // Coarser buckets for a longer time span
+        assertEquals(60000, history.getResolution(5 * 60000));
+        assertArrayEquals(new double[]{NaN, NaN, NaN, NaN, 200},
+                history.getValues(SERIES.RESIDENT_SIZE, 5 * 60000, 15000), 0.0001);
+    }
+
+
+    @Test
+    public void testOldBucketsAreOverwritten() {
+        DaemonResourceHistory history = new DaemonResourceHistory(new long[]{10000, 60000}, new int[]{6, 5});
+
+        // 2 samples per bucket for 10 minutes
+        for (long time = 0; time < 600000; time += 5000) {
+            history.addSample(time, time / 1000, 100, 1000, 8, time / 60000, 0.2);
+        }
+
+        double[] cpu = history.getValues(SERIES.CPU, 60000, 599000);
+        assertArrayEquals(new double[]{542.5, 552.5, 562.5, 572.5, 582.5, 592.5}, cpu, 0.0001);
+
+        double[] heights = history.getValues(SERIES.BLOCK_HEIGHT, 5 * 60000, 599000);
+        assertArrayEquals(new double[]{5, 6, 7, 8, 9}, heights, 0.0001);
+
+        // Longer than the coarsest ring - its whole span
+        assertEquals(5, history.getValues(SERIES.CONNECTIONS, 24 * 60 * 60000, 599000).length);
+
+        // Nothing recorded for a while - the old buckets are not returned as recent
+        double[] later = history.getValues(SERIES.CPU, 60000, 599000 + 40000);
+        assertArrayEquals(new double[]{582.5, 592.5, NaN, NaN, NaN, NaN}, later, 0.0001);
+        for (double v : history.getValues(SERIES.CPU, 60000, 599000 + 600000)) {
+            assertTrue(Double.isNaN(v));
+        }
+    }
+
+
+    @Test
+    public void testDefaultResolutionsCoverADay() {
+        DaemonResourceHistory history = new DaemonResourceHistory();
+        assertEquals(10000, history.getResolution(60 * 60000));
+        assertEquals(60000, history.getResolution(6 * 60 * 60000));
+        assertEquals(5 * 60000, history.getResolution(24 * 60 * 60000));
+        assertEquals(288, history.getValues(SERIES.CPU, 24 * 60 * 60000, System.currentTimeMillis()).length);
+    }
+}
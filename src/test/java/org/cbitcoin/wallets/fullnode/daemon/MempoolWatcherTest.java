@@ -0,0 +1,144 @@
+package org.cbitcoin.wallets.fullnode.daemon;
+
+import org.cbitcoin.wallets.fullnode.daemon.MempoolWatcher.PendingPayment;
+import org.cbitcoin.wallets.fullnode.daemon.MempoolWatcher.PendingPaymentListener;
+import org.cbitcoin.wallets.fullnode.util.OSUtil;
+import org.cbitcoin.wallets.fullnode.util.OSUtil.OS_TYPE;
+import org.cbitcoin.wallets.fullnode.util.Util;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MempoolWatcherTest {
+
+    private File installDir;
+    private File dataDir;
+    private File callLog;
+
+
+    @Before
+    public void setUp() throws Exception {
+        // The fake cbtc-cli is a shell script
+        Assume.assumeTrue(OSUtil.getOSType() != OS_TYPE.WINDOWS);
+
+        this.installDir = Files.createTempDirectory("cbtc").toFile();
+        this.dataDir = new File(this.installDir, "data");
+        this.dataDir.mkdir();
+        this.callLog = new File(this.installDir, "calls.log");
+
+        // Logs each call and answers with the content of data/[command] or data/[command]-[first parameter]
+        File cli = new File(this.installDir, "cbtc-cli");
+        write(cli, "#!/bin/sh\n" +
+                "echo \"$*\" >> '" + this.callLog.getAbsolutePath() + "'\n" +
+                "F='" + this.dataDir.getAbsolutePath() + "'/$1\n" +
+                "if [ -n \"$2\" ] && [ \"$1\" != listreceivedbyaddress ]; then F=\"$F-$2\"; fi\n" +
+                "if [ -f \"$F\" ]; then cat \"$F\"; else echo \"error: no data for $*\"; fi\n");
+        cli.setExecutable(true);
+        File daemon = new File(this.installDir, "cbtcd");
+        write(daemon, "#!/bin/sh\n");
+        daemon.setExecutable(true);
+
+        this.writeData("listreceivedbyaddress", "[{\"address\": \"tA\"}, {\"address\": \"tB\"}]");
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (this.installDir != null) {
+            Util.deleteDirectory(this.installDir);
+        }
+    }
+
+
+    @Test
+    public void testNewPaymentsToWalletAddressesAreReported() throws Exception {
+        MempoolWatcher watcher = new MempoolWatcher(
+                new CBTCClientCaller(this.installDir.getAbsolutePath()), Long.MAX_VALUE);
+        final List<String> events = new ArrayList<>();
+        watcher.addListener(new PendingPaymentListener() {
+            @Override
+            public void paymentReceived(PendingPayment payment) {
+                events.add("received " + payment.txID + " " + payment.address + " " + payment.amount);
+            }
+
+            @Override
+            public void paymentLeftMempool(PendingPayment payment) {
+                events.add("left " + payment.txID);
+            }
+        });
+
+        // Already in the memory pool at the start - not checked
+        this.writeData("getrawmempool", "[\"aa\"]");
+        assertEquals(0, watcher.poll(0));
+
+        // bb pays to the wallet and elsewhere, cc only elsewhere, dd is change of a payment from the wallet,
+        // ee a transfer between addresses of the wallet
+        this.writeData("getrawmempool", "[\"aa\", \"bb\", \"cc\", \"dd\", \"ee\"]");
+        this.writeData("getrawtransaction-bb", transaction("tA", 1.25, "tX", 2, "tA", 0.25));
+        this.writeData("gettransaction-bb", "{\"amount\": 1.5}");
+        this.writeData("getrawtransaction-cc", transaction("tX", 1));
+        this.writeData("getrawtransaction-dd", transaction("tB", 0.5));
+        this.writeData("gettransaction-dd", "{\"amount\": -1.0}");
+        this.writeData("getrawtransaction-ee", transaction("tA", 0.5, "tB", 0.4999));
+        this.writeData("gettransaction-ee", "{\"amount\": 0.0}");
+        assertEquals(4, watcher.poll(1000));
+
+        assertEquals(1, events.size());
+        assertEquals("received bb tA 1.5", events.get(0));
+        assertEquals(1, watcher.getPendingPayments().size());
+
+        List<String> calls = Files.readAllLines(this.callLog.toPath());
+        assertFalse(calls.contains("getrawtransaction aa 1"));
+        assertEquals(1, count(calls, "listreceivedbyaddress 0 true"));
+
+        // Mined
+        this.writeData("getrawmempool", "[\"cc\"]");
+        assertEquals(0, watcher.poll(2000));
+        assertEquals("left bb", events.get(1));
+        assertTrue(watcher.getPendingPayments().isEmpty());
+    }
+
+
+    private void writeData(String name, String content) throws IOException {
+        write(new File(this.dataDir, name), content);
+    }
+
+
+    // Pairs of address and value
+    private static String transaction(Object... outputs) {
+        StringBuilder json = new StringBuilder("{\"vout\": [");
+        for (int i = 0; i < outputs.length; i += 2) {
+            json.append((i > 0) ? ", " : "")
+                    .append("{\"value\": ").append(outputs[i + 1]).append(", \"n\": ").append(i / 2)
+                    .append(", \"scriptPubKey\": {\"addresses\": [\"").append(outputs[i]).append("\"]}}");
+        }
+        return json.append("]}").toString();
+    }
+
+
+    private static int count(List<String> calls, String call) {
+        int count = 0;
+        for (String c : calls) {
+            if (c.equals(call)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes("UTF-8"));
+    }
+}
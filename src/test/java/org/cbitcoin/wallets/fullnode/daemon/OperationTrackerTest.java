@@ -0,0 +1,179 @@
+package org.cbitcoin.wallets.fullnode.daemon;
+
+import org.cbitcoin.wallets.fullnode.daemon.OperationTracker.OperationListener;
+import org.cbitcoin.wallets.fullnode.daemon.OperationTracker.OperationResult;
+import org.cbitcoin.wallets.fullnode.util.OSUtil;
+import org.cbitcoin.wallets.fullnode.util.OSUtil.OS_TYPE;
+import org.cbitcoin.wallets.fullnode.util.Util;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OperationTrackerTest {
+
+    private File installDir;
+    private File dataDir;
+    private File callLog;
+
+    private final List<String> events = new ArrayList<>();
+    private final OperationListener listener = new OperationListener() {
+        @Override
+        public void operationComplete(OperationResult result) {
+            OperationTrackerTest.this.events.add(result.opID + " " +
+                    (result.successful ? ("success " + result.txID) : ("failed " + result.errorMessage)));
+        }
+    };
+
+
+    @Before
+    public void setUp() throws Exception {
+        // The fake cbtc-cli is a shell script
+        Assume.assumeTrue(OSUtil.getOSType() != OS_TYPE.WINDOWS);
+
+        this.installDir = Files.createTempDirectory("cbtc").toFile();
+        this.dataDir = new File(this.installDir, "data");
+        this.dataDir.mkdir();
+        this.callLog = new File(this.installDir, "calls.log");
+
+        // Logs each call and answers with the content of data/[command]
+        File cli = new File(this.installDir, "cbtc-cli");
+        write(cli, "#!/bin/sh\n" +
+                "echo \"$*\" >> '" + this.callLog.getAbsolutePath() + "'\n" +
+                "F='" + this.dataDir.getAbsolutePath() + "'/$1\n" +
+                "if [ -f \"$F\" ]; then cat \"$F\"; else echo \"error: no data for $*\"; fi\n");
+        cli.setExecutable(true);
+        File daemon = new File(this.installDir, "cbtcd");
+        write(daemon, "#!/bin/sh\n");
+        daemon.setExecutable(true);
+
+        this.writeData("z_getoperationresult", "[]");
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (this.installDir != null) {
+            Util.deleteDirectory(this.installDir);
+        }
+    }
+
+
+    @Test
+    public void testConcurrentOperationsArePolledTogether() throws Exception {
+        // Polled only by the test
+        OperationTracker tracker = new OperationTracker(
+                new CBTCClientCaller(this.installDir.getAbsolutePath()), Integer.MAX_VALUE);
+        tracker.track("opid-1", this.listener);
+        tracker.track("opid-2", this.listener);
+
+        this.writeData("z_getoperationstatus",
+                "[{\"id\": \"opid-1\", \"status\": \"success\", \"result\": {\"txid\": \"aa\"}}, " +
+                        "{\"id\": \"opid-2\", \"status\": \"executing\"}]");
+        assertEquals(1, tracker.poll());
+        assertEquals(1, this.events.size());
+        assertEquals("opid-1 success aa", this.events.get(0));
+
+        this.writeData("z_getoperationstatus",
+                "[{\"id\": \"opid-2\", \"status\": \"failed\", \"error\": {\"code\": -6, \"message\": \"Insufficient funds\"}}]");
+        assertEquals(0, tracker.poll());
+        assertEquals("opid-2 failed Insufficient funds", this.events.get(1));
+
+        List<String> calls = Files.readAllLines(this.callLog.toPath());
+        assertEquals(4, calls.size());
+        assertEquals("z_getoperationstatus [\"opid-1\",\"opid-2\"]", calls.get(0));
+        assertEquals("z_getoperationresult [\"opid-1\"]", calls.get(1));
+        assertEquals("z_getoperationstatus [\"opid-2\"]", calls.get(2));
+        assertEquals("z_getoperationresult [\"opid-2\"]", calls.get(3));
+
+        // Complete operations are answered from the cache
+        tracker.track("opid-1", this.listener);
+        assertEquals("opid-1 success aa", this.events.get(2));
+        assertEquals(0, tracker.poll());
+        assertEquals(4, Files.readAllLines(this.callLog.toPath()).size());
+    }
+
+
+    @Test
+    public void testOperationsUnknownToTheDaemonFail() throws Exception {
+        OperationTracker tracker = new OperationTracker(
+                new CBTCClientCaller(this.installDir.getAbsolutePath()), Integer.MAX_VALUE);
+        tracker.track("opid-3", this.listener);
+
+        // cbtcd has been restarted
+        this.writeData("z_getoperationstatus", "[]");
+        assertEquals(0, tracker.poll());
+        assertEquals(1, this.events.size());
+        assertTrue(this.events.get(0).startsWith("opid-3 failed"));
+        // It is not known whether the operation has been done
+        assertTrue(tracker.getResult("opid-3").unknown);
+
+        // Nothing to release
+        assertEquals(1, Files.readAllLines(this.callLog.toPath()).size());
+    }
+
+
+    @Test
+    public void testOperationsAreReleasedAfterTheListeners() throws Exception {
+        OperationTracker tracker = new OperationTracker(
+                new CBTCClientCaller(this.installDir.getAbsolutePath()), Integer.MAX_VALUE);
+        final List<String> callsSeenByListener = new ArrayList<>();
+        tracker.track("opid-4", result -> {
+            try {
+                callsSeenByListener.addAll(Files.readAllLines(this.callLog.toPath()));
+            } catch (IOException ioe) {
+                throw new IllegalStateException(ioe);
+            }
+        });
+
+        // Releasing fails - the result stays known
+        new File(this.dataDir, "z_getoperationresult").delete();
+        this.writeData("z_getoperationstatus",
+                "[{\"id\": \"opid-4\", \"status\": \"success\", \"result\": {\"txid\": \"bb\"}}]");
+        assertEquals(0, tracker.poll());
+        assertEquals(1, callsSeenByListener.size());
+        assertEquals("z_getoperationstatus [\"opid-4\"]", callsSeenByListener.get(0));
+        assertEquals("z_getoperationresult [\"opid-4\"]", Files.readAllLines(this.callLog.toPath()).get(1));
+        assertTrue(tracker.getResult("opid-4").successful);
+
+        // Not polled again
+        assertEquals(0, tracker.poll());
+        assertEquals(2, Files.readAllLines(this.callLog.toPath()).size());
+    }
+
+
+    @Test
+    public void testUnexpectedStatusFailsOnlyItsOperation() throws Exception {
+        OperationTracker tracker = new OperationTracker(
+                new CBTCClientCaller(this.installDir.getAbsolutePath()), Integer.MAX_VALUE);
+        tracker.track("opid-5", this.listener);
+        tracker.track("opid-6", this.listener);
+
+        this.writeData("z_getoperationstatus",
+                "[{\"id\": \"opid-5\", \"status\": \"strange\"}, " +
+                        "{\"id\": \"opid-6\", \"status\": \"success\", \"result\": {\"txid\": \"cc\"}}]");
+        assertEquals(0, tracker.poll());
+        assertEquals(2, this.events.size());
+        assertTrue(this.events.get(0).startsWith("opid-5 failed"));
+        assertEquals("opid-6 success cc", this.events.get(1));
+    }
+
+
+    private void writeData(String name, String content) throws IOException {
+        write(new File(this.dataDir, name), content);
+    }
+
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes("UTF-8"));
+    }
+}
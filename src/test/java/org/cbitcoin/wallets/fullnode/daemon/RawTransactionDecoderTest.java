@@ -0,0 +1,99 @@
+package org.cbitcoin.wallets.fullnode.daemon;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class RawTransactionDecoderTest {
+
+    // Coinbase of the Bitcoin genesis block - a version 1 transaction is the same in Zcash
+    private static final String GENESIS_COINBASE =
+            "01000000010000000000000000000000000000000000000000000000000000000000000000ffffffff4d04ffff001d01" +
+            "04455468652054696d65732030332f4a616e2f32303039204368616e63656c6c6f72206f6e206272696e6b206f66207365" +
+            "636f6e64206261696c6f757420666f722062616e6b73ffffffff0100f2052a01000000434104678afdb0fe5548271967f1" +
+            "a67130b7105cd6a828e03909a67962e0ea1f61deb649f6bc3f4cef38c4f35504e51ec112de5c384df7ba0b8d578a4c702b" +
+            "6bf11d5fac00000000";
+
+
+    @Test
+    public void testVersion1Transaction() throws Exception {
+        Map<String, String> fields = RawTransactionDecoder.decode(GENESIS_COINBASE);
+
+        assertEquals("4a5e1e4baab89f3a32518a88c31bc87f618f76673e2cc77ab2127b7afdeda33b", fields.get("decoded.txid"));
+        assertEquals("204", fields.get("decoded.size"));
+        assertEquals("1", fields.get("decoded.version"));
+        assertEquals(GENESIS_COINBASE.substring(84, 84 + 2 * 0x4d), fields.get("decoded.vin[0].coinbase"));
+        assertEquals("4294967295", fields.get("decoded.vin[0].sequence"));
+        assertEquals("50.00000000", fields.get("decoded.vout[0].value"));
+        assertEquals("pubkey", fields.get("decoded.vout[0].scriptPubKey.type"));
+        assertEquals("0", fields.get("decoded.locktime"));
+        assertFalse(fields.containsKey("decoded.vjoinsplit.count"));
+    }
+
+
+    @Test
+    public void testJoinSplitTransaction() throws Exception {
+        StringBuilder hex = new StringBuilder();
+        hex.append("02000000"); // Version 2
+        hex.append("01").append(repeat("11", 32)).append("01000000").append("00").append("feffffff");
+        hex.append("01").append("a086010000000000") // 0.001
+                .append("19").append("76a914").append(repeat("22", 20)).append("88ac");
+        hex.append("00000000"); // Lock time
+        hex.append("02"); // Two JoinSplits of 1802 bytes
+        for (int i = 0; i < 2; i++) {
+            hex.append("00e1f50500000000").append("0000000000000000").append(repeat("00", 1802 - 16));
+        }
+        hex.append(repeat("33", 96)); // Public key and signature
+
+        Map<String, String> fields = RawTransactionDecoder.decode(hex.toString());
+
+        assertEquals("2", fields.get("decoded.version"));
+        assertEquals(repeat("11", 32), fields.get("decoded.vin[0].txid"));
+        assertEquals("1", fields.get("decoded.vin[0].vout"));
+        assertEquals("", fields.get("decoded.vin[0].scriptSig"));
+        assertEquals("0.00100000", fields.get("decoded.vout[0].value"));
+        assertEquals("pubkeyhash", fields.get("decoded.vout[0].scriptPubKey.type"));
+        assertEquals("2", fields.get("decoded.vjoinsplit.count"));
+        assertEquals(String.valueOf(2 * 1802 + 96), fields.get("decoded.vjoinsplit.size"));
+        assertEquals("1.00000000", fields.get("decoded.vjoinsplit[1].vpub_old"));
+        assertEquals(String.valueOf(hex.length() / 2), fields.get("decoded.size"));
+
+        // Truncated in the JoinSplits and with extra data
+        assertInvalid(hex.substring(0, hex.length() - 200));
+        assertInvalid(hex + "00");
+    }
+
+
+    @Test
+    public void testInvalidHex() throws Exception {
+        assertInvalid("");
+        assertInvalid("0100000");
+        assertInvalid("zz000000");
+        // Input count larger than the transaction
+        assertInvalid("01000000fd0010");
+    }
+
+
+    private static void assertInvalid(String hex) {
+        try {
+            RawTransactionDecoder.decode(hex);
+            fail("Decoded invalid transaction " + hex);
+        } catch (IOException expected) {
+            // Expected
+        }
+    }
+
+
+    private static String repeat(String s, int count) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            result.append(s);
+        }
+        return result.toString();
+    }
+}
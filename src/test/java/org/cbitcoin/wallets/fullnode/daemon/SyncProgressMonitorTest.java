@@ -0,0 +1,69 @@
+package org.cbitcoin.wallets.fullnode.daemon;
+
+import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller.BlockchainSyncInfo;
+import org.cbitcoin.wallets.fullnode.daemon.SyncProgressMonitor.SyncStatus;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SyncProgressMonitorTest {
+
+    @Test
+    public void testRatesAndRemainingTime() {
+        SyncProgressMonitor monitor = new SyncProgressMonitor(60000);
+
+        SyncStatus status = monitor.update(info(1000, 100000, 0.10), 0);
+        assertTrue(Double.isNaN(status.blocksPerSecond));
+        assertEquals(-1, status.remainingSeconds);
+        assertFalse(status.isSynchronized);
+
+        // 100 blocks and 0.5% in 5 seconds
+        status = monitor.update(info(1100, 100000, 0.105), 5000);
+        assertEquals(20, status.blocksPerSecond, 0.0001);
+        assertEquals(0.001, status.progressPerSecond, 0.000001);
+        // Based on the progress, not on the 98900 remaining blocks
+        assertEquals(895, status.remainingSeconds);
+
+        // Slower for a moment - the rate is smoothed
+        status = monitor.update(info(1110, 100000, 0.1055), 10000);
+        assertTrue((status.blocksPerSecond > 2) && (status.blocksPerSecond < 20));
+        assertEquals(20 + (2 - 20) * (1 - Math.exp(-5000 / 60000d)), status.blocksPerSecond, 0.0001);
+
+        // Synchronized
+        status = monitor.update(info(100000, 100000, 0.99999), 20000);
+        assertTrue(status.isSynchronized);
+        assertEquals(0, status.remainingSeconds);
+        assertEquals(status, monitor.getLastStatus());
+    }
+
+
+    @Test
+    public void testRemainingTimeFromBlocksAndReindex() {
+        SyncProgressMonitor monitor = new SyncProgressMonitor(60000);
+
+        // The progress does not change - e.g. while old blocks without transactions are verified
+        monitor.update(info(1000, 2000, 0.5), 0);
+        SyncStatus status = monitor.update(info(1100, 2000, 0.5), 10000);
+        assertEquals(10, status.blocksPerSecond, 0.0001);
+        assertEquals(90, status.remainingSeconds);
+
+        // Reindex - the blocks start again from 0
+        status = monitor.update(info(0, 2000, 0), 20000);
+        assertTrue(Double.isNaN(status.blocksPerSecond));
+        assertEquals(-1, status.remainingSeconds);
+
+        status = monitor.update(info(50, 2000, 0.01), 30000);
+        assertEquals(5, status.blocksPerSecond, 0.0001);
+    }
+
+
+    private static BlockchainSyncInfo info(long blocks, long headers, double progress) {
+        BlockchainSyncInfo info = new BlockchainSyncInfo();
+        info.blocks = blocks;
+        info.headers = headers;
+        info.verificationProgress = progress;
+        return info;
+    }
+}
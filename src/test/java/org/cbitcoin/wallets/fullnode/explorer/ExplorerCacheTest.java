@@ -0,0 +1,142 @@
+package org.cbitcoin.wallets.fullnode.explorer;
+
+import com.eclipsesource.json.JsonObject;
+import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller;
+import org.cbitcoin.wallets.fullnode.explorer.ExplorerCache.Result;
+import org.cbitcoin.wallets.fullnode.explorer.ExplorerCache.SOURCE;
+import org.cbitcoin.wallets.fullnode.util.OSUtil;
+import org.cbitcoin.wallets.fullnode.util.OSUtil.OS_TYPE;
+import org.cbitcoin.wallets.fullnode.util.Util;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ExplorerCacheTest {
+
+    private File installDir;
+    private File cacheDir;
+    private File callLog;
+    private CBTCClientCaller caller;
+
+
+    @Before
+    public void setUp() throws Exception {
+        // The fake cbtc-cli is a shell script
+        Assume.assumeTrue(OSUtil.getOSType() != OS_TYPE.WINDOWS);
+
+        this.installDir = Files.createTempDirectory("cbtc").toFile();
+        this.cacheDir = new File(this.installDir, "explorer_cache");
+        this.callLog = new File(this.installDir, "calls.log");
+
+        // Logs each call - block N has the hash N in hex and the tip is block 100
+        File cli = new File(this.installDir, "cbtc-cli");
+        write(cli, "#!/bin/sh\n" +
+                "echo \"$*\" >> '" + this.callLog.getAbsolutePath() + "'\n" +
+                "case \"$1\" in\n" +
+                "  getblockhash) printf '%064x\\n' \"$2\" ;;\n" +
+                "  getblock) N=$((0x$2)); " +
+                "echo \"{\\\"hash\\\": \\\"$2\\\", \\\"height\\\": $N, \\\"confirmations\\\": $((101 - N)), " +
+                "\\\"tx\\\": [\\\"$2\\\"]}\" ;;\n" +
+                "  *) echo \"error: unexpected call $1\" ;;\n" +
+                "esac\n");
+        cli.setExecutable(true);
+        File daemon = new File(this.installDir, "cbtcd");
+        write(daemon, "#!/bin/sh\n");
+        daemon.setExecutable(true);
+
+        this.caller = new CBTCClientCaller(this.installDir.getAbsolutePath());
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (this.installDir != null) {
+            Util.deleteDirectory(this.installDir);
+        }
+    }
+
+
+    @Test
+    public void testBlocksAreCachedInMemoryAndOnDisk() throws Exception {
+        ExplorerCache cache = new ExplorerCache(this.cacheDir, ExplorerCache.DEFAULT_MAX_SIZE, this.caller);
+
+        Result result = cache.getBlock(hash(80));
+        assertEquals(SOURCE.DAEMON, result.getSource());
+        assertEquals(80, result.getJSON().getLong("height", -1));
+        assertEquals(21, result.getJSON().getLong("confirmations", -1));
+        assertEquals(1, this.getCalls().size());
+
+        result = cache.getBlock(hash(80));
+        assertEquals(SOURCE.MEMORY, result.getSource());
+        // The number of confirmations changes - it is not cached
+        assertNull(result.getJSON().get("confirmations"));
+        assertEquals(1, cache.getFileCount());
+
+        // After a restart - from the disk, also by height without getblockhash
+        cache = new ExplorerCache(this.cacheDir, ExplorerCache.DEFAULT_MAX_SIZE, this.caller);
+        result = cache.getBlock(80);
+        assertEquals(SOURCE.DISK, result.getSource());
+        assertEquals(hash(80), result.getJSON().getString("hash", null));
+        assertEquals(1, this.getCalls().size());
+    }
+
+
+    @Test
+    public void testRecentBlocksAreNotCached() throws Exception {
+        ExplorerCache cache = new ExplorerCache(this.cacheDir, ExplorerCache.DEFAULT_MAX_SIZE, this.caller);
+
+        // 5 confirmations - may still be replaced
+        assertEquals(SOURCE.DAEMON, cache.getBlock(96).getSource());
+        assertEquals(SOURCE.DAEMON, cache.getBlock(96).getSource());
+        assertEquals(0, cache.getFileCount());
+
+        List<String> calls = this.getCalls();
+        assertEquals(4, calls.size());
+        assertEquals("getblockhash 96", calls.get(2));
+    }
+
+
+    @Test
+    public void testLeastRecentlyUsedBlocksAreRemoved() throws Exception {
+        ExplorerCache cache = new ExplorerCache(this.cacheDir, ExplorerCache.DEFAULT_MAX_SIZE, this.caller);
+        cache.getBlock(hash(10));
+        long fileSize = cache.getTotalSize();
+
+        // Room for two blocks
+        cache = new ExplorerCache(this.cacheDir, 2 * fileSize, this.caller);
+        cache.getBlock(hash(11));
+        cache.getBlock(hash(10)); // Now 11 is the least recently used
+        cache.getBlock(hash(12));
+
+        assertEquals(2, cache.getFileCount());
+        assertEquals(2 * fileSize, cache.getTotalSize());
+        assertEquals(SOURCE.MEMORY, cache.getBlock(hash(10)).getSource());
+        assertEquals(SOURCE.MEMORY, cache.getBlock(hash(12)).getSource());
+        assertEquals(SOURCE.DAEMON, cache.getBlock(hash(11)).getSource());
+        assertEquals(2, this.cacheDir.list().length);
+    }
+
+
+    private List<String> getCalls() throws IOException {
+        return Files.readAllLines(this.callLog.toPath());
+    }
+
+
+    private static String hash(int height) {
+        return String.format("%064x", height);
+    }
+
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes("UTF-8"));
+    }
+}
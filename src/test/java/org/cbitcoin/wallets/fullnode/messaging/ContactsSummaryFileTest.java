@@ -0,0 +1,135 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import org.cbitcoin.wallets.fullnode.util.Log;
+import org.cbitcoin.wallets.fullnode.util.Util;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+import static org.cbitcoin.wallets.fullnode.messaging.MessagingTestData.contact;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ContactsSummaryFileTest {
+
+    private File rootDir;
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.rootDir = Files.createTempDirectory("messaging").toFile();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        Util.deleteDirectory(this.rootDir);
+    }
+
+
+    // Not a strict performance test - logs the startup time with and without the summary
+    @Test
+    public void testContactsAreLoadedFromSummary() throws Exception {
+        final int CONTACTS = 2000;
+
+        // Contacts as stored by older versions - without a summary
+        for (int i = 0; i < CONTACTS; i++) {
+            File contactDir = new File(this.rootDir, String.format("contact_%04d", i));
+            assertTrue(new File(contactDir, "sent").mkdirs());
+            assertTrue(new File(contactDir, "received").mkdirs());
+            contact(i).writeToFile(new File(contactDir, "identity.json"));
+        }
+        File summaryFile = new File(this.rootDir, "contacts_summary.json");
+
+        long start = System.currentTimeMillis();
+        new MessagingStorage(this.rootDir);
+        long withoutSummary = System.currentTimeMillis() - start;
+        assertTrue(summaryFile.exists());
+
+        start = System.currentTimeMillis();
+        MessagingStorage storage = new MessagingStorage(this.rootDir);
+        long withSummary = System.currentTimeMillis() - start;
+
+        Log.info("Loading of {0} contacts takes {1}ms from the contact dirs, {2}ms from the summary.",
+                CONTACTS, withoutSummary, withSummary);
+
+        List<MessagingIdentity> identities = storage.getContactIdentities(true);
+        assertEquals(CONTACTS, identities.size());
+        assertEquals("First1234", storage.getContactIdentityForSenderIDAddress(
+                contact(1234).getSenderidaddress()).getFirstname());
+    }
+
+
+    @Test
+    public void testContactsAreReadFromDirsWithoutValidSummary() throws Exception {
+        MessagingStorage storage = new MessagingStorage(this.rootDir);
+        storage.addContactIdentity(contact(0));
+        storage.addContactIdentity(contact(1));
+        storage.storeContactsSummary();
+        File summaryFile = new File(this.rootDir, "contacts_summary.json");
+        assertTrue(summaryFile.exists());
+
+        // The wallet stopped while changing a contact - the summary is deleted before the change
+        MessagingIdentity changed = contact(1);
+        changed.setFirstname("Changed");
+        new ContactsSummaryFile(summaryFile).invalidate();
+        changed.writeToFile(new File(new File(this.rootDir, "contact_0001"), "identity.json"));
+
+        storage = new MessagingStorage(this.rootDir);
+        assertEquals("Changed", storage.getContactIdentityForSenderIDAddress(
+                changed.getSenderidaddress()).getFirstname());
+        assertTrue(summaryFile.exists());
+
+        // A corrupted summary is ignored
+        Files.write(summaryFile.toPath(), "{\"version\":1,\"contacts\":[{\"dir\"".getBytes("UTF-8"));
+        storage = new MessagingStorage(this.rootDir);
+        assertEquals(2, storage.getContactIdentities(true).size());
+
+        // A deleted contact is no longer in the summary
+        storage.deleteContact(changed);
+        storage = new MessagingStorage(this.rootDir);
+        assertEquals(1, storage.getContactIdentities(true).size());
+        assertFalse(new File(this.rootDir, "contact_0001").exists());
+    }
+
+
+    @Test
+    public void testChangesAreStoredInBatches() throws Exception {
+        MessagingStorage storage = new MessagingStorage(this.rootDir);
+        File summaryFile = new File(this.rootDir, "contacts_summary.json");
+        assertTrue(summaryFile.exists());
+
+        // Not written on each change
+        for (int i = 0; i < 10; i++) {
+            storage.addContactIdentity(contact(i));
+        }
+        MessagingIdentity changed = contact(5);
+        changed.setFirstname("Changed");
+        storage.updateContactIdentityForSenderIDAddress(changed.getSenderidaddress(), changed);
+        assertFalse(summaryFile.exists());
+
+        // The latest contact list is written once
+        storage.storeContactsSummary();
+        assertTrue(summaryFile.exists());
+        long modified = summaryFile.lastModified();
+        storage.storeContactsSummary();
+        assertEquals(modified, summaryFile.lastModified());
+
+        Map<String, MessagingIdentity> identities = new ContactsSummaryFile(summaryFile).loadIdentities();
+        assertEquals(10, identities.size());
+        assertEquals("Changed", identities.get("contact_0005").getFirstname());
+
+        // A change after the last write deletes the summary until the next one
+        storage.deleteContact(changed);
+        assertFalse(summaryFile.exists());
+        storage = new MessagingStorage(this.rootDir);
+        assertEquals(9, storage.getContactIdentities(true).size());
+        assertTrue(summaryFile.exists());
+    }
+}
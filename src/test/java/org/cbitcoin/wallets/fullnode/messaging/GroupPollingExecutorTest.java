@@ -0,0 +1,98 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import org.cbitcoin.wallets.fullnode.daemon.CommandExecutor;
+import org.cbitcoin.wallets.fullnode.util.OSUtil;
+import org.cbitcoin.wallets.fullnode.util.OSUtil.OS_TYPE;
+import org.cbitcoin.wallets.fullnode.util.Util;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GroupPollingExecutorTest {
+
+    @Test
+    public void testConcurrencyIsCapped() throws Exception {
+        GroupPollingExecutor executor = new GroupPollingExecutor(2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        List<GroupPollingExecutor.PollingTask<Boolean>> tasks = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            tasks.add(executor.submit("group" + i, () -> {
+                int now = running.incrementAndGet();
+                maxRunning.accumulateAndGet(now, Math::max);
+                Thread.sleep(200);
+                running.decrementAndGet();
+                return Thread.currentThread().isDaemon();
+            }));
+        }
+
+        for (GroupPollingExecutor.PollingTask<Boolean> task : tasks) {
+            assertEquals(Boolean.TRUE, task.awaitResult(5000));
+        }
+        assertEquals(2, maxRunning.get());
+
+        // The same pool serves the next collection with the new size
+        executor.setConcurrency(3);
+        assertEquals(3, executor.getConcurrency());
+        assertEquals(Boolean.TRUE, executor.submit("group", () -> true).awaitResult(5000));
+    }
+
+
+    @Test
+    public void testDeadlineCountsFromTheStartOfThePoll() throws Exception {
+        GroupPollingExecutor executor = new GroupPollingExecutor(1);
+        GroupPollingExecutor.PollingTask<String> slow = executor.submit("slow", () -> {
+            Thread.sleep(600);
+            return "slow";
+        });
+        GroupPollingExecutor.PollingTask<String> fast = executor.submit("fast", () -> "fast");
+
+        // Waits for a free thread longer than its deadline
+        assertEquals("fast", fast.awaitResult(300));
+        assertEquals("slow", slow.awaitResult(5000));
+
+        GroupPollingExecutor.PollingTask<String> failing = executor.submit("failing", () -> {
+            throw new IllegalStateException("Test");
+        });
+        assertNull(failing.awaitResult(5000));
+    }
+
+
+    @Test
+    public void testPollThatMissesTheDeadlineEndsItsCommand() throws Exception {
+        // The command is a shell script
+        Assume.assumeTrue(OSUtil.getOSType() != OS_TYPE.WINDOWS);
+
+        File dir = Files.createTempDirectory("cbtc").toFile();
+        try {
+            final File marker = new File(dir, "marker");
+            File script = new File(dir, "slow.sh");
+            Files.write(script.toPath(), ("#!/bin/sh\nsleep 1\ntouch '" + marker.getAbsolutePath() + "'\n").getBytes("UTF-8"));
+            script.setExecutable(true);
+
+            GroupPollingExecutor executor = new GroupPollingExecutor(1);
+            GroupPollingExecutor.PollingTask<String> task = executor.submit("slow",
+                    () -> new CommandExecutor(new String[]{script.getAbsolutePath()}).execute());
+
+            assertNull(task.awaitResult(200));
+            Thread.sleep(2000);
+            assertFalse(marker.exists());
+
+            // The thread is free for the next poll
+            assertTrue(executor.submit("next", () -> true).awaitResult(5000));
+        } finally {
+            Util.deleteDirectory(dir);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IPFSClientTest {
+
+    private HttpServer server;
+    private File file;
+
+    // What the stub server has received
+    private volatile String uploadContentType;
+    private volatile byte[] uploadBody;
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.file = File.createTempFile("ipfs upload", ".bin");
+        byte[] data = new byte[300 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 251);
+        }
+        Files.write(this.file.toPath(), data);
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (this.server != null) {
+            this.server.stop(0);
+        }
+        this.file.delete();
+    }
+
+
+    @Test
+    public void testReadinessProbe() throws Exception {
+        int port = freePort();
+        IPFSClient client = new IPFSClient("http://127.0.0.1:" + port + "/api/v0");
+        assertFalse(client.isAPIAvailable());
+
+        // Nothing answers - waiting ends with the timeout
+        long start = System.currentTimeMillis();
+        assertFalse(client.waitUntilAvailable(600, null));
+        assertTrue((System.currentTimeMillis() - start) < 5000);
+
+        // The daemon starts answering after a while - waiting ends as soon as it does
+        final int serverPort = port;
+        Thread starter = new Thread(() -> {
+            try {
+                Thread.sleep(700);
+                IPFSClientTest.this.startServer(serverPort);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        starter.start();
+
+        start = System.currentTimeMillis();
+        assertTrue(client.waitUntilAvailable(30000, null));
+        assertTrue((System.currentTimeMillis() - start) < 5000);
+        starter.join();
+
+        assertEquals("0.4.13", client.getVersion());
+    }
+
+
+    @Test
+    public void testAddStreamsMultipartUpload() throws Exception {
+        IPFSClient client = new IPFSClient("http://127.0.0.1:" + this.startServer(0) + "/api/v0/");
+
+        final long[] lastProgress = new long[2];
+        String hash = client.add(this.file, new IPFSClient.ProgressListener() {
+            @Override
+            public boolean update(long done, long total) {
+                lastProgress[0] = done;
+                lastProgress[1] = total;
+                return true;
+            }
+        });
+
+        assertEquals("QmStubHash", hash);
+        assertEquals(this.file.length(), lastProgress[0]);
+        assertEquals(this.file.length(), lastProgress[1]);
+
+        assertTrue(this.uploadContentType.startsWith("multipart/form-data; boundary="));
+        String boundary = this.uploadContentType.substring(this.uploadContentType.indexOf('=') + 1);
+        String body = new String(this.uploadBody, "ISO-8859-1");
+        assertTrue(body.startsWith("--" + boundary + "\r\n"));
+        assertTrue(body.contains("filename=\"" + this.file.getName().replace(" ", "%20") + "\""));
+        assertTrue(body.endsWith("\r\n--" + boundary + "--\r\n"));
+
+        // The file content is sent unchanged
+        int dataStart = body.indexOf("\r\n\r\n") + 4;
+        int dataEnd = body.length() - ("\r\n--" + boundary + "--\r\n").length();
+        assertEquals(new String(Files.readAllBytes(this.file.toPath()), "ISO-8859-1"),
+                body.substring(dataStart, dataEnd));
+    }
+
+
+    @Test
+    public void testCancelledAndFailedUploads() throws Exception {
+        IPFSClient client = new IPFSClient("http://127.0.0.1:" + this.startServer(0) + "/api/v0/");
+        try {
+            client.add(this.file, new IPFSClient.ProgressListener() {
+                @Override
+                public boolean update(long done, long total) {
+                    return done < (total / 2);
+                }
+            });
+            fail("Upload not cancelled");
+        } catch (InterruptedIOException expected) {
+            // Nothing is added
+        }
+
+        // The error message of the daemon is reported
+        File empty = File.createTempFile("ipfs", ".bin");
+        try {
+            client.add(empty, null);
+            fail("Error of the daemon not reported");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("empty file"));
+        } finally {
+            empty.delete();
+        }
+    }
+
+
+    // Stub of the IPFS API - returns the port
+    private int startServer(int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        this.server.createContext("/api/v0/version", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                readBody(exchange);
+                respond(exchange, "POST".equals(exchange.getRequestMethod()) ? 200 : 405,
+                        "{\"Version\":\"0.4.13\",\"Commit\":\"\",\"Repo\":\"6\"}");
+            }
+        });
+        this.server.createContext("/api/v0/add", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = readBody(exchange);
+                if (body.length < 500) {
+                    respond(exchange, 500, "{\"Message\":\"empty file\",\"Code\":0,\"Type\":\"error\"}");
+                    return;
+                }
+
+                IPFSClientTest.this.uploadContentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                IPFSClientTest.this.uploadBody = body;
+                respond(exchange, 200, "{\"Name\":\"file\",\"Hash\":\"QmStubHash\",\"Size\":\"307212\"}\n");
+            }
+        });
+        this.server.start();
+        return this.server.getAddress().getPort();
+    }
+
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        InputStream in = exchange.getRequestBody();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            body.write(buffer, 0, count);
+        }
+        in.close();
+        return body.toByteArray();
+    }
+
+
+    private static void respond(HttpExchange exchange, int status, String response) throws IOException {
+        byte[] bytes = response.getBytes("UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.cbitcoin.wallets.fullnode.util.Util;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IPFSContentCacheTest {
+
+    private static final String IMAGE_HASH = "QmImage00000000000000000000000000000000000000";
+    private static final String TEXT_HASH = "QmText000000000000000000000000000000000000000";
+
+    private File cacheDir;
+    private HttpServer server;
+    private IPFSClient client;
+
+    // IPFS objects of the stub daemon
+    private final Map<String, byte[]> objects = new HashMap<String, byte[]>();
+    private final AtomicInteger catRequests = new AtomicInteger();
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.cacheDir = Files.createTempDirectory("ipfs_cache").toFile();
+
+        ByteArrayOutputStream image = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB), "png", image);
+        this.objects.put(IMAGE_HASH, image.toByteArray());
+        this.objects.put(TEXT_HASH, "Caf\u00e9 menu\nfor today".getBytes("UTF-8"));
+        for (int i = 0; i < 5; i++) {
+            this.objects.put(binaryHash(i), new byte[10000]);
+        }
+
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/api/v0/version", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, 200, "{\"Version\":\"0.4.13\"}".getBytes("UTF-8"));
+            }
+        });
+        this.server.createContext("/api/v0/cat", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                IPFSContentCacheTest.this.catRequests.incrementAndGet();
+                String hash = URLDecoder.decode(exchange.getRequestURI().getRawQuery().substring("arg=".length()), "UTF-8");
+                byte[] content = IPFSContentCacheTest.this.objects.get(hash);
+                if (content == null) {
+                    respond(exchange, 500, "{\"Message\":\"not found\"}".getBytes("UTF-8"));
+                } else {
+                    respond(exchange, 200, content);
+                }
+            }
+        });
+        this.server.start();
+        this.client = new IPFSClient("http://127.0.0.1:" + this.server.getAddress().getPort() + "/api/v0/");
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        this.server.stop(0);
+        Util.deleteDirectory(this.cacheDir);
+    }
+
+
+    @Test
+    public void testCachedContentIsServedWithoutDaemon() throws Exception {
+        IPFSContentCache cache = new IPFSContentCache(this.cacheDir, 1024 * 1024, 100000, this.client);
+        assertNull(cache.get(IMAGE_HASH));
+        assertNull(cache.getPreview(IMAGE_HASH));
+
+        File image = cache.fetch(IMAGE_HASH);
+        assertEquals(IMAGE_HASH + ".png", image.getName());
+        assertEquals(1, this.catRequests.get());
+
+        // The daemon is no longer needed
+        this.server.stop(0);
+        long start = System.currentTimeMillis();
+        assertEquals(image, cache.fetch(IMAGE_HASH));
+        assertTrue((System.currentTimeMillis() - start) < 100);
+
+        IPFSContentCache.Preview preview = cache.getPreview(IMAGE_HASH);
+        assertEquals(IPFSContentCache.CONTENT_TYPE.IMAGE, preview.getType());
+        assertEquals(640, preview.getWidth());
+        assertEquals(480, preview.getHeight());
+
+        // Also after a restart
+        cache = new IPFSContentCache(this.cacheDir, 1024 * 1024, 100000, this.client);
+        assertEquals(image, cache.get(IMAGE_HASH));
+        assertEquals(1, cache.getFileCount());
+    }
+
+
+    @Test
+    public void testPrefetchAndTextPreview() throws Exception {
+        IPFSContentCache cache = new IPFSContentCache(this.cacheDir, 1024 * 1024, 100000, this.client);
+
+        final CountDownLatch cached = new CountDownLatch(1);
+        cache.prefetch(TEXT_HASH, () -> cached.countDown());
+        // Prefetched only once
+        cache.prefetch(TEXT_HASH, null);
+        assertTrue(cached.await(10, TimeUnit.SECONDS));
+
+        assertEquals(TEXT_HASH + ".txt", cache.get(TEXT_HASH).getName());
+        IPFSContentCache.Preview preview = cache.getPreview(TEXT_HASH);
+        assertEquals(IPFSContentCache.CONTENT_TYPE.TEXT, preview.getType());
+        assertEquals("Caf\u00e9 menu\nfor today", preview.getText());
+
+        cache.prefetch(TEXT_HASH, null);
+        Thread.sleep(200);
+        assertEquals(1, this.catRequests.get());
+    }
+
+
+    @Test
+    public void testLeastRecentlyUsedContentIsRemoved() throws Exception {
+        // Room for 3 objects of 10000 bytes
+        IPFSContentCache cache = new IPFSContentCache(this.cacheDir, 35000, 100000, this.client);
+        cache.fetch(binaryHash(0));
+        Thread.sleep(20);
+        cache.fetch(binaryHash(1));
+        Thread.sleep(20);
+        cache.fetch(binaryHash(2));
+        Thread.sleep(20);
+
+        // Used again - binaryHash(1) is now the least recently used one
+        assertNotNull(cache.get(binaryHash(0)));
+        Thread.sleep(20);
+
+        cache.fetch(binaryHash(3));
+        assertEquals(3, cache.getFileCount());
+        assertEquals(30000, cache.getTotalSize());
+        assertNull(cache.get(binaryHash(1)));
+        assertNotNull(cache.get(binaryHash(0)));
+
+        // The order of use survives a restart
+        cache = new IPFSContentCache(this.cacheDir, 35000, 100000, this.client);
+        assertNotNull(cache.get(binaryHash(3)));
+        cache.fetch(binaryHash(4));
+        assertNull(cache.get(binaryHash(2)));
+        assertEquals(3, this.cacheDir.list().length);
+    }
+
+
+    @Test
+    public void testTooLargeAndInvalidContentIsNotCached() throws Exception {
+        IPFSContentCache cache = new IPFSContentCache(this.cacheDir, 1024 * 1024, 5000, this.client);
+        try {
+            cache.fetch(binaryHash(0));
+            fail("Too large content cached");
+        } catch (IOException expected) {
+            // Not cached
+        }
+
+        try {
+            cache.fetch("../../etc/passwd");
+            fail("Invalid hash accepted");
+        } catch (IOException expected) {
+            // Not cached
+        }
+
+        assertEquals(0, cache.getFileCount());
+        assertEquals(0, this.cacheDir.list().length);
+    }
+
+
+    private static String binaryHash(int number) {
+        return "QmBinary" + String.format("%038d", number);
+    }
+
+
+    private static void respond(HttpExchange exchange, int status, byte[] response) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        while (in.read() >= 0) {
+            // Request is read completely
+        }
+        exchange.sendResponseHeaders(status, response.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(response);
+        out.close();
+    }
+}
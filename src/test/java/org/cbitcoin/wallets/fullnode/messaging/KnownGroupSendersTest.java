@@ -0,0 +1,164 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import com.eclipsesource.json.JsonObject;
+import org.cbitcoin.wallets.fullnode.util.Util;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.cbitcoin.wallets.fullnode.messaging.MessagingTestData.contact;
+import static org.cbitcoin.wallets.fullnode.messaging.MessagingTestData.message;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KnownGroupSendersTest {
+
+    private File rootDir;
+    private MessagingIdentity group;
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.rootDir = Files.createTempDirectory("messaging").toFile();
+
+        this.group = contact(0);
+        this.group.setGroup(true);
+        this.group.setSenderidaddress("");
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        Util.deleteDirectory(this.rootDir);
+    }
+
+
+    @Test
+    public void testOnlyTrustedIdentitiesAreKnown() throws Exception {
+        MessagingStorage storage = new MessagingStorage(this.rootDir);
+        storage.addContactIdentity(this.group);
+
+        storage.writeNewSentMessageForContact(this.group, identityMessage(contact(1), Message.DIRECTION_TYPE.SENT, 1));
+        storage.writeNewReceivedMessageForContact(this.group, identityMessage(
+                contact(2), Message.DIRECTION_TYPE.RECEIVED, 2, Message.VERIFICATION_TYPE.VERIFICATION_OK));
+        // Signature not verified or forged
+        storage.writeNewReceivedMessageForContact(this.group, identityMessage(
+                contact(3), Message.DIRECTION_TYPE.RECEIVED, 3, Message.VERIFICATION_TYPE.UNVERIFIED));
+        storage.writeNewReceivedMessageForContact(this.group, identityMessage(
+                contact(4), Message.DIRECTION_TYPE.RECEIVED, 4, Message.VERIFICATION_TYPE.VERIFICATION_FAILED));
+        // Not an identity
+        Message text = message(contact(5), Message.DIRECTION_TYPE.RECEIVED, 5, "Hello", "tx5");
+        text.setVerification(Message.VERIFICATION_TYPE.VERIFICATION_OK);
+        storage.writeNewReceivedMessageForContact(this.group, text);
+
+        Map<String, MessagingIdentity> known = storage.getKnownSendersForGroup(this.group);
+        assertEquals(2, known.size());
+        assertEquals("First1", known.get(contact(1).getSenderidaddress()).getFirstname());
+        assertEquals("First2", known.get(contact(2).getSenderidaddress()).getFirstname());
+
+        // The caller gets a copy
+        known.clear();
+        assertEquals(2, storage.getKnownSendersForGroup(this.group).size());
+    }
+
+
+    @Test
+    public void testNewIdentityUpdatesTheStoredSenders() throws Exception {
+        MessagingStorage storage = new MessagingStorage(this.rootDir);
+        storage.addContactIdentity(this.group);
+        storage.writeNewReceivedMessageForContact(this.group, identityMessage(
+                contact(1), Message.DIRECTION_TYPE.RECEIVED, 1, Message.VERIFICATION_TYPE.VERIFICATION_OK));
+        assertEquals(1, storage.getKnownSendersForGroup(this.group).size());
+
+        // The sender changes the name
+        MessagingIdentity changed = contact(1);
+        changed.setFirstname("Changed");
+        storage.writeNewReceivedMessageForContact(this.group, identityMessage(
+                changed, Message.DIRECTION_TYPE.RECEIVED, 2, Message.VERIFICATION_TYPE.VERIFICATION_OK));
+
+        Map<String, MessagingIdentity> known = storage.getKnownSendersForGroup(this.group);
+        assertEquals(1, known.size());
+        assertEquals("Changed", known.get(contact(1).getSenderidaddress()).getFirstname());
+
+        // Persisted with the group
+        File knownSendersFile = new File(new File(this.rootDir, "contact_0000"), "known_group_senders.json");
+        assertTrue(knownSendersFile.exists());
+        known = new MessagingStorage(this.rootDir).getKnownSendersForGroup(this.group);
+        assertEquals("Changed", known.get(contact(1).getSenderidaddress()).getFirstname());
+    }
+
+
+    @Test
+    public void testStoredSendersAreNotRebuiltFromHistory() throws Exception {
+        MessagingStorage storage = new MessagingStorage(this.rootDir);
+        storage.addContactIdentity(this.group);
+        storage.writeNewReceivedMessageForContact(this.group, identityMessage(
+                contact(1), Message.DIRECTION_TYPE.RECEIVED, 1, Message.VERIFICATION_TYPE.VERIFICATION_OK));
+
+        // A sender that is only in the file shows it is loaded instead of the history
+        File knownSendersFile = new File(new File(this.rootDir, "contact_0000"), "known_group_senders.json");
+        JsonObject stored = new JsonObject();
+        stored.set(contact(9).getSenderidaddress(), contact(9).toJSONObject(false));
+        Files.write(knownSendersFile.toPath(), stored.toString().getBytes("UTF-8"));
+
+        Map<String, MessagingIdentity> known = new MessagingStorage(this.rootDir).getKnownSendersForGroup(this.group);
+        assertEquals(1, known.size());
+        assertEquals("First9", known.get(contact(9).getSenderidaddress()).getFirstname());
+    }
+
+
+    @Test
+    public void testMissingOrDamagedFileIsRebuiltFromHistory() throws Exception {
+        MessagingStorage storage = new MessagingStorage(this.rootDir);
+        storage.addContactIdentity(this.group);
+        storage.writeNewSentMessageForContact(this.group, identityMessage(contact(1), Message.DIRECTION_TYPE.SENT, 1));
+        storage.writeNewReceivedMessageForContact(this.group, identityMessage(
+                contact(2), Message.DIRECTION_TYPE.RECEIVED, 2, Message.VERIFICATION_TYPE.VERIFICATION_OK));
+
+        File knownSendersFile = new File(new File(this.rootDir, "contact_0000"), "known_group_senders.json");
+        Files.write(knownSendersFile.toPath(), "{\"t1Sender".getBytes("UTF-8"));
+
+        Map<String, MessagingIdentity> known = new MessagingStorage(this.rootDir).getKnownSendersForGroup(this.group);
+        assertEquals(2, known.size());
+        // The rebuilt map is stored again
+        assertTrue(Util.parseJsonObject(new String(Files.readAllBytes(knownSendersFile.toPath()), "UTF-8"))
+                .get(contact(2).getSenderidaddress()) != null);
+
+        assertTrue(knownSendersFile.delete());
+        known = new MessagingStorage(this.rootDir).getKnownSendersForGroup(this.group);
+        assertEquals(2, known.size());
+        assertTrue(knownSendersFile.exists());
+    }
+
+
+    @Test
+    public void testOnlyGroupsKeepKnownSenders() throws Exception {
+        MessagingStorage storage = new MessagingStorage(this.rootDir);
+        MessagingIdentity contact = contact(1);
+        storage.addContactIdentity(contact);
+        storage.writeNewReceivedMessageForContact(contact, identityMessage(
+                contact(1), Message.DIRECTION_TYPE.RECEIVED, 1, Message.VERIFICATION_TYPE.VERIFICATION_OK));
+
+        assertFalse(new File(new File(this.rootDir, "contact_0000"), "known_group_senders.json").exists());
+    }
+
+
+    private static Message identityMessage(MessagingIdentity sender, Message.DIRECTION_TYPE direction, long time) {
+        return identityMessage(sender, direction, time, Message.VERIFICATION_TYPE.UNVERIFIED);
+    }
+
+
+    private static Message identityMessage(MessagingIdentity sender, Message.DIRECTION_TYPE direction, long time,
+                                           Message.VERIFICATION_TYPE verification) {
+        JsonObject identity = new JsonObject();
+        identity.set("zenmessagingidentity", sender.toJSONObject(true));
+        Message msg = message(sender, direction, time, identity.toString(), "tx" + time);
+        msg.setVerification(verification);
+        return msg;
+    }
+}
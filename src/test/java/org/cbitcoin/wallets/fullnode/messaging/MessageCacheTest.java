@@ -0,0 +1,183 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import com.eclipsesource.json.JsonObject;
+import org.cbitcoin.wallets.fullnode.util.Log;
+import org.cbitcoin.wallets.fullnode.util.Util;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class MessageCacheTest {
+
+    @Test
+    public void testLeastRecentlyUsedContactIsEvicted() throws Exception {
+        List<Message> messages = Arrays.asList(message(1000, "a"), message(2000, "b"));
+
+        MessageCache probe = new MessageCache(Long.MAX_VALUE);
+        probe.put(0, messages, probe.startLoad());
+        long entrySize = probe.getSizeBytes();
+
+        // Room for two contacts
+        MessageCache cache = new MessageCache(entrySize * 2);
+        for (int contact = 0; contact < 2; contact++) {
+            cache.put(contact, messages, cache.startLoad());
+        }
+        assertNotNull(cache.get(0)); // Contact 1 is now the least recently used
+
+        cache.put(2, messages, cache.startLoad());
+        assertNotNull(cache.get(0));
+        assertNull(cache.get(1));
+        assertNotNull(cache.get(2));
+
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(entrySize * 2, cache.getSizeBytes());
+    }
+
+
+    @Test
+    public void testStoredMessagesAreWrittenThrough() throws Exception {
+        MessageCache cache = new MessageCache(1024 * 1024);
+        cache.put(0, Arrays.asList(message(1000, "a"), message(3000, "c")), cache.startLoad());
+
+        cache.startWrite();
+        cache.finishWrite(0, message(2000, "b"));
+        cache.startWrite();
+        cache.finishWrite(0, message(4000, "d"));
+
+        List<String> texts = new ArrayList<String>();
+        for (Message msg : cache.get(0)) {
+            texts.add(msg.getMessage());
+        }
+        assertEquals(Arrays.asList("a", "b", "c", "d"), texts);
+
+        // A failed write may have left the file - the contact is loaded again
+        cache.startWrite();
+        cache.finishWrite(0, null);
+        assertNull(cache.get(0));
+    }
+
+
+    @Test
+    public void testLoadOverlappingWriteIsNotCached() throws Exception {
+        MessageCache cache = new MessageCache(1024 * 1024);
+
+        // Write started and finished during the load
+        long token = cache.startLoad();
+        cache.startWrite();
+        cache.finishWrite(0, message(2000, "b"));
+        cache.put(0, Arrays.asList(message(1000, "a")), token);
+        assertNull(cache.get(0));
+
+        // Load during a write - the message file may or may not have been read
+        cache.startWrite();
+        cache.put(0, Arrays.asList(message(1000, "a")), cache.startLoad());
+        cache.finishWrite(0, message(2000, "b"));
+        assertNull(cache.get(0));
+
+        token = cache.startLoad();
+        cache.invalidate(1);
+        cache.put(0, Arrays.asList(message(1000, "a")), token);
+        assertNull(cache.get(0));
+    }
+
+
+    @Test
+    public void testCallersGetCopies() throws Exception {
+        MessageCache cache = new MessageCache(1024 * 1024);
+        List<Message> loaded = Arrays.asList(message(1000, "a"));
+        cache.put(0, loaded, cache.startLoad());
+        Message stored = message(2000, "b");
+        cache.startWrite();
+        cache.finishWrite(0, stored);
+
+        // Changes of the loaded, stored or returned messages do not reach the cache
+        loaded.get(0).setVerification(Message.VERIFICATION_TYPE.VERIFICATION_FAILED);
+        stored.setVerification(Message.VERIFICATION_TYPE.VERIFICATION_FAILED);
+        for (Message msg : cache.get(0)) {
+            assertEquals(Message.VERIFICATION_TYPE.UNVERIFIED, msg.getVerification());
+            msg.setVerification(Message.VERIFICATION_TYPE.VERIFICATION_OK);
+        }
+        for (Message msg : cache.get(0)) {
+            assertEquals(Message.VERIFICATION_TYPE.UNVERIFIED, msg.getVerification());
+        }
+    }
+
+
+    // Not a strict performance test - logs the time to switch between conversations
+    @Test
+    public void testSwitchingConversationsUsesCache() throws Exception {
+        final int CONTACTS = 10;
+        final int MESSAGES_PER_CONTACT = 200;
+
+        File rootDir = Files.createTempDirectory("messaging").toFile();
+        try {
+            MessagingStorage storage = new MessagingStorage(rootDir);
+            List<MessagingIdentity> contacts = new ArrayList<MessagingIdentity>();
+            for (int i = 0; i < CONTACTS; i++) {
+                MessagingIdentity contact = new MessagingIdentity();
+                contact.setNickname("nick" + i);
+                contact.setSenderidaddress("t1Sender" + String.format("%027d", i));
+                contact.setSendreceiveaddress("zcReceive" + i);
+                storage.addContactIdentity(contact);
+                contacts.add(contact);
+
+                for (int m = 0; m < MESSAGES_PER_CONTACT; m++) {
+                    storage.writeNewReceivedMessageForContact(contact, message(m * 1000L, "Message " + m));
+                }
+            }
+
+            long start = System.nanoTime();
+            for (MessagingIdentity contact : contacts) {
+                storage.getAllMessagesForContact(contact);
+            }
+            long loadMicros = (System.nanoTime() - start) / 1000 / CONTACTS;
+
+            // A message arrives while the conversations are cached
+            storage.writeNewReceivedMessageForContact(contacts.get(0), message(Long.MAX_VALUE / 2, "Latest"));
+
+            start = System.nanoTime();
+            for (int round = 0; round < 10; round++) {
+                for (MessagingIdentity contact : contacts) {
+                    storage.getAllMessagesForContact(contact);
+                }
+            }
+            long cachedMicros = (System.nanoTime() - start) / 1000 / (CONTACTS * 10);
+
+            MessageCache cache = storage.getMessageCache();
+            Log.info("Displaying a conversation of {0} messages takes {1}us from disk, {2}us from the cache.",
+                    MESSAGES_PER_CONTACT, loadMicros, cachedMicros);
+
+            assertEquals(CONTACTS, cache.getMissCount());
+            assertEquals(CONTACTS * 10, cache.getHitCount());
+
+            List<Message> messages = storage.getAllMessagesForContact(contacts.get(0));
+            assertEquals(MESSAGES_PER_CONTACT + 1, messages.size());
+            assertEquals("Latest", messages.get(MESSAGES_PER_CONTACT).getMessage());
+        } finally {
+            Util.deleteDirectory(rootDir);
+        }
+    }
+
+
+    private static Message message(long time, String text) {
+        JsonObject obj = new JsonObject();
+        obj.set("ver", 1);
+        obj.set("from", "t1Wm8CWdBvBUPfDCpgUvFXmTbyEV1XMCVtR");
+        obj.set("message", text);
+        obj.set("sign", "");
+        obj.set("time", time);
+        obj.set("direction", Message.DIRECTION_TYPE.RECEIVED.toString());
+        obj.set("verification", Message.VERIFICATION_TYPE.UNVERIFIED.toString());
+        obj.set("isanonymous", false);
+        return new Message(obj);
+    }
+}
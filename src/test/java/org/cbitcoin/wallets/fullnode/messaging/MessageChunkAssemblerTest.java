@@ -0,0 +1,160 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import com.eclipsesource.json.JsonObject;
+import org.cbitcoin.wallets.fullnode.util.Util;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MessageChunkAssemblerTest {
+
+    @Test
+    public void testLongMessageIsReassembledFromChunks() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 120; i++) {
+            text.append("Paragraph ").append(i).append(" with \"quotes\", \u00FCn\u00EFc\u00F6d\u00E9 and \uD83D\uDE00. ");
+        }
+        JsonObject message = message(text.toString());
+
+        for (boolean compression : new boolean[] { false, true }) {
+            List<byte[]> memos = MessageChunkAssembler.split(message, compression);
+            assertTrue(memos.size() > 1);
+
+            Map<String, JsonObject> chunks = new LinkedHashMap<String, JsonObject>();
+            for (int i = memos.size() - 1; i >= 0; i--) {
+                assertTrue(memos.get(i).length <= MessageEnvelope.MAX_MEMO_SIZE);
+                chunks.put("tx" + i, Util.parseJsonObject(MessageEnvelope.decodeHexMemo(Util.encodeHexArray(memos.get(i)))));
+            }
+
+            MessageChunkAssembler assembler = new MessageChunkAssembler(60000);
+
+            // The chunks arrive in several polls - and are returned again by the wallet every time
+            Map<String, JsonObject> firstPoll = new LinkedHashMap<String, JsonObject>();
+            firstPoll.put("tx0", chunks.get("tx0"));
+            assertTrue(assembler.addChunks("zkAddress", firstPoll).isEmpty());
+            assertTrue(assembler.addChunks("zkAddress", firstPoll).isEmpty());
+            assertEquals(1, assembler.getPartialMessageCount());
+
+            List<MessageChunkAssembler.AssembledMessage> assembled = assembler.addChunks("zkAddress", chunks);
+            assertEquals(1, assembled.size());
+            assertEquals(message.toString(), assembled.get(0).getMemoText());
+            assertEquals("tx0", assembled.get(0).getTransactionIDs().get(0));
+            assertEquals("tx" + (memos.size() - 1), assembled.get(0).getTransactionIDs().get(memos.size() - 1));
+            assertEquals(0, assembler.getPartialMessageCount());
+        }
+    }
+
+
+    @Test
+    public void testIncompleteMessageTimesOut() throws Exception {
+        List<byte[]> memos = MessageChunkAssembler.split(message(longText(1500)), false);
+
+        Map<String, JsonObject> firstChunk = new HashMap<String, JsonObject>();
+        firstChunk.put("tx0", Util.parseJsonObject(new String(memos.get(0), "UTF-8")));
+        Map<String, JsonObject> allChunks = new HashMap<String, JsonObject>(firstChunk);
+        for (int i = 1; i < memos.size(); i++) {
+            allChunks.put("tx" + i, Util.parseJsonObject(new String(memos.get(i), "UTF-8")));
+        }
+
+        MessageChunkAssembler assembler = new MessageChunkAssembler(0);
+        assembler.addChunks("zkAddress", firstChunk);
+        Thread.sleep(5);
+        assembler.addChunks("zkAddress", firstChunk);
+        assertEquals(0, assembler.getPartialMessageCount());
+
+        // The message is ignored even if the rest arrives
+        assertTrue(assembler.addChunks("zkAddress", allChunks).isEmpty());
+    }
+
+
+    @Test
+    public void testStoredChunksAreNotCollectedAgain() throws Exception {
+        JsonObject message = message(longText(1500));
+        List<byte[]> memos = MessageChunkAssembler.split(message, false);
+        assertTrue(memos.size() > 1);
+
+        // The wallet returns the same transactions on every poll - with a plain message among them
+        List<JsonObject> walletTransactions = new ArrayList<JsonObject>();
+        for (int i = 0; i < memos.size(); i++) {
+            walletTransactions.add(walletTransaction("tx" + i, memos.get(i)));
+        }
+        walletTransactions.add(walletTransaction("txplain", MessageEnvelope.encode(message("short"), false)));
+        JsonObject[] transactions = walletTransactions.toArray(new JsonObject[0]);
+
+        MessageChunkAssembler assembler = new MessageChunkAssembler(60000);
+        Set<String> storedTransactionIDs = new HashSet<String>();
+        List<MessageChunkAssembler.ReceivedMemo> received =
+                assembler.selectNewMemos("zkAddress", transactions, storedTransactionIDs);
+        assertEquals(2, received.size());
+        assertEquals(message("short").toString(), received.get(0).getMessage().toString());
+        assertEquals(Collections.singletonList("txplain"), received.get(0).getTransactionIDs());
+        assertEquals(message.toString(), received.get(1).getMessage().toString());
+        assertEquals(memos.size(), received.get(1).getTransactionIDs().size());
+
+        // Once stored with all their transactions, the messages are not assembled or returned again
+        for (MessageChunkAssembler.ReceivedMemo memo : received) {
+            storedTransactionIDs.addAll(memo.getTransactionIDs());
+        }
+        assertTrue(assembler.selectNewMemos("zkAddress", transactions, storedTransactionIDs).isEmpty());
+        assertEquals(0, assembler.getPartialMessageCount());
+    }
+
+
+    @Test
+    public void testExpiredChunkTransactionsAreHandedOut() throws Exception {
+        List<byte[]> memos = MessageChunkAssembler.split(message(longText(1500)), false);
+        JsonObject[] firstChunk = new JsonObject[] { walletTransaction("tx0", memos.get(0)) };
+        JsonObject[] secondChunk = new JsonObject[] { walletTransaction("tx1", memos.get(1)) };
+
+        MessageChunkAssembler assembler = new MessageChunkAssembler(0);
+        assembler.selectNewMemos("zkAddress", firstChunk, Collections.<String>emptySet());
+        Thread.sleep(5);
+        assembler.selectNewMemos("zkAddress", firstChunk, Collections.<String>emptySet());
+        assertEquals(Collections.singletonList("tx0"), assembler.takeExpiredTransactionIDs());
+        assertTrue(assembler.takeExpiredTransactionIDs().isEmpty());
+
+        // Chunks arriving late are handed out as well
+        assertTrue(assembler.selectNewMemos("zkAddress", secondChunk, Collections.<String>emptySet()).isEmpty());
+        assertEquals(Collections.singletonList("tx1"), assembler.takeExpiredTransactionIDs());
+    }
+
+
+    @Test
+    public void testTooLongMessageIsNotSplit() throws Exception {
+        assertNull(MessageChunkAssembler.split(message(longText(20000)), false));
+    }
+
+
+    private static JsonObject message(String text) {
+        JsonObject inner = new JsonObject();
+        inner.set("ver", MessageEnvelope.PROTOCOL_VERSION);
+        inner.set("message", text);
+        inner.set("threadid", "3f2b8c1e-6d7a-4b9e-a1c3-5e8f0d2b7a64");
+
+        JsonObject outer = new JsonObject();
+        outer.set("zenmsg", inner);
+        return outer;
+    }
+
+
+    private static JsonObject walletTransaction(String transactionID, byte[] memo) {
+        JsonObject transaction = new JsonObject();
+        transaction.set("txid", transactionID);
+        transaction.set("memo", Util.encodeHexArray(memo));
+        return transaction;
+    }
+
+
+    private static String longText(int length) {
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(1);
+        while (text.length() < length) {
+            text.append((char) ('a' + random.nextInt(26)));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,199 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import org.cbitcoin.wallets.fullnode.util.Log;
+import org.cbitcoin.wallets.fullnode.util.Util;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.cbitcoin.wallets.fullnode.messaging.MessagingTestData.contact;
+import static org.cbitcoin.wallets.fullnode.messaging.MessagingTestData.message;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageCompactionTest {
+
+    private static final long DAY = 24L * 3600 * 1000;
+
+    // Two full buckets and a partial one
+    private static final int MESSAGES = 2100;
+
+    private File rootDir;
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.rootDir = Files.createTempDirectory("messaging").toFile();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        Util.deleteDirectory(this.rootDir);
+    }
+
+
+    @Test
+    public void testOldBucketsAreArchived() throws Exception {
+        MessagingStorage storage = new MessagingStorage(this.rootDir);
+        storage.buildSearchIndexIfRequired();
+
+        MessagingIdentity contact = contact(0);
+        storage.addContactIdentity(contact);
+
+        // The first 1500 messages are a year old
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < MESSAGES; i++) {
+            long time = (i < 1500) ? (now - (365 * DAY) + i) : (now - DAY + i);
+            storage.writeNewReceivedMessageForContact(contact,
+                    message(contact, Message.DIRECTION_TYPE.RECEIVED, time, "word" + i, "tx" + i));
+        }
+
+        MessagingOptions options = storage.getMessagingOptions();
+        options.setRetentionDays(30);
+        options.setRetentionMessages(500);
+        storage.updateMessagingOptions(options);
+
+        long start = System.currentTimeMillis();
+        assertEquals(MESSAGES, storage.getAllMessagesForContact(contact).size());
+        long beforeCompaction = System.currentTimeMillis() - start;
+
+        // Bucket 0000 is old, 0001 has recent messages, 0002 is current
+        assertEquals(1000, storage.compactMessages());
+        assertEquals(0, storage.compactMessages());
+
+        File receivedDir = new File(new File(this.rootDir, "contact_0000"), "received");
+        assertFalse(new File(receivedDir, "0000").exists());
+        assertTrue(new File(receivedDir, "0000.zip").exists());
+
+        start = System.currentTimeMillis();
+        List<Message> messages = storage.getAllMessagesForContact(contact);
+        long afterCompaction = System.currentTimeMillis() - start;
+        assertEquals(MESSAGES - 1000, messages.size());
+        assertEquals("word1000", messages.get(0).getMessage());
+
+        Log.info("Reading a conversation of {0} messages takes {1}ms, {2}ms after archiving 1000 of them.",
+                MESSAGES, beforeCompaction, afterCompaction);
+
+        List<Message> archived = storage.getArchivedMessagesForContact(contact);
+        assertEquals(1000, archived.size());
+        assertEquals("word0", archived.get(0).getMessage());
+        assertEquals(1000, storage.getArchivedMessageCount(contact));
+        assertTrue(storage.getArchivedReceivedTransactionIDs(contact).contains("tx999"));
+
+        // Archived messages are found by the search
+        MessageSearchIndex.SearchResult result = storage.searchMessages("word5", 10);
+        assertEquals(1, result.getTotalHits());
+        assertEquals("word5", storage.getMessageForSearchHit(result.getLocations()[0]).getMessage());
+
+        // New messages go to the current bucket
+        storage.writeNewReceivedMessageForContact(contact,
+                message(contact, Message.DIRECTION_TYPE.RECEIVED, now, "latest", "txlatest"));
+        assertEquals(MESSAGES - 1000 + 1, storage.getAllMessagesForContact(contact).size());
+
+        // After a restart - also with a rebuilt search index
+        Util.deleteDirectory(new File(this.rootDir, "search_index"));
+        storage = new MessagingStorage(this.rootDir);
+        storage.buildSearchIndexIfRequired();
+        assertEquals(1000, storage.getArchivedMessageCount(contact));
+        assertTrue(storage.getArchivedReceivedTransactionIDs(contact).contains("tx0"));
+        result = storage.searchMessages("word7", 10);
+        assertEquals(1, result.getTotalHits());
+        assertEquals("word7", storage.getMessageForSearchHit(result.getLocations()[0]).getMessage());
+    }
+
+
+    @Test
+    public void testNoArchivingWhenDisabled() throws Exception {
+        MessagingStorage storage = new MessagingStorage(this.rootDir);
+        MessagingIdentity contact = contact(0);
+        storage.addContactIdentity(contact);
+        for (int i = 0; i < 1010; i++) {
+            storage.writeNewSentMessageForContact(contact,
+                    message(contact, Message.DIRECTION_TYPE.SENT, i, "word" + i, ""));
+        }
+
+        MessagingOptions options = storage.getMessagingOptions();
+        options.setRetentionDays(0);
+        options.setRetentionMessages(0);
+        storage.updateMessagingOptions(options);
+        assertEquals(0, storage.compactMessages());
+
+        // Enabled - all but the current bucket are archived
+        options.setRetentionDays(1);
+        storage.updateMessagingOptions(options);
+        assertEquals(1000, storage.compactMessages());
+        assertEquals(10, storage.getAllMessagesForContact(contact).size());
+    }
+
+
+    @Test
+    public void testReceivedTransactionIDsIncludeArchivedMessages() throws Exception {
+        MessagingStorage storage = new MessagingStorage(this.rootDir);
+        MessagingIdentity contact = contact(0);
+        storage.addContactIdentity(contact);
+        for (int i = 0; i < 1010; i++) {
+            storage.writeNewReceivedMessageForContact(contact,
+                    message(contact, Message.DIRECTION_TYPE.RECEIVED, i, "word" + i, "tx" + i));
+        }
+        storage.writeNewSentMessageForContact(contact, message(contact, Message.DIRECTION_TYPE.SENT, 2000, "sent", ""));
+
+        MessagingOptions options = storage.getMessagingOptions();
+        options.setRetentionDays(1);
+        options.setRetentionMessages(0);
+        storage.updateMessagingOptions(options);
+        assertEquals(1000, storage.compactMessages());
+
+        Set<String> transactionIDs = storage.getReceivedTransactionIDs();
+        assertEquals(1010, transactionIDs.size());
+        assertTrue(transactionIDs.contains("tx0"));
+        assertTrue(transactionIDs.contains("tx1009"));
+
+        // Kept up to date without reading the messages again - the caller gets a copy
+        transactionIDs.clear();
+        storage.writeNewReceivedMessageForContact(contact,
+                message(contact, Message.DIRECTION_TYPE.RECEIVED, 3000, "latest", "txlatest"));
+        assertEquals(1011, storage.getReceivedTransactionIDs().size());
+        assertTrue(storage.getReceivedTransactionIDs().contains("txlatest"));
+
+        // The messages of a deleted contact are not known any more
+        storage.deleteContact(contact);
+        assertTrue(storage.getReceivedTransactionIDs().isEmpty());
+    }
+
+
+    @Test
+    public void testReceivedTransactionIDsIncludeChunks() throws Exception {
+        MessagingStorage storage = new MessagingStorage(this.rootDir);
+        MessagingIdentity contact = contact(0);
+        storage.addContactIdentity(contact);
+        for (int i = 0; i < 1010; i++) {
+            Message msg = message(contact, Message.DIRECTION_TYPE.RECEIVED, i, "word" + i, "tx" + i);
+            msg.setChunkTransactionIDs(Arrays.asList("tx" + i, "tx" + i + "b"));
+            storage.writeNewReceivedMessageForContact(contact, msg);
+        }
+        storage.addExpiredChunkTransactionIDs(Arrays.asList("txexpired"));
+        assertEquals(2021, storage.getReceivedTransactionIDs().size());
+        assertTrue(storage.getReceivedTransactionIDs().contains("tx1009b"));
+
+        MessagingOptions options = storage.getMessagingOptions();
+        options.setRetentionDays(1);
+        options.setRetentionMessages(0);
+        storage.updateMessagingOptions(options);
+        assertEquals(1000, storage.compactMessages());
+
+        // Also after a restart - archived chunks and expired ones included
+        Set<String> transactionIDs = new MessagingStorage(this.rootDir).getReceivedTransactionIDs();
+        assertEquals(2021, transactionIDs.size());
+        assertTrue(transactionIDs.contains("tx0b"));
+        assertTrue(transactionIDs.contains("tx1009b"));
+        assertTrue(transactionIDs.contains("txexpired"));
+    }
+}
@@ -0,0 +1,149 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import com.eclipsesource.json.JsonObject;
+import org.cbitcoin.wallets.fullnode.util.Log;
+import org.cbitcoin.wallets.fullnode.util.Util;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MessageEnvelopeTest {
+
+    private static final String[] CHAT_TEXTS = {
+            "Hi, are you there?",
+            "Yes, what's up?",
+            "Did you get the payment I sent yesterday? The transaction should have enough confirmations by now.",
+            "Thanks! I will check it when I am back home and let you know.",
+            "ok",
+            "Can we meet on Friday at 10? I would like to talk about the new project and what we need to do for it.",
+            "Sounds good to me. See you then :)",
+            "{\"zenmessagingidentity\":{\"nickname\":\"alice\",\"firstname\":\"Alice\",\"surname\":\"Smith\"," +
+                    "\"senderidaddress\":\"t1Wm8CWdBvBUPfDCpgUvFXmTbyEV1XMCVtR\"," +
+                    "\"sendreceiveaddress\":\"zkc3Y6Nd7QZrYk5WCSwrbjK9FdGG7xWmLq4aX8FHpvBBxo3AMZ2Gzrb7i1CVLt9yWhqnnVoBKWsEBMVyrYpPbZrE7TxgXi5v\"}}",
+            "\u041F\u0440\u0438\u0432\u0435\u0442! \u041A\u0430\u043A \u0434\u0435\u043B\u0430? \u00DCn\u00EFc\u00F6d\u00E9 text should survive compression too.",
+    };
+
+
+    @Test
+    public void testCompressedMessageIsDecoded() throws Exception {
+        for (String text : CHAT_TEXTS) {
+            JsonObject message = signedMessage(text);
+            byte[] memo = MessageEnvelope.encode(message, true);
+
+            assertEquals(message.toString(), MessageEnvelope.decodeHexMemo(toPaddedMemoHex(memo)));
+        }
+    }
+
+
+    @Test
+    public void testPlainFormatIsAccepted() throws Exception {
+        JsonObject message = anonymousMessage("Hello from an old client");
+        byte[] memo = MessageEnvelope.encode(message, false);
+
+        assertArrayEquals(message.toString().getBytes("UTF-8"), memo);
+        assertTrue(!MessageEnvelope.isCompressed(toPaddedMemoHex(memo)));
+        assertEquals(message.toString(), MessageEnvelope.decodeHexMemo(toPaddedMemoHex(memo)));
+        assertNull(MessageEnvelope.decodeHexMemo("f6" + Util.encodeHexArray(new byte[511])));
+    }
+
+
+    @Test
+    public void testCorruptedCompressedMemoIsRejected() throws Exception {
+        byte[] memo = MessageEnvelope.encode(signedMessage(CHAT_TEXTS[2]), true);
+        for (int i = 3; i < memo.length; i++) {
+            memo[i] = (byte) 0xFF;
+        }
+
+        try {
+            MessageEnvelope.decodeHexMemo(toPaddedMemoHex(memo));
+            fail("Corrupted memo must not be decoded");
+        } catch (IOException ioe) {
+            // Expected
+        }
+    }
+
+
+    // Not a strict performance test - logs the bytes saved and the speed on typical chat traffic
+    @Test
+    public void testCompressionBenchmark() throws Exception {
+        final int ROUNDS = 2000;
+
+        List<JsonObject> messages = new ArrayList<JsonObject>();
+        for (String text : CHAT_TEXTS) {
+            messages.add(signedMessage(text));
+            messages.add(anonymousMessage(text));
+        }
+
+        long plainBytes = 0;
+        long compressedBytes = 0;
+        List<String> memos = new ArrayList<String>();
+        for (JsonObject message : messages) {
+            byte[] memo = MessageEnvelope.encode(message, true);
+            plainBytes += message.toString().getBytes("UTF-8").length;
+            compressedBytes += memo.length;
+            memos.add(toPaddedMemoHex(memo));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            for (JsonObject message : messages) {
+                MessageEnvelope.encode(message, true);
+            }
+        }
+        long encodeNanos = (System.nanoTime() - start) / (ROUNDS * messages.size());
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            for (String memo : memos) {
+                MessageEnvelope.decodeHexMemo(memo);
+            }
+        }
+        long decodeNanos = (System.nanoTime() - start) / (ROUNDS * memos.size());
+
+        Log.info("Memo compression: {0} messages, {1} bytes plain, {2} bytes compressed ({3}% saved). " +
+                        "Encoding takes {4}us, decoding {5}us per message.",
+                messages.size(), plainBytes, compressedBytes, 100 - ((compressedBytes * 100) / plainBytes),
+                encodeNanos / 1000, decodeNanos / 1000);
+
+        assertTrue(compressedBytes < plainBytes);
+    }
+
+
+    private static JsonObject signedMessage(String text) {
+        JsonObject inner = new JsonObject();
+        inner.set("ver", MessageEnvelope.PROTOCOL_VERSION);
+        inner.set("from", "t1Wm8CWdBvBUPfDCpgUvFXmTbyEV1XMCVtR");
+        inner.set("message", text);
+        inner.set("sign", "H0Lr6ZQ8aO8bsqWQd3cLjfXZ6vXbY2F5cWpV7oX8Nn5HRd0dI+4lcZsvmM3hU2pPgE7Nq1lY4Y9x3cQ0o3aGkF8=");
+
+        JsonObject outer = new JsonObject();
+        outer.set("zenmsg", inner);
+        return outer;
+    }
+
+
+    private static JsonObject anonymousMessage(String text) {
+        JsonObject inner = new JsonObject();
+        inner.set("ver", MessageEnvelope.PROTOCOL_VERSION);
+        inner.set("message", text);
+        inner.set("threadid", "3f2b8c1e-6d7a-4b9e-a1c3-5e8f0d2b7a64");
+
+        JsonObject outer = new JsonObject();
+        outer.set("zenmsg", inner);
+        return outer;
+    }
+
+
+    // As returned by the wallet - zero padded to the full memo size
+    private static String toPaddedMemoHex(byte[] memo) {
+        return Util.encodeHexArray(memo) + Util.encodeHexArray(new byte[MessageEnvelope.MAX_MEMO_SIZE - memo.length]);
+    }
+}
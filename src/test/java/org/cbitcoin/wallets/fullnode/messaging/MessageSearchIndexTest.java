@@ -0,0 +1,108 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import com.eclipsesource.json.JsonObject;
+import org.cbitcoin.wallets.fullnode.messaging.Message.DIRECTION_TYPE;
+import org.cbitcoin.wallets.fullnode.util.Util;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageSearchIndexTest {
+
+    private File indexDir;
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.indexDir = Files.createTempDirectory("search_index").toFile();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        Util.deleteDirectory(this.indexDir);
+    }
+
+
+    @Test
+    public void testSearchMatchesAllWordsNicknamesAndDates() throws Exception {
+        MessageSearchIndex index = new MessageSearchIndex(this.indexDir);
+        long first = MessageSearchIndex.encodeLocation(1, DIRECTION_TYPE.RECEIVED, 0, 0);
+        long second = MessageSearchIndex.encodeLocation(1, DIRECTION_TYPE.SENT, 0, 0);
+        long third = MessageSearchIndex.encodeLocation(2, DIRECTION_TYPE.RECEIVED, 3, 999);
+
+        index.addMessage(first, message("Meet me at the Harbour, bring the keys!", "2018-05-03 10:00:00"), "Alice");
+        index.addMessage(second, message("Which harbour?", "2018-05-04 11:00:00"), "Bob");
+        index.addMessage(third, message("Lost my keys in 2018", "2019-01-01 12:00:00"), "Carol");
+
+        // Most recent first
+        assertArrayEquals(new long[]{second, first}, index.search("harbour", 10).getLocations());
+        assertArrayEquals(new long[]{third, first}, index.search("KEYS", 10).getLocations());
+        assertArrayEquals(new long[]{first}, index.search("harbour keys", 10).getLocations());
+        assertArrayEquals(new long[]{first}, index.search("alice", 10).getLocations());
+        assertArrayEquals(new long[]{second}, index.search("2018-05-04", 10).getLocations());
+        assertArrayEquals(new long[]{second, first}, index.search("2018-05", 10).getLocations());
+        // Year matches the date and a number in the text
+        assertArrayEquals(new long[]{third, second, first}, index.search("2018", 10).getLocations());
+        assertEquals(0, index.search("harbour carol", 10).getTotalHits());
+
+        MessageSearchIndex.SearchResult limited = index.search("harbour", 1);
+        assertArrayEquals(new long[]{second}, limited.getLocations());
+        assertEquals(2, limited.getTotalHits());
+
+        index.close();
+    }
+
+
+    @Test
+    public void testIndexIsReloadedFromDisk() throws Exception {
+        MessageSearchIndex index = new MessageSearchIndex(this.indexDir);
+        assertTrue(index.isBuildRequired());
+        index.startBuild();
+        long built = MessageSearchIndex.encodeLocation(5, DIRECTION_TYPE.RECEIVED, 0, 1);
+        index.addMessageDuringBuild(built, message("built from history", "2018-01-01 00:00:00"), null);
+        index.finishBuild();
+
+        long added = MessageSearchIndex.encodeLocation(7, DIRECTION_TYPE.SENT, 0, 0);
+        index.addMessage(added, message("added to the journal", "2018-01-02 00:00:00"), null);
+        long removed = MessageSearchIndex.encodeLocation(8, DIRECTION_TYPE.SENT, 0, 0);
+        index.addMessage(removed, message("contact deleted later", "2018-01-03 00:00:00"), null);
+        index.removeContact(8);
+        index.close();
+
+        MessageSearchIndex reloaded = new MessageSearchIndex(this.indexDir);
+        assertFalse(reloaded.isBuildRequired());
+        assertArrayEquals(new long[]{built}, reloaded.search("history", 10).getLocations());
+        assertArrayEquals(new long[]{added}, reloaded.search("journal", 10).getLocations());
+        assertEquals(0, reloaded.search("deleted", 10).getTotalHits());
+        reloaded.close();
+    }
+
+
+    @Test
+    public void testLocationEncoding() {
+        long location = MessageSearchIndex.encodeLocation(9999, DIRECTION_TYPE.RECEIVED, 1234, 567);
+
+        assertEquals(9999, MessageSearchIndex.getContactNumber(location));
+        assertEquals(DIRECTION_TYPE.RECEIVED, MessageSearchIndex.getDirection(location));
+        assertEquals(1234, MessageSearchIndex.getBucket(location));
+        assertEquals(567, MessageSearchIndex.getFile(location));
+    }
+
+
+    private static Message message(String text, String time) throws Exception {
+        Message msg = new Message(new JsonObject());
+        msg.setMessage(text);
+        msg.setTime(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(time));
+        return msg;
+    }
+}
@@ -0,0 +1,65 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import org.cbitcoin.wallets.fullnode.daemon.CBTCClientCaller;
+import org.cbitcoin.wallets.fullnode.util.Util;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.Base64;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MessageSignatureVerifierTest {
+
+    // Produced by "bitcoin-cli signmessage" (Bitcoin Core rpc_signmessage test) - the format is the same as
+    // that of cbtcd, only the message magic differs
+    private static final String BITCOIN_MESSAGE_MAGIC = "Bitcoin Signed Message:\n";
+    private static final String DAEMON_ADDRESS = "mpLQjfK79b7CCV4VMJWEWAj5Mpx8Up5zxB";
+    private static final String DAEMON_MESSAGE = "This is just a test message";
+    private static final String DAEMON_SIGNATURE =
+            "INbVnW4e6PeRmsv2Qgu8NuopvrVjkcxob+sX8OcZG0SALhWybUjzMLPdAsXI46YZGb0KQTRii+wWIQzRpG/U+S0=";
+    // Another valid address with the same version byte
+    private static final String OTHER_ADDRESS = "mipcBbFg9gMiCh81Kj8tqqdgoZub1ZJRfn";
+
+    @Test
+    public void testDaemonSignatureIsVerified() throws Exception {
+        assertEquals(Boolean.TRUE, MessageSignatureVerifier.verifyMessage(
+                DAEMON_ADDRESS, DAEMON_SIGNATURE, DAEMON_MESSAGE, BITCOIN_MESSAGE_MAGIC));
+
+        assertEquals(Boolean.FALSE, MessageSignatureVerifier.verifyMessage(
+                DAEMON_ADDRESS, DAEMON_SIGNATURE, DAEMON_MESSAGE + ".", BITCOIN_MESSAGE_MAGIC));
+        assertEquals(Boolean.FALSE, MessageSignatureVerifier.verifyMessage(
+                OTHER_ADDRESS, DAEMON_SIGNATURE, DAEMON_MESSAGE, BITCOIN_MESSAGE_MAGIC));
+        // Signed with another magic
+        assertEquals(Boolean.FALSE, MessageSignatureVerifier.verifyMessage(
+                DAEMON_ADDRESS, DAEMON_SIGNATURE, DAEMON_MESSAGE));
+    }
+
+
+    @Test
+    public void testMalformedInputIsLeftToTheDaemon() throws Exception {
+        assertNull(MessageSignatureVerifier.verifyMessage(DAEMON_ADDRESS, "not base64!", "00"));
+        assertNull(MessageSignatureVerifier.verifyMessage(
+                DAEMON_ADDRESS, Base64.getEncoder().encodeToString(new byte[10]), "00"));
+        assertNull(MessageSignatureVerifier.verifyMessage("", DAEMON_SIGNATURE, "00"));
+    }
+
+
+    // Cross-check with the daemon - runs only if -Dcbtc.installdir=... points to a running installation
+    @Test
+    public void testResultMatchesVerifyMessageRPC() throws Exception {
+        String installDir = System.getProperty("cbtc.installdir");
+        Assume.assumeTrue(installDir != null);
+
+        CBTCClientCaller caller = new CBTCClientCaller(installDir);
+        String address = caller.createNewAddress(false);
+        String message = Util.encodeHexString("Cross-check message").toUpperCase();
+        String signature = caller.signMessage(address, message);
+
+        assertEquals(caller.verifyMessage(address, signature, message),
+                MessageSignatureVerifier.verifyMessage(address, signature, message));
+        assertEquals(caller.verifyMessage(address, signature, message + "00"),
+                MessageSignatureVerifier.verifyMessage(address, signature, message + "00"));
+    }
+}
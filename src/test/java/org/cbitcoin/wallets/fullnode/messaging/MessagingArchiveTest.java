@@ -0,0 +1,189 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import org.cbitcoin.wallets.fullnode.util.Util;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.cbitcoin.wallets.fullnode.messaging.MessagingTestData.contact;
+import static org.cbitcoin.wallets.fullnode.messaging.MessagingTestData.message;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MessagingArchiveTest {
+
+    private static final int CONTACTS = 5;
+    private static final int MESSAGES_PER_CONTACT = 30;
+
+    private File baseDir;
+    private File archive;
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.baseDir = Files.createTempDirectory("messaging").toFile();
+
+        MessagingStorage storage = new MessagingStorage(new File(this.baseDir, "source"));
+        storage.updateOwnIdentity(contact(99));
+        storage.addIgnoredContact(contact(98));
+        for (int i = 0; i < CONTACTS; i++) {
+            MessagingIdentity contact = contact(i);
+            storage.addContactIdentity(contact);
+            for (int m = 0; m < MESSAGES_PER_CONTACT; m++) {
+                storage.writeNewReceivedMessageForContact(contact,
+                        message(contact, Message.DIRECTION_TYPE.RECEIVED, m, "Message \u00e9 " + m, ""));
+            }
+        }
+
+        this.archive = new File(this.baseDir, "archive.zip");
+        final long[] lastProgress = new long[2];
+        storage.exportArchive(this.archive, new MessagingArchive.ProgressListener() {
+            @Override
+            public boolean update(long done, long total) {
+                lastProgress[0] = done;
+                lastProgress[1] = total;
+                return true;
+            }
+        });
+
+        assertEquals(CONTACTS, lastProgress[0]);
+        assertEquals(CONTACTS, lastProgress[1]);
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        Util.deleteDirectory(this.baseDir);
+    }
+
+
+    @Test
+    public void testExportAndRestore() throws Exception {
+        File targetDir = new File(this.baseDir, "messaging");
+        MessagingStorage target = new MessagingStorage(targetDir);
+        target.addContactIdentity(contact(50));
+
+        MessagingArchive.restore(this.archive, targetDir, null);
+
+        // Applied on next start - the previous data is kept
+        target = new MessagingStorage(targetDir);
+        assertFalse(MessagingArchive.getRestoreDir(targetDir).exists());
+        assertEquals(CONTACTS, target.getContactIdentities(true).size());
+        assertEquals("First99", target.getOwnIdentity().getFirstname());
+        assertNotNull(target.getIgnoredContactForMessage(
+                message(contact(98), Message.DIRECTION_TYPE.RECEIVED, 0, "ignored", "")));
+
+        List<Message> messages = target.getAllMessagesForContact(contact(3));
+        assertEquals(MESSAGES_PER_CONTACT, messages.size());
+        assertEquals("Message \u00e9 29", messages.get(MESSAGES_PER_CONTACT - 1).getMessage());
+
+        File[] previous = this.baseDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File pathname) {
+                return pathname.getName().startsWith("messaging_before_restore_");
+            }
+        });
+        assertEquals(1, previous.length);
+    }
+
+
+    @Test
+    public void testChangedArchiveIsRejected() throws Exception {
+        // A valid ZIP file with one message changed
+        File changed = new File(this.baseDir, "changed.zip");
+        ZipInputStream zipIn = new ZipInputStream(new FileInputStream(this.archive));
+        ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(changed));
+        ZipEntry entry;
+        while ((entry = zipIn.getNextEntry()) != null) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = zipIn.read(buffer)) > 0) {
+                content.write(buffer, 0, count);
+            }
+
+            byte[] data = content.toByteArray();
+            if (entry.getName().endsWith("received/0000/message_005.json")) {
+                data = new String(data, "UTF-8").replace("Message", "Massage").getBytes("UTF-8");
+            }
+            zipOut.putNextEntry(new ZipEntry(entry.getName()));
+            zipOut.write(data);
+            zipOut.closeEntry();
+        }
+        zipIn.close();
+        zipOut.close();
+
+        File targetDir = new File(this.baseDir, "messaging");
+        try {
+            MessagingArchive.restore(changed, targetDir, null);
+            fail("Changed archive restored");
+        } catch (IOException expected) {
+            // Nothing is left to be applied
+        }
+        assertFalse(MessagingArchive.getRestoreDir(targetDir).exists());
+
+        // Damaged compressed data
+        byte[] bytes = Files.readAllBytes(this.archive.toPath());
+        bytes[bytes.length / 2] ^= 0x55;
+        Files.write(changed.toPath(), bytes);
+        try {
+            MessagingArchive.restore(changed, targetDir, null);
+            fail("Damaged archive restored");
+        } catch (IOException expected) {
+            // Nothing is left to be applied
+        }
+        assertFalse(MessagingArchive.getRestoreDir(targetDir).exists());
+    }
+
+
+    @Test
+    public void testCancelledRestoreIsResumed() throws Exception {
+        File targetDir = new File(this.baseDir, "messaging");
+        final int[] updates = new int[1];
+        try {
+            MessagingArchive.restore(this.archive, targetDir, new MessagingArchive.ProgressListener() {
+                @Override
+                public boolean update(long done, long total) {
+                    return ++updates[0] < 50;
+                }
+            });
+            fail("Restore not cancelled");
+        } catch (InterruptedIOException expected) {
+            // Resumed below
+        }
+
+        // Files unpacked before the cancellation are not written again
+        File restoreDir = MessagingArchive.getRestoreDir(targetDir);
+        File unpacked = new File(restoreDir, "data/ownidentity.json");
+        assertTrue(unpacked.setLastModified(1000000000000L));
+
+        final long[] lastProgress = new long[2];
+        MessagingArchive.restore(this.archive, targetDir, new MessagingArchive.ProgressListener() {
+            @Override
+            public boolean update(long done, long total) {
+                lastProgress[0] = done;
+                lastProgress[1] = total;
+                return true;
+            }
+        });
+        assertEquals(1000000000000L, unpacked.lastModified());
+        assertEquals(this.archive.length(), lastProgress[1]);
+        assertTrue(lastProgress[0] > 0);
+
+        MessagingStorage target = new MessagingStorage(targetDir);
+        assertEquals(CONTACTS, target.getContactIdentities(true).size());
+        for (int i = 0; i < CONTACTS; i++) {
+            assertEquals(MESSAGES_PER_CONTACT, target.getAllMessagesForContact(contact(i)).size());
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import org.cbitcoin.wallets.fullnode.util.Log;
+import org.cbitcoin.wallets.fullnode.util.Util;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.cbitcoin.wallets.fullnode.messaging.MessagingTestData.contact;
+import static org.cbitcoin.wallets.fullnode.messaging.MessagingTestData.message;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class MessagingStorageConcurrencyTest {
+
+    private static final int CONTACTS = 4;
+    private static final int MESSAGES_PER_WRITER = 60;
+
+    private File rootDir;
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.rootDir = Files.createTempDirectory("messaging").toFile();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        Util.deleteDirectory(this.rootDir);
+    }
+
+
+    // Receiving and sending threads write to the same contacts while the GUI reads and new contacts are added
+    @Test
+    public void testConcurrentReceiveAndSend() throws Exception {
+        final MessagingStorage storage = new MessagingStorage(this.rootDir);
+        final List<MessagingIdentity> contacts = new ArrayList<MessagingIdentity>();
+        for (int i = 0; i < CONTACTS; i++) {
+            MessagingIdentity contact = contact(i);
+            storage.addContactIdentity(contact);
+            contacts.add(contact);
+        }
+
+        final AtomicBoolean writersDone = new AtomicBoolean(false);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> writers = new ArrayList<Future<?>>();
+        List<Future<?>> readers = new ArrayList<Future<?>>();
+
+        long start = System.currentTimeMillis();
+
+        for (final Message.DIRECTION_TYPE direction : Message.DIRECTION_TYPE.values()) {
+            for (final int writer : new int[] { 0, 1 }) {
+                writers.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i = 0; i < MESSAGES_PER_WRITER; i++) {
+                            MessagingIdentity contact = contacts.get(i % CONTACTS);
+                            Message msg = message(contact, direction, System.currentTimeMillis(), writer + "-" + i,
+                                    UUID.randomUUID().toString());
+                            if (direction == Message.DIRECTION_TYPE.SENT) {
+                                storage.writeNewSentMessageForContact(contact, msg);
+                            } else {
+                                storage.writeNewReceivedMessageForContact(contact, msg);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+        }
+
+        // New unknown senders and identity updates change the contact list meanwhile
+        writers.add(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                for (int i = 0; i < 20; i++) {
+                    storage.createAndStoreUnknownContactIdentity("t1Unknown" + String.format("%026d", i));
+
+                    MessagingIdentity contact = contacts.get(i % CONTACTS).getCloneCopy();
+                    contact.setFirstname("First" + i);
+                    storage.updateContactIdentityForSenderIDAddress(contact.getSenderidaddress(), contact);
+                }
+                return null;
+            }
+        }));
+
+        for (int r = 0; r < 2; r++) {
+            readers.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    while (!writersDone.get()) {
+                        List<MessagingIdentity> identities = storage.getContactIdentities(true);
+                        assertTrue(identities.size() >= CONTACTS);
+
+                        for (MessagingIdentity contact : contacts) {
+                            assertNotNull(storage.getContactIdentityForSenderIDAddress(contact.getSenderidaddress()));
+
+                            List<Message> messages = storage.getAllMessagesForContact(contact);
+                            for (int i = 1; i < messages.size(); i++) {
+                                assertTrue(messages.get(i - 1).getTime().compareTo(messages.get(i).getTime()) <= 0);
+                            }
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        for (Future<?> future : writers) {
+            future.get(60, TimeUnit.SECONDS); // Rethrows any failure
+        }
+        writersDone.set(true);
+        for (Future<?> future : readers) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        Log.info("Concurrent messaging storage test done in {0}ms.", System.currentTimeMillis() - start);
+
+        int totalMessages = 0;
+        for (MessagingIdentity contact : contacts) {
+            List<Message> messages = storage.getAllMessagesForContact(contact);
+            Set<String> texts = new HashSet<String>();
+            for (Message msg : messages) {
+                texts.add(msg.getDirection() + "/" + msg.getMessage());
+            }
+
+            // No message is lost or overwritten
+            assertEquals(messages.size(), texts.size());
+            totalMessages += messages.size();
+        }
+
+        assertEquals(Message.DIRECTION_TYPE.values().length * 2 * MESSAGES_PER_WRITER, totalMessages);
+        assertEquals(CONTACTS + 20, storage.getContactIdentities(true).size());
+
+        // Everything is still there after a reload from disk
+        MessagingStorage reloaded = new MessagingStorage(this.rootDir);
+        assertEquals(CONTACTS + 20, reloaded.getContactIdentities(true).size());
+        assertEquals("First19",
+                reloaded.getContactIdentityForSenderIDAddress(contacts.get(19 % CONTACTS).getSenderidaddress())
+                        .getFirstname());
+    }
+
+
+    @Test
+    public void testReturnedIdentitiesAreCopies() throws Exception {
+        MessagingStorage storage = new MessagingStorage(this.rootDir);
+        MessagingIdentity contact = contact(0);
+        storage.addContactIdentity(contact);
+
+        // Changing the identity passed or returned does not change the stored contact
+        contact.setNickname("changed");
+        storage.getContactIdentities(false).get(0).setFirstname("changed");
+
+        MessagingIdentity stored = storage.getContactIdentityForSenderIDAddress(contact.getSenderidaddress());
+        assertEquals("nick0", stored.getNickname());
+        assertEquals("First0", stored.getFirstname());
+    }
+}
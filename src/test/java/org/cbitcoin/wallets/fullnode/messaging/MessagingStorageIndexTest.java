@@ -0,0 +1,161 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import org.cbitcoin.wallets.fullnode.util.Util;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.cbitcoin.wallets.fullnode.messaging.MessagingTestData.contact;
+import static org.cbitcoin.wallets.fullnode.messaging.MessagingTestData.message;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class MessagingStorageIndexTest {
+
+    private static final String THREAD_ID = "3f2b8c1e-6d7a-4b9e-a1c3-5e8f0d2b7a64";
+
+    private File rootDir;
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.rootDir = Files.createTempDirectory("messaging").toFile();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        Util.deleteDirectory(this.rootDir);
+    }
+
+
+    @Test
+    public void testLookupByThreadIDAndGroupAddress() throws Exception {
+        MessagingStorage storage = new MessagingStorage(this.rootDir);
+        storage.createAndStoreAnonymousContactIdentity(THREAD_ID, "zcReturn");
+
+        MessagingIdentity group = contact(1);
+        group.setGroup(true);
+        group.setSendreceiveaddress("zcGroup");
+        storage.addContactIdentity(group);
+
+        // A normal contact with the same address is not a group
+        MessagingIdentity normal = contact(2);
+        normal.setSendreceiveaddress("zcGroup");
+        storage.addContactIdentity(normal);
+
+        assertEquals("zcReturn", storage.findAnonymousOrNormalContactIdentityByThreadID(THREAD_ID).getSendreceiveaddress());
+        assertNull(storage.findAnonymousOrNormalContactIdentityByThreadID("unknown-thread"));
+
+        MessagingIdentity changedGroup = group.getCloneCopy();
+        changedGroup.setFirstname("Renamed");
+        storage.updateGroupContactIdentityForSendReceiveAddress("zcGroup", changedGroup);
+        assertEquals("Renamed", storage.getContactIdentityForSenderIDAddress(group.getSenderidaddress()).getFirstname());
+        assertEquals("First2", storage.getContactIdentityForSenderIDAddress(normal.getSenderidaddress()).getFirstname());
+
+        // The indexes are built again when the contacts are loaded
+        storage = new MessagingStorage(this.rootDir);
+        assertNotNull(storage.findAnonymousOrNormalContactIdentityByThreadID(THREAD_ID));
+        assertEquals("Renamed", storage.getContactIdentityForSenderIDAddress(group.getSenderidaddress()).getFirstname());
+    }
+
+
+    @Test
+    public void testUpdateOfIndexedKey() throws Exception {
+        MessagingStorage storage = new MessagingStorage(this.rootDir);
+        MessagingIdentity contact = contact(0);
+        storage.addContactIdentity(contact);
+
+        MessagingIdentity changed = contact.getCloneCopy();
+        changed.setSenderidaddress("t1Changed");
+        storage.updateContactIdentityForSenderIDAddress(contact.getSenderidaddress(), changed);
+        assertNull(storage.getContactIdentityForSenderIDAddress(contact.getSenderidaddress()));
+        assertEquals("nick0", storage.getContactIdentityForSenderIDAddress("t1Changed").getNickname());
+
+        MessagingIdentity anonymous = storage.createAndStoreAnonymousContactIdentity(THREAD_ID, "zcReturn");
+        MessagingIdentity changedAnonymous = anonymous.getCloneCopy();
+        changedAnonymous.setThreadID("thread-changed");
+        storage.updateAnonymousContactIdentityForThreadID(THREAD_ID, changedAnonymous);
+        assertNull(storage.findAnonymousOrNormalContactIdentityByThreadID(THREAD_ID));
+        assertEquals(anonymous.getNickname(),
+                storage.findAnonymousOrNormalContactIdentityByThreadID("thread-changed").getNickname());
+    }
+
+
+    @Test
+    public void testDeleteContactRemovesIndexEntries() throws Exception {
+        MessagingStorage storage = new MessagingStorage(this.rootDir);
+        MessagingIdentity contact = contact(0);
+        contact.setThreadID(THREAD_ID);
+        storage.addContactIdentity(contact);
+
+        MessagingIdentity group = contact(1);
+        group.setGroup(true);
+        storage.addContactIdentity(group);
+
+        storage.deleteContact(contact);
+        storage.deleteContact(group);
+        assertNull(storage.getContactIdentityForSenderIDAddress(contact.getSenderidaddress()));
+        assertNull(storage.findAnonymousOrNormalContactIdentityByThreadID(THREAD_ID));
+        assertEquals(0, storage.getContactIdentities(true).size());
+
+        // Nothing is left to update
+        MessagingIdentity changedGroup = group.getCloneCopy();
+        changedGroup.setFirstname("Renamed");
+        storage.updateGroupContactIdentityForSendReceiveAddress(group.getSendreceiveaddress(), changedGroup);
+        assertNull(storage.getContactIdentityForSenderIDAddress(group.getSenderidaddress()));
+    }
+
+
+    @Test
+    public void testIgnoredContactCheck() throws Exception {
+        MessagingStorage storage = new MessagingStorage(this.rootDir);
+        MessagingIdentity ignored = contact(0);
+        storage.addIgnoredContact(ignored);
+
+        MessagingIdentity ignoredAnonymous = contact(5);
+        ignoredAnonymous.setAnonymous(true);
+        ignoredAnonymous.setThreadID(THREAD_ID);
+        ignoredAnonymous.setSenderidaddress("");
+        storage.addIgnoredContact(ignoredAnonymous);
+
+        Message fromIgnored = message(ignored, Message.DIRECTION_TYPE.RECEIVED, 1, "hello", "tx1");
+        Message fromOther = message(contact(1), Message.DIRECTION_TYPE.RECEIVED, 2, "hello", "tx2");
+        Message anonymous = message(contact(1), Message.DIRECTION_TYPE.RECEIVED, 3, "hello", "tx3");
+        anonymous.setAnonymous(true);
+        anonymous.setThreadID(THREAD_ID);
+
+        assertEquals("nick0", storage.getIgnoredContactForMessage(fromIgnored).getNickname());
+        assertNull(storage.getIgnoredContactForMessage(fromOther));
+        assertEquals(THREAD_ID, storage.getIgnoredContactForMessage(anonymous).getThreadID());
+
+        // Also when loaded again
+        storage = new MessagingStorage(this.rootDir);
+        assertNotNull(storage.getIgnoredContactForMessage(fromIgnored));
+        assertNotNull(storage.getIgnoredContactForMessage(anonymous));
+        assertNull(storage.getIgnoredContactForMessage(fromOther));
+    }
+
+
+    @Test
+    public void testFirstFreeNickname() throws Exception {
+        MessagingStorage storage = new MessagingStorage(this.rootDir);
+        MessagingIdentity first = storage.createAndStoreUnknownContactIdentity("t1Unknown0000000000000001");
+        assertEquals("Unknown_1", first.getNickname());
+        assertEquals("Unknown_2", storage.createAndStoreUnknownContactIdentity("t1Unknown0000000000000002").getNickname());
+
+        // A deleted nickname is free again
+        storage.deleteContact(storage.getContactIdentityForSenderIDAddress(first.getSenderidaddress()));
+        assertEquals("Unknown_1", storage.createAndStoreUnknownContactIdentity("t1Unknown0000000000000003").getNickname());
+
+        // Nicknames are compared regardless of case
+        MessagingIdentity contact = contact(0);
+        contact.setNickname("UNKNOWN_3");
+        storage.addContactIdentity(contact);
+        assertEquals("Unknown_4", storage.createAndStoreUnknownContactIdentity("t1Unknown0000000000000004").getNickname());
+    }
+}
@@ -0,0 +1,45 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import com.eclipsesource.json.JsonObject;
+
+
+/**
+ * Contacts and messages with all fields set, shared by the messaging storage tests.
+ */
+final class MessagingTestData {
+
+    private MessagingTestData() {
+    }
+
+
+    static MessagingIdentity contact(int number) {
+        MessagingIdentity contact = new MessagingIdentity();
+        contact.setNickname("nick" + number);
+        contact.setFirstname("First" + number);
+        contact.setSenderidaddress("t1Sender" + String.format("%027d", number));
+        contact.setSendreceiveaddress("zcReceive" + number);
+        contact.setMiddlename("");
+        contact.setSurname("");
+        contact.setEmail("");
+        contact.setStreetaddress("");
+        contact.setFacebook("");
+        contact.setTwitter("");
+        return contact;
+    }
+
+
+    static Message message(MessagingIdentity sender, Message.DIRECTION_TYPE direction, long time, String text,
+                           String transactionID) {
+        JsonObject obj = new JsonObject();
+        obj.set("ver", 1);
+        obj.set("from", sender.getSenderidaddress());
+        obj.set("message", text);
+        obj.set("sign", "");
+        obj.set("transactionID", transactionID);
+        obj.set("time", time);
+        obj.set("direction", direction.toString());
+        obj.set("verification", Message.VERIFICATION_TYPE.UNVERIFIED.toString());
+        obj.set("isanonymous", false);
+        return new Message(obj);
+    }
+}
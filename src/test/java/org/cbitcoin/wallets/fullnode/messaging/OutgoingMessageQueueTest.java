@@ -0,0 +1,249 @@
+package org.cbitcoin.wallets.fullnode.messaging;
+
+import com.eclipsesource.json.JsonObject;
+import org.cbitcoin.wallets.fullnode.util.Util;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OutgoingMessageQueueTest {
+
+    private File queueFile;
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.queueFile = File.createTempFile("outgoing_queue", ".json");
+        this.queueFile.delete();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        this.queueFile.delete();
+    }
+
+
+    @Test
+    public void testBatchHasOneMessagePerRecipient() throws Exception {
+        OutgoingMessageQueue queue = new OutgoingMessageQueue(this.queueFile);
+        OutgoingMessageQueue.QueuedMessage toAlice1 = queued("zcAlice", "1");
+        OutgoingMessageQueue.QueuedMessage toBob = queued("zcBob", "2");
+        OutgoingMessageQueue.QueuedMessage toAlice2 = queued("zcAlice", "3");
+        OutgoingMessageQueue.QueuedMessage toCarol = queued("zcCarol", "4");
+        for (OutgoingMessageQueue.QueuedMessage msg : Arrays.asList(toAlice1, toBob, toAlice2, toCarol)) {
+            queue.add(msg);
+        }
+
+        List<OutgoingMessageQueue.QueuedMessage> batch = queue.getNextBatch(10);
+        assertEquals(Arrays.asList(toAlice1, toBob, toCarol), batch);
+        assertEquals(Arrays.asList(toAlice1, toBob), queue.getNextBatch(2));
+
+        queue.markSending(batch, "opid-1");
+        assertEquals(Arrays.asList(toAlice2), queue.getNextBatch(10));
+        assertEquals(batch, queue.getSendingBatches().get("opid-1"));
+
+        queue.remove(batch);
+        assertEquals(1, queue.size());
+        assertTrue(queue.getSendingBatches().isEmpty());
+    }
+
+
+    @Test
+    public void testSkippedMessageIsNotOvertaken() throws Exception {
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longText.append("chunk text ");
+        }
+
+        OutgoingMessageQueue queue = new OutgoingMessageQueue(this.queueFile);
+        OutgoingMessageQueue.QueuedMessage toBob = queued("zcBob", "1");
+        OutgoingMessageQueue.QueuedMessage firstChunk = queued("zcAlice", longText.toString(), "chunks-1");
+        OutgoingMessageQueue.QueuedMessage secondChunk = queued("zcAlice", "end", "chunks-1");
+        OutgoingMessageQueue.QueuedMessage toCarol = queued("zcCarol", "2");
+        for (OutgoingMessageQueue.QueuedMessage msg : Arrays.asList(toBob, firstChunk, secondChunk, toCarol)) {
+            queue.add(msg);
+        }
+
+        // The first chunk does not fit in the memo limit - the second one must wait for it
+        assertEquals(Arrays.asList(toBob, toCarol), queue.getNextBatch(10, 10, 100));
+
+        // Same for a message skipped by the limit of single messages
+        assertEquals(Arrays.asList(toBob), queue.getNextBatch(1, 10, Integer.MAX_VALUE));
+    }
+
+
+    @Test
+    public void testQueueSurvivesRestart() throws Exception {
+        OutgoingMessageQueue queue = new OutgoingMessageQueue(this.queueFile);
+        queue.add(queued("zcAlice", "pending"));
+        OutgoingMessageQueue.QueuedMessage sending = queued("zcBob", "sending");
+        queue.add(sending);
+        queue.markSending(Arrays.asList(sending), "opid-2");
+
+        OutgoingMessageQueue reloaded = new OutgoingMessageQueue(this.queueFile);
+        assertEquals(2, reloaded.size());
+        assertEquals("zcAlice", reloaded.getNextBatch(10).get(0).getToAddress());
+        assertEquals("zcBob", reloaded.getSendingBatches().get("opid-2").get(0).getToAddress());
+        assertEquals(Util.encodeHexString("sending"), reloaded.getSendingBatches().get("opid-2").get(0).getMemoHex());
+    }
+
+
+    @Test
+    public void testBroadcastIsSentInFewTransactions() throws Exception {
+        OutgoingMessageQueue queue = new OutgoingMessageQueue(this.queueFile);
+        queue.add(queued("zcSingle", "single"));
+
+        List<OutgoingMessageQueue.QueuedMessage> broadcast = new ArrayList<OutgoingMessageQueue.QueuedMessage>();
+        for (int i = 0; i < 120; i++) {
+            broadcast.add(queued("zcRecipient" + i, "hello"));
+        }
+        queue.addBroadcast(broadcast, Collections.<MessagingIdentity>emptyList());
+
+        // Single messages are limited to maxMessages, broadcast messages fill the transaction
+        assertEquals(10, queue.getNextBatch(10).size());
+        int memoHexChars = Util.encodeHexString("single").length() + 4 * Util.encodeHexString("hello").length();
+        assertEquals(5, queue.getNextBatch(10, 54, memoHexChars).size());
+
+        int transactions = 0;
+        List<OutgoingMessageQueue.QueuedMessage> batch;
+        while (!(batch = queue.getNextBatch(10, 54, Integer.MAX_VALUE)).isEmpty()) {
+            assertTrue(batch.size() <= 54);
+            queue.markSending(batch, "opid-" + transactions);
+            queue.remove(batch);
+            transactions++;
+        }
+        assertEquals(3, transactions);
+        assertEquals(0, queue.size());
+    }
+
+
+    @Test
+    public void testBroadcastRecipientStates() throws Exception {
+        OutgoingMessageQueue queue = new OutgoingMessageQueue(this.queueFile);
+
+        // A long message for Alice in two chunks, Carol cannot receive it
+        OutgoingMessageQueue.QueuedMessage toAlice1 = new OutgoingMessageQueue.QueuedMessage(
+                queued("zcAlice", "x").getContact(), null, Util.encodeHexString("chunk1"), "chunk-id");
+        OutgoingMessageQueue.QueuedMessage toAlice2 = new OutgoingMessageQueue.QueuedMessage(
+                queued("zcAlice", "x").getContact(), new JsonObject(), Util.encodeHexString("chunk2"), "chunk-id");
+        OutgoingMessageQueue.QueuedMessage toBob = queued("zcBob", "hello");
+        MessagingIdentity carol = queued("zcCarol", "x").getContact();
+        String id = queue.addBroadcast(Arrays.asList(toAlice1, toAlice2, toBob), Arrays.asList(carol));
+
+        OutgoingMessageQueue.BroadcastStatus status = queue.getBroadcastStatus(id);
+        assertEquals(3, status.getRecipientCount());
+        assertEquals(OutgoingMessageQueue.RECIPIENT_STATE.PENDING, status.getRecipientState("zcAlice"));
+        assertEquals(OutgoingMessageQueue.RECIPIENT_STATE.FAILED, status.getRecipientState("zcCarol"));
+
+        List<OutgoingMessageQueue.QueuedMessage> batch = queue.getNextBatch(10, 54, Integer.MAX_VALUE);
+        assertEquals(Arrays.asList(toAlice1, toBob), batch);
+        queue.markSending(batch, "opid-1");
+        assertEquals(OutgoingMessageQueue.RECIPIENT_STATE.SENDING,
+                queue.getBroadcastStatus(id).getRecipientState("zcBob"));
+
+        // Alice has got only the first chunk
+        queue.remove(batch);
+        status = queue.getBroadcastStatus(id);
+        assertEquals(OutgoingMessageQueue.RECIPIENT_STATE.PENDING, status.getRecipientState("zcAlice"));
+        assertEquals(OutgoingMessageQueue.RECIPIENT_STATE.SENT, status.getRecipientState("zcBob"));
+        assertFalse(status.isComplete());
+
+        batch = queue.getNextBatch(10, 54, Integer.MAX_VALUE);
+        assertEquals(Arrays.asList(toAlice2), batch);
+        queue.markSending(batch, "opid-2");
+
+        // The states survive a restart
+        OutgoingMessageQueue reloaded = new OutgoingMessageQueue(this.queueFile);
+        assertEquals(OutgoingMessageQueue.RECIPIENT_STATE.SENDING,
+                reloaded.getBroadcastStatus(id).getRecipientState("zcAlice"));
+        assertEquals(id, reloaded.getSendingBatches().get("opid-2").get(0).getBroadcastID());
+
+        reloaded.markFailed(reloaded.getSendingBatches().get("opid-2"), "Insufficient funds", false);
+        status = reloaded.getBroadcastStatus(id);
+        assertEquals(OutgoingMessageQueue.RECIPIENT_STATE.FAILED, status.getRecipientState("zcAlice"));
+        assertEquals(1, status.getCount(OutgoingMessageQueue.RECIPIENT_STATE.SENT));
+        assertEquals(2, status.getCount(OutgoingMessageQueue.RECIPIENT_STATE.FAILED));
+        assertTrue(status.isComplete());
+    }
+
+
+    @Test
+    public void testFailedMessagesAreKeptUntilTheUserDecides() throws Exception {
+        OutgoingMessageQueue queue = new OutgoingMessageQueue(this.queueFile);
+        OutgoingMessageQueue.QueuedMessage toAlice = queued("zcAlice", "1");
+        // A long message to Bob - the second chunk must not go out without the first
+        OutgoingMessageQueue.QueuedMessage toBob1 = queued("zcBob", "2a", "chunk-1");
+        OutgoingMessageQueue.QueuedMessage toBob2 = queued("zcBob", "2b", "chunk-1");
+        queue.addAll(Arrays.asList(toAlice, toBob1, toBob2));
+
+        List<OutgoingMessageQueue.QueuedMessage> batch = queue.getNextBatch(10);
+        assertEquals(Arrays.asList(toAlice, toBob1), batch);
+        queue.markSending(batch, "opid-1");
+        queue.markFailed(batch, "Operation opid-1 is unknown to cbtcd", true);
+
+        assertTrue(queue.getNextBatch(10).isEmpty());
+        assertTrue(queue.getSendingBatches().isEmpty());
+        assertEquals(3, queue.size());
+
+        // Survives a restart
+        OutgoingMessageQueue reloaded = new OutgoingMessageQueue(this.queueFile);
+        List<OutgoingMessageQueue.QueuedMessage> failed = reloaded.getFailedMessages();
+        assertEquals(3, failed.size());
+        assertEquals(OutgoingMessageQueue.STATE.FAILED, failed.get(0).getState());
+        assertEquals("Operation opid-1 is unknown to cbtcd", failed.get(0).getErrorMessage());
+        assertTrue(failed.get(2).isOutcomeUnknown());
+
+        reloaded.retryFailed();
+        assertTrue(reloaded.getFailedMessages().isEmpty());
+        assertEquals(2, reloaded.getNextBatch(10).size());
+
+        reloaded.markFailed(reloaded.getNextBatch(10), "Insufficient funds", false);
+        assertFalse(reloaded.getFailedMessages().get(0).isOutcomeUnknown());
+        reloaded.discardFailed();
+        assertEquals(0, reloaded.size());
+        assertEquals(0, new OutgoingMessageQueue(this.queueFile).size());
+    }
+
+
+    @Test
+    public void testQueueOfOlderVersionIsRead() throws Exception {
+        OutgoingMessageQueue.QueuedMessage msg = queued("zcAlice", "old");
+        Files.write(this.queueFile.toPath(), ("[" + msg.toJSONObject().toString() + "]").getBytes("UTF-8"));
+
+        OutgoingMessageQueue queue = new OutgoingMessageQueue(this.queueFile);
+        assertEquals(1, queue.size());
+        assertEquals("zcAlice", queue.getNextBatch(10).get(0).getToAddress());
+    }
+
+
+    private static OutgoingMessageQueue.QueuedMessage queued(String address, String text) throws Exception {
+        return queued(address, text, null);
+    }
+
+
+    private static OutgoingMessageQueue.QueuedMessage queued(String address, String text, String chunkID)
+            throws Exception {
+        MessagingIdentity contact = new MessagingIdentity();
+        contact.setNickname("nick-" + address);
+        contact.setSenderidaddress("B" + address);
+        contact.setSendreceiveaddress(address);
+
+        JsonObject message = new JsonObject();
+        message.set("ver", 1d);
+        message.set("message", text);
+
+        return new OutgoingMessageQueue.QueuedMessage(contact, message, Util.encodeHexString(text), chunkID);
+    }
+}